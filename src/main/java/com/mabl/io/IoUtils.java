@@ -1,40 +1,244 @@
 package com.mabl.io;
 
-import java.io.BufferedReader;
+import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
 import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
+/**
+ * Reads PAC scripts and other text resources into strings.
+ * <p>
+ * Content is read into a byte buffer and decoded in one step. The charset is taken from a byte order mark if one is
+ * present, otherwise from the charset parameter of the HTTP {@code Content-Type} header, and otherwise defaults to
+ * UTF-8. Every read is bounded by a maximum size so that a misconfigured or malicious source cannot exhaust the heap,
+ * and URLs are read with connect and read timeouts so that an unresponsive server cannot block the caller indefinitely.
+ * </p>
+ */
 public class IoUtils {
+    public static final Duration DEFAULT_CONNECT_TIMEOUT = Duration.ofSeconds(10);
+    public static final Duration DEFAULT_READ_TIMEOUT = Duration.ofSeconds(30);
+    public static final int DEFAULT_MAX_SIZE = 16 * 1024 * 1024;
+    private static final int BUFFER_SIZE = 8192;
+    private static final byte[] UTF_8_BOM = {(byte) 0xEF, (byte) 0xBB, (byte) 0xBF};
+    private static final byte[] UTF_16BE_BOM = {(byte) 0xFE, (byte) 0xFF};
+    private static final byte[] UTF_16LE_BOM = {(byte) 0xFF, (byte) 0xFE};
+
     public static String readClasspathFileToString(final String path) throws IOException {
         try (final InputStream resourceIn = IoUtils.class.getResourceAsStream(path)) {
+            if (resourceIn == null) {
+                throw new FileNotFoundException(String.format("Classpath resource not found: %s", path));
+            }
             return readInputStreamToString(resourceIn);
         }
     }
 
     public static String readUrlToString(final URL pacUrl) throws IOException {
-        try (final InputStream urlIn = pacUrl.openConnection().getInputStream()) {
-            return readInputStreamToString(urlIn);
+        return readUrlToString(pacUrl, DEFAULT_CONNECT_TIMEOUT, DEFAULT_READ_TIMEOUT, DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * Reads the content of the given URL, transparently decompressing gzip or deflate encoded HTTP responses.
+     *
+     * @param pacUrl         the URL to read.
+     * @param connectTimeout the maximum time to wait for a connection to be established.
+     * @param readTimeout    the maximum time to wait for data once connected.
+     * @param maxSize        the maximum size of the (decompressed) content in bytes.
+     * @return the decoded content.
+     * @throws IOException if the content cannot be read, exceeds the maximum size or a timeout elapses.
+     */
+    public static String readUrlToString(final URL pacUrl, final Duration connectTimeout, final Duration readTimeout,
+                                         final int maxSize) throws IOException {
+        final URLConnection connection = pacUrl.openConnection();
+        connection.setConnectTimeout(toTimeoutMillis(connectTimeout));
+        connection.setReadTimeout(toTimeoutMillis(readTimeout));
+        connection.setRequestProperty("Accept-Encoding", "gzip, deflate");
+        try {
+            final long contentLength = connection.getContentLengthLong();
+            final String contentEncoding = connection.getContentEncoding();
+            // A compressed body can be larger than its (compressed) Content-Length, so only check uncompressed bodies:
+            if (contentEncoding == null && contentLength > maxSize) {
+                throw tooLarge(pacUrl.toString(), maxSize);
+            }
+            try (final InputStream urlIn = decode(connection.getInputStream(), contentEncoding)) {
+                final int sizeHint = contentEncoding == null && contentLength > 0 ? (int) contentLength : BUFFER_SIZE;
+                final ByteBuffer content = readBounded(urlIn, sizeHint, maxSize, pacUrl.toString());
+                return decode(content, charsetOf(connection.getContentType()));
+            }
+        } finally {
+            if (connection instanceof HttpURLConnection) {
+                ((HttpURLConnection) connection).disconnect();
+            }
         }
     }
 
     public static String readFileToString(final File file) throws IOException {
-        try (final InputStream fileIn = new FileInputStream(file)) {
-            return readInputStreamToString(fileIn);
+        return readFileToString(file, DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * Reads the content of the given file through a {@link FileChannel}.
+     *
+     * @param file    the file to read.
+     * @param maxSize the maximum size of the file in bytes.
+     * @return the decoded content.
+     * @throws IOException if the file cannot be read or exceeds the maximum size.
+     */
+    public static String readFileToString(final File file, final int maxSize) throws IOException {
+        try (final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            final long size = channel.size();
+            if (size > maxSize) {
+                throw tooLarge(file.toString(), maxSize);
+            }
+            // Some files (e.g. in /proc) report a size of zero, so the buffer may still have to grow:
+            ByteBuffer buffer = ByteBuffer.allocate(size > 0 ? (int) size + 1 : BUFFER_SIZE);
+            while (channel.read(buffer) >= 0) {
+                if (!buffer.hasRemaining()) {
+                    buffer = grow(buffer, maxSize, file.toString());
+                }
+            }
+            buffer.flip();
+            return decode(buffer, null);
         }
     }
 
     public static String readInputStreamToString(final InputStream in) throws IOException {
-        final StringBuffer buffer = new StringBuffer();
-        try (final BufferedReader utilsIn = new BufferedReader(new InputStreamReader(in))) {
-            String line;
-            while ((line = utilsIn.readLine()) != null) {
-                buffer.append(line).append("\n");
+        return readInputStreamToString(in, DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * Reads the given stream to its end and closes it.
+     *
+     * @param in      the stream to read.
+     * @param maxSize the maximum number of bytes to read.
+     * @return the decoded content.
+     * @throws IOException if the stream cannot be read or exceeds the maximum size.
+     */
+    public static String readInputStreamToString(final InputStream in, final int maxSize) throws IOException {
+        try (final InputStream streamIn = in) {
+            return decode(readBounded(streamIn, BUFFER_SIZE, maxSize, "Input stream"), null);
+        }
+    }
+
+    private static ByteBuffer readBounded(final InputStream in, final int sizeHint, final int maxSize,
+                                          final String source) throws IOException {
+        // One extra byte so that content of exactly sizeHint bytes is read without growing the buffer:
+        ByteBuffer buffer = ByteBuffer.allocate(Math.min(sizeHint, maxSize) + 1);
+        int read;
+        while ((read = in.read(buffer.array(), buffer.position(), buffer.remaining())) >= 0) {
+            buffer.position(buffer.position() + read);
+            if (!buffer.hasRemaining()) {
+                buffer = grow(buffer, maxSize, source);
             }
         }
-        return buffer.toString();
+        buffer.flip();
+        return buffer;
+    }
+
+    private static ByteBuffer grow(final ByteBuffer buffer, final int maxSize, final String source) throws IOException {
+        if (buffer.capacity() > maxSize) {
+            throw tooLarge(source, maxSize);
+        }
+        final int capacity = (int) Math.min((long) maxSize + 1, 2L * buffer.capacity());
+        final ByteBuffer grown = ByteBuffer.wrap(Arrays.copyOf(buffer.array(), capacity));
+        grown.position(buffer.position());
+        return grown;
+    }
+
+    private static InputStream decode(final InputStream in, final String contentEncoding) throws IOException {
+        if (contentEncoding == null) {
+            return in;
+        }
+        switch (contentEncoding.trim().toLowerCase(Locale.ROOT)) {
+            case "gzip":
+            case "x-gzip":
+                return new GZIPInputStream(in, BUFFER_SIZE);
+            case "deflate":
+                // "deflate" should be zlib-wrapped, but some servers send raw deflate data:
+                final BufferedInputStream bufferedIn = new BufferedInputStream(in, BUFFER_SIZE);
+                bufferedIn.mark(2);
+                final int cmf = bufferedIn.read();
+                final int flg = bufferedIn.read();
+                bufferedIn.reset();
+                final boolean zlib = (cmf & 0x0F) == 8 && ((cmf << 8) | flg) % 31 == 0;
+                return new InflaterInputStream(bufferedIn, new Inflater(!zlib), BUFFER_SIZE);
+            case "identity":
+                return in;
+            default:
+                in.close();
+                throw new IOException(String.format("Unsupported content encoding: %s", contentEncoding));
+        }
+    }
+
+    private static String decode(final ByteBuffer content, final Charset declaredCharset) {
+        final byte[] bytes = content.array();
+        final int length = content.limit();
+        if (startsWith(bytes, length, UTF_8_BOM)) {
+            return new String(bytes, UTF_8_BOM.length, length - UTF_8_BOM.length, StandardCharsets.UTF_8);
+        }
+        if (startsWith(bytes, length, UTF_16BE_BOM)) {
+            return new String(bytes, UTF_16BE_BOM.length, length - UTF_16BE_BOM.length, StandardCharsets.UTF_16BE);
+        }
+        if (startsWith(bytes, length, UTF_16LE_BOM)) {
+            return new String(bytes, UTF_16LE_BOM.length, length - UTF_16LE_BOM.length, StandardCharsets.UTF_16LE);
+        }
+        return new String(bytes, 0, length, declaredCharset != null ? declaredCharset : StandardCharsets.UTF_8);
+    }
+
+    private static boolean startsWith(final byte[] bytes, final int length, final byte[] prefix) {
+        if (length < prefix.length) {
+            return false;
+        }
+        for (int ii = 0; ii < prefix.length; ii++) {
+            if (bytes[ii] != prefix[ii]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static Charset charsetOf(final String contentType) {
+        if (contentType == null) {
+            return null;
+        }
+        for (final String parameter : contentType.split(";")) {
+            final String[] nameAndValue = parameter.trim().split("=", 2);
+            if (nameAndValue.length == 2 && "charset".equalsIgnoreCase(nameAndValue[0].trim())) {
+                final String charsetName = nameAndValue[1].trim().replace("\"", "");
+                try {
+                    return Charset.forName(charsetName);
+                } catch (IllegalArgumentException e) {
+                    // Unknown or illegal charset name, fall back to the default:
+                    return null;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static int toTimeoutMillis(final Duration timeout) {
+        if (timeout == null || timeout.isNegative()) {
+            throw new IllegalArgumentException("Timeout must not be null or negative");
+        }
+        // URLConnection interprets zero as "no timeout":
+        return (int) Math.min(Integer.MAX_VALUE, timeout.toMillis());
+    }
+
+    private static IOException tooLarge(final String source, final int maxSize) {
+        return new IOException(String.format("%s exceeds the maximum size of %d bytes", source, maxSize));
     }
 }
@@ -0,0 +1,377 @@
+package com.mabl.net.proxy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.MalformedURLException;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A {@link PacInterpreter} decorator that caches results.
+ * <p>
+ * Each result is cached until the earlier of its time-to-live and the validity deadline reported by the delegate's
+ * {@link PacInterpreter#evaluate(String, String)}, so results of PAC scripts that call weekdayRange, dateRange or
+ * timeRange are never served after the instant at which they could have changed.
+ * </p>
+ * <p>
+ * By default results are keyed by both URL and host. If the PAC only depends on the host, use
+ * {@link Builder#hostOnly(boolean)} to share results between all URLs with the same host. Evaluations on behalf of a
+ * client address are additionally keyed by that address.
+ * </p>
+ * <p>
+ * For caches of millions of hosts, {@link Builder#offHeap(boolean)} keeps the entries out of the Java heap.
+ * </p>
+ * <p>
+ * With {@link Builder#snapshot(Path, Duration)}, the cached results are saved to a file when the interpreter is closed
+ * (and optionally periodically), and restored when the next interpreter is built, provided that it uses the same PAC.
+ * </p>
+ * <p>
+ * If the delegate's PAC changes, e.g. because it is a {@link ReloadablePacInterpreter} that was reloaded, the cached
+ * results are discarded by the next evaluation or snapshot. Each evaluation compares the delegate's PAC with the one the
+ * results were computed from by reference, and only compares the text when the reference has changed.
+ * </p>
+ */
+public class CachingPacInterpreter implements PacInterpreter {
+    private static final Logger logger = LoggerFactory.getLogger(CachingPacInterpreter.class);
+    private static final char KEY_SEPARATOR = '\n';
+    private final PacInterpreter delegate;
+    private final ResultCache cache;
+    private final Clock clock;
+    private final Duration timeToLive;
+    private final boolean hostOnly;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final Path snapshotFile;
+    private final PacReloadScheduler.ScheduledReload snapshots;
+    private volatile String cachedPac; // The PAC from which the cached results were computed
+
+    protected CachingPacInterpreter(final Builder builder) {
+        this.delegate = builder.delegate;
+        this.cache = builder.offHeap ? new OffHeapResultCache(builder.maximumSize) : new OnHeapResultCache(builder.maximumSize);
+        this.clock = builder.clock;
+        this.timeToLive = builder.timeToLive;
+        this.hostOnly = builder.hostOnly;
+        this.snapshotFile = builder.snapshotFile;
+        this.cachedPac = delegate.getPac();
+        if (snapshotFile != null) {
+            restoreSnapshot();
+        }
+        this.snapshots = builder.snapshotInterval == null ? null
+                : PacReloadScheduler.defaultInstance().schedule(snapshotFile, builder.snapshotInterval, this::saveSnapshotQuietly);
+    }
+
+    /**
+     * Creates a builder for a caching interpreter that decorates the given interpreter.
+     *
+     * @param delegate the interpreter whose results are cached.
+     * @return a new builder.
+     */
+    public static Builder newBuilder(final PacInterpreter delegate) {
+        return new Builder(delegate);
+    }
+
+    /**
+     * Gets the number of evaluations served from the cache.
+     *
+     * @return the number of cache hits.
+     */
+    public long hits() {
+        return hits.sum();
+    }
+
+    /**
+     * Gets the number of evaluations delegated because no unexpired result was cached.
+     *
+     * @return the number of cache misses.
+     */
+    public long misses() {
+        return misses.sum();
+    }
+
+    /**
+     * Gets the approximate number of cached results.
+     *
+     * @return the number of cached results.
+     */
+    public long size() {
+        return cache.size();
+    }
+
+    /**
+     * Removes all cached results.
+     */
+    public void invalidateAll() {
+        cache.clear();
+    }
+
+    /**
+     * Saves the cached results to the snapshot file, replacing any previous snapshot. If the delegate's PAC has changed
+     * since the results were cached, they are discarded instead and the snapshot is left as it was.
+     *
+     * @return the number of results saved.
+     * @throws IOException           if the snapshot cannot be written.
+     * @throws IllegalStateException if the interpreter was not built with a snapshot file.
+     */
+    public synchronized int saveSnapshot() throws IOException {
+        if (snapshotFile == null) {
+            throw new IllegalStateException("No snapshot file was configured for this interpreter");
+        }
+        final String pac = cachedPac;
+        final String currentPac = delegate.getPac();
+        if (!Objects.equals(currentPac, pac)) {
+            pacChanged(currentPac);
+            logger.debug("Not saving cached results to \"{}\" as the PAC has changed", snapshotFile);
+            return 0;
+        }
+        final long start = System.nanoTime();
+        final int saved = ResultCacheSnapshot.write(snapshotFile, cache, pac, hostOnly, clock.millis());
+        logger.debug("Saved {} cached results to \"{}\" in {} ms", saved, snapshotFile, (System.nanoTime() - start) / 1_000_000);
+        return saved;
+    }
+
+    private void saveSnapshotQuietly() {
+        try {
+            saveSnapshot();
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Failed to save cached results to \"" + snapshotFile + "\": " + e, e);
+        }
+    }
+
+    private void restoreSnapshot() {
+        final long start = System.nanoTime();
+        try {
+            final int restored = ResultCacheSnapshot.read(snapshotFile, cache, cachedPac, hostOnly, clock.millis());
+            if (restored > 0) {
+                logger.info("Restored {} cached results from \"{}\" in {} ms", restored, snapshotFile, (System.nanoTime() - start) / 1_000_000);
+            }
+        } catch (IOException | RuntimeException e) {
+            // Start with an empty cache rather than fail: the snapshot is only an optimization
+            logger.warn("Failed to restore cached results from \"" + snapshotFile + "\": " + e, e);
+        }
+    }
+
+    @Override
+    public String getPac() {
+        return delegate.getPac();
+    }
+
+    @Override
+    public FindProxyResult findProxyForUrl(final String url) throws MalformedURLException, PacInterpreterException {
+        return findProxyForUrl(url, PacUrls.hostOf(url));
+    }
+
+    @Override
+    public FindProxyResult findProxyForUrl(final String url, final String host) throws PacInterpreterException {
+        return evaluate(url, host).result();
+    }
+
+    @Override
+    public PacEvaluation evaluate(final String url, final String host) throws PacInterpreterException {
+        return evaluate(url, host, null);
+    }
+
+    @Override
+    public PacEvaluation evaluate(final String url, final String host, final InetAddress clientAddress) throws PacInterpreterException {
+        final String key = cacheKey(url, host, ClientAddresses.keyAddress(delegate, clientAddress));
+        final String pac = delegate.getPac();
+        if (pac != cachedPac) {
+            pacChanged(pac);
+        }
+        final long now = clock.millis();
+        final ResultCache.Entry entry = cache.get(key, now);
+        if (entry != null) {
+            hits.increment();
+            return PacEvaluation.cached(entry.result(), entry.expiresAtMillis());
+        }
+        misses.increment();
+        final PacEvaluation evaluation = delegate.evaluate(url, host, clientAddress);
+        final long expiresAt = expiresAt(evaluation, now);
+        // Unless the PAC changed during the evaluation, which may then have used either PAC:
+        if (expiresAt > now && pac == cachedPac) {
+            cache.put(key, evaluation.result(), expiresAt);
+        }
+        return evaluation;
+    }
+
+    @Override
+    public boolean supportsClientAddress() {
+        return delegate.supportsClientAddress();
+    }
+
+    @Override
+    public void close() {
+        if (snapshots != null) {
+            snapshots.cancel();
+        }
+        if (snapshotFile != null) {
+            saveSnapshotQuietly();
+        }
+        delegate.close();
+    }
+
+    /**
+     * Discards the cached results if they were computed from a PAC other than the given one.
+     */
+    private synchronized void pacChanged(final String pac) {
+        if (!Objects.equals(pac, cachedPac)) {
+            logger.debug("Discarding {} cached results as the PAC has changed", cache.size());
+            cache.clear();
+        }
+        cachedPac = pac;
+    }
+
+    private long expiresAt(final PacEvaluation evaluation, final long now) {
+        long expiresAt = Long.MAX_VALUE;
+        if (timeToLive != null) {
+            expiresAt = saturatedAdd(now, timeToLive.toMillis());
+        }
+        if (evaluation.validUntil().isPresent()) {
+            expiresAt = Math.min(expiresAt, evaluation.validUntil().get().toEpochMilli());
+        }
+        return expiresAt;
+    }
+
+    private String cacheKey(final String url, final String host, final InetAddress clientAddress) {
+        final String key = hostOnly
+                ? (host == null ? "" : host)
+                : (url == null ? "" : url) + KEY_SEPARATOR + (host == null ? "" : host);
+        return clientAddress == null ? key : clientAddress.getHostAddress() + KEY_SEPARATOR + key;
+    }
+
+    private static long saturatedAdd(final long a, final long b) {
+        final long sum = a + b;
+        // Overflow iff both operands have the same sign and the sum has a different sign:
+        return ((a ^ sum) & (b ^ sum)) < 0 ? Long.MAX_VALUE : sum;
+    }
+
+    /**
+     * Builder for {@link CachingPacInterpreter}.
+     */
+    public static class Builder {
+        private final PacInterpreter delegate;
+        private long maximumSize = 10_000;
+        private Duration timeToLive;
+        private boolean hostOnly;
+        private boolean offHeap;
+        private Path snapshotFile;
+        private Duration snapshotInterval;
+        private Clock clock = Clock.systemUTC();
+
+        private Builder(final PacInterpreter delegate) {
+            if (delegate == null) {
+                throw new IllegalArgumentException("Delegate interpreter must not be null");
+            }
+            this.delegate = delegate;
+        }
+
+        /**
+         * Sets the maximum number of cached results. Least recently used results are evicted first.
+         *
+         * @param maximumSize the maximum number of results (must be positive).
+         * @return this builder.
+         */
+        public Builder maximumSize(final long maximumSize) {
+            if (maximumSize <= 0) {
+                throw new IllegalArgumentException("Maximum size must be positive");
+            }
+            this.maximumSize = maximumSize;
+            return this;
+        }
+
+        /**
+         * Sets how long results are cached, regardless of whether they depend on the time.
+         *
+         * @param timeToLive the time-to-live, or null to cache time-independent results until evicted.
+         * @return this builder.
+         */
+        public Builder timeToLive(final Duration timeToLive) {
+            if (timeToLive != null && (timeToLive.isNegative() || timeToLive.isZero())) {
+                throw new IllegalArgumentException("Time-to-live must be positive");
+            }
+            this.timeToLive = timeToLive;
+            return this;
+        }
+
+        /**
+         * Sets whether results are keyed by host alone, which is only correct if the PAC ignores the URL.
+         *
+         * @param hostOnly true to key results by host; false to key by URL and host (the default).
+         * @return this builder.
+         */
+        public Builder hostOnly(final boolean hostOnly) {
+            this.hostOnly = hostOnly;
+            return this;
+        }
+
+        /**
+         * Sets whether results are cached outside the Java heap, for caches of millions of entries that would otherwise
+         * lengthen garbage collection pauses. The off-heap memory (16 bytes per entry of the maximum size) is allocated
+         * up front, entries are evicted approximately (rather than strictly) least recently used, and their expiry is
+         * rounded down to a whole second.
+         *
+         * @param offHeap true to cache results off-heap; false to cache them on the heap (the default).
+         * @return this builder.
+         */
+        public Builder offHeap(final boolean offHeap) {
+            this.offHeap = offHeap;
+            return this;
+        }
+
+        /**
+         * Sets a file to which the cached results are saved when the interpreter is closed, and from which they are
+         * restored when it is built if the file was saved for the same PAC (by SHA-256 hash of its content) and the same
+         * {@link #hostOnly(boolean)} setting. Expired results are neither saved nor restored. A snapshot that cannot be
+         * read is ignored, and the interpreter starts with an empty cache.
+         * <p>
+         * Results saved by an off-heap cache can only be restored into another off-heap cache, as it stores the hashes
+         * of the hosts rather than the hosts themselves.
+         * </p>
+         *
+         * @param snapshotFile the snapshot file, or null to not save the cached results (the default).
+         * @param interval     the period with which the cached results are also saved while the interpreter is open, or
+         *                     null to only save them when it is closed.
+         * @return this builder.
+         */
+        public Builder snapshot(final Path snapshotFile, final Duration interval) {
+            if (interval != null && (interval.isNegative() || interval.isZero())) {
+                throw new IllegalArgumentException("Snapshot interval must be positive");
+            }
+            if (snapshotFile == null && interval != null) {
+                throw new IllegalArgumentException("Snapshot file must not be null if an interval is given");
+            }
+            this.snapshotFile = snapshotFile;
+            this.snapshotInterval = interval;
+            return this;
+        }
+
+        /**
+         * Sets the clock used to expire results. This should agree with the clock used by the delegate interpreter
+         * (see {@link PacInterpreterOptions.Builder#clock(Clock)}).
+         *
+         * @param clock the clock.
+         * @return this builder.
+         */
+        public Builder clock(final Clock clock) {
+            if (clock == null) {
+                throw new IllegalArgumentException("Clock must not be null");
+            }
+            this.clock = clock;
+            return this;
+        }
+
+        /**
+         * Creates the {@link CachingPacInterpreter}.
+         *
+         * @return the caching interpreter.
+         */
+        public CachingPacInterpreter build() {
+            return new CachingPacInterpreter(this);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.mabl.net.proxy;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A lock-free circuit breaker which opens after a number of consecutive failures.
+ * <p>
+ * While open, {@link #tryAcquire(long)} rejects all calls. Once the open interval has elapsed the breaker is half-open:
+ * a single probe call is admitted, and its outcome either closes the breaker or opens it for another interval.
+ * </p>
+ */
+final class CircuitBreaker {
+    private static final long CLOSED = Long.MIN_VALUE;
+    private final int failureThreshold;
+    private final long openMillis;
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private final AtomicBoolean probing = new AtomicBoolean();
+    private volatile long openUntilMillis = CLOSED;
+
+    CircuitBreaker(final int failureThreshold, final long openMillis) {
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+    }
+
+    /**
+     * Tests whether a call may proceed. If this returns true, the outcome of the call must be reported with
+     * {@link #onSuccess()} or {@link #onFailure(long)}.
+     *
+     * @param nowMillis the current time in milliseconds.
+     * @return true if the breaker is closed, or if it is half-open and this call is the probe.
+     */
+    boolean tryAcquire(final long nowMillis) {
+        final long openUntil = openUntilMillis;
+        if (openUntil == CLOSED) {
+            return true;
+        }
+        if (nowMillis < openUntil) {
+            return false;
+        }
+        return probing.compareAndSet(false, true);
+    }
+
+    void onSuccess() {
+        consecutiveFailures.set(0);
+        openUntilMillis = CLOSED;
+        probing.set(false);
+    }
+
+    /**
+     * Records a failed call, opening the breaker if the failure threshold has been reached or the call was the probe.
+     *
+     * @param nowMillis the current time in milliseconds.
+     * @return true if the breaker was opened (or reopened) by this failure.
+     */
+    boolean onFailure(final long nowMillis) {
+        if (consecutiveFailures.incrementAndGet() >= failureThreshold || probing.get()) {
+            openUntilMillis = nowMillis + openMillis;
+            probing.set(false);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Tests whether calls are currently being rejected.
+     *
+     * @param nowMillis the current time in milliseconds.
+     * @return true if the breaker is open and the open interval has not yet elapsed.
+     */
+    boolean isOpen(final long nowMillis) {
+        final long openUntil = openUntilMillis;
+        return openUntil != CLOSED && nowMillis < openUntil;
+    }
+}
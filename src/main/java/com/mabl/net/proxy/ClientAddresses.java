@@ -0,0 +1,43 @@
+package com.mabl.net.proxy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetAddress;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Client address utilities for PAC evaluation.
+ */
+final class ClientAddresses {
+    private static final Logger logger = LoggerFactory.getLogger(ClientAddresses.class);
+    private static final Set<Class<?>> warnedClasses = ConcurrentHashMap.newKeySet();
+
+    private ClientAddresses() {
+    }
+
+    /**
+     * Logs a warning, once per interpreter class, that a client address was ignored because the interpreter does not
+     * support client addresses (see {@link PacInterpreter#supportsClientAddress()}).
+     *
+     * @param interpreterClass the class of the interpreter which ignored the client address.
+     */
+    static void ignored(final Class<?> interpreterClass) {
+        if (warnedClasses.add(interpreterClass)) {
+            logger.warn("{} does not support client addresses; myIpAddress() returns its local address instead",
+                    interpreterClass.getName());
+        }
+    }
+
+    /**
+     * Gets the client address by which an evaluation's result should be keyed, e.g. in a cache.
+     *
+     * @param delegate      the interpreter which performs the evaluation.
+     * @param clientAddress the client address of the evaluation, or null.
+     * @return the client address, or null if there is none or the delegate ignores it.
+     */
+    static InetAddress keyAddress(final PacInterpreter delegate, final InetAddress clientAddress) {
+        return clientAddress != null && delegate.supportsClientAddress() ? clientAddress : null;
+    }
+}
@@ -0,0 +1,221 @@
+package com.mabl.net.proxy;
+
+import java.net.InetAddress;
+import java.net.MalformedURLException;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A {@link PacInterpreter} decorator that coalesces identical concurrent evaluations, so that a burst of calls for the
+ * same URL and host (e.g. when the cached result for a popular host expires, or after a reload) evaluates the PAC once.
+ * <p>
+ * The first caller for a key evaluates it with the delegate; callers for the same key that arrive while that evaluation
+ * is in progress wait for its result rather than each borrowing a context and repeating any DNS lookups. If the
+ * evaluation fails, each waiting caller gets a {@link PacInterpreterException} caused by the failure. A waiting caller
+ * gives up after the timeout. Nothing is retained once an evaluation completes: combine this with a
+ * {@link CachingPacInterpreter} (wrapped around this interpreter) to also reuse results over time.
+ * </p>
+ * <p>
+ * As with {@link CachingPacInterpreter}, evaluations are keyed by URL and host unless {@link Builder#hostOnly(boolean)}
+ * is set, and additionally by client address.
+ * </p>
+ */
+public class CoalescingPacInterpreter implements PacInterpreter {
+    public static final Duration DEFAULT_TIMEOUT = Duration.ofSeconds(10);
+    private static final char KEY_SEPARATOR = '\n';
+    private final PacInterpreter delegate;
+    private final long timeoutNanos;
+    private final boolean hostOnly;
+    private final ConcurrentMap<String, CompletableFuture<PacEvaluation>> inFlight = new ConcurrentHashMap<>();
+    private final LongAdder evaluations = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+
+    protected CoalescingPacInterpreter(final Builder builder) {
+        this.delegate = builder.delegate;
+        this.timeoutNanos = builder.timeout.toNanos();
+        this.hostOnly = builder.hostOnly;
+    }
+
+    /**
+     * Creates a builder for a coalescing interpreter that decorates the given interpreter.
+     *
+     * @param delegate the interpreter whose evaluations are coalesced.
+     * @return a new builder.
+     */
+    public static Builder newBuilder(final PacInterpreter delegate) {
+        return new Builder(delegate);
+    }
+
+    /**
+     * Gets the number of evaluations delegated.
+     *
+     * @return the number of evaluations.
+     */
+    public long evaluations() {
+        return evaluations.sum();
+    }
+
+    /**
+     * Gets the number of calls that waited for the evaluation of another caller instead of evaluating, i.e. the number
+     * of evaluations saved.
+     *
+     * @return the number of coalesced calls.
+     */
+    public long coalesced() {
+        return coalesced.sum();
+    }
+
+    /**
+     * Gets the number of coalesced calls that gave up waiting for an evaluation.
+     *
+     * @return the number of timeouts.
+     */
+    public long timeouts() {
+        return timeouts.sum();
+    }
+
+    /**
+     * Gets the number of evaluations currently in progress.
+     *
+     * @return the number of keys being evaluated.
+     */
+    public int inFlight() {
+        return inFlight.size();
+    }
+
+    @Override
+    public String getPac() {
+        return delegate.getPac();
+    }
+
+    @Override
+    public FindProxyResult findProxyForUrl(final String url) throws MalformedURLException, PacInterpreterException {
+        return findProxyForUrl(url, PacUrls.hostOf(url));
+    }
+
+    @Override
+    public FindProxyResult findProxyForUrl(final String url, final String host) throws PacInterpreterException {
+        return evaluate(url, host).result();
+    }
+
+    @Override
+    public PacEvaluation evaluate(final String url, final String host) throws PacInterpreterException {
+        return evaluate(url, host, null);
+    }
+
+    @Override
+    public PacEvaluation evaluate(final String url, final String host, final InetAddress clientAddress) throws PacInterpreterException {
+        final String key = key(url, host, ClientAddresses.keyAddress(delegate, clientAddress));
+        final CompletableFuture<PacEvaluation> future = new CompletableFuture<>();
+        final CompletableFuture<PacEvaluation> existing = inFlight.putIfAbsent(key, future);
+        if (existing != null) {
+            coalesced.increment();
+            return await(existing, host);
+        }
+        evaluations.increment();
+        try {
+            final PacEvaluation evaluation = delegate.evaluate(url, host, clientAddress);
+            future.complete(evaluation);
+            return evaluation;
+        } catch (PacInterpreterException | RuntimeException | Error e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, future);
+        }
+    }
+
+    @Override
+    public boolean supportsClientAddress() {
+        return delegate.supportsClientAddress();
+    }
+
+    @Override
+    public void close() {
+        delegate.close();
+    }
+
+    private PacEvaluation await(final CompletableFuture<PacEvaluation> future, final String host) throws PacInterpreterException {
+        try {
+            return future.get(timeoutNanos, TimeUnit.NANOSECONDS);
+        } catch (ExecutionException e) {
+            // A new exception, so that the stack trace shows this caller as well as the evaluating one:
+            final Throwable cause = e.getCause();
+            throw new PacInterpreterException(cause instanceof PacInterpreterException ? cause.getMessage()
+                    : "PAC evaluation failed for " + host + ": " + cause, cause);
+        } catch (TimeoutException e) {
+            timeouts.increment();
+            throw new PacInterpreterException(String.format("Timed out after %d ms waiting for the evaluation of %s",
+                    TimeUnit.NANOSECONDS.toMillis(timeoutNanos), host));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PacInterpreterException("Interrupted while waiting for the evaluation of " + host, e);
+        }
+    }
+
+    private String key(final String url, final String host, final InetAddress clientAddress) {
+        final String key = hostOnly
+                ? (host == null ? "" : host)
+                : (url == null ? "" : url) + KEY_SEPARATOR + (host == null ? "" : host);
+        return clientAddress == null ? key : clientAddress.getHostAddress() + KEY_SEPARATOR + key;
+    }
+
+    /**
+     * Builder for {@link CoalescingPacInterpreter}.
+     */
+    public static class Builder {
+        private final PacInterpreter delegate;
+        private Duration timeout = DEFAULT_TIMEOUT;
+        private boolean hostOnly;
+
+        private Builder(final PacInterpreter delegate) {
+            if (delegate == null) {
+                throw new IllegalArgumentException("Delegate interpreter must not be null");
+            }
+            this.delegate = delegate;
+        }
+
+        /**
+         * Sets how long a caller waits for an evaluation started by another caller before failing. The evaluation itself
+         * is not interrupted.
+         *
+         * @param timeout the timeout (must be positive).
+         * @return this builder.
+         */
+        public Builder timeout(final Duration timeout) {
+            if (timeout == null || timeout.isNegative() || timeout.isZero()) {
+                throw new IllegalArgumentException("Timeout must be positive");
+            }
+            this.timeout = timeout;
+            return this;
+        }
+
+        /**
+         * Sets whether evaluations are keyed by host alone, so that concurrent calls for different URLs with the same
+         * host share an evaluation, which is only correct if the PAC ignores the URL.
+         *
+         * @param hostOnly true to key evaluations by host; false to key by URL and host (the default).
+         * @return this builder.
+         */
+        public Builder hostOnly(final boolean hostOnly) {
+            this.hostOnly = hostOnly;
+            return this;
+        }
+
+        /**
+         * Creates the {@link CoalescingPacInterpreter}.
+         *
+         * @return the coalescing interpreter.
+         */
+        public CoalescingPacInterpreter build() {
+            return new CoalescingPacInterpreter(this);
+        }
+    }
+}
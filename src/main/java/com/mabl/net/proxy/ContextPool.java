@@ -0,0 +1,209 @@
+package com.mabl.net.proxy;
+
+import org.graalvm.polyglot.Context;
+import org.graalvm.polyglot.Value;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded pool of initialized GraalVM contexts.
+ * <p>
+ * A GraalVM JavaScript {@link Context} may only be used by one thread at a time, so each evaluation borrows a context
+ * from the pool and returns it afterwards. Contexts are created lazily, up to the maximum pool size, when all existing
+ * contexts are in use; beyond that, callers wait for a context to be returned.
+ * </p>
+ */
+final class ContextPool implements AutoCloseable {
+    // How often a waiting borrower re-checks whether the pool has been closed:
+    private static final long BORROW_POLL_MILLIS = 100;
+    // The number of open contexts across all pools in the JVM, for diagnostics:
+    private static final AtomicInteger liveContexts = new AtomicInteger();
+    private final ContextFactory contextFactory;
+    private final int maxSize;
+    private final BlockingQueue<PacContext> idleContexts = new LinkedBlockingQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicLong estimatedBytes = new AtomicLong();
+    private volatile boolean closed;
+
+    ContextPool(final ContextFactory contextFactory, final int maxSize) {
+        if (contextFactory == null) {
+            throw new IllegalArgumentException("Context factory cannot be null");
+        }
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("Max size must be positive");
+        }
+        this.contextFactory = contextFactory;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Eagerly creates the first context so that errors in the PAC surface immediately.
+     *
+     * @throws PacInterpreterException if the context cannot be initialized.
+     */
+    void prestart() throws PacInterpreterException {
+        release(borrow());
+    }
+
+    /**
+     * Borrows a context, creating one if none are idle and the pool is not full, or waiting for one to be released.
+     *
+     * @return the borrowed context which must be passed to {@link #release(PacContext)} when no longer in use.
+     * @throws PacInterpreterException if the pool is closed, a new context cannot be initialized, or the calling
+     *                                 thread is interrupted while waiting.
+     */
+    PacContext borrow() throws PacInterpreterException {
+        checkOpen();
+        PacContext context = idleContexts.poll();
+        if (context != null) {
+            return context;
+        }
+        if (reserve()) {
+            try {
+                context = contextFactory.create();
+                liveContexts.incrementAndGet();
+                estimatedBytes.addAndGet(context.estimatedBytes());
+                return context;
+            } catch (PacInterpreterException | RuntimeException e) {
+                size.decrementAndGet();
+                throw e;
+            }
+        }
+        try {
+            while ((context = idleContexts.poll(BORROW_POLL_MILLIS, TimeUnit.MILLISECONDS)) == null) {
+                checkOpen();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PacInterpreterException("Interrupted while waiting for a PAC context", e);
+        }
+        return context;
+    }
+
+    /**
+     * Returns a borrowed context to the pool (or closes it if the pool has been closed).
+     *
+     * @param context the context to release.
+     */
+    void release(final PacContext context) {
+        if (closed) {
+            discard(context);
+            return;
+        }
+        idleContexts.add(context);
+        if (closed && idleContexts.remove(context)) {
+            // The pool was closed concurrently and may have already drained the idle contexts:
+            discard(context);
+        }
+    }
+
+    /**
+     * Gets the number of contexts currently owned by the pool (idle or borrowed).
+     *
+     * @return the number of contexts.
+     */
+    int size() {
+        return size.get();
+    }
+
+    /**
+     * Gets the estimated heap retained by the contexts currently owned by the pool.
+     *
+     * @return the sum of the contexts' estimated sizes in bytes.
+     */
+    long estimatedBytes() {
+        return estimatedBytes.get();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        PacContext context;
+        while ((context = idleContexts.poll()) != null) {
+            discard(context);
+        }
+    }
+
+    private void discard(final PacContext context) {
+        context.close();
+        size.decrementAndGet();
+        estimatedBytes.addAndGet(-context.estimatedBytes());
+        liveContexts.decrementAndGet();
+    }
+
+    /**
+     * Gets the number of contexts that are currently open across all pools.
+     *
+     * @return the number of open contexts.
+     */
+    static int liveContexts() {
+        return liveContexts.get();
+    }
+
+    private boolean reserve() {
+        while (true) {
+            final int current = size.get();
+            if (current >= maxSize) {
+                return false;
+            }
+            if (size.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    private void checkOpen() throws PacInterpreterException {
+        if (closed) {
+            throw new PacInterpreterException("PAC interpreter has been closed");
+        }
+    }
+
+    /**
+     * Creates and initializes a new context.
+     */
+    @FunctionalInterface
+    interface ContextFactory {
+        PacContext create() throws PacInterpreterException;
+    }
+
+    /**
+     * An initialized context together with its JavaScript bindings and a reference to the PAC function evaluated within it.
+     */
+    static final class PacContext {
+        private final Context context;
+        private final Value bindings;
+        private final Value findProxyForUrlFunction;
+        private final long estimatedBytes;
+
+        PacContext(final Context context, final Value bindings, final Value findProxyForUrlFunction, final long estimatedBytes) {
+            this.context = context;
+            this.bindings = bindings;
+            this.findProxyForUrlFunction = findProxyForUrlFunction;
+            this.estimatedBytes = estimatedBytes;
+        }
+
+        Context context() {
+            return context;
+        }
+
+        Value bindings() {
+            return bindings;
+        }
+
+        Value findProxyForUrlFunction() {
+            return findProxyForUrlFunction;
+        }
+
+        long estimatedBytes() {
+            return estimatedBytes;
+        }
+
+        void close() {
+            context.close();
+        }
+    }
+}
@@ -7,7 +7,7 @@ import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
-import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.stream.Collectors;
 
 /**
@@ -15,7 +15,6 @@ import java.util.stream.Collectors;
  */
 public class FindProxyResult implements Iterable<FindProxyDirective> {
     private static final String PROXY_RESULT_SEPARATOR = ";";
-    private static final Random random = new Random();
     private final List<FindProxyDirective> directives;
 
     private FindProxyResult(final List<FindProxyDirective> directives) {
@@ -85,7 +84,33 @@ public class FindProxyResult implements Iterable<FindProxyDirective> {
      * @return a random directive.
      */
     public FindProxyDirective random() {
-        return get(random.nextInt(size()));
+        return get(ThreadLocalRandom.current().nextInt(size()));
+    }
+
+    /**
+     * Chooses the proxy directive to use with the given strategy, e.g. skipping proxies that are known to be down.
+     *
+     * @param strategy the selection strategy.
+     * @return the chosen directive.
+     */
+    public FindProxyDirective select(final ProxySelectionStrategy strategy) {
+        if (strategy == null) {
+            throw new IllegalArgumentException("Strategy must not be null");
+        }
+        return strategy.select(this);
+    }
+
+    /**
+     * Orders the proxy directives with the given strategy, e.g. to fail over from one proxy to the next.
+     *
+     * @param strategy the selection strategy.
+     * @return all directives, in the order in which they should be tried.
+     */
+    public List<FindProxyDirective> order(final ProxySelectionStrategy strategy) {
+        if (strategy == null) {
+            throw new IllegalArgumentException("Strategy must not be null");
+        }
+        return strategy.order(this);
     }
 
     /**
@@ -0,0 +1,134 @@
+package com.mabl.net.proxy;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A fixed-size, thread-safe histogram of latencies in nanoseconds.
+ * <p>
+ * Values are counted in log-linear buckets (16 buckets per power of two), so percentiles are accurate to within about
+ * 6% regardless of magnitude while recording is a single atomic increment.
+ * </p>
+ */
+final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+
+    /**
+     * Records a latency.
+     *
+     * @param nanos the latency in nanoseconds (negative values are recorded as zero).
+     */
+    void record(final long nanos) {
+        final long value = Math.max(0, nanos);
+        counts.incrementAndGet(bucketOf(value));
+        count.increment();
+        sum.add(value);
+    }
+
+    long count() {
+        return count.sum();
+    }
+
+    long meanNanos() {
+        final long n = count.sum();
+        return n == 0 ? 0 : sum.sum() / n;
+    }
+
+    /**
+     * Estimates the given percentile.
+     *
+     * @param percentile the percentile, between 0 and 100 (e.g. 99.9).
+     * @return the estimated latency in nanoseconds, or zero if nothing has been recorded.
+     */
+    long percentileNanos(final double percentile) {
+        final long[] snapshot = new long[BUCKETS];
+        long total = 0;
+        for (int ii = 0; ii < BUCKETS; ii++) {
+            snapshot[ii] = counts.get(ii);
+            total += snapshot[ii];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        final long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+        long cumulative = 0;
+        for (int ii = 0; ii < BUCKETS; ii++) {
+            cumulative += snapshot[ii];
+            if (cumulative >= rank) {
+                return midpointOf(ii);
+            }
+        }
+        return midpointOf(BUCKETS - 1);
+    }
+
+    long maxNanos() {
+        for (int ii = BUCKETS - 1; ii >= 0; ii--) {
+            if (counts.get(ii) > 0) {
+                return upperBoundOf(ii);
+            }
+        }
+        return 0;
+    }
+
+    void reset() {
+        for (int ii = 0; ii < BUCKETS; ii++) {
+            counts.set(ii, 0);
+        }
+        count.reset();
+        sum.reset();
+    }
+
+    /**
+     * Formats the count, mean and common percentiles, e.g. for a report.
+     *
+     * @return the summary.
+     */
+    String summary() {
+        return String.format("count=%d mean=%s p50=%s p90=%s p99=%s p99.9=%s max=%s", count(),
+                format(meanNanos()), format(percentileNanos(50)), format(percentileNanos(90)),
+                format(percentileNanos(99)), format(percentileNanos(99.9)), format(maxNanos()));
+    }
+
+    static String format(final long nanos) {
+        if (nanos < TimeUnit.MICROSECONDS.toNanos(10)) {
+            return nanos + "ns";
+        }
+        if (nanos < TimeUnit.MILLISECONDS.toNanos(10)) {
+            return String.format("%.1fus", nanos / 1e3);
+        }
+        return String.format("%.1fms", nanos / 1e6);
+    }
+
+    static int bucketOf(final long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        final int exponent = 63 - Long.numberOfLeadingZeros(value);
+        final int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    static long lowerBoundOf(final int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        final int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        final long subBucket = bucket % SUB_BUCKETS;
+        return (SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS);
+    }
+
+    private static long upperBoundOf(final int bucket) {
+        return bucket + 1 < BUCKETS ? lowerBoundOf(bucket + 1) - 1 : Long.MAX_VALUE;
+    }
+
+    private static long midpointOf(final int bucket) {
+        final long lower = lowerBoundOf(bucket);
+        return lower + (upperBoundOf(bucket) - lower) / 2;
+    }
+}
@@ -0,0 +1,148 @@
+package com.mabl.net.proxy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.function.Supplier;
+
+/**
+ * Supplies the local IP address returned by the PAC function myIpAddress().
+ * <p>
+ * The address is determined by enumerating the network interfaces (never by a reverse DNS lookup of the local host
+ * name, which can take seconds in containers) and is cached, being refreshed at most once per refresh interval. A
+ * refresh is performed by whichever caller first observes that the cached address is stale; concurrent callers
+ * continue to receive the previous address in the meantime.
+ * </p>
+ * <p>
+ * The preferred address is the first IPv4 address of an interface that is up and is not a loopback, link-local or
+ * virtual interface, falling back to any non-loopback address and finally to the loopback address.
+ * </p>
+ */
+public class LocalAddressCache implements Supplier<InetAddress> {
+    private static final Logger logger = LoggerFactory.getLogger(LocalAddressCache.class);
+    public static final Duration DEFAULT_REFRESH_INTERVAL = Duration.ofMinutes(1);
+    private static final LocalAddressCache defaultInstance = new LocalAddressCache(DEFAULT_REFRESH_INTERVAL, Clock.systemUTC());
+    private final long refreshIntervalMillis;
+    private final Clock clock;
+    private final Object refreshLock = new Object();
+    private volatile InetAddress address;
+    private volatile long refreshedAtMillis;
+
+    protected LocalAddressCache(final Duration refreshInterval, final Clock clock) {
+        if (refreshInterval == null || refreshInterval.isNegative()) {
+            throw new IllegalArgumentException("Refresh interval must not be null or negative");
+        }
+        if (clock == null) {
+            throw new IllegalArgumentException("Clock must not be null");
+        }
+        this.refreshIntervalMillis = refreshInterval.toMillis();
+        this.clock = clock;
+    }
+
+    /**
+     * Gets the JVM-wide instance with the default refresh interval.
+     *
+     * @return the default instance.
+     */
+    public static LocalAddressCache defaultInstance() {
+        return defaultInstance;
+    }
+
+    /**
+     * Creates a cache with the given refresh interval.
+     *
+     * @param refreshInterval how long the address is cached before the network interfaces are enumerated again.
+     * @return a new cache.
+     */
+    public static LocalAddressCache withRefreshInterval(final Duration refreshInterval) {
+        return new LocalAddressCache(refreshInterval, Clock.systemUTC());
+    }
+
+    /**
+     * Gets the (possibly cached) local address.
+     *
+     * @return the local address.
+     */
+    @Override
+    public InetAddress get() {
+        final InetAddress current = address;
+        if (current != null && clock.millis() - refreshedAtMillis < refreshIntervalMillis) {
+            return current;
+        }
+        if (current == null) {
+            // Nothing cached yet, so every caller has to wait for the first enumeration:
+            synchronized (refreshLock) {
+                if (address == null) {
+                    refresh();
+                }
+                return address;
+            }
+        }
+        // Stale: refresh unless another thread is already doing so, in which case serve the previous address:
+        synchronized (this) {
+            if (clock.millis() - refreshedAtMillis >= refreshIntervalMillis) {
+                // Mark as fresh first so that other callers don't queue up behind this refresh:
+                refreshedAtMillis = clock.millis();
+            } else {
+                return address;
+            }
+        }
+        synchronized (refreshLock) {
+            refresh();
+        }
+        return address;
+    }
+
+    private void refresh() {
+        InetAddress refreshed;
+        try {
+            refreshed = lookupLocalAddress();
+        } catch (SocketException e) {
+            logger.warn("Failed to enumerate network interfaces: {}", e.toString());
+            refreshed = address != null ? address : InetAddress.getLoopbackAddress();
+        }
+        if (!refreshed.equals(address)) {
+            logger.debug("Local address for myIpAddress(): {}", refreshed.getHostAddress());
+        }
+        address = refreshed;
+        refreshedAtMillis = clock.millis();
+    }
+
+    /**
+     * Determines the current local address; called whenever the cached address is refreshed.
+     *
+     * @return the local address.
+     * @throws SocketException if the network interfaces cannot be enumerated.
+     */
+    protected InetAddress lookupLocalAddress() throws SocketException {
+        return findLocalAddress();
+    }
+
+    static InetAddress findLocalAddress() throws SocketException {
+        InetAddress fallback = null;
+        for (final NetworkInterface networkInterface : Collections.list(NetworkInterface.getNetworkInterfaces())) {
+            if (!networkInterface.isUp() || networkInterface.isLoopback() || networkInterface.isVirtual()) {
+                continue;
+            }
+            for (final InetAddress candidate : Collections.list(networkInterface.getInetAddresses())) {
+                if (candidate.isLoopbackAddress() || candidate.isLinkLocalAddress() || candidate.isAnyLocalAddress()) {
+                    continue;
+                }
+                if (candidate instanceof Inet4Address) {
+                    return candidate;
+                }
+                if (fallback == null) {
+                    fallback = candidate;
+                }
+            }
+        }
+        return fallback != null ? fallback : InetAddress.getLoopbackAddress();
+    }
+}
@@ -0,0 +1,351 @@
+package com.mabl.net.proxy;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * A bounded {@link ResultCache} which keeps its entries outside the Java heap, for caches of millions of keys.
+ * <p>
+ * A PAC yields only a few distinct results, so each result is interned in a small on-heap array and an entry is just a
+ * 64-bit hash of its key, the ordinal of its result and its expiry, stored in a 16 byte slot of a direct
+ * {@link ByteBuffer}. The garbage collector therefore never has to trace the entries, however many there are. Keys are
+ * not stored: two keys whose hashes collide share an entry, which for 64-bit hashes is vanishingly unlikely even for
+ * hundreds of millions of keys.
+ * </p>
+ * <p>
+ * Slots are grouped into buckets of {@value #BUCKET_SLOTS} (i.e. open addressing with a bounded probe sequence), and a
+ * full bucket evicts an entry with the CLOCK algorithm: the first entry that has not been read since the clock hand last
+ * passed it (expired entries are never marked as read, so they are evicted first). Buckets are split across
+ * independently locked stripes, each with its own buffer; writes take the stripe's lock, and reads are optimistic and
+ * only lock if they race with a write.
+ * </p>
+ * <p>
+ * Expiry times are stored in whole seconds, rounded down, so entries may expire up to a second early but never late.
+ * If a PAC yields more than {@value #MAXIMUM_RESULTS} distinct results, further results are not cached until the cache is
+ * cleared.
+ * </p>
+ */
+final class OffHeapResultCache implements ResultCache {
+    static final int BUCKET_SLOTS = 8;
+    static final int MAXIMUM_RESULTS = 0xFFFF;
+    private static final int STRIPES = 64;
+    private static final int INITIAL_RESULTS = 8;
+    private static final int SLOT_BYTES = 16;
+    private static final int BUCKET_BYTES = BUCKET_SLOTS * SLOT_BYTES;
+    // Slot layout: hash (0 if the slot is empty), expiry in seconds since the epoch (unsigned), result ordinal
+    // (unsigned), referenced flag, and a spare byte:
+    private static final int HASH_OFFSET = 0;
+    private static final int EXPIRY_OFFSET = 8;
+    private static final int ORDINAL_OFFSET = 12;
+    private static final int REFERENCED_OFFSET = 14;
+    private static final long EMPTY = 0;
+    private static final int NEVER_EXPIRES = -1; // 0xFFFFFFFF
+    private final Stripe[] stripes = new Stripe[STRIPES];
+    private final int bucketsPerStripe;
+    private final LongAdder size = new LongAdder();
+    private final Map<FindProxyResult, Character> ordinals = new ConcurrentHashMap<>();
+    private volatile FindProxyResult[] results = new FindProxyResult[INITIAL_RESULTS];
+    private int resultCount; // Guarded by ordinals, as are all writes to results
+
+    OffHeapResultCache(final long maximumSize) {
+        if (maximumSize <= 0) {
+            throw new IllegalArgumentException("Maximum size must be positive");
+        }
+        final long buckets = Math.max(1, (maximumSize + BUCKET_SLOTS - 1) / BUCKET_SLOTS);
+        final long bucketsPerStripe = Math.max(1, (buckets + STRIPES - 1) / STRIPES);
+        if (bucketsPerStripe > Integer.MAX_VALUE / BUCKET_BYTES) {
+            throw new IllegalArgumentException("Maximum size must be at most " + (long) STRIPES * (Integer.MAX_VALUE / BUCKET_BYTES) * BUCKET_SLOTS);
+        }
+        this.bucketsPerStripe = (int) bucketsPerStripe;
+        for (int ii = 0; ii < STRIPES; ii++) {
+            stripes[ii] = new Stripe(this.bucketsPerStripe);
+        }
+    }
+
+    /**
+     * Gets the number of bytes allocated outside the heap for the entries.
+     *
+     * @return the off-heap size in bytes.
+     */
+    long offHeapBytes() {
+        return (long) STRIPES * bucketsPerStripe * BUCKET_BYTES;
+    }
+
+    @Override
+    public Entry get(final String key, final long nowMillis) {
+        final long hash = hash(key);
+        final long mixed = mix(hash);
+        final Stripe stripe = stripeFor(mixed);
+        final int bucket = bucketFor(mixed);
+        // Read before the slot, so that a slot written before a clear() is never resolved against the results interned
+        // after it:
+        final FindProxyResult[] results = this.results;
+        long stamp = stripe.lock.tryOptimisticRead();
+        int slot = stripe.find(bucket, hash);
+        long expiry = slot < 0 ? 0 : stripe.expirySeconds(slot);
+        int ordinal = slot < 0 ? 0 : stripe.ordinal(slot);
+        if (!stripe.lock.validate(stamp)) {
+            stamp = stripe.lock.readLock();
+            try {
+                slot = stripe.find(bucket, hash);
+                expiry = slot < 0 ? 0 : stripe.expirySeconds(slot);
+                ordinal = slot < 0 ? 0 : stripe.ordinal(slot);
+            } finally {
+                stripe.lock.unlockRead(stamp);
+            }
+        }
+        if (slot < 0 || results[ordinal] == null) {
+            // The slot has not been cleared yet by a clear() in progress
+            return null;
+        }
+        final long expiresAtMillis = toMillis(expiry);
+        if (nowMillis >= expiresAtMillis) {
+            // Not marked as read, so the slot is the first to be reused when its bucket is full
+            return null;
+        }
+        // A racy write of the flag is harmless: at worst a newly written entry gets a second chance it did not earn
+        stripe.markReferenced(slot);
+        return new Entry(results[ordinal], expiresAtMillis);
+    }
+
+    @Override
+    public void put(final String key, final FindProxyResult result, final long expiresAtMillis) {
+        putHash(PacHash.hostHash(key), result, expiresAtMillis);
+    }
+
+    @Override
+    public boolean putHash(final long keyHash, final FindProxyResult result, final long expiresAtMillis) {
+        final long expirySeconds = expiresAtMillis == Long.MAX_VALUE ? NEVER_EXPIRES & 0xFFFFFFFFL
+                : Math.max(0, Math.min(expiresAtMillis / 1000, (NEVER_EXPIRES & 0xFFFFFFFFL) - 1));
+        final int ordinal = intern(result);
+        if (ordinal < 0) {
+            return true;
+        }
+        final long hash = keyHash == EMPTY ? 1 : keyHash;
+        final long mixed = mix(hash);
+        final Stripe stripe = stripeFor(mixed);
+        final int bucket = bucketFor(mixed);
+        final long stamp = stripe.lock.writeLock();
+        try {
+            final FindProxyResult[] results = this.results;
+            if (ordinal >= results.length || !result.equals(results[ordinal])) {
+                // The results were reset by clear() since the result was interned, so the ordinal no longer refers to it:
+                return true;
+            }
+            int slot = stripe.find(bucket, hash);
+            if (slot < 0) {
+                slot = stripe.findEmpty(bucket);
+                if (slot >= 0) {
+                    size.increment();
+                } else {
+                    slot = stripe.evict(bucket);
+                }
+            }
+            stripe.write(slot, hash, expirySeconds, ordinal);
+        } finally {
+            stripe.lock.unlockWrite(stamp);
+        }
+        return true;
+    }
+
+    @Override
+    public void forEach(final long nowMillis, final Visitor visitor) throws IOException {
+        // The cache does not track recency beyond the referenced flags, so entries are visited in slot order. Each
+        // stripe is copied so that the visitor runs without holding its lock:
+        final ByteBuffer copy = ByteBuffer.allocate(bucketsPerStripe * BUCKET_BYTES);
+        for (final Stripe stripe : stripes) {
+            final FindProxyResult[] results = this.results;
+            final long stamp = stripe.lock.readLock();
+            try {
+                copy.clear();
+                copy.put(stripe.slots.duplicate());
+            } finally {
+                stripe.lock.unlockRead(stamp);
+            }
+            for (int offset = 0; offset < copy.capacity(); offset += SLOT_BYTES) {
+                final long hash = copy.getLong(offset + HASH_OFFSET);
+                if (hash == EMPTY || results[copy.getChar(offset + ORDINAL_OFFSET)] == null) {
+                    continue;
+                }
+                final long expiresAtMillis = toMillis(copy.getInt(offset + EXPIRY_OFFSET) & 0xFFFFFFFFL);
+                if (nowMillis < expiresAtMillis) {
+                    visitor.visit(null, hash, new Entry(results[copy.getChar(offset + ORDINAL_OFFSET)], expiresAtMillis));
+                }
+            }
+        }
+    }
+
+    @Override
+    public long size() {
+        return size.sum();
+    }
+
+    /**
+     * Removes all entries and the interned results, so that a PAC which replaces one with many distinct results can be
+     * cached again. No result is interned until all slots have been cleared.
+     */
+    @Override
+    public void clear() {
+        synchronized (ordinals) {
+            // Slots not yet cleared now refer to no result, and are neither read nor written:
+            results = new FindProxyResult[INITIAL_RESULTS];
+            resultCount = 0;
+            ordinals.clear();
+            for (final Stripe stripe : stripes) {
+                final long stamp = stripe.lock.writeLock();
+                try {
+                    size.add(-stripe.clear());
+                } finally {
+                    stripe.lock.unlockWrite(stamp);
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the ordinal of the given result, adding it to the interned results if necessary.
+     *
+     * @return the ordinal, or -1 if there are already too many distinct results.
+     */
+    private int intern(final FindProxyResult result) {
+        final Character interned = ordinals.get(result);
+        if (interned != null) {
+            return interned;
+        }
+        synchronized (ordinals) {
+            final Character existing = ordinals.get(result);
+            if (existing != null) {
+                return existing;
+            }
+            final int ordinal = resultCount;
+            if (ordinal >= MAXIMUM_RESULTS) {
+                return -1;
+            }
+            FindProxyResult[] current = results;
+            if (ordinal == current.length) {
+                final FindProxyResult[] grown = new FindProxyResult[Math.min(2 * ordinal, MAXIMUM_RESULTS)];
+                System.arraycopy(current, 0, grown, 0, ordinal);
+                current = grown;
+            }
+            current[ordinal] = result;
+            // Publish the result before any slot can refer to it (slots are written under a stripe lock afterwards):
+            results = current;
+            resultCount = ordinal + 1;
+            ordinals.put(result, (char) ordinal);
+            return ordinal;
+        }
+    }
+
+    private Stripe stripeFor(final long mixed) {
+        return stripes[(int) (mixed >>> 58) & (STRIPES - 1)];
+    }
+
+    private int bucketFor(final long mixed) {
+        // The top bits choose the stripe:
+        return (int) ((mixed & ((1L << 58) - 1)) % bucketsPerStripe);
+    }
+
+    private static long toMillis(final long expirySeconds) {
+        return expirySeconds == (NEVER_EXPIRES & 0xFFFFFFFFL) ? Long.MAX_VALUE : expirySeconds * 1000;
+    }
+
+    private static long hash(final String key) {
+        final long hash = PacHash.hostHash(key);
+        return hash == EMPTY ? 1 : hash;
+    }
+
+    /**
+     * Spreads the bits of the FNV hash (whose low bits are weak) before they are used to choose a stripe and bucket.
+     */
+    private static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    private static final class Stripe {
+        private final StampedLock lock = new StampedLock();
+        private final ByteBuffer slots;
+        private final byte[] hands; // The CLOCK hand of each bucket
+
+        private Stripe(final int buckets) {
+            this.slots = ByteBuffer.allocateDirect(buckets * BUCKET_BYTES);
+            this.hands = new byte[buckets];
+        }
+
+        private int find(final int bucket, final long hash) {
+            final int first = bucket * BUCKET_SLOTS;
+            for (int slot = first; slot < first + BUCKET_SLOTS; slot++) {
+                if (slots.getLong(slot * SLOT_BYTES + HASH_OFFSET) == hash) {
+                    return slot;
+                }
+            }
+            return -1;
+        }
+
+        private int findEmpty(final int bucket) {
+            return find(bucket, EMPTY);
+        }
+
+        /**
+         * Chooses the slot of a full bucket to overwrite, advancing the bucket's CLOCK hand.
+         */
+        private int evict(final int bucket) {
+            final int first = bucket * BUCKET_SLOTS;
+            int hand = hands[bucket];
+            while (true) {
+                final int slot = first + hand;
+                hand = (hand + 1) % BUCKET_SLOTS;
+                if (slots.get(slot * SLOT_BYTES + REFERENCED_OFFSET) == 0) {
+                    hands[bucket] = (byte) hand;
+                    return slot;
+                }
+                // Give a recently read entry a second chance:
+                slots.put(slot * SLOT_BYTES + REFERENCED_OFFSET, (byte) 0);
+            }
+        }
+
+        private long expirySeconds(final int slot) {
+            return slots.getInt(slot * SLOT_BYTES + EXPIRY_OFFSET) & 0xFFFFFFFFL;
+        }
+
+        private int ordinal(final int slot) {
+            return slots.getChar(slot * SLOT_BYTES + ORDINAL_OFFSET);
+        }
+
+        private void markReferenced(final int slot) {
+            slots.put(slot * SLOT_BYTES + REFERENCED_OFFSET, (byte) 1);
+        }
+
+        private void write(final int slot, final long hash, final long expirySeconds, final int ordinal) {
+            final int offset = slot * SLOT_BYTES;
+            slots.putInt(offset + EXPIRY_OFFSET, (int) expirySeconds);
+            slots.putChar(offset + ORDINAL_OFFSET, (char) ordinal);
+            slots.put(offset + REFERENCED_OFFSET, (byte) 0);
+            slots.putLong(offset + HASH_OFFSET, hash);
+        }
+
+        /**
+         * Empties all slots.
+         *
+         * @return the number of entries removed.
+         */
+        private int clear() {
+            int removed = 0;
+            for (int offset = 0; offset < slots.capacity(); offset += SLOT_BYTES) {
+                if (slots.getLong(offset + HASH_OFFSET) != EMPTY) {
+                    slots.putLong(offset + HASH_OFFSET, EMPTY);
+                    removed++;
+                }
+            }
+            return removed;
+        }
+    }
+}
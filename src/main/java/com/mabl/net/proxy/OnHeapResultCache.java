@@ -0,0 +1,126 @@
+package com.mabl.net.proxy;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded, least-recently-used {@link ResultCache} held on the Java heap.
+ * <p>
+ * The key space is split across a number of independently locked segments to reduce contention; each segment evicts
+ * its own least-recently-used entry once it reaches its share of the maximum size. The shares add up to exactly the
+ * maximum size, so the cache never holds more entries than that (small caches have fewer segments).
+ * </p>
+ */
+final class OnHeapResultCache implements ResultCache {
+    private static final int MAX_SEGMENTS = 16;
+    private final Segment[] segments;
+    private final int segmentMask;
+
+    OnHeapResultCache(final long maximumSize) {
+        if (maximumSize <= 0) {
+            throw new IllegalArgumentException("Maximum size must be positive");
+        }
+        // A power of two no larger than the maximum size, so that every segment holds at least one entry:
+        final int segmentCount = Integer.highestOneBit((int) Math.min(MAX_SEGMENTS, maximumSize));
+        this.segments = new Segment[segmentCount];
+        this.segmentMask = segmentCount - 1;
+        final long baseSize = maximumSize / segmentCount;
+        final long remainder = maximumSize % segmentCount;
+        for (int ii = 0; ii < segmentCount; ii++) {
+            segments[ii] = new Segment((int) Math.min(Integer.MAX_VALUE, baseSize + (ii < remainder ? 1 : 0)));
+        }
+    }
+
+    @Override
+    public Entry get(final String key, final long nowMillis) {
+        final Segment segment = segmentFor(key);
+        synchronized (segment) {
+            final Entry entry = segment.get(key);
+            if (entry == null) {
+                return null;
+            }
+            if (entry.isExpired(nowMillis)) {
+                segment.remove(key);
+                return null;
+            }
+            return entry;
+        }
+    }
+
+    @Override
+    public void put(final String key, final FindProxyResult result, final long expiresAtMillis) {
+        final Segment segment = segmentFor(key);
+        synchronized (segment) {
+            segment.put(key, new Entry(result, expiresAtMillis));
+        }
+    }
+
+    @Override
+    public boolean putHash(final long keyHash, final FindProxyResult result, final long expiresAtMillis) {
+        return false;
+    }
+
+    @Override
+    public void forEach(final long nowMillis, final Visitor visitor) throws IOException {
+        for (final Segment segment : segments) {
+            // Copy the segment (least recently used first) so that the visitor runs without holding its lock:
+            final String[] keys;
+            final Entry[] entries;
+            synchronized (segment) {
+                keys = new String[segment.size()];
+                entries = new Entry[segment.size()];
+                int ii = 0;
+                for (final Map.Entry<String, Entry> entry : segment.entrySet()) {
+                    keys[ii] = entry.getKey();
+                    entries[ii++] = entry.getValue();
+                }
+            }
+            for (int ii = 0; ii < keys.length; ii++) {
+                if (!entries[ii].isExpired(nowMillis)) {
+                    visitor.visit(keys[ii], PacHash.hostHash(keys[ii]), entries[ii]);
+                }
+            }
+        }
+    }
+
+    @Override
+    public long size() {
+        long size = 0;
+        for (final Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public void clear() {
+        for (final Segment segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    private Segment segmentFor(final String key) {
+        final int hash = key.hashCode();
+        return segments[(hash ^ (hash >>> 16)) & segmentMask];
+    }
+
+    private static class Segment extends LinkedHashMap<String, ResultCache.Entry> {
+        private static final long serialVersionUID = 1L;
+        private final int maximumSize;
+
+        private Segment(final int maximumSize) {
+            super(16, 0.75f, true);
+            this.maximumSize = maximumSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, ResultCache.Entry> eldest) {
+            return size() > maximumSize;
+        }
+    }
+}
@@ -0,0 +1,254 @@
+package com.mabl.net.proxy;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+/**
+ * Evaluates a PAC for a stream of URLs, e.g. taken from access logs, writing one result per line in input order.
+ * <p>
+ * Usage: {@code PacBulkEvaluator <PAC file or URL> [input file or -] [parallelism]}
+ * </p>
+ * <p>
+ * Each input line contains a URL, optionally followed by whitespace and the host to pass to FindProxyForURL (by
+ * default the host is parsed from the URL); blank lines and lines starting with "#" are skipped. For each remaining line
+ * the {@link FindProxyResult} is written to standard output, or {@code ERROR <message>} if the line could not be
+ * evaluated. A throughput and latency summary is written to standard error.
+ * </p>
+ * <p>
+ * Lines are evaluated in batches on a pool of threads, each borrowing a context from the interpreter's context pool,
+ * and at most a bounded number of batches are in flight so that arbitrarily large inputs can be streamed. Results are
+ * cached (see {@link CachingPacInterpreter}); if the PAC never refers to its URL parameter, results are cached by host,
+ * so each distinct host is evaluated only once.
+ * </p>
+ */
+public class PacBulkEvaluator {
+    private static final int BATCH_SIZE = 256;
+    private static final int BATCHES_IN_FLIGHT_PER_THREAD = 4;
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+    private final PacInterpreter interpreter;
+    private final int parallelism;
+
+    /**
+     * Creates an evaluator that evaluates URLs using the given interpreter.
+     *
+     * @param interpreter the interpreter; for full parallelism it should allow at least {@code parallelism}
+     *                    concurrent evaluations (see {@link PacInterpreterOptions#getContextPoolSize()}).
+     * @param parallelism the number of threads used to evaluate URLs.
+     */
+    public PacBulkEvaluator(final PacInterpreter interpreter, final int parallelism) {
+        if (interpreter == null) {
+            throw new IllegalArgumentException("Interpreter cannot be null");
+        }
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("Parallelism must be positive");
+        }
+        this.interpreter = interpreter;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Evaluates each line of the input and writes the results to the output in the same order.
+     *
+     * @param in  the input, one URL (and optional host) per line.
+     * @param out the output, one result per evaluated line.
+     * @return a summary of the evaluation.
+     * @throws IOException             if the input cannot be read or the output cannot be written.
+     * @throws PacInterpreterException if evaluation is interrupted.
+     */
+    public Summary evaluate(final BufferedReader in, final Writer out) throws IOException, PacInterpreterException {
+        final LatencyHistogram latencies = new LatencyHistogram();
+        final LongAdder errors = new LongAdder();
+        final Deque<Future<List<String>>> pending = new ArrayDeque<>();
+        final int maxPending = parallelism * BATCHES_IN_FLIGHT_PER_THREAD;
+        final ExecutorService executor = Executors.newFixedThreadPool(parallelism, (final Runnable runnable) -> {
+            final Thread thread = new Thread(runnable, PacBulkEvaluator.class.getSimpleName() + " Worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        final long start = System.nanoTime();
+        try {
+            List<String> batch;
+            while (!(batch = readBatch(in)).isEmpty()) {
+                if (pending.size() >= maxPending) {
+                    write(pending.removeFirst(), out);
+                }
+                final List<String> lines = batch;
+                pending.addLast(executor.submit(() -> evaluateBatch(lines, latencies, errors)));
+            }
+            while (!pending.isEmpty()) {
+                write(pending.removeFirst(), out);
+            }
+            out.flush();
+        } finally {
+            executor.shutdownNow();
+        }
+        return new Summary(latencies, errors.sum(), System.nanoTime() - start);
+    }
+
+    private List<String> evaluateBatch(final List<String> lines, final LatencyHistogram latencies, final LongAdder errors) {
+        final List<String> results = new ArrayList<>(lines.size());
+        for (final String line : lines) {
+            final long start = System.nanoTime();
+            String result;
+            try {
+                result = evaluateLine(line).toString();
+            } catch (MalformedURLException | PacInterpreterException | RuntimeException e) {
+                errors.increment();
+                result = "ERROR " + e.getMessage();
+            }
+            latencies.record(System.nanoTime() - start);
+            results.add(result);
+        }
+        return results;
+    }
+
+    private FindProxyResult evaluateLine(final String line) throws MalformedURLException, PacInterpreterException {
+        final String[] fields = WHITESPACE.split(line, 3);
+        if (fields.length > 1) {
+            return interpreter.findProxyForUrl(fields[0], fields[1]);
+        }
+        return interpreter.findProxyForUrl(fields[0]);
+    }
+
+    private static List<String> readBatch(final BufferedReader in) throws IOException {
+        final List<String> batch = new ArrayList<>(BATCH_SIZE);
+        String line;
+        while (batch.size() < BATCH_SIZE && (line = in.readLine()) != null) {
+            final String trimmed = line.trim();
+            if (!trimmed.isEmpty() && !trimmed.startsWith("#")) {
+                batch.add(trimmed);
+            }
+        }
+        return batch;
+    }
+
+    private static void write(final Future<List<String>> batch, final Writer out) throws IOException, PacInterpreterException {
+        try {
+            for (final String result : batch.get()) {
+                out.write(result);
+                out.write('\n');
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PacInterpreterException("Interrupted while evaluating URLs", e);
+        } catch (ExecutionException e) {
+            throw new PacInterpreterException("Error evaluating URLs", e.getCause());
+        }
+    }
+
+    /**
+     * The outcome of a bulk evaluation.
+     */
+    public static final class Summary {
+        private final LatencyHistogram latencies;
+        private final long errors;
+        private final long elapsedNanos;
+
+        private Summary(final LatencyHistogram latencies, final long errors, final long elapsedNanos) {
+            this.latencies = latencies;
+            this.errors = errors;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        /**
+         * Gets the number of lines evaluated, including failures.
+         *
+         * @return the number of evaluated lines.
+         */
+        public long evaluations() {
+            return latencies.count();
+        }
+
+        /**
+         * Gets the number of lines which could not be evaluated.
+         *
+         * @return the number of errors.
+         */
+        public long errors() {
+            return errors;
+        }
+
+        /**
+         * Gets the throughput over the whole evaluation, including reading the input and writing the output.
+         *
+         * @return the number of evaluations per second.
+         */
+        public double evaluationsPerSecond() {
+            return elapsedNanos == 0 ? 0 : latencies.count() * 1e9 / elapsedNanos;
+        }
+
+        /**
+         * Estimates the given percentile of the latency of a single evaluation.
+         *
+         * @param percentile the percentile, between 0 and 100 (e.g. 99.9).
+         * @return the latency in nanoseconds.
+         */
+        public long latencyPercentileNanos(final double percentile) {
+            return latencies.percentileNanos(percentile);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Evaluated %d URLs (%d errors) in %d ms: %.0f/s; latency %s", latencies.count(), errors,
+                    elapsedNanos / 1_000_000, evaluationsPerSecond(), latencies.summary());
+        }
+    }
+
+    public static void main(final String[] args) throws Exception {
+        if (args.length < 1 || args.length > 3) {
+            System.err.println("Usage: " + PacBulkEvaluator.class.getSimpleName() + " <PAC file or URL> [input file or -] [parallelism]");
+            System.exit(1);
+        }
+        final boolean fromStdin = args.length < 2 || "-".equals(args[1]);
+        final int parallelism = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        final PacInterpreterOptions options = PacInterpreterOptions.newBuilder()
+                .contextPoolSize(parallelism)
+                .build();
+
+        final SimplePacInterpreter pacInterpreter = loadInterpreter(args[0], options);
+        final boolean hostOnly = PacPrecomputer.ignoresUrl(pacInterpreter.getPac());
+        try (final CachingPacInterpreter interpreter = CachingPacInterpreter.newBuilder(pacInterpreter)
+                .maximumSize(1_000_000)
+                .hostOnly(hostOnly)
+                .clock(options.getClock())
+                .build();
+             final BufferedReader in = fromStdin
+                     ? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))
+                     : Files.newBufferedReader(Paths.get(args[1]), StandardCharsets.UTF_8);
+             final Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 1 << 16)) {
+            final Summary summary = new PacBulkEvaluator(interpreter, parallelism).evaluate(in, out);
+            System.err.println(summary);
+            System.err.printf("Cache: %d hits, %d misses (keyed by %s)%n", interpreter.hits(), interpreter.misses(),
+                    hostOnly ? "host" : "URL and host");
+            System.err.printf("Runtime compilation: %s%n", pacInterpreter.isRuntimeCompilationEnabled() ? "enabled" : "disabled");
+        }
+    }
+
+    private static SimplePacInterpreter loadInterpreter(final String pacLocation, final PacInterpreterOptions options) throws IOException, PacInterpreterException {
+        try {
+            return SimplePacInterpreter.forUrl(new URL(pacLocation), options);
+        } catch (MalformedURLException e) {
+            return SimplePacInterpreter.forFile(new File(pacLocation), options);
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package com.mabl.net.proxy;
+
+import org.graalvm.polyglot.Engine;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Creates and caches the GraalVM {@link Engine} instances used by {@link SimplePacInterpreter}.
+ * <p>
+ * Shared engines are keyed by their effective engine options and live for the lifetime of the JVM.
+ * Dedicated engines are owned (and must be closed) by the caller.
+ * </p>
+ */
+final class PacEngines {
+    private static final Logger logger = LoggerFactory.getLogger(PacEngines.class);
+    // The implementation name reported by the Truffle runtime when runtime compilation is unavailable:
+    private static final String INTERPRETER_ONLY_IMPLEMENTATION_NAME = "Interpreted";
+    private static final Map<Map<String, String>, Engine> sharedEngines = new ConcurrentHashMap<>();
+    private static final AtomicBoolean interpreterOnlyWarningLogged = new AtomicBoolean();
+    // The open interpreters using each engine, for footprint accounting; weak so that unclosed interpreters can be
+    // collected. All access must be synchronized on the map:
+    private static final Map<Engine, Set<SimplePacInterpreter>> interpreters = new WeakHashMap<>();
+    private static volatile Boolean runtimeCompilationAvailable;
+
+    private PacEngines() {
+    }
+
+    /**
+     * Gets an engine configured according to the given options.
+     *
+     * @param options the interpreter options.
+     * @return a shared engine if {@link PacInterpreterOptions#isSharedEngine()}; otherwise a new dedicated engine.
+     * @throws PacInterpreterException if the engine cannot be created, or if runtime compilation is unavailable and
+     *                                 the policy is {@link PacInterpreterOptions.InterpreterOnlyPolicy#FAIL}.
+     */
+    static Engine acquire(final PacInterpreterOptions options) throws PacInterpreterException {
+        checkInterpreterOnlyPolicy(options.getInterpreterOnlyPolicy());
+        final Map<String, String> engineOptions = effectiveEngineOptions(options);
+        try {
+            if (options.isSharedEngine()) {
+                return sharedEngines.computeIfAbsent(engineOptions, PacEngines::createEngine);
+            }
+            return createEngine(engineOptions);
+        } catch (IllegalArgumentException e) {
+            throw new PacInterpreterException("Invalid GraalVM engine options: " + engineOptions, e);
+        }
+    }
+
+    /**
+     * Records that the given interpreter uses the given engine.
+     *
+     * @param engine      the engine.
+     * @param interpreter the interpreter.
+     */
+    static void register(final Engine engine, final SimplePacInterpreter interpreter) {
+        synchronized (interpreters) {
+            interpreters.computeIfAbsent(engine, key -> Collections.newSetFromMap(new WeakHashMap<>())).add(interpreter);
+        }
+    }
+
+    /**
+     * Records that the given interpreter no longer uses the given engine.
+     *
+     * @param engine      the engine.
+     * @param interpreter the interpreter.
+     */
+    static void unregister(final Engine engine, final SimplePacInterpreter interpreter) {
+        synchronized (interpreters) {
+            final Set<SimplePacInterpreter> users = interpreters.get(engine);
+            if (users != null && users.remove(interpreter) && users.isEmpty()) {
+                interpreters.remove(engine);
+            }
+        }
+    }
+
+    /**
+     * Gets the open interpreters that use the given engine.
+     *
+     * @param engine the engine.
+     * @return a snapshot of the interpreters.
+     */
+    static List<SimplePacInterpreter> interpretersUsing(final Engine engine) {
+        synchronized (interpreters) {
+            final Set<SimplePacInterpreter> users = interpreters.get(engine);
+            return users == null ? Collections.emptyList() : new ArrayList<>(users);
+        }
+    }
+
+    /**
+     * Tests whether the given engine executes guest code with Truffle runtime (JIT) compilation.
+     *
+     * @param engine the engine to test.
+     * @return true if runtime compilation is enabled; false if guest code runs in the AST interpreter only.
+     */
+    static boolean isRuntimeCompilationEnabled(final Engine engine) {
+        return !INTERPRETER_ONLY_IMPLEMENTATION_NAME.equals(engine.getImplementationName());
+    }
+
+    /**
+     * Tests whether the Truffle runtime in this JVM supports runtime compilation.
+     * The Truffle runtime is selected once per JVM, so the answer is cached after the first probe.
+     *
+     * @return true if runtime compilation is available.
+     */
+    static boolean isRuntimeCompilationAvailable() {
+        Boolean available = runtimeCompilationAvailable;
+        if (available == null) {
+            available = isRuntimeCompilationEnabled(
+                    sharedEngines.computeIfAbsent(PacInterpreterOptions.defaults().baseEngineOptions(), PacEngines::createEngine));
+            runtimeCompilationAvailable = available;
+        }
+        return available;
+    }
+
+    private static Map<String, String> effectiveEngineOptions(final PacInterpreterOptions options) {
+        final Map<String, String> engineOptions = new TreeMap<>(options.baseEngineOptions());
+        final Map<String, String> compilationOptions = options.compilationEngineOptions();
+        if (!compilationOptions.isEmpty()) {
+            // Compiler options are only recognized by an optimizing runtime; an interpreter-only engine rejects them:
+            if (isRuntimeCompilationAvailable()) {
+                engineOptions.putAll(compilationOptions);
+            } else {
+                logger.debug("Ignoring compilation options {} because runtime compilation is unavailable", compilationOptions);
+            }
+        }
+        return engineOptions;
+    }
+
+    private static void checkInterpreterOnlyPolicy(final PacInterpreterOptions.InterpreterOnlyPolicy policy) throws PacInterpreterException {
+        if (policy == PacInterpreterOptions.InterpreterOnlyPolicy.IGNORE || isRuntimeCompilationAvailable()) {
+            return;
+        }
+        if (policy == PacInterpreterOptions.InterpreterOnlyPolicy.FAIL) {
+            throw new PacInterpreterException("GraalVM runtime compilation is unavailable; PAC scripts would only be interpreted. " +
+                    "Run on GraalVM or put the Graal compiler on the module path to enable it.");
+        }
+        if (interpreterOnlyWarningLogged.compareAndSet(false, true)) {
+            logger.warn("GraalVM runtime compilation is unavailable; PAC scripts will be executed by the (slower) interpreter. " +
+                    "See https://www.graalvm.org/latest/reference-manual/js/RunOnJDK/");
+        }
+    }
+
+    private static Engine createEngine(final Map<String, String> engineOptions) {
+        final Engine engine = Engine.newBuilder()
+                .options(engineOptions)
+                .build();
+        final boolean compilationEnabled = isRuntimeCompilationEnabled(engine);
+        logger.debug("Created GraalVM engine \"{}\" (runtime compilation enabled: {}) with options {}",
+                engine.getImplementationName(), compilationEnabled, engineOptions);
+        return engine;
+    }
+}
@@ -0,0 +1,174 @@
+package com.mabl.net.proxy;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * The result of evaluating a PAC together with information about how long that result remains valid.
+ * <p>
+ * If the PAC called any of the time-dependent functions (weekdayRange, dateRange or timeRange) the result is only valid
+ * until the earliest instant at which one of those calls could return a different value; see {@link #validUntil()}.
+ * Caching layers should not serve the result after that instant.
+ * </p>
+ * <p>
+ * A {@link #isStale() stale} evaluation is a previous result served because the PAC could not be evaluated (see
+ * {@link ResilientPacInterpreter}); it is already past its validity deadline, so caching layers do not retain it.
+ * </p>
+ */
+public class PacEvaluation {
+    private final FindProxyResult result;
+    private final List<TimePredicate> timePredicates;
+    private final Instant evaluatedAt;
+    private final Optional<Instant> validUntil;
+    private final boolean stale;
+
+    private PacEvaluation(final FindProxyResult result, final List<TimePredicate> timePredicates,
+                          final Instant evaluatedAt, final Optional<Instant> validUntil) {
+        this(result, timePredicates, evaluatedAt, validUntil, false);
+    }
+
+    private PacEvaluation(final FindProxyResult result, final List<TimePredicate> timePredicates,
+                          final Instant evaluatedAt, final Optional<Instant> validUntil, final boolean stale) {
+        if (result == null) {
+            throw new IllegalArgumentException("Result must not be null");
+        }
+        this.result = result;
+        this.timePredicates = Collections.unmodifiableList(new ArrayList<>(timePredicates));
+        this.evaluatedAt = evaluatedAt;
+        this.validUntil = validUntil;
+        this.stale = stale;
+    }
+
+    /**
+     * Creates an evaluation for a result that does not depend on the time.
+     *
+     * @param result the result.
+     * @return the evaluation.
+     */
+    public static PacEvaluation timeIndependent(final FindProxyResult result) {
+        return new PacEvaluation(result, Collections.emptyList(), null, Optional.empty());
+    }
+
+    /**
+     * Creates an evaluation for a result obtained after calling the given time-dependent predicates.
+     *
+     * @param result         the result.
+     * @param timePredicates the time-dependent predicates that were evaluated.
+     * @param evaluatedAt    the time at which the predicates were evaluated.
+     * @param zone           the local time zone used by the PAC.
+     * @return the evaluation.
+     */
+    public static PacEvaluation of(final FindProxyResult result, final List<TimePredicate> timePredicates,
+                                   final Instant evaluatedAt, final ZoneId zone) {
+        final Optional<Instant> validUntil = timePredicates.stream()
+                .map(predicate -> predicate.nextPossibleChange(evaluatedAt, zone))
+                .min(Instant::compareTo);
+        return new PacEvaluation(result, timePredicates, evaluatedAt, validUntil);
+    }
+
+    /**
+     * Creates an evaluation for a result served from a cache, which remains valid until the cache entry expires.
+     *
+     * @param result          the cached result.
+     * @param expiresAtMillis the expiry of the cache entry, or {@link Long#MAX_VALUE} if it does not expire.
+     * @return the evaluation.
+     */
+    static PacEvaluation cached(final FindProxyResult result, final long expiresAtMillis) {
+        if (expiresAtMillis == Long.MAX_VALUE) {
+            return timeIndependent(result);
+        }
+        return new PacEvaluation(result, Collections.emptyList(), null, Optional.of(Instant.ofEpochMilli(expiresAtMillis)));
+    }
+
+    /**
+     * Creates an evaluation for a previously successful result that is served because the PAC could not be evaluated.
+     *
+     * @param result the last known good result.
+     * @param now    the current time, which is also the validity deadline of the stale result.
+     * @return the stale evaluation.
+     */
+    static PacEvaluation stale(final FindProxyResult result, final Instant now) {
+        return new PacEvaluation(result, Collections.emptyList(), null, Optional.of(now), true);
+    }
+
+    /**
+     * Gets the result of the evaluation.
+     *
+     * @return the result.
+     */
+    public FindProxyResult result() {
+        return result;
+    }
+
+    /**
+     * Gets the time-dependent predicates that were evaluated while computing the result.
+     *
+     * @return the evaluated predicates, in the order in which they were called.
+     */
+    public List<TimePredicate> timePredicates() {
+        return timePredicates;
+    }
+
+    /**
+     * Tests whether the result is only valid for a limited time.
+     *
+     * @return true if the result has a validity deadline (see {@link #validUntil()}).
+     */
+    public boolean isTimeDependent() {
+        return validUntil.isPresent();
+    }
+
+    /**
+     * Gets the instant until which the result remains valid.
+     *
+     * @return the instant at which the result could next change, or empty if the result does not depend on the time.
+     */
+    public Optional<Instant> validUntil() {
+        return validUntil;
+    }
+
+    /**
+     * Tests whether the result is a previous result served in place of a failed evaluation.
+     *
+     * @return true if the PAC could not be evaluated and the last known good result was served instead.
+     */
+    public boolean isStale() {
+        return stale;
+    }
+
+    /**
+     * Gets the time at which the time-dependent predicates were evaluated.
+     *
+     * @return the evaluation time, or empty if the result does not depend on the time.
+     */
+    public Optional<Instant> evaluatedAt() {
+        return Optional.ofNullable(evaluatedAt);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        PacEvaluation that = (PacEvaluation) o;
+        return stale == that.stale && Objects.equals(result, that.result) && Objects.equals(timePredicates, that.timePredicates)
+                && Objects.equals(evaluatedAt, that.evaluatedAt) && Objects.equals(validUntil, that.validUntil);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(result, timePredicates, evaluatedAt, validUntil, stale);
+    }
+
+    @Override
+    public String toString() {
+        if (stale) {
+            return result + " (stale)";
+        }
+        return validUntil.map(instant -> result + " (valid until " + instant + ")").orElse(result.toString());
+    }
+}
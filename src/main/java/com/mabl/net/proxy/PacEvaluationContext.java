@@ -0,0 +1,80 @@
+package com.mabl.net.proxy;
+
+import org.graalvm.polyglot.Value;
+
+import java.net.InetAddress;
+import java.time.Clock;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Per-call state made available to the PAC utility functions while a PAC is evaluated.
+ * <p>
+ * An instance is bound into the JavaScript context for the duration of a single call to FindProxyForURL. It supplies
+ * the current time from the interpreter's {@link Clock} and the address returned by myIpAddress() (the client address
+ * given for this call, if any, otherwise the interpreter's local address), and records the time-dependent predicates
+ * that were evaluated.
+ * Its public methods are called from {@code pacUtils.js} and are not intended to be called by applications.
+ * </p>
+ */
+public final class PacEvaluationContext {
+    static final String BINDING_NAME = "__pacEvaluation";
+    private final Instant now;
+    private final Supplier<InetAddress> localAddress;
+    private final InetAddress clientAddress;
+    private List<TimePredicate> timePredicates = Collections.emptyList();
+
+    PacEvaluationContext(final Clock clock, final Supplier<InetAddress> localAddress, final InetAddress clientAddress) {
+        // The time is fixed at the start of the call so that all predicates within one evaluation agree:
+        this.now = clock.instant();
+        this.localAddress = localAddress;
+        this.clientAddress = clientAddress;
+    }
+
+    /**
+     * Gets the address returned by the PAC function myIpAddress().
+     *
+     * @return the client address for this evaluation if one was given; otherwise the local address.
+     */
+    public String myIpAddress() {
+        final InetAddress address = clientAddress != null ? clientAddress : localAddress.get();
+        return address.getHostAddress();
+    }
+
+    /**
+     * Gets the current time for this evaluation.
+     *
+     * @return the current time in milliseconds since the epoch.
+     */
+    public double currentTimeMillis() {
+        return now.toEpochMilli();
+    }
+
+    /**
+     * Records that a time-dependent PAC function was called.
+     *
+     * @param functionName the name of the function, e.g. "timeRange".
+     * @param arguments    the JavaScript array of arguments passed to the function.
+     */
+    public void recordTimePredicate(final String functionName, final Value arguments) {
+        final List<String> values = new ArrayList<>();
+        for (long ii = 0; ii < arguments.getArraySize(); ii++) {
+            values.add(arguments.getArrayElement(ii).toString());
+        }
+        if (timePredicates.isEmpty()) {
+            timePredicates = new ArrayList<>();
+        }
+        timePredicates.add(new TimePredicate(TimePredicate.Function.fromFunctionName(functionName), values));
+    }
+
+    Instant now() {
+        return now;
+    }
+
+    List<TimePredicate> timePredicates() {
+        return timePredicates;
+    }
+}
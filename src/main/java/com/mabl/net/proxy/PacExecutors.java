@@ -0,0 +1,62 @@
+package com.mabl.net.proxy;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executors for tasks that spend most of their time blocked, such as PAC evaluations that resolve hosts and PAC reloads
+ * that fetch a URL.
+ * <p>
+ * The library is a multi-release jar: on Java 21 and later, this class is replaced by one whose executors run each task
+ * on a new virtual thread, so that tens of thousands of tasks can be blocked at once without exhausting platform
+ * threads. On earlier versions, tasks run on cached daemon platform threads.
+ * </p>
+ */
+public final class PacExecutors {
+
+    private PacExecutors() {
+    }
+
+    /**
+     * Tests whether the executors run tasks on virtual threads.
+     *
+     * @return true on Java 21 and later; false otherwise.
+     */
+    public static boolean usesVirtualThreads() {
+        return false;
+    }
+
+    /**
+     * Gets the executor shared by the library for blocking tasks, e.g. by
+     * {@link PacInterpreter#evaluateAsync(String, String)}. It must not be shut down.
+     *
+     * @return the shared executor.
+     */
+    public static ExecutorService blockingTasks() {
+        return SharedHolder.INSTANCE;
+    }
+
+    /**
+     * Creates an executor for blocking tasks, which starts a thread for each task unless (on Java 8 to 20) an idle thread
+     * can be reused. Idle platform threads are discarded after a minute.
+     *
+     * @param name the prefix of the names of the executor's threads.
+     * @return a new executor, which the caller should shut down when it is no longer needed.
+     */
+    public static ExecutorService newBlockingTaskExecutor(final String name) {
+        if (name == null) {
+            throw new IllegalArgumentException("Name must not be null");
+        }
+        final AtomicInteger threadCount = new AtomicInteger();
+        return Executors.newCachedThreadPool((final Runnable runnable) -> {
+            final Thread thread = new Thread(runnable, name + " " + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private static final class SharedHolder {
+        private static final ExecutorService INSTANCE = newBlockingTaskExecutor(PacExecutors.class.getSimpleName() + " Worker");
+    }
+}
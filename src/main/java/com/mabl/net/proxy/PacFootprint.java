@@ -0,0 +1,76 @@
+package com.mabl.net.proxy;
+
+import java.util.Objects;
+
+/**
+ * The approximate heap retained by one or more {@link SimplePacInterpreter}s, e.g. for sizing containers.
+ * <p>
+ * The size of a context is the number of bytes allocated while it was created and initialized (when the JVM supports
+ * per-thread allocation counting; otherwise a fixed estimate), which is an upper bound on what it retains. Parsed code
+ * is shared between contexts of the same engine, so the first context of a PAC is accounted as larger than the rest.
+ * </p>
+ *
+ * @see SimplePacInterpreter#getFootprint()
+ * @see SimplePacInterpreter#getEngineFootprint()
+ */
+public class PacFootprint {
+    static final PacFootprint EMPTY = new PacFootprint(0, 0, 0);
+    private final int interpreters;
+    private final int contexts;
+    private final long estimatedBytes;
+
+    PacFootprint(final int interpreters, final int contexts, final long estimatedBytes) {
+        this.interpreters = interpreters;
+        this.contexts = contexts;
+        this.estimatedBytes = estimatedBytes;
+    }
+
+    /**
+     * Gets the number of interpreters accounted for.
+     *
+     * @return the number of interpreters.
+     */
+    public int interpreterCount() {
+        return interpreters;
+    }
+
+    /**
+     * Gets the number of open GraalVM contexts owned by the interpreters.
+     *
+     * @return the number of contexts.
+     */
+    public int contextCount() {
+        return contexts;
+    }
+
+    /**
+     * Gets the approximate number of bytes retained by the interpreters' contexts and PAC text.
+     *
+     * @return the estimated size in bytes.
+     */
+    public long estimatedBytes() {
+        return estimatedBytes;
+    }
+
+    PacFootprint plus(final PacFootprint other) {
+        return new PacFootprint(interpreters + other.interpreters, contexts + other.contexts, estimatedBytes + other.estimatedBytes);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        PacFootprint that = (PacFootprint) o;
+        return interpreters == that.interpreters && contexts == that.contexts && estimatedBytes == that.estimatedBytes;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(interpreters, contexts, estimatedBytes);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d interpreter(s), %d context(s), ~%d KiB", interpreters, contexts, estimatedBytes / 1024);
+    }
+}
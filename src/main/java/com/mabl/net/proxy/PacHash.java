@@ -0,0 +1,70 @@
+package com.mabl.net.proxy;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Hashing utilities for PAC content and hosts.
+ */
+final class PacHash {
+    private static final String CONTENT_DIGEST_ALGORITHM = "SHA-256";
+    private static final long FNV_64_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_64_PRIME = 0x100000001b3L;
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private PacHash() {
+    }
+
+    /**
+     * Computes the SHA-256 digest of the UTF-8 encoded PAC content.
+     *
+     * @param pac the PAC content.
+     * @return the 32 byte digest.
+     */
+    static byte[] contentDigest(final String pac) {
+        try {
+            return MessageDigest.getInstance(CONTENT_DIGEST_ALGORITHM).digest(pac.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256
+            throw new IllegalStateException(CONTENT_DIGEST_ALGORITHM + " is not supported", e);
+        }
+    }
+
+    /**
+     * Computes the hex-encoded SHA-256 digest of the UTF-8 encoded PAC content.
+     *
+     * @param pac the PAC content.
+     * @return the lowercase hex digest.
+     */
+    static String contentHash(final String pac) {
+        return toHex(contentDigest(pac));
+    }
+
+    static String toHex(final byte[] bytes) {
+        final char[] hex = new char[bytes.length * 2];
+        for (int ii = 0; ii < bytes.length; ii++) {
+            hex[ii * 2] = HEX_DIGITS[(bytes[ii] >> 4) & 0xf];
+            hex[ii * 2 + 1] = HEX_DIGITS[bytes[ii] & 0xf];
+        }
+        return new String(hex);
+    }
+
+    /**
+     * Computes a 64-bit FNV-1a hash of the given host without allocating.
+     *
+     * @param host the host.
+     * @return the hash.
+     */
+    static long hostHash(final CharSequence host) {
+        long hash = FNV_64_OFFSET_BASIS;
+        for (int ii = 0; ii < host.length(); ii++) {
+            final char c = host.charAt(ii);
+            hash ^= c & 0xff;
+            hash *= FNV_64_PRIME;
+            hash ^= c >>> 8;
+            hash *= FNV_64_PRIME;
+        }
+        return hash;
+    }
+}
@@ -1,8 +1,11 @@
 package com.mabl.net.proxy;
 
+import java.net.InetAddress;
 import java.net.MalformedURLException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
-public interface PacInterpreter {
+public interface PacInterpreter extends AutoCloseable {
     /**
      * Gets the PAC that is in use by this @{@link SimplePacInterpreter}.
      *
@@ -12,7 +15,8 @@ public interface PacInterpreter {
 
     /**
      * Evaluates the PAC script for the given URL.
-     * Automatically parses the host from the URL before passing it to the PAC script.
+     * Automatically parses the host from the URL before passing it to the PAC script. The URL may have any scheme
+     * (e.g. ws or wss) or none (e.g. {@code example.com:443}).
      *
      * @param url the URL to evaluate.
      * @return the result of executing the PAC script with the given URL.
@@ -30,4 +34,116 @@ public interface PacInterpreter {
      * @throws PacInterpreterException if an error occurs evaluating the PAC script or parsing the results.
      */
     FindProxyResult findProxyForUrl(final String url, final String host) throws PacInterpreterException;
+
+    /**
+     * Evaluates the PAC script for the given URL and host on behalf of the given client, whose address is returned by
+     * the PAC function myIpAddress() for this evaluation only.
+     *
+     * @param url           the URL to evaluate.
+     * @param host          the host component of the URL (the URL substring between :// and the first : or /).
+     * @param clientAddress the address of the client, or null to use the interpreter's local address.
+     * @return the result of executing the PAC script with the given URL, host and client address.
+     * @throws PacInterpreterException if an error occurs evaluating the PAC script or parsing the results.
+     */
+    default FindProxyResult findProxyForUrl(final String url, final String host, final InetAddress clientAddress) throws PacInterpreterException {
+        return evaluate(url, host, clientAddress).result();
+    }
+
+    /**
+     * Evaluates the PAC script for the given URL and host, returning the result together with the instant until which
+     * it remains valid (if the script called any of the time-dependent functions).
+     * <p>
+     * The default implementation assumes that the result does not depend on the time.
+     * </p>
+     *
+     * @param url  the URL to evaluate.
+     * @param host the host component of the URL (the URL substring between :// and the first : or /).
+     * @return the evaluation of the PAC script with the given URL and host.
+     * @throws PacInterpreterException if an error occurs evaluating the PAC script or parsing the results.
+     */
+    default PacEvaluation evaluate(final String url, final String host) throws PacInterpreterException {
+        return PacEvaluation.timeIndependent(findProxyForUrl(url, host));
+    }
+
+    /**
+     * Evaluates the PAC script for the given URL and host on behalf of the given client, returning the result together
+     * with the instant until which it remains valid (see {@link #evaluate(String, String)}).
+     * <p>
+     * The default implementation does not support client addresses (see {@link #supportsClientAddress()}): it ignores
+     * the client address, logging a warning the first time an address is ignored by each class.
+     * </p>
+     *
+     * @param url           the URL to evaluate.
+     * @param host          the host component of the URL (the URL substring between :// and the first : or /).
+     * @param clientAddress the address of the client returned by myIpAddress(), or null to use the interpreter's local address.
+     * @return the evaluation of the PAC script with the given URL, host and client address.
+     * @throws PacInterpreterException if an error occurs evaluating the PAC script or parsing the results.
+     */
+    default PacEvaluation evaluate(final String url, final String host, final InetAddress clientAddress) throws PacInterpreterException {
+        if (clientAddress != null) {
+            ClientAddresses.ignored(getClass());
+        }
+        return evaluate(url, host);
+    }
+
+    /**
+     * Tests whether this interpreter evaluates on behalf of the client address given to
+     * {@link #evaluate(String, String, InetAddress)}, i.e. whether the result may depend on the address. Decorators which
+     * cache or share results leave the address out of their keys when their delegate does not support it.
+     * <p>
+     * The default implementation returns false.
+     * </p>
+     *
+     * @return true if the client address is passed to myIpAddress().
+     */
+    default boolean supportsClientAddress() {
+        return false;
+    }
+
+    /**
+     * Evaluates the PAC script for the given URL and host without blocking the calling thread, on
+     * {@link PacExecutors#blockingTasks()}. Evaluations can block for a long time (e.g. on the DNS lookups of
+     * {@code dnsResolve()} and {@code isInNet()}); on Java 21 and later each runs on its own virtual thread, so any
+     * number can be outstanding.
+     *
+     * @param url  the URL to evaluate.
+     * @param host the host component of the URL (the URL substring between :// and the first : or /).
+     * @return a future completed with the evaluation, or exceptionally with a {@link PacInterpreterException} if an
+     * error occurs evaluating the PAC script or parsing the results.
+     */
+    default CompletableFuture<PacEvaluation> evaluateAsync(final String url, final String host) {
+        return evaluateAsync(url, host, PacExecutors.blockingTasks());
+    }
+
+    /**
+     * Evaluates the PAC script for the given URL and host on the given executor (see
+     * {@link #evaluateAsync(String, String)}).
+     *
+     * @param url      the URL to evaluate.
+     * @param host     the host component of the URL (the URL substring between :// and the first : or /).
+     * @param executor the executor on which to evaluate.
+     * @return a future completed with the evaluation, or exceptionally with a {@link PacInterpreterException} if an
+     * error occurs evaluating the PAC script or parsing the results.
+     */
+    default CompletableFuture<PacEvaluation> evaluateAsync(final String url, final String host, final Executor executor) {
+        if (executor == null) {
+            throw new IllegalArgumentException("Executor must not be null");
+        }
+        final CompletableFuture<PacEvaluation> future = new CompletableFuture<>();
+        executor.execute(() -> {
+            try {
+                future.complete(evaluate(url, host));
+            } catch (PacInterpreterException | RuntimeException e) {
+                future.completeExceptionally(e);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Releases any resources held by this interpreter. The interpreter must not be used after it has been closed.
+     */
+    @Override
+    default void close() {
+    }
 }
@@ -0,0 +1,588 @@
+package com.mabl.net.proxy;
+
+import com.mabl.io.IoUtils;
+
+import java.net.InetAddress;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.function.Supplier;
+
+/**
+ * Options controlling how a {@link SimplePacInterpreter} configures and uses the underlying GraalVM engine.
+ * <p>
+ * Instances are immutable and are created with {@link #newBuilder()}, e.g.
+ * </p>
+ * <pre>
+ * PacInterpreterOptions options = PacInterpreterOptions.newBuilder()
+ *         .interpreterOnlyPolicy(PacInterpreterOptions.InterpreterOnlyPolicy.FAIL)
+ *         .contextPoolSize(4)
+ *         .build();
+ * PacInterpreter interpreter = SimplePacInterpreter.forScript(script, options);
+ * </pre>
+ *
+ * @see "https://www.graalvm.org/latest/reference-manual/js/RunOnJDK/"
+ */
+public class PacInterpreterOptions {
+    static final String WARN_INTERPRETER_ONLY_OPTION = "engine.WarnInterpreterOnly";
+    static final String FIRST_TIER_COMPILATION_THRESHOLD_OPTION = "engine.FirstTierCompilationThreshold";
+    static final String LAST_TIER_COMPILATION_THRESHOLD_OPTION = "engine.LastTierCompilationThreshold";
+    private static final String WARN_INTERPRETER_ONLY_PROPERTY = "polyglot." + WARN_INTERPRETER_ONLY_OPTION;
+    private final InterpreterOnlyPolicy interpreterOnlyPolicy;
+    private final Integer firstTierCompilationThreshold;
+    private final Integer lastTierCompilationThreshold;
+    private final boolean sharedEngine;
+    private final int contextPoolSize;
+    private final Map<String, String> engineOptions;
+    private final Clock clock;
+    private final Supplier<InetAddress> localAddress;
+    private final Duration connectTimeout;
+    private final Duration readTimeout;
+    private final int maximumPacSize;
+    private final boolean profiling;
+    private final LintPolicy lintPolicy;
+    private final PacLintWarning.Severity lintSeverity;
+
+    private PacInterpreterOptions(final Builder builder) {
+        this.interpreterOnlyPolicy = builder.interpreterOnlyPolicy;
+        this.firstTierCompilationThreshold = builder.firstTierCompilationThreshold;
+        this.lastTierCompilationThreshold = builder.lastTierCompilationThreshold;
+        this.sharedEngine = builder.sharedEngine;
+        this.contextPoolSize = builder.contextPoolSize;
+        this.engineOptions = Collections.unmodifiableMap(new TreeMap<>(builder.engineOptions));
+        this.clock = builder.clock;
+        this.localAddress = builder.localAddress;
+        this.connectTimeout = builder.connectTimeout;
+        this.readTimeout = builder.readTimeout;
+        this.maximumPacSize = builder.maximumPacSize;
+        this.profiling = builder.profiling;
+        this.lintPolicy = builder.lintPolicy;
+        this.lintSeverity = builder.lintSeverity;
+    }
+
+    /**
+     * Gets the default options.
+     *
+     * @return the default options.
+     */
+    public static PacInterpreterOptions defaults() {
+        return newBuilder().build();
+    }
+
+    /**
+     * Creates a new builder initialized with the default options.
+     *
+     * @return a new builder.
+     */
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    /**
+     * Creates a new builder initialized with the values of these options.
+     *
+     * @return a new builder.
+     */
+    public Builder toBuilder() {
+        return new Builder(this);
+    }
+
+    /**
+     * Gets the action taken when GraalVM runtime compilation is unavailable and PAC scripts will be executed by the
+     * (much slower) Truffle AST interpreter.
+     *
+     * @return the interpreter-only policy.
+     */
+    public InterpreterOnlyPolicy getInterpreterOnlyPolicy() {
+        return interpreterOnlyPolicy;
+    }
+
+    /**
+     * Gets the number of invocations after which a function is compiled by the first (fast) compilation tier.
+     *
+     * @return the first tier compilation threshold, or null to use the GraalVM default.
+     */
+    public Integer getFirstTierCompilationThreshold() {
+        return firstTierCompilationThreshold;
+    }
+
+    /**
+     * Gets the number of invocations after which a function is compiled by the last (optimizing) compilation tier.
+     *
+     * @return the last tier compilation threshold, or null to use the GraalVM default.
+     */
+    public Integer getLastTierCompilationThreshold() {
+        return lastTierCompilationThreshold;
+    }
+
+    /**
+     * Tests whether the interpreter should use an engine shared with all other interpreters created with equivalent
+     * engine options (the default), or a dedicated engine that is closed along with the interpreter.
+     *
+     * @return true if the engine is shared; false if the interpreter gets a dedicated engine.
+     */
+    public boolean isSharedEngine() {
+        return sharedEngine;
+    }
+
+    /**
+     * Gets the maximum number of GraalVM contexts that may be used to evaluate the PAC concurrently.
+     * Contexts are created lazily, so an interpreter that is never accessed concurrently only ever creates one.
+     *
+     * @return the maximum context pool size.
+     */
+    public int getContextPoolSize() {
+        return contextPoolSize;
+    }
+
+    /**
+     * Gets additional raw GraalVM engine options, e.g. "engine.BackgroundCompilation" = "false".
+     *
+     * @return the additional engine options.
+     */
+    public Map<String, String> getEngineOptions() {
+        return engineOptions;
+    }
+
+    /**
+     * Gets the clock that supplies the current time (and local time zone) to the time-dependent PAC functions
+     * weekdayRange, dateRange and timeRange.
+     *
+     * @return the clock.
+     */
+    public Clock getClock() {
+        return clock;
+    }
+
+    /**
+     * Gets the supplier of the address returned by the PAC function myIpAddress() when no client address is given for
+     * an evaluation (see {@link PacInterpreter#findProxyForUrl(String, String, InetAddress)}).
+     *
+     * @return the local address supplier.
+     */
+    public Supplier<InetAddress> getLocalAddress() {
+        return localAddress;
+    }
+
+    /**
+     * Gets the maximum time to wait for a connection when loading a PAC from a URL.
+     *
+     * @return the connect timeout.
+     */
+    public Duration getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    /**
+     * Gets the maximum time to wait for data when loading a PAC from a URL.
+     *
+     * @return the read timeout.
+     */
+    public Duration getReadTimeout() {
+        return readTimeout;
+    }
+
+    /**
+     * Gets the maximum size of a PAC loaded from a file or URL.
+     *
+     * @return the maximum size in bytes.
+     */
+    public int getMaximumPacSize() {
+        return maximumPacSize;
+    }
+
+    /**
+     * Tests whether interpreters record how often each PAC function and PAC utility is called, and how long the calls
+     * take (see {@link SimplePacInterpreter#getProfile()}).
+     *
+     * @return true if profiling is enabled.
+     */
+    public boolean isProfiling() {
+        return profiling;
+    }
+
+    /**
+     * Gets the action taken when {@link PacLinter} finds performance problems in a PAC (of at least the
+     * {@link #getLintSeverity() lint severity}) as it is loaded.
+     *
+     * @return the lint policy.
+     */
+    public LintPolicy getLintPolicy() {
+        return lintPolicy;
+    }
+
+    /**
+     * Gets the minimum severity of the lint warnings to which the {@link #getLintPolicy() lint policy} applies.
+     *
+     * @return the lint severity.
+     */
+    public PacLintWarning.Severity getLintSeverity() {
+        return lintSeverity;
+    }
+
+    /**
+     * Gets the options that apply to the engine regardless of whether runtime compilation is available.
+     * Two interpreters share an engine only if these (and the compilation options) are equal.
+     */
+    Map<String, String> baseEngineOptions() {
+        final Map<String, String> options = new TreeMap<>(engineOptions);
+        // Interpreter-only warnings are reported through the logger rather than by GraalVM writing to stderr:
+        options.put(WARN_INTERPRETER_ONLY_OPTION, Boolean.FALSE.toString());
+        return options;
+    }
+
+    /**
+     * Gets the options that are only recognized by GraalVM when runtime compilation is available.
+     */
+    Map<String, String> compilationEngineOptions() {
+        final Map<String, String> options = new TreeMap<>();
+        if (firstTierCompilationThreshold != null) {
+            options.put(FIRST_TIER_COMPILATION_THRESHOLD_OPTION, firstTierCompilationThreshold.toString());
+        }
+        if (lastTierCompilationThreshold != null) {
+            options.put(LAST_TIER_COMPILATION_THRESHOLD_OPTION, lastTierCompilationThreshold.toString());
+        }
+        return options;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        PacInterpreterOptions that = (PacInterpreterOptions) o;
+        return sharedEngine == that.sharedEngine && contextPoolSize == that.contextPoolSize
+                && interpreterOnlyPolicy == that.interpreterOnlyPolicy
+                && Objects.equals(firstTierCompilationThreshold, that.firstTierCompilationThreshold)
+                && Objects.equals(lastTierCompilationThreshold, that.lastTierCompilationThreshold)
+                && Objects.equals(engineOptions, that.engineOptions)
+                && Objects.equals(clock, that.clock)
+                && Objects.equals(localAddress, that.localAddress)
+                && Objects.equals(connectTimeout, that.connectTimeout)
+                && Objects.equals(readTimeout, that.readTimeout)
+                && maximumPacSize == that.maximumPacSize
+                && profiling == that.profiling
+                && lintPolicy == that.lintPolicy
+                && lintSeverity == that.lintSeverity;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(interpreterOnlyPolicy, firstTierCompilationThreshold, lastTierCompilationThreshold,
+                sharedEngine, contextPoolSize, engineOptions, clock, localAddress, connectTimeout, readTimeout, maximumPacSize,
+                profiling, lintPolicy, lintSeverity);
+    }
+
+    @Override
+    public String toString() {
+        return "PacInterpreterOptions{" +
+                "interpreterOnlyPolicy=" + interpreterOnlyPolicy +
+                ", firstTierCompilationThreshold=" + firstTierCompilationThreshold +
+                ", lastTierCompilationThreshold=" + lastTierCompilationThreshold +
+                ", sharedEngine=" + sharedEngine +
+                ", contextPoolSize=" + contextPoolSize +
+                ", engineOptions=" + engineOptions +
+                ", clock=" + clock +
+                ", localAddress=" + localAddress +
+                ", connectTimeout=" + connectTimeout +
+                ", readTimeout=" + readTimeout +
+                ", maximumPacSize=" + maximumPacSize +
+                ", profiling=" + profiling +
+                ", lintPolicy=" + lintPolicy +
+                ", lintSeverity=" + lintSeverity +
+                '}';
+    }
+
+    private static InterpreterOnlyPolicy defaultInterpreterOnlyPolicy() {
+        // Honor the system property that was previously the only way to silence the GraalVM warning:
+        final String warn = System.getProperty(WARN_INTERPRETER_ONLY_PROPERTY);
+        return Boolean.FALSE.toString().equalsIgnoreCase(warn) ? InterpreterOnlyPolicy.IGNORE : InterpreterOnlyPolicy.WARN;
+    }
+
+    /**
+     * The action to take when GraalVM runtime compilation is not available.
+     *
+     * @see "https://www.graalvm.org/latest/reference-manual/js/FAQ/#warning-implementation-does-not-support-runtime-compilation"
+     */
+    public enum InterpreterOnlyPolicy {
+        /**
+         * Silently execute PAC scripts in the interpreter.
+         */
+        IGNORE,
+        /**
+         * Log a warning (once per JVM) and execute PAC scripts in the interpreter.
+         */
+        WARN,
+        /**
+         * Refuse to create the interpreter by throwing a {@link PacInterpreterException}.
+         */
+        FAIL
+    }
+
+    /**
+     * The action to take when a PAC has performance problems.
+     *
+     * @see PacLinter
+     */
+    public enum LintPolicy {
+        /**
+         * Do not lint PACs.
+         */
+        IGNORE,
+        /**
+         * Log a warning for each problem (once per distinct PAC text) and use the PAC.
+         */
+        WARN,
+        /**
+         * Refuse to create the interpreter by throwing a {@link PacInterpreterException}, so that e.g. a reload keeps
+         * the previous PAC.
+         */
+        FAIL
+    }
+
+    /**
+     * Builder for {@link PacInterpreterOptions}.
+     */
+    public static class Builder {
+        private InterpreterOnlyPolicy interpreterOnlyPolicy = defaultInterpreterOnlyPolicy();
+        private Integer firstTierCompilationThreshold;
+        private Integer lastTierCompilationThreshold;
+        private boolean sharedEngine = true;
+        private int contextPoolSize = Runtime.getRuntime().availableProcessors();
+        private final Map<String, String> engineOptions = new TreeMap<>();
+        private Clock clock = Clock.systemDefaultZone();
+        private Supplier<InetAddress> localAddress = LocalAddressCache.defaultInstance();
+        private Duration connectTimeout = IoUtils.DEFAULT_CONNECT_TIMEOUT;
+        private Duration readTimeout = IoUtils.DEFAULT_READ_TIMEOUT;
+        private int maximumPacSize = IoUtils.DEFAULT_MAX_SIZE;
+        private boolean profiling;
+        private LintPolicy lintPolicy = LintPolicy.WARN;
+        private PacLintWarning.Severity lintSeverity = PacLintWarning.Severity.WARNING;
+
+        private Builder() {
+        }
+
+        private Builder(final PacInterpreterOptions options) {
+            this.interpreterOnlyPolicy = options.interpreterOnlyPolicy;
+            this.firstTierCompilationThreshold = options.firstTierCompilationThreshold;
+            this.lastTierCompilationThreshold = options.lastTierCompilationThreshold;
+            this.sharedEngine = options.sharedEngine;
+            this.contextPoolSize = options.contextPoolSize;
+            this.engineOptions.putAll(options.engineOptions);
+            this.clock = options.clock;
+            this.localAddress = options.localAddress;
+            this.connectTimeout = options.connectTimeout;
+            this.readTimeout = options.readTimeout;
+            this.maximumPacSize = options.maximumPacSize;
+            this.profiling = options.profiling;
+            this.lintPolicy = options.lintPolicy;
+            this.lintSeverity = options.lintSeverity;
+        }
+
+        /**
+         * Sets the action taken when runtime compilation is unavailable.
+         *
+         * @param interpreterOnlyPolicy the interpreter-only policy.
+         * @return this builder.
+         */
+        public Builder interpreterOnlyPolicy(final InterpreterOnlyPolicy interpreterOnlyPolicy) {
+            if (interpreterOnlyPolicy == null) {
+                throw new IllegalArgumentException("Interpreter-only policy must not be null");
+            }
+            this.interpreterOnlyPolicy = interpreterOnlyPolicy;
+            return this;
+        }
+
+        /**
+         * Sets the first tier compilation threshold. Ignored when runtime compilation is unavailable.
+         *
+         * @param threshold the number of invocations before first tier compilation, or null for the GraalVM default.
+         * @return this builder.
+         */
+        public Builder firstTierCompilationThreshold(final Integer threshold) {
+            this.firstTierCompilationThreshold = requirePositiveOrNull(threshold, "First tier compilation threshold");
+            return this;
+        }
+
+        /**
+         * Sets the last tier compilation threshold. Ignored when runtime compilation is unavailable.
+         *
+         * @param threshold the number of invocations before last tier compilation, or null for the GraalVM default.
+         * @return this builder.
+         */
+        public Builder lastTierCompilationThreshold(final Integer threshold) {
+            this.lastTierCompilationThreshold = requirePositiveOrNull(threshold, "Last tier compilation threshold");
+            return this;
+        }
+
+        /**
+         * Sets whether the engine is shared with other interpreters that use equivalent engine options.
+         *
+         * @param sharedEngine true to share the engine; false to use a dedicated engine per interpreter.
+         * @return this builder.
+         */
+        public Builder sharedEngine(final boolean sharedEngine) {
+            this.sharedEngine = sharedEngine;
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of contexts used to evaluate the PAC concurrently.
+         *
+         * @param contextPoolSize the maximum context pool size (must be positive).
+         * @return this builder.
+         */
+        public Builder contextPoolSize(final int contextPoolSize) {
+            if (contextPoolSize <= 0) {
+                throw new IllegalArgumentException("Context pool size must be positive");
+            }
+            this.contextPoolSize = contextPoolSize;
+            return this;
+        }
+
+        /**
+         * Sets a raw GraalVM engine option.
+         *
+         * @param key   the option key, e.g. "engine.BackgroundCompilation".
+         * @param value the option value.
+         * @return this builder.
+         */
+        public Builder engineOption(final String key, final String value) {
+            if (key == null || value == null) {
+                throw new IllegalArgumentException("Engine option key and value must not be null");
+            }
+            this.engineOptions.put(key, value);
+            return this;
+        }
+
+        /**
+         * Sets the clock used by the time-dependent PAC functions. The clock's zone is used as the PAC's local time zone.
+         *
+         * @param clock the clock.
+         * @return this builder.
+         */
+        public Builder clock(final Clock clock) {
+            if (clock == null) {
+                throw new IllegalArgumentException("Clock must not be null");
+            }
+            this.clock = clock;
+            return this;
+        }
+
+        /**
+         * Sets the supplier of the address returned by myIpAddress() when no client address is given for an evaluation.
+         * The default is a {@link LocalAddressCache} shared by all interpreters.
+         *
+         * @param localAddress the local address supplier.
+         * @return this builder.
+         */
+        public Builder localAddress(final Supplier<InetAddress> localAddress) {
+            if (localAddress == null) {
+                throw new IllegalArgumentException("Local address supplier must not be null");
+            }
+            this.localAddress = localAddress;
+            return this;
+        }
+
+        /**
+         * Sets the maximum time to wait for a connection when loading a PAC from a URL.
+         *
+         * @param connectTimeout the connect timeout (zero means no timeout).
+         * @return this builder.
+         */
+        public Builder connectTimeout(final Duration connectTimeout) {
+            this.connectTimeout = requireNonNegative(connectTimeout, "Connect timeout");
+            return this;
+        }
+
+        /**
+         * Sets the maximum time to wait for data when loading a PAC from a URL.
+         *
+         * @param readTimeout the read timeout (zero means no timeout).
+         * @return this builder.
+         */
+        public Builder readTimeout(final Duration readTimeout) {
+            this.readTimeout = requireNonNegative(readTimeout, "Read timeout");
+            return this;
+        }
+
+        /**
+         * Sets the maximum size of a PAC loaded from a file or URL. Larger PACs fail to load.
+         *
+         * @param maximumPacSize the maximum size in bytes.
+         * @return this builder.
+         */
+        public Builder maximumPacSize(final int maximumPacSize) {
+            if (maximumPacSize <= 0) {
+                throw new IllegalArgumentException("Maximum PAC size must be positive");
+            }
+            this.maximumPacSize = maximumPacSize;
+            return this;
+        }
+
+        /**
+         * Sets whether interpreters profile PAC evaluations. Profiling slows evaluation considerably, so it is intended
+         * for diagnosing slow PACs rather than for production traffic.
+         *
+         * @param profiling true to record per-function call counts and times.
+         * @return this builder.
+         */
+        public Builder profiling(final boolean profiling) {
+            this.profiling = profiling;
+            return this;
+        }
+
+        /**
+         * Sets the action taken when a PAC has performance problems.
+         *
+         * @param lintPolicy the lint policy.
+         * @return this builder.
+         */
+        public Builder lintPolicy(final LintPolicy lintPolicy) {
+            if (lintPolicy == null) {
+                throw new IllegalArgumentException("Lint policy must not be null");
+            }
+            this.lintPolicy = lintPolicy;
+            return this;
+        }
+
+        /**
+         * Sets the minimum severity of the lint warnings to which the lint policy applies.
+         *
+         * @param lintSeverity the lint severity.
+         * @return this builder.
+         */
+        public Builder lintSeverity(final PacLintWarning.Severity lintSeverity) {
+            if (lintSeverity == null) {
+                throw new IllegalArgumentException("Lint severity must not be null");
+            }
+            this.lintSeverity = lintSeverity;
+            return this;
+        }
+
+        /**
+         * Creates the {@link PacInterpreterOptions}.
+         *
+         * @return the options.
+         */
+        public PacInterpreterOptions build() {
+            return new PacInterpreterOptions(this);
+        }
+
+        private static Duration requireNonNegative(final Duration value, final String name) {
+            if (value == null || value.isNegative()) {
+                throw new IllegalArgumentException(name + " must not be null or negative");
+            }
+            return value;
+        }
+
+        private static Integer requirePositiveOrNull(final Integer value, final String name) {
+            if (value != null && value <= 0) {
+                throw new IllegalArgumentException(name + " must be positive");
+            }
+            return value;
+        }
+    }
+}
@@ -0,0 +1,574 @@
+package com.mabl.net.proxy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.MalformedURLException;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Evaluates PACs for many tenants from one JVM.
+ * <p>
+ * Each tenant is registered with the {@link PacSource} of its PAC. Interpreters are created lazily, the first time a
+ * tenant's PAC is evaluated, and tenants whose PACs have identical content share a single {@link SimplePacInterpreter}
+ * (identified by the SHA-256 hash of the PAC). All interpreters are created with the registry's
+ * {@link PacInterpreterOptions}, so by default they also share one GraalVM engine.
+ * </p>
+ * <p>
+ * The number of live interpreters and their estimated heap footprint can be capped (see {@link Builder}); when a cap
+ * is exceeded the least recently used interpreters are evicted and their contexts closed. An evicted tenant's PAC is
+ * transparently reloaded from its source the next time it is evaluated. Evaluations in progress are never interrupted
+ * by an eviction: an interpreter is only closed once the last evaluation using it completes.
+ * </p>
+ */
+public class PacInterpreterRegistry implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(PacInterpreterRegistry.class);
+    private final PacInterpreterOptions options;
+    private final int maximumInterpreters;
+    private final long maximumFootprint;
+    private final Duration expireAfterAccess;
+    private final ConcurrentMap<String, Tenant> tenants = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, SharedPacInterpreter> interpreters = new ConcurrentHashMap<>(); // Keyed by PAC content hash
+    private final Object evictionLock = new Object();
+    private final LongAdder evictions = new LongAdder();
+    private volatile boolean closed;
+
+    protected PacInterpreterRegistry(final Builder builder) {
+        this.options = builder.options;
+        this.maximumInterpreters = builder.maximumInterpreters;
+        this.maximumFootprint = builder.maximumFootprint;
+        this.expireAfterAccess = builder.expireAfterAccess;
+    }
+
+    /**
+     * Creates a builder for a registry.
+     *
+     * @return a new builder.
+     */
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    /**
+     * Registers a tenant, replacing any previous registration with the same ID. The PAC is not loaded until the
+     * tenant's interpreter is first used.
+     *
+     * @param tenantId the tenant ID.
+     * @param source   the source of the tenant's PAC.
+     * @return the tenant's interpreter (see {@link #getInterpreter(String)}).
+     */
+    public PacInterpreter register(final String tenantId, final PacSource source) {
+        if (tenantId == null) {
+            throw new IllegalArgumentException("Tenant ID must not be null");
+        }
+        if (source == null) {
+            throw new IllegalArgumentException("PAC source must not be null");
+        }
+        checkOpen();
+        final Tenant tenant = new Tenant(tenantId, source);
+        final Tenant previous = tenants.put(tenantId, tenant);
+        if (previous != null) {
+            releaseUnreferenced(previous.current.getAndSet(null));
+        }
+        return tenant.interpreter;
+    }
+
+    /**
+     * Unregisters a tenant. Its interpreter is closed unless it is shared with other tenants.
+     *
+     * @param tenantId the tenant ID.
+     * @return true if the tenant was registered.
+     */
+    public boolean unregister(final String tenantId) {
+        final Tenant tenant = tenants.remove(tenantId);
+        if (tenant == null) {
+            return false;
+        }
+        releaseUnreferenced(tenant.current.getAndSet(null));
+        return true;
+    }
+
+    /**
+     * Gets the IDs of all registered tenants.
+     *
+     * @return the tenant IDs.
+     */
+    public Set<String> getTenantIds() {
+        return Collections.unmodifiableSet(new HashSet<>(tenants.keySet()));
+    }
+
+    /**
+     * Gets a view of the given tenant's PAC as a {@link PacInterpreter}. The view loads (or reloads, after an eviction)
+     * the PAC on demand; closing it has no effect, since the interpreters are owned by the registry.
+     *
+     * @param tenantId the tenant ID.
+     * @return the tenant's interpreter.
+     * @throws IllegalArgumentException if the tenant is not registered.
+     */
+    public PacInterpreter getInterpreter(final String tenantId) {
+        return getTenant(tenantId).interpreter;
+    }
+
+    /**
+     * Reloads the given tenant's PAC from its source.
+     *
+     * @param tenantId the tenant ID.
+     * @throws PacInterpreterException if the PAC cannot be loaded or evaluated.
+     */
+    public void reload(final String tenantId) throws PacInterpreterException {
+        load(getTenant(tenantId), true).release();
+    }
+
+    /**
+     * Gets the metrics of the given tenant.
+     *
+     * @param tenantId the tenant ID.
+     * @return the tenant's metrics.
+     * @throws IllegalArgumentException if the tenant is not registered.
+     */
+    public TenantMetrics getMetrics(final String tenantId) {
+        final Tenant tenant = getTenant(tenantId);
+        final SharedPacInterpreter shared = tenant.current.get();
+        return new TenantMetrics(tenant.hits.sum(), tenant.loads.sum(), tenant.loadFailures.sum(),
+                shared != null && !shared.isRetired());
+    }
+
+    /**
+     * Gets the number of live interpreters, which is at most the number of tenants with distinct PACs.
+     *
+     * @return the number of interpreters.
+     */
+    public int getInterpreterCount() {
+        return interpreters.size();
+    }
+
+    /**
+     * Gets the estimated heap footprint of all live interpreters.
+     *
+     * @return the estimated footprint in bytes.
+     */
+    public long getEstimatedFootprint() {
+        return interpreters.values().stream().mapToLong(shared -> shared.interpreter.getFootprint().estimatedBytes()).sum();
+    }
+
+    /**
+     * Gets the number of interpreters evicted because a cap was exceeded or they were idle.
+     *
+     * @return the number of evictions.
+     */
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    /**
+     * Evicts interpreters that have not been used within the configured expiry (see
+     * {@link Builder#expireAfterAccess(Duration)}). This also happens whenever a PAC is loaded, so it only needs to be
+     * called to release memory while no PACs are being loaded.
+     */
+    public void evictIdle() {
+        evictIfNecessary(null);
+    }
+
+    /**
+     * Closes all interpreters. The registry must not be used after it has been closed.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        tenants.clear();
+        synchronized (evictionLock) {
+            interpreters.values().forEach(this::evict);
+        }
+    }
+
+    private Tenant getTenant(final String tenantId) {
+        final Tenant tenant = tenants.get(tenantId);
+        if (tenant == null) {
+            throw new IllegalArgumentException(String.format("Tenant \"%s\" is not registered", tenantId));
+        }
+        return tenant;
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("Registry is closed");
+        }
+    }
+
+    /**
+     * Gets the tenant's interpreter, loading it if necessary. The caller must release the returned interpreter.
+     */
+    private SharedPacInterpreter acquire(final Tenant tenant) throws PacInterpreterException {
+        final SharedPacInterpreter shared = tenant.current.get();
+        if (shared != null && shared.acquire()) {
+            tenant.hits.increment();
+            return shared;
+        }
+        return load(tenant, false);
+    }
+
+    private SharedPacInterpreter load(final Tenant tenant, final boolean force) throws PacInterpreterException {
+        final SharedPacInterpreter loaded;
+        final SharedPacInterpreter previous;
+        synchronized (tenant) {
+            previous = tenant.current.get();
+            if (!force && previous != null && previous.acquire()) {
+                // Loaded by another thread while this one was waiting:
+                tenant.hits.increment();
+                return previous;
+            }
+            if (closed || tenants.get(tenant.id) != tenant) {
+                throw new PacInterpreterException(String.format("Tenant \"%s\" is no longer registered", tenant.id));
+            }
+            tenant.loads.increment();
+            try {
+                final String pac = tenant.source.load(options);
+                loaded = obtain(PacHash.contentHash(pac), pac);
+            } catch (IOException e) {
+                tenant.loadFailures.increment();
+                throw new PacInterpreterException(String.format("Failed to load PAC for tenant \"%s\" from %s", tenant.id, tenant.source), e);
+            } catch (PacInterpreterException | RuntimeException e) {
+                tenant.loadFailures.increment();
+                throw e;
+            }
+            tenant.current.set(loaded);
+        }
+        logger.debug("Loaded PAC {} for tenant \"{}\"", loaded.contentHash, tenant.id);
+        if (previous != null && previous != loaded) {
+            releaseUnreferenced(previous);
+        }
+        evictIfNecessary(loaded);
+        return loaded;
+    }
+
+    /**
+     * Gets the live interpreter for the given PAC content, creating it if necessary. The caller must release the
+     * returned interpreter.
+     */
+    private SharedPacInterpreter obtain(final String contentHash, final String pac) throws PacInterpreterException {
+        while (true) {
+            final SharedPacInterpreter existing = interpreters.get(contentHash);
+            if (existing != null) {
+                if (existing.acquire()) {
+                    return existing;
+                }
+                // Evicted concurrently:
+                interpreters.remove(contentHash, existing);
+                continue;
+            }
+            final SharedPacInterpreter created = new SharedPacInterpreter(contentHash, SimplePacInterpreter.forScript(pac, options));
+            created.acquire();
+            if (interpreters.putIfAbsent(contentHash, created) == null) {
+                if (closed) {
+                    evict(created);
+                }
+                return created;
+            }
+            // Another tenant with the same PAC won the race:
+            created.release();
+            created.retire();
+        }
+    }
+
+    private void releaseUnreferenced(final SharedPacInterpreter shared) {
+        if (shared == null) {
+            return;
+        }
+        final boolean referenced = tenants.values().stream().anyMatch(tenant -> tenant.current.get() == shared);
+        if (!referenced) {
+            synchronized (evictionLock) {
+                evict(shared);
+            }
+        }
+    }
+
+    private void evictIfNecessary(final SharedPacInterpreter keep) {
+        synchronized (evictionLock) {
+            if (expireAfterAccess != null) {
+                final long idleSince = System.nanoTime() - expireAfterAccess.toNanos();
+                interpreters.values().stream()
+                        .filter(shared -> shared != keep && shared.lastAccessNanos() - idleSince < 0)
+                        .forEach(shared -> {
+                            logger.debug("Evicting idle PAC {}", shared.contentHash);
+                            evictions.increment();
+                            evict(shared);
+                        });
+            }
+            while (interpreters.size() > maximumInterpreters || getEstimatedFootprint() > maximumFootprint) {
+                final SharedPacInterpreter leastRecentlyUsed = interpreters.values().stream()
+                        .filter(shared -> shared != keep)
+                        // System.nanoTime() values must be compared by their difference:
+                        .min((a, b) -> Long.signum(a.lastAccessNanos() - b.lastAccessNanos()))
+                        .orElse(null);
+                if (leastRecentlyUsed == null) {
+                    break;
+                }
+                logger.debug("Evicting least recently used PAC {}", leastRecentlyUsed.contentHash);
+                evictions.increment();
+                evict(leastRecentlyUsed);
+            }
+        }
+    }
+
+    private void evict(final SharedPacInterpreter shared) {
+        interpreters.remove(shared.contentHash, shared);
+        for (final Tenant tenant : tenants.values()) {
+            tenant.current.compareAndSet(shared, null);
+        }
+        shared.retire();
+    }
+
+    /**
+     * The metrics of a tenant.
+     */
+    public static final class TenantMetrics {
+        private final long hits;
+        private final long loads;
+        private final long loadFailures;
+        private final boolean loaded;
+
+        TenantMetrics(final long hits, final long loads, final long loadFailures, final boolean loaded) {
+            this.hits = hits;
+            this.loads = loads;
+            this.loadFailures = loadFailures;
+            this.loaded = loaded;
+        }
+
+        /**
+         * Gets the number of evaluations served by an already loaded interpreter.
+         *
+         * @return the number of hits.
+         */
+        public long hits() {
+            return hits;
+        }
+
+        /**
+         * Gets the number of times the tenant's PAC was loaded from its source: on first use, after an eviction and on
+         * each explicit reload.
+         *
+         * @return the number of loads (including failed loads).
+         */
+        public long loads() {
+            return loads;
+        }
+
+        /**
+         * Gets the number of loads that failed.
+         *
+         * @return the number of failed loads.
+         */
+        public long loadFailures() {
+            return loadFailures;
+        }
+
+        /**
+         * Tests whether the tenant's PAC is currently loaded.
+         *
+         * @return true if the tenant has a live interpreter.
+         */
+        public boolean isLoaded() {
+            return loaded;
+        }
+
+        @Override
+        public String toString() {
+            return "TenantMetrics{" +
+                    "hits=" + hits +
+                    ", loads=" + loads +
+                    ", loadFailures=" + loadFailures +
+                    ", loaded=" + loaded +
+                    '}';
+        }
+    }
+
+    /**
+     * An interpreter shared by all tenants whose PAC has the same content hash.
+     */
+    private static final class SharedPacInterpreter {
+        private final String contentHash;
+        private final SharedInterpreter<SimplePacInterpreter> shared;
+        private final SimplePacInterpreter interpreter;
+
+        private SharedPacInterpreter(final String contentHash, final SimplePacInterpreter interpreter) {
+            this.contentHash = contentHash;
+            this.shared = new SharedInterpreter<>(interpreter);
+            this.interpreter = interpreter;
+        }
+
+        private boolean acquire() {
+            return shared.acquire();
+        }
+
+        private void release() {
+            shared.release();
+        }
+
+        private void retire() {
+            shared.retire();
+        }
+
+        private boolean isRetired() {
+            return shared.isRetired();
+        }
+
+        private long lastAccessNanos() {
+            return shared.lastAccessNanos();
+        }
+    }
+
+    private final class Tenant {
+        private final String id;
+        private final PacSource source;
+        private final AtomicReference<SharedPacInterpreter> current = new AtomicReference<>();
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder loads = new LongAdder();
+        private final LongAdder loadFailures = new LongAdder();
+        private final PacInterpreter interpreter = new TenantInterpreter(this);
+
+        private Tenant(final String id, final PacSource source) {
+            this.id = id;
+            this.source = source;
+        }
+    }
+
+    private final class TenantInterpreter implements PacInterpreter {
+        private final Tenant tenant;
+
+        private TenantInterpreter(final Tenant tenant) {
+            this.tenant = tenant;
+        }
+
+        @Override
+        public String getPac() {
+            try {
+                final SharedPacInterpreter shared = acquire(tenant);
+                try {
+                    return shared.interpreter.getPac();
+                } finally {
+                    shared.release();
+                }
+            } catch (PacInterpreterException e) {
+                throw new RuntimePacInterpreterException(e.getMessage(), e.getCause());
+            }
+        }
+
+        @Override
+        public FindProxyResult findProxyForUrl(final String url) throws MalformedURLException, PacInterpreterException {
+            return findProxyForUrl(url, PacUrls.hostOf(url));
+        }
+
+        @Override
+        public FindProxyResult findProxyForUrl(final String url, final String host) throws PacInterpreterException {
+            return evaluate(url, host, null).result();
+        }
+
+        @Override
+        public PacEvaluation evaluate(final String url, final String host) throws PacInterpreterException {
+            return evaluate(url, host, null);
+        }
+
+        @Override
+        public PacEvaluation evaluate(final String url, final String host, final InetAddress clientAddress) throws PacInterpreterException {
+            final SharedPacInterpreter shared = acquire(tenant);
+            try {
+                return shared.interpreter.evaluate(url, host, clientAddress);
+            } finally {
+                shared.release();
+            }
+        }
+
+        @Override
+        public boolean supportsClientAddress() {
+            return true;
+        }
+    }
+
+    /**
+     * Builder for {@link PacInterpreterRegistry}.
+     */
+    public static class Builder {
+        private PacInterpreterOptions options = PacInterpreterOptions.defaults();
+        private int maximumInterpreters = Integer.MAX_VALUE;
+        private long maximumFootprint = Long.MAX_VALUE;
+        private Duration expireAfterAccess;
+
+        private Builder() {
+        }
+
+        /**
+         * Sets the options used to load PACs and create interpreters.
+         *
+         * @param options the interpreter options.
+         * @return this builder.
+         */
+        public Builder options(final PacInterpreterOptions options) {
+            if (options == null) {
+                throw new IllegalArgumentException("Options must not be null");
+            }
+            this.options = options;
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of live interpreters. Least recently used interpreters are evicted first.
+         *
+         * @param maximumInterpreters the maximum number of interpreters (must be positive).
+         * @return this builder.
+         */
+        public Builder maximumInterpreters(final int maximumInterpreters) {
+            if (maximumInterpreters <= 0) {
+                throw new IllegalArgumentException("Maximum interpreters must be positive");
+            }
+            this.maximumInterpreters = maximumInterpreters;
+            return this;
+        }
+
+        /**
+         * Sets the maximum estimated heap footprint of all live interpreters. Least recently used interpreters are
+         * evicted first, but the most recently loaded interpreter is always kept.
+         *
+         * @param maximumFootprint the maximum footprint in bytes (must be positive).
+         * @return this builder.
+         */
+        public Builder maximumFootprint(final long maximumFootprint) {
+            if (maximumFootprint <= 0) {
+                throw new IllegalArgumentException("Maximum footprint must be positive");
+            }
+            this.maximumFootprint = maximumFootprint;
+            return this;
+        }
+
+        /**
+         * Sets how long an interpreter may remain unused before it is evicted.
+         *
+         * @param expireAfterAccess the idle expiry, or null to never evict idle interpreters (the default).
+         * @return this builder.
+         */
+        public Builder expireAfterAccess(final Duration expireAfterAccess) {
+            if (expireAfterAccess != null && (expireAfterAccess.isNegative() || expireAfterAccess.isZero())) {
+                throw new IllegalArgumentException("Idle expiry must be positive");
+            }
+            this.expireAfterAccess = expireAfterAccess;
+            return this;
+        }
+
+        /**
+         * Creates the {@link PacInterpreterRegistry}.
+         *
+         * @return the registry.
+         */
+        public PacInterpreterRegistry build() {
+            return new PacInterpreterRegistry(this);
+        }
+    }
+}
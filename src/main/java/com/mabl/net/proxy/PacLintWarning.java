@@ -0,0 +1,139 @@
+package com.mabl.net.proxy;
+
+import java.util.Objects;
+
+/**
+ * A performance problem found in a PAC script by {@link PacLinter}.
+ */
+public class PacLintWarning {
+    private final Rule rule;
+    private final int line;
+    private final String message;
+
+    PacLintWarning(final Rule rule, final int line, final String message) {
+        this.rule = rule;
+        this.line = line;
+        this.message = message;
+    }
+
+    /**
+     * Gets the rule that was violated.
+     *
+     * @return the rule.
+     */
+    public Rule rule() {
+        return rule;
+    }
+
+    /**
+     * Gets how much the problem is likely to slow evaluation.
+     *
+     * @return the severity of the rule.
+     */
+    public Severity severity() {
+        return rule.severity();
+    }
+
+    /**
+     * Gets the line of the PAC at which the problem was found.
+     *
+     * @return the 1-based line number.
+     */
+    public int line() {
+        return line;
+    }
+
+    /**
+     * Gets a description of the problem and how to fix it.
+     *
+     * @return the message.
+     */
+    public String message() {
+        return message;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        PacLintWarning that = (PacLintWarning) o;
+        return line == that.line && rule == that.rule && Objects.equals(message, that.message);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(rule, line, message);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("line %d: %s %s: %s", line, severity(), rule.id(), message);
+    }
+
+    /**
+     * How much a problem is likely to slow evaluation.
+     */
+    public enum Severity {
+        /**
+         * A missed optimization, e.g. one that prevents results from being cached per host.
+         */
+        INFO,
+        /**
+         * Work (such as a DNS lookup or regular expression compilation) that is likely to be repeated needlessly on
+         * every evaluation.
+         */
+        WARNING
+    }
+
+    /**
+     * The problems detected by {@link PacLinter}.
+     */
+    public enum Rule {
+        /**
+         * A function that triggers a DNS lookup (dnsResolve, isResolvable, or isInNet with a host name) is called before
+         * checks that only inspect the host name, so every evaluation pays for the lookup even when a cheap check would
+         * have decided the result.
+         */
+        DNS_BEFORE_CHEAP_RULES("dns-before-cheap-rules", Severity.WARNING),
+        /**
+         * A regular expression (including the one compiled by every call of shExpMatch) is constructed inside a loop.
+         */
+        REGEX_IN_LOOP("regex-in-loop", Severity.WARNING),
+        /**
+         * A regular expression is constructed with RegExp inside a function, i.e. on every evaluation, rather than once
+         * at the top level of the PAC.
+         */
+        REGEX_PER_EVALUATION("regex-per-evaluation", Severity.INFO),
+        /**
+         * FindProxyForURL only uses the URL to match the host, so its results could be cached per host (see
+         * {@link PrecomputedPacInterpreter}) if it matched the host argument instead.
+         */
+        URL_ONLY_FOR_HOST("url-only-for-host", Severity.INFO);
+
+        private final String id;
+        private final Severity severity;
+
+        Rule(final String id, final Severity severity) {
+            this.id = id;
+            this.severity = severity;
+        }
+
+        /**
+         * Gets the identifier of the rule, as shown in reports.
+         *
+         * @return the rule identifier, e.g. "dns-before-cheap-rules".
+         */
+        public String id() {
+            return id;
+        }
+
+        /**
+         * Gets the severity of violations of the rule.
+         *
+         * @return the severity.
+         */
+        public Severity severity() {
+            return severity;
+        }
+    }
+}
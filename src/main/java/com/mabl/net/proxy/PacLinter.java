@@ -0,0 +1,412 @@
+package com.mabl.net.proxy;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Finds common performance problems in PAC scripts without evaluating them.
+ * <p>
+ * The script is tokenized (not fully parsed), and the functions it declares are checked for DNS lookups that precede
+ * cheap host name checks, regular expressions that are compiled in loops or on every evaluation, and a FindProxyForURL
+ * that only uses its URL argument to match the host. See {@link PacLintWarning.Rule} for details. The checks are
+ * heuristics, so they may miss problems in unusually structured scripts, but the warnings they report are accurate for
+ * the typical if/else-if chain of rules.
+ * </p>
+ * <p>
+ * {@link SimplePacInterpreter} lints every PAC it loads and logs or rejects it according to
+ * {@link PacInterpreterOptions#getLintPolicy()}.
+ * </p>
+ */
+public final class PacLinter {
+    private static final Set<String> DNS_FUNCTIONS = new HashSet<>(Arrays.asList(
+            "dnsResolve", "dnsResolveEx", "isResolvable", "isResolvableEx", "isInNet", "isInNetEx"));
+    private static final Set<String> CHEAP_FUNCTIONS = new HashSet<>(Arrays.asList(
+            "dnsDomainIs", "dnsDomainLevels", "isPlainHostName", "localHostOrDomainIs", "shExpMatch"));
+    private static final Set<String> LOOP_KEYWORDS = new HashSet<>(Arrays.asList("for", "while", "do"));
+    // Keywords after which a slash starts a regular expression literal rather than being a division:
+    private static final Set<String> REGEX_PREFIX_KEYWORDS = new HashSet<>(Arrays.asList(
+            "return", "typeof", "instanceof", "in", "of", "new", "delete", "void", "throw", "case", "do", "else"));
+    private static final Pattern IP_ADDRESS = Pattern.compile("\\d{1,3}(\\.\\d{1,3}){3}");
+    // A shExpMatch pattern which matches any scheme and path, so only constrains the host:
+    private static final Pattern HOST_ONLY_URL_PATTERN = Pattern.compile("\\*://[^/]+/\\*");
+    private static final String PAC_FUNCTION_NAME = "FindProxyForURL";
+
+    private PacLinter() {
+    }
+
+    /**
+     * Checks the given PAC script for performance problems.
+     *
+     * @param pac the PAC script.
+     * @return the problems found, ordered by line.
+     */
+    public static List<PacLintWarning> lint(final String pac) {
+        if (pac == null) {
+            throw new IllegalArgumentException("PAC cannot be null");
+        }
+        final List<Token> tokens = tokenize(pac);
+        final List<Function> functions = functions(tokens);
+        final List<int[]> loops = loops(tokens);
+        final List<PacLintWarning> warnings = new ArrayList<>();
+        for (final Function function : functions) {
+            checkDnsBeforeCheapRules(tokens, function, warnings);
+            if (function.name.equals(PAC_FUNCTION_NAME)) {
+                checkUrlOnlyForHost(tokens, function, warnings);
+            }
+        }
+        checkRegexes(tokens, functions, loops, warnings);
+        warnings.sort(Comparator.comparingInt(PacLintWarning::line).thenComparing(PacLintWarning::rule));
+        return Collections.unmodifiableList(warnings);
+    }
+
+    private static void checkDnsBeforeCheapRules(final List<Token> tokens, final Function function, final List<PacLintWarning> warnings) {
+        int dnsCall = -1;
+        int cheapCalls = 0;
+        for (int ii = function.bodyStart + 1; ii < function.bodyEnd; ii++) {
+            if (!isCall(tokens, ii)) {
+                continue;
+            }
+            final String name = tokens.get(ii).text;
+            if (dnsCall < 0 && DNS_FUNCTIONS.contains(name) && !hasIpAddressArgument(tokens, ii)) {
+                dnsCall = ii;
+            } else if (dnsCall >= 0 && CHEAP_FUNCTIONS.contains(name)) {
+                cheapCalls++;
+            }
+        }
+        if (dnsCall >= 0 && cheapCalls > 0) {
+            final Token call = tokens.get(dnsCall);
+            warnings.add(new PacLintWarning(PacLintWarning.Rule.DNS_BEFORE_CHEAP_RULES, call.line, String.format(
+                    "DNS-triggering call %s() in %s precedes %d cheap rule(s); check the host name (e.g. with dnsDomainIs or shExpMatch) first",
+                    call.text, function.name, cheapCalls)));
+        }
+    }
+
+    private static void checkUrlOnlyForHost(final List<Token> tokens, final Function function, final List<PacLintWarning> warnings) {
+        if (function.parameters.isEmpty()) {
+            return;
+        }
+        final String url = function.parameters.get(0);
+        int firstUse = -1;
+        for (int ii = function.bodyStart + 1; ii < function.bodyEnd; ii++) {
+            final Token token = tokens.get(ii);
+            if (token.type != TokenType.IDENTIFIER || !token.text.equals(url) || isProperty(tokens, ii)) {
+                continue;
+            }
+            if (!isHostOnlyMatch(tokens, ii)) {
+                return;
+            }
+            if (firstUse < 0) {
+                firstUse = ii;
+            }
+        }
+        if (firstUse >= 0) {
+            warnings.add(new PacLintWarning(PacLintWarning.Rule.URL_ONLY_FOR_HOST, tokens.get(firstUse).line, String.format(
+                    "%s is only matched against host patterns; matching the host argument instead allows results to be cached per host",
+                    url)));
+        }
+    }
+
+    private static void checkRegexes(final List<Token> tokens, final List<Function> functions, final List<int[]> loops,
+                                     final List<PacLintWarning> warnings) {
+        for (int ii = 0; ii < tokens.size(); ii++) {
+            if (!isCall(tokens, ii)) {
+                continue;
+            }
+            final Token token = tokens.get(ii);
+            final boolean regExp = token.text.equals("RegExp");
+            if (!regExp && !token.text.equals("shExpMatch")) {
+                continue;
+            }
+            // Code at the top level of the PAC only runs once per context, so only code in functions matters:
+            final Function function = enclosingFunction(functions, ii);
+            if (function == null) {
+                continue;
+            }
+            if (isInside(loops, ii)) {
+                warnings.add(new PacLintWarning(PacLintWarning.Rule.REGEX_IN_LOOP, token.line, regExp
+                        ? String.format("RegExp constructed in a loop in %s; construct it once at the top level of the PAC", function.name)
+                        : String.format("shExpMatch() compiles its pattern on every call, and is called in a loop in %s; " +
+                        "match a single RegExp constructed at the top level of the PAC instead", function.name)));
+            } else if (regExp) {
+                warnings.add(new PacLintWarning(PacLintWarning.Rule.REGEX_PER_EVALUATION, token.line, String.format(
+                        "RegExp constructed on every call of %s; construct it once at the top level of the PAC", function.name)));
+            }
+        }
+    }
+
+    /**
+     * Tests whether the identifier at the given index is called, as a global function (not a method or declaration).
+     */
+    private static boolean isCall(final List<Token> tokens, final int index) {
+        final Token token = tokens.get(index);
+        if (token.type != TokenType.IDENTIFIER || !isPunctuation(tokens, index + 1, "(") || isProperty(tokens, index)) {
+            return false;
+        }
+        return index == 0 || !tokens.get(index - 1).text.equals("function");
+    }
+
+    private static boolean isProperty(final List<Token> tokens, final int index) {
+        return isPunctuation(tokens, index - 1, ".");
+    }
+
+    private static boolean hasIpAddressArgument(final List<Token> tokens, final int call) {
+        final int argument = call + 2;
+        return argument < tokens.size() && tokens.get(argument).type == TokenType.STRING
+                && IP_ADDRESS.matcher(tokens.get(argument).text).matches();
+    }
+
+    /**
+     * Tests whether the identifier at the given index is the first argument of shExpMatch with a host-only pattern.
+     */
+    private static boolean isHostOnlyMatch(final List<Token> tokens, final int index) {
+        return index >= 2 && isPunctuation(tokens, index - 1, "(") && isCall(tokens, index - 2)
+                && tokens.get(index - 2).text.equals("shExpMatch")
+                && isPunctuation(tokens, index + 1, ",")
+                && index + 2 < tokens.size() && tokens.get(index + 2).type == TokenType.STRING
+                && HOST_ONLY_URL_PATTERN.matcher(tokens.get(index + 2).text).matches();
+    }
+
+    private static boolean isPunctuation(final List<Token> tokens, final int index, final String text) {
+        return index >= 0 && index < tokens.size() && tokens.get(index).type == TokenType.PUNCTUATION
+                && tokens.get(index).text.equals(text);
+    }
+
+    private static Function enclosingFunction(final List<Function> functions, final int index) {
+        for (final Function function : functions) {
+            if (index > function.bodyStart && index < function.bodyEnd) {
+                return function;
+            }
+        }
+        return null;
+    }
+
+    private static boolean isInside(final List<int[]> ranges, final int index) {
+        for (final int[] range : ranges) {
+            if (index > range[0] && index < range[1]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Finds the top-level function declarations.
+     */
+    private static List<Function> functions(final List<Token> tokens) {
+        final List<Function> functions = new ArrayList<>();
+        int ii = 0;
+        while (ii < tokens.size()) {
+            if (tokens.get(ii).type == TokenType.IDENTIFIER && tokens.get(ii).text.equals("function")
+                    && ii + 2 < tokens.size() && tokens.get(ii + 1).type == TokenType.IDENTIFIER
+                    && isPunctuation(tokens, ii + 2, "(")) {
+                final int parametersEnd = matching(tokens, ii + 2);
+                final List<String> parameters = new ArrayList<>();
+                for (int jj = ii + 3; jj < parametersEnd; jj++) {
+                    if (tokens.get(jj).type == TokenType.IDENTIFIER) {
+                        parameters.add(tokens.get(jj).text);
+                    }
+                }
+                if (isPunctuation(tokens, parametersEnd + 1, "{")) {
+                    final int bodyEnd = matching(tokens, parametersEnd + 1);
+                    functions.add(new Function(tokens.get(ii + 1).text, parameters, parametersEnd + 1, bodyEnd));
+                    ii = bodyEnd;
+                }
+            }
+            ii++;
+        }
+        return functions;
+    }
+
+    /**
+     * Finds the token ranges (exclusive) of the bodies of all loops.
+     */
+    private static List<int[]> loops(final List<Token> tokens) {
+        final List<int[]> loops = new ArrayList<>();
+        for (int ii = 0; ii < tokens.size(); ii++) {
+            final Token token = tokens.get(ii);
+            if (token.type != TokenType.IDENTIFIER || !LOOP_KEYWORDS.contains(token.text) || isProperty(tokens, ii)) {
+                continue;
+            }
+            int bodyStart = ii;
+            if (!token.text.equals("do")) {
+                if (!isPunctuation(tokens, ii + 1, "(")) {
+                    continue;
+                }
+                bodyStart = matching(tokens, ii + 1);
+            }
+            if (isPunctuation(tokens, bodyStart + 1, "{")) {
+                loops.add(new int[]{bodyStart + 1, matching(tokens, bodyStart + 1)});
+            } else {
+                // A single statement body extends to the next semicolon:
+                int bodyEnd = bodyStart + 1;
+                while (bodyEnd < tokens.size() && !isPunctuation(tokens, bodyEnd, ";")) {
+                    bodyEnd++;
+                }
+                loops.add(new int[]{bodyStart, bodyEnd});
+            }
+        }
+        return loops;
+    }
+
+    /**
+     * Finds the index of the bracket that closes the one at the given index, or the last index if it is unbalanced.
+     */
+    private static int matching(final List<Token> tokens, final int open) {
+        final String opening = tokens.get(open).text;
+        final String closing = opening.equals("(") ? ")" : opening.equals("{") ? "}" : "]";
+        int depth = 0;
+        for (int ii = open; ii < tokens.size(); ii++) {
+            if (isPunctuation(tokens, ii, opening)) {
+                depth++;
+            } else if (isPunctuation(tokens, ii, closing) && --depth == 0) {
+                return ii;
+            }
+        }
+        return tokens.size() - 1;
+    }
+
+    private static List<Token> tokenize(final String pac) {
+        final List<Token> tokens = new ArrayList<>();
+        final int length = pac.length();
+        int line = 1;
+        int ii = 0;
+        while (ii < length) {
+            final char c = pac.charAt(ii);
+            final int start = ii;
+            if (c == '\n') {
+                line++;
+                ii++;
+            } else if (Character.isWhitespace(c)) {
+                ii++;
+            } else if (pac.startsWith("//", ii)) {
+                while (ii < length && pac.charAt(ii) != '\n') {
+                    ii++;
+                }
+            } else if (pac.startsWith("/*", ii)) {
+                final int end = pac.indexOf("*/", ii + 2);
+                ii = end < 0 ? length : end + 2;
+                line += count(pac, start, ii, '\n');
+            } else if (c == '\'' || c == '"' || c == '`') {
+                ii = skipQuoted(pac, ii + 1, c);
+                tokens.add(new Token(TokenType.STRING, pac.substring(start + 1, Math.max(start + 1, ii - 1)), line));
+                line += count(pac, start, ii, '\n');
+            } else if (Character.isJavaIdentifierStart(c)) {
+                while (ii < length && Character.isJavaIdentifierPart(pac.charAt(ii))) {
+                    ii++;
+                }
+                tokens.add(new Token(TokenType.IDENTIFIER, pac.substring(start, ii), line));
+            } else if (Character.isDigit(c)) {
+                while (ii < length && (Character.isLetterOrDigit(pac.charAt(ii)) || pac.charAt(ii) == '.')) {
+                    ii++;
+                }
+                tokens.add(new Token(TokenType.NUMBER, pac.substring(start, ii), line));
+            } else if (c == '/' && startsRegex(tokens)) {
+                ii = skipRegex(pac, ii + 1);
+                tokens.add(new Token(TokenType.REGEX, pac.substring(start, ii), line));
+            } else {
+                tokens.add(new Token(TokenType.PUNCTUATION, String.valueOf(c), line));
+                ii++;
+            }
+        }
+        return tokens;
+    }
+
+    private static boolean startsRegex(final List<Token> tokens) {
+        if (tokens.isEmpty()) {
+            return true;
+        }
+        final Token previous = tokens.get(tokens.size() - 1);
+        switch (previous.type) {
+            case PUNCTUATION:
+                return !previous.text.equals(")") && !previous.text.equals("]") && !previous.text.equals("}");
+            case IDENTIFIER:
+                return REGEX_PREFIX_KEYWORDS.contains(previous.text);
+            default:
+                return false;
+        }
+    }
+
+    private static int skipQuoted(final String pac, int ii, final char quote) {
+        while (ii < pac.length()) {
+            final char c = pac.charAt(ii++);
+            if (c == '\\') {
+                ii++;
+            } else if (c == quote || (c == '\n' && quote != '`')) {
+                break;
+            }
+        }
+        return Math.min(ii, pac.length());
+    }
+
+    private static int skipRegex(final String pac, int ii) {
+        boolean inClass = false;
+        while (ii < pac.length()) {
+            final char c = pac.charAt(ii++);
+            if (c == '\\') {
+                ii++;
+            } else if (c == '[') {
+                inClass = true;
+            } else if (c == ']') {
+                inClass = false;
+            } else if ((c == '/' && !inClass) || c == '\n') {
+                break;
+            }
+        }
+        // Flags:
+        while (ii < pac.length() && Character.isLetter(pac.charAt(ii))) {
+            ii++;
+        }
+        return Math.min(ii, pac.length());
+    }
+
+    private static int count(final String text, final int start, final int end, final char c) {
+        int count = 0;
+        for (int ii = start; ii < end; ii++) {
+            if (text.charAt(ii) == c) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private enum TokenType {
+        IDENTIFIER, NUMBER, STRING, REGEX, PUNCTUATION
+    }
+
+    private static final class Token {
+        private final TokenType type;
+        private final String text;
+        private final int line;
+
+        private Token(final TokenType type, final String text, final int line) {
+            this.type = type;
+            this.text = text;
+            this.line = line;
+        }
+
+        @Override
+        public String toString() {
+            return type + "(" + text + ")@" + line;
+        }
+    }
+
+    private static final class Function {
+        private final String name;
+        private final List<String> parameters;
+        private final int bodyStart;
+        private final int bodyEnd;
+
+        private Function(final String name, final List<String> parameters, final int bodyStart, final int bodyEnd) {
+            this.name = name;
+            this.parameters = parameters;
+            this.bodyStart = bodyStart;
+            this.bodyEnd = bodyEnd;
+        }
+    }
+}
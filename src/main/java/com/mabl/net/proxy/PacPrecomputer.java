@@ -0,0 +1,260 @@
+package com.mabl.net.proxy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Evaluates a PAC over a known set of hosts and writes the results to a table that can be served by
+ * {@link PrecomputedPacInterpreter}.
+ * <p>
+ * Usage: {@code PacPrecomputer <PAC file or URL> <hosts file> <table file> [parallelism]}
+ * </p>
+ * <p>
+ * The hosts file contains one host per line; blank lines and lines starting with "#" are ignored.
+ * Each host is evaluated as {@code FindProxyForURL("http://<host>/", "<host>")}, so the precomputed results are only
+ * valid for PAC scripts whose result depends on the host alone. PACs that may refer to their {@code url} parameter are
+ * rejected, and hosts whose result depends on the time (through weekdayRange, dateRange or timeRange) are left out of
+ * the table, to be evaluated live.
+ * </p>
+ */
+public class PacPrecomputer {
+    private static final Logger logger = LoggerFactory.getLogger(PacPrecomputer.class);
+    private static final int BATCH_SIZE = 1024;
+    private static final Pattern PAC_FUNCTION_PARAMETERS = Pattern.compile("function\\s+FindProxyForURL\\s*\\(\\s*([A-Za-z_$][\\w$]*)");
+    private static final Pattern ARGUMENTS = Pattern.compile("(?<![\\w$])arguments(?![\\w$])");
+    private final PacInterpreter interpreter;
+    private final int parallelism;
+
+    /**
+     * Creates a precomputer that evaluates hosts using the given interpreter.
+     *
+     * @param interpreter the interpreter; for full parallelism it should allow at least {@code parallelism}
+     *                    concurrent evaluations (see {@link PacInterpreterOptions#getContextPoolSize()}).
+     * @param parallelism the number of threads used to evaluate hosts.
+     */
+    public PacPrecomputer(final PacInterpreter interpreter, final int parallelism) {
+        if (interpreter == null) {
+            throw new IllegalArgumentException("Interpreter cannot be null");
+        }
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("Parallelism must be positive");
+        }
+        this.interpreter = interpreter;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Evaluates the PAC for each of the given hosts in parallel.
+     * Hosts for which evaluation fails are logged and omitted from the results.
+     *
+     * @param hosts the hosts to evaluate.
+     * @return the result for each host that was evaluated successfully.
+     * @throws PacInterpreterException if evaluation is interrupted.
+     */
+    public Map<String, FindProxyResult> evaluate(final Collection<String> hosts) throws PacInterpreterException {
+        return results(evaluations(hosts));
+    }
+
+    /**
+     * Evaluates the PAC for each of the given hosts in at most {@code parallelism} concurrent tasks on the given
+     * executor, rather than on threads of its own. Hosts for which evaluation fails are logged and omitted from the
+     * results.
+     *
+     * @param hosts    the hosts to evaluate.
+     * @param executor the executor, which is not shut down.
+     * @return the result for each host that was evaluated successfully.
+     * @throws PacInterpreterException if evaluation is interrupted.
+     */
+    Map<String, FindProxyResult> evaluate(final Collection<String> hosts, final ExecutorService executor) throws PacInterpreterException {
+        return results(evaluations(hosts, executor, Integer.MAX_VALUE));
+    }
+
+    private static Map<String, FindProxyResult> results(final Map<String, PacEvaluation> evaluations) {
+        final Map<String, FindProxyResult> results = new LinkedHashMap<>(evaluations.size());
+        for (final Map.Entry<String, PacEvaluation> entry : evaluations.entrySet()) {
+            results.put(entry.getKey(), entry.getValue().result());
+        }
+        return results;
+    }
+
+    private Map<String, PacEvaluation> evaluations(final Collection<String> hosts) throws PacInterpreterException {
+        final ExecutorService executor = Executors.newFixedThreadPool(parallelism, (final Runnable runnable) -> {
+            final Thread thread = new Thread(runnable, PacPrecomputer.class.getSimpleName() + " Worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            return evaluations(hosts, executor, BATCH_SIZE);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private Map<String, PacEvaluation> evaluations(final Collection<String> hosts, final ExecutorService executor,
+                                                   final int maximumBatchSize) throws PacInterpreterException {
+        final List<String> uniqueHosts = new ArrayList<>(new LinkedHashSet<>(hosts));
+        final Map<String, PacEvaluation> results = new ConcurrentHashMap<>(uniqueHosts.size());
+        final AtomicInteger failures = new AtomicInteger();
+        // At least parallelism batches, so that all threads are used:
+        final int batchSize = Math.max(1, Math.min(maximumBatchSize, (uniqueHosts.size() + parallelism - 1) / parallelism));
+        final List<Future<?>> batches = new ArrayList<>();
+        try {
+            for (int start = 0; start < uniqueHosts.size(); start += batchSize) {
+                final List<String> batch = uniqueHosts.subList(start, Math.min(start + batchSize, uniqueHosts.size()));
+                batches.add(executor.submit(() -> {
+                    for (final String host : batch) {
+                        try {
+                            results.put(host, interpreter.evaluate(urlForHost(host), host));
+                        } catch (PacInterpreterException e) {
+                            failures.incrementAndGet();
+                            logger.warn("Failed to evaluate PAC for host \"{}\": {}", host, e.toString());
+                        }
+                    }
+                }));
+            }
+            for (final Future<?> batch : batches) {
+                batch.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PacInterpreterException("Interrupted while evaluating hosts", e);
+        } catch (ExecutionException e) {
+            throw new PacInterpreterException("Error evaluating hosts", e.getCause());
+        } finally {
+            // Stop any batches still running after a failure (the executor may be shared):
+            for (final Future<?> batch : batches) {
+                batch.cancel(true);
+            }
+        }
+        if (failures.get() > 0) {
+            logger.warn("PAC evaluation failed for {} of {} hosts", failures.get(), uniqueHosts.size());
+        }
+        return results;
+    }
+
+    /**
+     * Evaluates the PAC for each of the given hosts in parallel and writes the results to the given table file. Hosts
+     * whose result depends on the time are not written.
+     *
+     * @param hosts     the hosts to evaluate.
+     * @param tableFile the table file to write.
+     * @return the number of hosts written to the table.
+     * @throws IOException             if the table cannot be written.
+     * @throws PacInterpreterException if the PAC may refer to its {@code url} parameter, or if evaluation is interrupted.
+     */
+    public int precompute(final Collection<String> hosts, final Path tableFile) throws IOException, PacInterpreterException {
+        final String pac = interpreter.getPac();
+        if (!ignoresUrl(pac)) {
+            throw new PacInterpreterException("Cannot precompute results by host for a PAC that may refer to its url parameter");
+        }
+        final Map<String, PacEvaluation> evaluations = evaluations(hosts);
+        final Map<String, FindProxyResult> results = new LinkedHashMap<>(evaluations.size());
+        int timeDependent = 0;
+        for (final Map.Entry<String, PacEvaluation> entry : evaluations.entrySet()) {
+            if (entry.getValue().timePredicates().isEmpty()) {
+                results.put(entry.getKey(), entry.getValue().result());
+            } else {
+                timeDependent++;
+            }
+        }
+        if (timeDependent > 0) {
+            logger.warn("PAC result depends on the time for {} of {} hosts; they will be evaluated live", timeDependent, evaluations.size());
+        }
+        PrecomputedPacTable.write(tableFile, pac, results);
+        return results.size();
+    }
+
+    /**
+     * Tests whether the result of a PAC can only depend on the host, because FindProxyForURL never refers to its first
+     * (URL) parameter. This is a conservative textual check: any other occurrence of the parameter name (or of
+     * {@code arguments}) in the script, even in a comment or string, is treated as a use.
+     *
+     * @param pac the PAC script.
+     * @return true if results for the same host can be shared between URLs.
+     */
+    static boolean ignoresUrl(final String pac) {
+        final Matcher matcher = PAC_FUNCTION_PARAMETERS.matcher(pac);
+        // The URL could also be read through the function's arguments object:
+        if (!matcher.find() || ARGUMENTS.matcher(pac).find()) {
+            return false;
+        }
+        final Matcher uses = Pattern.compile("(?<![\\w$])" + Pattern.quote(matcher.group(1)) + "(?![\\w$])").matcher(pac);
+        int count = 0;
+        while (uses.find()) {
+            count++;
+        }
+        // The only occurrence is the parameter declaration itself:
+        return count == 1;
+    }
+
+    /**
+     * Reads hosts from a file containing one host per line, ignoring blank lines and "#" comments.
+     *
+     * @param hostsFile the hosts file.
+     * @return the hosts.
+     * @throws IOException if the file cannot be read.
+     */
+    public static List<String> readHosts(final Path hostsFile) throws IOException {
+        return Files.readAllLines(hostsFile, StandardCharsets.UTF_8).stream()
+                .map(String::trim)
+                .filter(line -> !line.isEmpty() && !line.startsWith("#"))
+                .collect(Collectors.toList());
+    }
+
+    private static String urlForHost(final String host) {
+        return "http://" + host + "/";
+    }
+
+    public static void main(final String[] args) throws Exception {
+        if (args.length < 3 || args.length > 4) {
+            System.err.println("Usage: " + PacPrecomputer.class.getSimpleName() + " <PAC file or URL> <hosts file> <table file> [parallelism]");
+            System.exit(1);
+        }
+        final int parallelism = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+        final PacInterpreterOptions options = PacInterpreterOptions.newBuilder()
+                .contextPoolSize(parallelism)
+                .build();
+        final List<String> hosts = readHosts(Paths.get(args[1]));
+        final Path tableFile = Paths.get(args[2]);
+
+        final long start = System.nanoTime();
+        try (final SimplePacInterpreter interpreter = loadInterpreter(args[0], options)) {
+            final int written = new PacPrecomputer(interpreter, parallelism).precompute(hosts, tableFile);
+            final long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+            System.out.printf("Wrote %d of %d hosts to %s in %d ms%n", written, hosts.size(), tableFile, elapsedMillis);
+            System.out.printf("Runtime compilation: %s%n", interpreter.isRuntimeCompilationEnabled() ? "enabled" : "disabled");
+        }
+    }
+
+    private static SimplePacInterpreter loadInterpreter(final String pacLocation, final PacInterpreterOptions options) throws IOException, PacInterpreterException {
+        try {
+            return SimplePacInterpreter.forUrl(new URL(pacLocation), options);
+        } catch (MalformedURLException e) {
+            return SimplePacInterpreter.forFile(new File(pacLocation), options);
+        }
+    }
+}
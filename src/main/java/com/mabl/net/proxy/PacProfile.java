@@ -0,0 +1,194 @@
+package com.mabl.net.proxy;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * The calls made by a PAC during a profiling window, as recorded by an interpreter with
+ * {@link PacInterpreterOptions#isProfiling() profiling} enabled.
+ * <p>
+ * There is an entry per function and line of the PAC from which it was called (the innermost line of the PAC on the
+ * call stack), so that the cost of a PAC utility such as dnsResolve is attributed to the rule that caused it, even when
+ * it was called indirectly (e.g. by isInNet). Calls of FindProxyForURL itself, which are made by the interpreter, have
+ * line 0. Times are inclusive of nested calls, and include the overhead of profiling.
+ * </p>
+ *
+ * @see SimplePacInterpreter#getProfile()
+ */
+public class PacProfile {
+    private static final String CSV_HEADER = "function,line,calls,totalNanos,averageNanos,maxNanos";
+    private final Instant start;
+    private final Instant end;
+    private final List<Entry> entries;
+
+    PacProfile(final Instant start, final Instant end, final List<Entry> entries) {
+        this.start = start;
+        this.end = end;
+        final List<Entry> sorted = new ArrayList<>(entries);
+        sorted.sort(Comparator.comparing(Entry::totalTime).reversed()
+                .thenComparing(Entry::function)
+                .thenComparingInt(Entry::line));
+        this.entries = Collections.unmodifiableList(sorted);
+    }
+
+    /**
+     * Gets the start of the profiling window.
+     *
+     * @return the time at which recording started.
+     */
+    public Instant start() {
+        return start;
+    }
+
+    /**
+     * Gets the end of the profiling window.
+     *
+     * @return the time at which this profile was taken.
+     */
+    public Instant end() {
+        return end;
+    }
+
+    /**
+     * Gets the recorded calls, most expensive first.
+     *
+     * @return the entries, ordered by descending total time.
+     */
+    public List<Entry> entries() {
+        return entries;
+    }
+
+    /**
+     * Writes the profile as CSV, with a header row and one row per entry.
+     *
+     * @param out where to write the profile.
+     * @throws IOException if an error occurs writing the profile.
+     */
+    public void writeCsv(final Appendable out) throws IOException {
+        out.append(CSV_HEADER).append('\n');
+        for (final Entry entry : entries) {
+            out.append(entry.function()).append(',')
+                    .append(Integer.toString(entry.line())).append(',')
+                    .append(Long.toString(entry.calls())).append(',')
+                    .append(Long.toString(entry.totalTime().toNanos())).append(',')
+                    .append(Long.toString(entry.averageTime().toNanos())).append(',')
+                    .append(Long.toString(entry.maxTime().toNanos())).append('\n');
+        }
+    }
+
+    /**
+     * Formats the profile as a human-readable table.
+     *
+     * @return the report.
+     */
+    @Override
+    public String toString() {
+        final StringBuilder report = new StringBuilder(String.format("PAC profile from %s to %s%n", start, end));
+        report.append(String.format("%-24s %6s %10s %12s %12s %12s%n", "function", "line", "calls", "total (us)", "avg (us)", "max (us)"));
+        for (final Entry entry : entries) {
+            report.append(String.format("%-24s %6s %10d %12d %12d %12d%n", entry.function(),
+                    entry.line() > 0 ? Integer.toString(entry.line()) : "-", entry.calls(),
+                    entry.totalTime().toNanos() / 1000, entry.averageTime().toNanos() / 1000,
+                    entry.maxTime().toNanos() / 1000));
+        }
+        return report.toString();
+    }
+
+    /**
+     * The calls of one function from one line of the PAC.
+     */
+    public static class Entry {
+        private final String function;
+        private final int line;
+        private final long calls;
+        private final Duration totalTime;
+        private final Duration maxTime;
+
+        Entry(final String function, final int line, final long calls, final Duration totalTime, final Duration maxTime) {
+            this.function = function;
+            this.line = line;
+            this.calls = calls;
+            this.totalTime = totalTime;
+            this.maxTime = maxTime;
+        }
+
+        /**
+         * Gets the name of the function called.
+         *
+         * @return the function name, e.g. "dnsResolve".
+         */
+        public String function() {
+            return function;
+        }
+
+        /**
+         * Gets the line of the PAC from which the function was called.
+         *
+         * @return the 1-based line number, or 0 if the function was not called from the PAC.
+         */
+        public int line() {
+            return line;
+        }
+
+        /**
+         * Gets the number of calls.
+         *
+         * @return the number of calls.
+         */
+        public long calls() {
+            return calls;
+        }
+
+        /**
+         * Gets the cumulative time spent in the calls.
+         *
+         * @return the total time.
+         */
+        public Duration totalTime() {
+            return totalTime;
+        }
+
+        /**
+         * Gets the mean time per call.
+         *
+         * @return the average time.
+         */
+        public Duration averageTime() {
+            return calls == 0 ? Duration.ZERO : totalTime.dividedBy(calls);
+        }
+
+        /**
+         * Gets the time taken by the slowest call.
+         *
+         * @return the maximum time.
+         */
+        public Duration maxTime() {
+            return maxTime;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Entry entry = (Entry) o;
+            return line == entry.line && calls == entry.calls && Objects.equals(function, entry.function)
+                    && Objects.equals(totalTime, entry.totalTime) && Objects.equals(maxTime, entry.maxTime);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(function, line, calls, totalTime, maxTime);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s@%d: %d call(s), %s total", function, line, calls, totalTime);
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.mabl.net.proxy;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Accumulates the calls made by a profiled PAC, keyed by function and by the line of the PAC that made the call.
+ * <p>
+ * An instance is shared by all contexts of a {@link SimplePacInterpreter} created with
+ * {@link PacInterpreterOptions#isProfiling() profiling} enabled, and bound into each of them.
+ * Its public methods are called from {@code pacProfiler.js} and are not intended to be called by applications.
+ * </p>
+ */
+public final class PacProfiler {
+    static final String BINDING_NAME = "__pacProfiler";
+    private final Clock clock;
+    private final long originNanos = System.nanoTime();
+    private final AtomicReference<Window> window;
+
+    PacProfiler(final Clock clock) {
+        this.clock = clock;
+        this.window = new AtomicReference<>(new Window(clock.instant()));
+    }
+
+    /**
+     * Marks the start of a call.
+     *
+     * @return the start time, in nanoseconds since this profiler was created (small enough to be exact as a JavaScript
+     * number).
+     */
+    public double enter() {
+        return System.nanoTime() - originNanos;
+    }
+
+    /**
+     * Records a call that has completed.
+     *
+     * @param function the name of the function called.
+     * @param line     the line of the PAC from which the call was made, or 0 if it was not made from the PAC.
+     * @param start    the value returned by {@link #enter()} when the call started.
+     */
+    public void exit(final String function, final int line, final double start) {
+        final long elapsedNanos = Math.max(0, System.nanoTime() - originNanos - (long) start);
+        window.get().calls.computeIfAbsent(new Key(function, line), key -> new Calls()).record(elapsedNanos);
+    }
+
+    /**
+     * Gets the calls recorded since the current window started.
+     *
+     * @return the profile of the current window.
+     */
+    PacProfile snapshot() {
+        return window.get().toProfile(clock.instant());
+    }
+
+    /**
+     * Ends the current window and starts a new one.
+     *
+     * @return the profile of the window that ended.
+     */
+    PacProfile reset() {
+        final Instant now = clock.instant();
+        return window.getAndSet(new Window(now)).toProfile(now);
+    }
+
+    private static final class Window {
+        private final Instant start;
+        private final Map<Key, Calls> calls = new ConcurrentHashMap<>();
+
+        private Window(final Instant start) {
+            this.start = start;
+        }
+
+        private PacProfile toProfile(final Instant end) {
+            final List<PacProfile.Entry> entries = new ArrayList<>(calls.size());
+            calls.forEach((key, calls) -> entries.add(new PacProfile.Entry(key.function, key.line, calls.count.sum(),
+                    Duration.ofNanos(calls.totalNanos.sum()), Duration.ofNanos(calls.maxNanos.get()))));
+            return new PacProfile(start, end, entries);
+        }
+    }
+
+    private static final class Key {
+        private final String function;
+        private final int line;
+
+        private Key(final String function, final int line) {
+            this.function = function;
+            this.line = line;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return line == key.line && function.equals(key.function);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(function, line);
+        }
+    }
+
+    private static final class Calls {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+        private void record(final long elapsedNanos) {
+            count.increment();
+            totalNanos.add(elapsedNanos);
+            maxNanos.accumulate(elapsedNanos);
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.mabl.net.proxy;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * A PAC reload, as passed to each {@link PacReloadListener}: the interpreters before and after the reload, and the
+ * recently evaluated hosts whose results differ between them.
+ * <p>
+ * Each host is evaluated as {@code FindProxyForURL("http://<host>/", "<host>")} by both interpreters, so results are only
+ * compared if neither PAC may refer to its {@code url} parameter; otherwise {@link #hostsCompared()} is 0. Hosts which have not been
+ * evaluated recently (see {@link ReloadablePacInterpreter#addReloadListener(PacReloadListener)}) are not compared, so
+ * the absence of a change is not a guarantee that the result for a host is unchanged.
+ * </p>
+ */
+public class PacReloadEvent {
+    private final PacInterpreter previous;
+    private final PacInterpreter current;
+    private final int hostsCompared;
+    private final List<Change> changes;
+
+    PacReloadEvent(final PacInterpreter previous, final PacInterpreter current, final int hostsCompared, final List<Change> changes) {
+        this.previous = previous;
+        this.current = current;
+        this.hostsCompared = hostsCompared;
+        this.changes = Collections.unmodifiableList(new ArrayList<>(changes));
+    }
+
+    /**
+     * Gets the interpreter that was replaced. It is closed once all listeners have been notified.
+     *
+     * @return the previous interpreter.
+     */
+    public PacInterpreter previous() {
+        return previous;
+    }
+
+    /**
+     * Gets the interpreter now in use.
+     *
+     * @return the current interpreter.
+     */
+    public PacInterpreter current() {
+        return current;
+    }
+
+    /**
+     * Gets the number of recently evaluated hosts whose results were compared.
+     *
+     * @return the number of hosts compared.
+     */
+    public int hostsCompared() {
+        return hostsCompared;
+    }
+
+    /**
+     * Gets the hosts whose results differ between the previous and current interpreters.
+     *
+     * @return the changes.
+     */
+    public List<Change> changes() {
+        return changes;
+    }
+
+    /**
+     * Tests whether the PAC content changed. A reload may replace the interpreter with one for identical content, in
+     * which case there are no changes.
+     *
+     * @return true if the previous and current PAC differ.
+     */
+    public boolean isPacChanged() {
+        return !Objects.equals(previous.getPac(), current.getPac());
+    }
+
+    @Override
+    public String toString() {
+        return String.format("PacReloadEvent{hostsCompared=%d, changes=%s}", hostsCompared, changes);
+    }
+
+    /**
+     * The results for a host before and after a reload.
+     */
+    public static class Change {
+        private final String host;
+        private final FindProxyResult previous;
+        private final FindProxyResult current;
+
+        Change(final String host, final FindProxyResult previous, final FindProxyResult current) {
+            this.host = host;
+            this.previous = previous;
+            this.current = current;
+        }
+
+        /**
+         * Gets the host.
+         *
+         * @return the host.
+         */
+        public String host() {
+            return host;
+        }
+
+        /**
+         * Gets the result for the host before the reload.
+         *
+         * @return the previous result, or null if the previous interpreter failed to evaluate the host.
+         */
+        public FindProxyResult previous() {
+            return previous;
+        }
+
+        /**
+         * Gets the result for the host after the reload.
+         *
+         * @return the current result, or null if the current interpreter failed to evaluate the host.
+         */
+        public FindProxyResult current() {
+            return current;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Change change = (Change) o;
+            return Objects.equals(host, change.host) && Objects.equals(previous, change.previous) && Objects.equals(current, change.current);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(host, previous, current);
+        }
+
+        @Override
+        public String toString() {
+            return host + ": " + previous + " -> " + current;
+        }
+    }
+}
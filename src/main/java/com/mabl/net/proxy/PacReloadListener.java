@@ -0,0 +1,17 @@
+package com.mabl.net.proxy;
+
+/**
+ * Notified after a {@link ReloadablePacInterpreter} has replaced its PAC.
+ *
+ * @see ReloadablePacInterpreter#addReloadListener(PacReloadListener)
+ */
+@FunctionalInterface
+public interface PacReloadListener {
+    /**
+     * Called after a reload, once the new interpreter is in use and the results for recently evaluated hosts have been
+     * compared. The interpreters in the event may only be used until this method returns.
+     *
+     * @param event the reload.
+     */
+    void onReload(PacReloadEvent event);
+}
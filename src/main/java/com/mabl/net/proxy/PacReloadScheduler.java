@@ -0,0 +1,326 @@
+package com.mabl.net.proxy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Schedules periodic PAC reloads for any number of {@link ReloadablePacInterpreter}s on a small, shared pool of
+ * daemon threads.
+ * <p>
+ * To avoid many interpreters reloading in lockstep, each delay is randomized by up to the configured jitter (a fraction
+ * of the period). In addition, reloads of the same {@link PacSource} are rate limited: a reload which would follow a
+ * previous reload of the same source within the minimum interval is deferred until the interval has elapsed, so a PAC
+ * server is not hit repeatedly by interpreters that load the same PAC.
+ * </p>
+ * <p>
+ * By default reloads run on the worker threads, so a PAC server that is slow to respond delays the other reloads. A
+ * reload executor can be configured to run them elsewhere, leaving the worker threads to only schedule; the default
+ * instance runs them on {@link PacExecutors#blockingTasks()} when that uses virtual threads (on Java 21 and later).
+ * </p>
+ */
+public class PacReloadScheduler implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(PacReloadScheduler.class);
+    public static final int DEFAULT_WORKER_THREADS = 2;
+    public static final double DEFAULT_JITTER = 0.2;
+    public static final Duration DEFAULT_MINIMUM_INTERVAL = Duration.ofSeconds(1);
+    private static final AtomicInteger schedulerCount = new AtomicInteger();
+    private final ScheduledThreadPoolExecutor executor;
+    private final double jitter;
+    private final long minimumIntervalNanos;
+    private final Executor reloadExecutor;
+    private final ConcurrentMap<Object, SourceState> sources = new ConcurrentHashMap<>();
+
+    protected PacReloadScheduler(final Builder builder) {
+        final int schedulerId = schedulerCount.incrementAndGet();
+        final AtomicInteger threadCount = new AtomicInteger();
+        this.executor = new ScheduledThreadPoolExecutor(builder.workerThreads, (final Runnable runnable) -> {
+            final Thread thread = new Thread(runnable, String.format("%s-%d Worker %d",
+                    PacReloadScheduler.class.getSimpleName(), schedulerId, threadCount.incrementAndGet()));
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.executor.setRemoveOnCancelPolicy(true);
+        this.jitter = builder.jitter;
+        this.minimumIntervalNanos = builder.minimumInterval.toNanos();
+        this.reloadExecutor = builder.reloadExecutor;
+    }
+
+    /**
+     * Gets the JVM-wide scheduler with the default settings, which is used by {@link ReloadablePacInterpreter#start(Duration)}.
+     *
+     * @return the default scheduler.
+     */
+    public static PacReloadScheduler defaultInstance() {
+        return DefaultInstanceHolder.INSTANCE;
+    }
+
+    /**
+     * Creates a builder for a scheduler.
+     *
+     * @return a new builder.
+     */
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    /**
+     * Schedules a task to be run repeatedly, with the given (jittered) delay between the end of one run and the start of
+     * the next.
+     *
+     * @param source the source reloaded by the task; reloads of equal sources are rate limited together.
+     * @param period the delay between reloads.
+     * @param reload the reload task, which should not throw.
+     * @return a handle with which the reloads can be cancelled.
+     */
+    public ScheduledReload schedule(final Object source, final Duration period, final Runnable reload) {
+        if (source == null) {
+            throw new IllegalArgumentException("Source must not be null");
+        }
+        if (period == null || period.isNegative() || period.isZero()) {
+            throw new IllegalArgumentException("Period must be positive");
+        }
+        if (reload == null) {
+            throw new IllegalArgumentException("Reload task must not be null");
+        }
+        sources.compute(source, (key, state) -> {
+            final SourceState registered = state != null ? state : new SourceState();
+            registered.registrations++;
+            return registered;
+        });
+        final ScheduledReload scheduledReload = new ScheduledReload(source, period.toNanos(), reload);
+        scheduledReload.scheduleNext(jittered(scheduledReload.periodNanos));
+        return scheduledReload;
+    }
+
+    /**
+     * Gets the number of worker threads.
+     *
+     * @return the worker thread count.
+     */
+    public int getWorkerThreads() {
+        return executor.getCorePoolSize();
+    }
+
+    /**
+     * Cancels all scheduled reloads and stops the worker threads.
+     */
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    long jittered(final long periodNanos) {
+        if (jitter == 0) {
+            return periodNanos;
+        }
+        final double factor = 1 + jitter * (2 * ThreadLocalRandom.current().nextDouble() - 1);
+        return Math.max(1, (long) (periodNanos * factor));
+    }
+
+    /**
+     * Claims the right to reload the given source now.
+     *
+     * @return zero if the reload may proceed; otherwise the number of nanoseconds to wait before trying again.
+     */
+    private long claim(final Object source) {
+        final long now = System.nanoTime();
+        final long[] wait = {0};
+        sources.computeIfPresent(source, (key, state) -> {
+            if (state.reloaded && now - state.lastReloadNanos < minimumIntervalNanos) {
+                wait[0] = minimumIntervalNanos - (now - state.lastReloadNanos);
+            } else {
+                state.reloaded = true;
+                state.lastReloadNanos = now;
+            }
+            return state;
+        });
+        return wait[0];
+    }
+
+    private void unregister(final Object source) {
+        sources.computeIfPresent(source, (key, state) -> --state.registrations == 0 ? null : state);
+    }
+
+    /**
+     * The number of scheduled reloads of a source and the time at which it was last reloaded. All access must be
+     * within {@link ConcurrentMap#compute} on {@link #sources}.
+     */
+    private static final class SourceState {
+        private int registrations;
+        private boolean reloaded;
+        private long lastReloadNanos;
+    }
+
+    /**
+     * A handle to the periodic reloads of one interpreter.
+     */
+    public final class ScheduledReload {
+        private final Object source;
+        private final long periodNanos;
+        private final Runnable reload;
+        private ScheduledFuture<?> future; // All access must be synchronized on ScheduledReload.this
+        private boolean cancelled; // All access must be synchronized on ScheduledReload.this
+
+        private ScheduledReload(final Object source, final long periodNanos, final Runnable reload) {
+            this.source = source;
+            this.periodNanos = periodNanos;
+            this.reload = reload;
+        }
+
+        /**
+         * Cancels future reloads. A reload that is already running is allowed to complete.
+         */
+        public synchronized void cancel() {
+            if (cancelled) {
+                return;
+            }
+            cancelled = true;
+            unregister(source);
+            if (future != null) {
+                future.cancel(false);
+                future = null;
+            }
+        }
+
+        /**
+         * Tests whether reloads have been cancelled.
+         *
+         * @return true if {@link #cancel()} has been called.
+         */
+        public synchronized boolean isCancelled() {
+            return cancelled;
+        }
+
+        private synchronized void scheduleNext(final long delayNanos) {
+            if (cancelled || executor.isShutdown()) {
+                return;
+            }
+            future = executor.schedule(this::run, delayNanos, TimeUnit.NANOSECONDS);
+        }
+
+        private void run() {
+            if (isCancelled()) {
+                return;
+            }
+            final long wait = claim(source);
+            if (wait > 0) {
+                logger.debug("Deferring reload of {} by {} ms", source, TimeUnit.NANOSECONDS.toMillis(wait));
+                scheduleNext(wait);
+                return;
+            }
+            if (reloadExecutor == null) {
+                reload();
+                return;
+            }
+            try {
+                reloadExecutor.execute(this::reload);
+            } catch (RejectedExecutionException e) {
+                logger.warn("Reload executor rejected the reload of {}; reloading on the worker thread", source);
+                reload();
+            }
+        }
+
+        private void reload() {
+            try {
+                reload.run();
+            } catch (RuntimeException e) {
+                logger.error("Scheduled reload of {} failed: {}", source, e.toString(), e);
+            }
+            scheduleNext(jittered(periodNanos));
+        }
+    }
+
+    private static final class DefaultInstanceHolder {
+        private static final PacReloadScheduler INSTANCE = newBuilder()
+                .reloadExecutor(PacExecutors.usesVirtualThreads() ? PacExecutors.blockingTasks() : null)
+                .build();
+    }
+
+    /**
+     * Builder for {@link PacReloadScheduler}.
+     */
+    public static class Builder {
+        private int workerThreads = DEFAULT_WORKER_THREADS;
+        private double jitter = DEFAULT_JITTER;
+        private Duration minimumInterval = DEFAULT_MINIMUM_INTERVAL;
+        private Executor reloadExecutor;
+
+        private Builder() {
+        }
+
+        /**
+         * Sets the number of threads on which reloads are run.
+         *
+         * @param workerThreads the number of worker threads (must be positive).
+         * @return this builder.
+         */
+        public Builder workerThreads(final int workerThreads) {
+            if (workerThreads <= 0) {
+                throw new IllegalArgumentException("Worker threads must be positive");
+            }
+            this.workerThreads = workerThreads;
+            return this;
+        }
+
+        /**
+         * Sets the maximum random variation of each delay, as a fraction of the period; e.g. 0.2 spreads reloads with
+         * a period of 5 minutes between 4 and 6 minutes.
+         *
+         * @param jitter the jitter, between 0 (no jitter) and 1.
+         * @return this builder.
+         */
+        public Builder jitter(final double jitter) {
+            if (jitter < 0 || jitter > 1) {
+                throw new IllegalArgumentException("Jitter must be between 0 and 1");
+            }
+            this.jitter = jitter;
+            return this;
+        }
+
+        /**
+         * Sets the minimum time between two reloads of the same source.
+         *
+         * @param minimumInterval the minimum interval (zero disables rate limiting).
+         * @return this builder.
+         */
+        public Builder minimumInterval(final Duration minimumInterval) {
+            if (minimumInterval == null || minimumInterval.isNegative()) {
+                throw new IllegalArgumentException("Minimum interval must not be null or negative");
+            }
+            this.minimumInterval = minimumInterval;
+            return this;
+        }
+
+        /**
+         * Sets the executor on which reloads are run, e.g. {@link PacExecutors#blockingTasks()}. The next reload of an
+         * interpreter is scheduled once its current reload completes, whichever thread runs it.
+         *
+         * @param reloadExecutor the executor, or null to run reloads on the worker threads (the default).
+         * @return this builder.
+         */
+        public Builder reloadExecutor(final Executor reloadExecutor) {
+            this.reloadExecutor = reloadExecutor;
+            return this;
+        }
+
+        /**
+         * Creates the {@link PacReloadScheduler}.
+         *
+         * @return the scheduler.
+         */
+        public PacReloadScheduler build() {
+            return new PacReloadScheduler(this);
+        }
+    }
+}
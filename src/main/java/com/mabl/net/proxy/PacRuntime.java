@@ -0,0 +1,242 @@
+package com.mabl.net.proxy;
+
+import com.mabl.io.IoUtils;
+import org.graalvm.polyglot.Source;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+
+/**
+ * Bootstraps the GraalVM runtime used by {@link SimplePacInterpreter} ahead of the first PAC evaluation.
+ * <p>
+ * Nothing is initialized when interpreter classes are loaded: the PAC utilities are read and GraalVM engines are created
+ * when the first interpreter is. Class loading and initialization of GraalVM, the JavaScript language and ICU4J make this
+ * take hundreds of milliseconds, which, without a preload, is paid by whichever thread creates the first interpreter
+ * (often one serving a request). Call {@link #preload()} or {@link #preloadAsync()} at application start to pay it up
+ * front: this loads the PAC utilities, creates the shared engine, and creates, evaluates and closes a template context so
+ * that the JavaScript language and the parsed PAC utilities are warm.
+ * </p>
+ * <p>
+ * Preloading a shared engine is done once per set of engine options; later calls return the metrics of the first
+ * successful preload. If a preload fails, the failure is reported as a {@link PacInterpreterException} and the next call
+ * tries again.
+ * </p>
+ */
+public final class PacRuntime {
+    private static final Logger logger = LoggerFactory.getLogger(PacRuntime.class);
+    private static final String PAC_UTILS_PATH = "/pacUtils.js";
+    private static final String PAC_PROFILER_PATH = "/pacProfiler.js";
+    private static final String TEMPLATE_PAC = "function FindProxyForURL(url, host) {\n" +
+            "    if (isPlainHostName(host) || dnsDomainIs(host, \".localdomain\") || shExpMatch(url, \"*/preload/*\")) {\n" +
+            "        return \"DIRECT\";\n" +
+            "    }\n" +
+            "    return \"PROXY preload.invalid:8080; DIRECT\";\n" +
+            "}\n";
+    private static final String TEMPLATE_URL = "http://localhost/";
+    private static final String TEMPLATE_HOST = "localhost";
+    // Preloads of shared engines, keyed by their engine options:
+    private static final Map<List<Map<String, String>>, CompletableFuture<PacStartupMetrics>> preloads = new ConcurrentHashMap<>();
+    private static final Executor CALLER = Runnable::run;
+    private static final Executor BACKGROUND = runnable -> {
+        final Thread thread = new Thread(runnable, PacRuntime.class.getSimpleName() + " Preload");
+        thread.setDaemon(true);
+        thread.start();
+    };
+    private static volatile Source pacUtils;
+    private static volatile Source pacProfiler;
+    private static volatile PacStartupMetrics startupMetrics;
+
+    private PacRuntime() {
+    }
+
+    /**
+     * Preloads the shared engine for the default options on the calling thread.
+     *
+     * @return how long each phase of the preload took.
+     * @throws PacInterpreterException if the runtime cannot be bootstrapped.
+     */
+    public static PacStartupMetrics preload() throws PacInterpreterException {
+        return preload(PacInterpreterOptions.defaults());
+    }
+
+    /**
+     * Preloads the engine for the given options on the calling thread. If the same engine is already being preloaded in
+     * the background, waits for that preload to finish instead.
+     *
+     * @param options the options with which interpreters will be created.
+     * @return how long each phase of the preload took.
+     * @throws PacInterpreterException if the runtime cannot be bootstrapped.
+     */
+    public static PacStartupMetrics preload(final PacInterpreterOptions options) throws PacInterpreterException {
+        final CompletableFuture<PacStartupMetrics> preload = start(options, CALLER);
+        try {
+            return preload.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PacInterpreterException("Interrupted while waiting for the GraalVM runtime to be preloaded", e);
+        } catch (ExecutionException e) {
+            throw new PacInterpreterException(e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    /**
+     * Preloads the shared engine for the default options on a background thread.
+     *
+     * @return a future which completes with how long each phase of the preload took, or exceptionally with a
+     * {@link PacInterpreterException} if the runtime cannot be bootstrapped.
+     */
+    public static CompletableFuture<PacStartupMetrics> preloadAsync() {
+        return preloadAsync(PacInterpreterOptions.defaults());
+    }
+
+    /**
+     * Preloads the engine for the given options on a background thread.
+     *
+     * @param options the options with which interpreters will be created.
+     * @return a future which completes with how long each phase of the preload took, or exceptionally with a
+     * {@link PacInterpreterException} if the runtime cannot be bootstrapped.
+     */
+    public static CompletableFuture<PacStartupMetrics> preloadAsync(final PacInterpreterOptions options) {
+        return start(options, BACKGROUND);
+    }
+
+    /**
+     * Gets the metrics of the first successful preload.
+     *
+     * @return the startup metrics, or empty if the runtime has not been preloaded.
+     */
+    public static Optional<PacStartupMetrics> getStartupMetrics() {
+        return Optional.ofNullable(startupMetrics);
+    }
+
+    /**
+     * Gets the PAC utility functions, reading them from the classpath on first use.
+     *
+     * @return the PAC utilities source.
+     * @throws PacInterpreterException if the PAC utilities cannot be read.
+     */
+    static Source pacUtils() throws PacInterpreterException {
+        Source source = pacUtils;
+        if (source == null) {
+            synchronized (PacRuntime.class) {
+                source = pacUtils;
+                if (source == null) {
+                    source = readSource(PAC_UTILS_PATH);
+                    pacUtils = source;
+                }
+            }
+        }
+        return source;
+    }
+
+    /**
+     * Gets the script that instruments the PAC functions of a profiled context, reading it from the classpath on first
+     * use.
+     *
+     * @return the PAC profiler source.
+     * @throws PacInterpreterException if the script cannot be read.
+     */
+    static Source pacProfiler() throws PacInterpreterException {
+        Source source = pacProfiler;
+        if (source == null) {
+            synchronized (PacRuntime.class) {
+                source = pacProfiler;
+                if (source == null) {
+                    source = readSource(PAC_PROFILER_PATH);
+                    pacProfiler = source;
+                }
+            }
+        }
+        return source;
+    }
+
+    private static Source readSource(final String path) throws PacInterpreterException {
+        final String text;
+        try {
+            text = IoUtils.readClasspathFileToString(path);
+        } catch (IOException e) {
+            // This file is included in the jar, so if we can't open/read it something is seriously wrong:
+            throw new PacInterpreterException(String.format("Failed to read \"%s\" from classpath", path), e);
+        }
+        return Source.newBuilder(SimplePacInterpreter.PAC_LANGUAGE_ID, text, path.substring(1)).buildLiteral();
+    }
+
+    private static CompletableFuture<PacStartupMetrics> start(final PacInterpreterOptions options, final Executor executor) {
+        if (options == null) {
+            throw new IllegalArgumentException("Options must not be null");
+        }
+        if (!options.isSharedEngine()) {
+            // A dedicated engine is closed with its interpreter, so only the per-JVM part of the work is retained:
+            final CompletableFuture<PacStartupMetrics> preload = new CompletableFuture<>();
+            executor.execute(() -> run(options, preload));
+            return preload;
+        }
+        final List<Map<String, String>> key = Arrays.asList(options.baseEngineOptions(), options.compilationEngineOptions());
+        while (true) {
+            final CompletableFuture<PacStartupMetrics> existing = preloads.get(key);
+            if (existing != null && !existing.isCompletedExceptionally()) {
+                return existing;
+            }
+            final CompletableFuture<PacStartupMetrics> preload = new CompletableFuture<>();
+            if (existing == null ? preloads.putIfAbsent(key, preload) == null : preloads.replace(key, existing, preload)) {
+                executor.execute(() -> run(options, preload));
+                return preload;
+            }
+        }
+    }
+
+    private static void run(final PacInterpreterOptions options, final CompletableFuture<PacStartupMetrics> preload) {
+        try {
+            final PacStartupMetrics metrics = bootstrap(options);
+            if (startupMetrics == null) {
+                startupMetrics = metrics;
+            }
+            logger.debug("Preloaded GraalVM runtime in {}", metrics);
+            preload.complete(metrics);
+        } catch (PacInterpreterException e) {
+            logger.warn("Failed to preload GraalVM runtime: {}", e.toString());
+            preload.completeExceptionally(e);
+        }
+    }
+
+    private static PacStartupMetrics bootstrap(final PacInterpreterOptions options) throws PacInterpreterException {
+        try {
+            final long start = System.nanoTime();
+            pacUtils();
+            final long pacUtilsLoaded = System.nanoTime();
+            final long engineCreated;
+            if (options.isSharedEngine()) {
+                PacEngines.acquire(options);
+                engineCreated = System.nanoTime();
+            } else {
+                // A dedicated engine is created along with the template context, and accounted to it:
+                engineCreated = pacUtilsLoaded;
+            }
+            try (final SimplePacInterpreter template = new SimplePacInterpreter(TEMPLATE_PAC, options)) {
+                final long templateCreated = System.nanoTime();
+                template.findProxyForUrl(TEMPLATE_URL, TEMPLATE_HOST);
+                final long evaluated = System.nanoTime();
+                return new PacStartupMetrics(
+                        Duration.ofNanos(pacUtilsLoaded - start),
+                        Duration.ofNanos(engineCreated - pacUtilsLoaded),
+                        Duration.ofNanos(templateCreated - engineCreated),
+                        Duration.ofNanos(evaluated - templateCreated),
+                        Duration.ofNanos(evaluated - start),
+                        template.isRuntimeCompilationEnabled());
+            }
+        } catch (RuntimeException | LinkageError e) {
+            // E.g. GraalVM or the JavaScript language is missing from the classpath, or failed to initialize:
+            throw new PacInterpreterException("Failed to bootstrap the GraalVM runtime", e);
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package com.mabl.net.proxy;
+
+import com.mabl.io.IoUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.Objects;
+
+/**
+ * The location from which a PAC script is (re)loaded: a literal script, a file or a URL.
+ * <p>
+ * Sources are value objects; two sources are equal if they refer to the same location, so they can be used as keys
+ * (e.g. by {@link PacInterpreterRegistry}).
+ * </p>
+ */
+public abstract class PacSource {
+
+    private PacSource() {
+    }
+
+    /**
+     * Creates a source for the given PAC script.
+     *
+     * @param pacScript the PAC script.
+     * @return a source which always returns the given script.
+     */
+    public static PacSource forScript(final String pacScript) {
+        if (pacScript == null) {
+            throw new IllegalArgumentException("PAC script cannot be null");
+        }
+        return new ScriptSource(pacScript);
+    }
+
+    /**
+     * Creates a source for the given PAC file.
+     *
+     * @param pacFile the PAC file.
+     * @return a source which reads the given file.
+     */
+    public static PacSource forFile(final File pacFile) {
+        if (pacFile == null) {
+            throw new IllegalArgumentException("PAC file cannot be null");
+        }
+        return new FileSource(pacFile);
+    }
+
+    /**
+     * Creates a source for the given PAC URL.
+     *
+     * @param pacUrl the PAC URL.
+     * @return a source which downloads the given URL.
+     */
+    public static PacSource forUrl(final URL pacUrl) {
+        if (pacUrl == null) {
+            throw new IllegalArgumentException("PAC URL cannot be null");
+        }
+        return new UrlSource(pacUrl);
+    }
+
+    /**
+     * Loads the PAC script.
+     *
+     * @param options the options which bound how the PAC is loaded (timeouts and maximum size).
+     * @return the PAC script.
+     * @throws IOException if the PAC cannot be loaded.
+     */
+    public abstract String load(final PacInterpreterOptions options) throws IOException;
+
+    private static final class ScriptSource extends PacSource {
+        private final String pacScript;
+
+        private ScriptSource(final String pacScript) {
+            this.pacScript = pacScript;
+        }
+
+        @Override
+        public String load(final PacInterpreterOptions options) {
+            return pacScript;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            ScriptSource that = (ScriptSource) o;
+            return Objects.equals(pacScript, that.pacScript);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(pacScript);
+        }
+
+        @Override
+        public String toString() {
+            return "script:" + PacHash.contentHash(pacScript);
+        }
+    }
+
+    private static final class FileSource extends PacSource {
+        private final File pacFile;
+
+        private FileSource(final File pacFile) {
+            this.pacFile = pacFile;
+        }
+
+        @Override
+        public String load(final PacInterpreterOptions options) throws IOException {
+            return IoUtils.readFileToString(pacFile, options.getMaximumPacSize());
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            FileSource that = (FileSource) o;
+            return Objects.equals(pacFile, that.pacFile);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(pacFile);
+        }
+
+        @Override
+        public String toString() {
+            return pacFile.toURI().toString();
+        }
+    }
+
+    private static final class UrlSource extends PacSource {
+        private final URL pacUrl;
+        private final String externalForm; // URL.equals() resolves host names, so compare the external form instead
+
+        private UrlSource(final URL pacUrl) {
+            this.pacUrl = pacUrl;
+            this.externalForm = pacUrl.toExternalForm();
+        }
+
+        @Override
+        public String load(final PacInterpreterOptions options) throws IOException {
+            return IoUtils.readUrlToString(pacUrl, options.getConnectTimeout(), options.getReadTimeout(), options.getMaximumPacSize());
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            UrlSource that = (UrlSource) o;
+            return Objects.equals(externalForm, that.externalForm);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(externalForm);
+        }
+
+        @Override
+        public String toString() {
+            return externalForm;
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.mabl.net.proxy;
+
+import java.time.Duration;
+import java.util.Objects;
+
+/**
+ * How long each phase of bootstrapping the GraalVM runtime took during {@link PacRuntime#preload()}.
+ * <p>
+ * The phases run in order, so the total is approximately their sum. Most of the cost is incurred only once per JVM
+ * (class loading and initialization of GraalVM, the JavaScript language and ICU4J), so the figures of a later preload of
+ * the same engine are much smaller.
+ * </p>
+ */
+public class PacStartupMetrics {
+    private final Duration pacUtilsLoadTime;
+    private final Duration engineCreationTime;
+    private final Duration templateContextTime;
+    private final Duration firstEvaluationTime;
+    private final Duration totalTime;
+    private final boolean runtimeCompilationEnabled;
+
+    PacStartupMetrics(final Duration pacUtilsLoadTime, final Duration engineCreationTime, final Duration templateContextTime,
+                      final Duration firstEvaluationTime, final Duration totalTime, final boolean runtimeCompilationEnabled) {
+        this.pacUtilsLoadTime = pacUtilsLoadTime;
+        this.engineCreationTime = engineCreationTime;
+        this.templateContextTime = templateContextTime;
+        this.firstEvaluationTime = firstEvaluationTime;
+        this.totalTime = totalTime;
+        this.runtimeCompilationEnabled = runtimeCompilationEnabled;
+    }
+
+    /**
+     * Gets the time taken to read the PAC utility functions from the classpath.
+     *
+     * @return the load time.
+     */
+    public Duration pacUtilsLoadTime() {
+        return pacUtilsLoadTime;
+    }
+
+    /**
+     * Gets the time taken to create (or look up) the shared GraalVM engine. A dedicated engine is created along with the
+     * template context, so this is zero for dedicated engines.
+     *
+     * @return the engine creation time.
+     */
+    public Duration engineCreationTime() {
+        return engineCreationTime;
+    }
+
+    /**
+     * Gets the time taken to create a context and evaluate the PAC utilities and a template PAC in it.
+     *
+     * @return the template context creation time.
+     */
+    public Duration templateContextTime() {
+        return templateContextTime;
+    }
+
+    /**
+     * Gets the time taken by the first call of the template PAC's FindProxyForURL function.
+     *
+     * @return the first evaluation time.
+     */
+    public Duration firstEvaluationTime() {
+        return firstEvaluationTime;
+    }
+
+    /**
+     * Gets the time taken by the whole preload.
+     *
+     * @return the total time.
+     */
+    public Duration totalTime() {
+        return totalTime;
+    }
+
+    /**
+     * Tests whether the preloaded engine JIT-compiles PAC scripts.
+     *
+     * @return true if runtime compilation is enabled; false if PAC scripts are only interpreted.
+     */
+    public boolean isRuntimeCompilationEnabled() {
+        return runtimeCompilationEnabled;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        PacStartupMetrics that = (PacStartupMetrics) o;
+        return runtimeCompilationEnabled == that.runtimeCompilationEnabled
+                && Objects.equals(pacUtilsLoadTime, that.pacUtilsLoadTime)
+                && Objects.equals(engineCreationTime, that.engineCreationTime)
+                && Objects.equals(templateContextTime, that.templateContextTime)
+                && Objects.equals(firstEvaluationTime, that.firstEvaluationTime)
+                && Objects.equals(totalTime, that.totalTime);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(pacUtilsLoadTime, engineCreationTime, templateContextTime, firstEvaluationTime, totalTime,
+                runtimeCompilationEnabled);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d ms (PAC utilities %d ms, engine %d ms, template context %d ms, first evaluation %d ms; runtime compilation %s)",
+                totalTime.toMillis(), pacUtilsLoadTime.toMillis(), engineCreationTime.toMillis(),
+                templateContextTime.toMillis(), firstEvaluationTime.toMillis(),
+                runtimeCompilationEnabled ? "enabled" : "disabled");
+    }
+}
@@ -0,0 +1,340 @@
+package com.mabl.net.proxy;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The binary format of the traffic captured by a {@link RecordingPacInterpreter} and replayed by a
+ * {@link PacTrafficReplayer}.
+ * <p>
+ * A log starts with a header (magic number, version, and the wall-clock time at which recording started in epoch
+ * milliseconds) followed by records. A PAC record holds the SHA-256 digest of the PAC content, and tags the evaluation
+ * records that follow it. An evaluation record holds, in order: the time since the previous record in microseconds (a
+ * zig-zag encoded variable-length integer, as samples may be written slightly out of order), flags, the latency in
+ * nanoseconds, the URL, the host, the client address if any, and the result (or failure message).
+ * </p>
+ * <p>
+ * To keep records small, hosts and results are interned: each is written as the index of an earlier occurrence plus
+ * one, or zero followed by the string itself, which is then assigned the next index (until a dictionary is full).
+ * Strings are written as their UTF-8 length followed by their bytes. A log cut short by a crash is read up to its last
+ * complete record.
+ * </p>
+ */
+final class PacTrafficLog {
+    static final int MAGIC = 0x50414354; // "PACT"
+    static final int VERSION = 1;
+    private static final int PAC_RECORD = 1;
+    private static final int EVALUATION_RECORD = 2;
+    private static final int FLAG_FAILED = 1;
+    private static final int FLAG_CLIENT_ADDRESS = 2;
+    private static final int DIGEST_LENGTH = 32;
+    private static final int MAX_DICTIONARY_SIZE = 1 << 16;
+    private static final int MAX_STRING_LENGTH = 1 << 20;
+
+    private PacTrafficLog() {
+    }
+
+    /**
+     * A captured evaluation.
+     */
+    static final class Record {
+        private final long offsetNanos;
+        private final String pacHash;
+        private final String url;
+        private final String host;
+        private final String clientAddress;
+        private final String result;
+        private final boolean failed;
+        private final long latencyNanos;
+
+        Record(final long offsetNanos, final String pacHash, final String url, final String host, final String clientAddress,
+               final String result, final boolean failed, final long latencyNanos) {
+            this.offsetNanos = offsetNanos;
+            this.pacHash = pacHash;
+            this.url = url;
+            this.host = host;
+            this.clientAddress = clientAddress;
+            this.result = result;
+            this.failed = failed;
+            this.latencyNanos = latencyNanos;
+        }
+
+        /**
+         * Gets the time of the evaluation since recording started, with microsecond precision.
+         */
+        long offsetNanos() {
+            return offsetNanos;
+        }
+
+        /**
+         * Gets the hex-encoded SHA-256 digest of the PAC that was evaluated, or null if it was not recorded.
+         */
+        String pacHash() {
+            return pacHash;
+        }
+
+        String url() {
+            return url;
+        }
+
+        String host() {
+            return host;
+        }
+
+        /**
+         * Gets the address of the client on whose behalf the PAC was evaluated, or null for the local address.
+         */
+        String clientAddress() {
+            return clientAddress;
+        }
+
+        /**
+         * Gets the result, or the failure message if the evaluation failed.
+         */
+        String result() {
+            return result;
+        }
+
+        boolean isFailed() {
+            return failed;
+        }
+
+        long latencyNanos() {
+            return latencyNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s %s -> %s%s", url, host, failed ? "ERROR " : "", result);
+        }
+    }
+
+    /**
+     * Writes a log. Not thread-safe.
+     */
+    static final class Writer implements Closeable {
+        private final DataOutputStream out;
+        private final Map<String, Integer> hosts = new HashMap<>();
+        private final Map<String, Integer> results = new HashMap<>();
+        private String pac;
+        private byte[] pacDigest;
+        private long previousOffsetMicros;
+
+        Writer(final OutputStream out, final long startEpochMillis) throws IOException {
+            this.out = new DataOutputStream(out);
+            this.out.writeInt(MAGIC);
+            this.out.writeInt(VERSION);
+            this.out.writeLong(startEpochMillis);
+        }
+
+        /**
+         * Writes an evaluation, preceded by a PAC record if the PAC differs from that of the previous evaluation.
+         *
+         * @param pac the PAC that was evaluated; the digest is only recomputed when a different instance is passed.
+         */
+        void write(final String pac, final long offsetNanos, final String url, final String host, final String clientAddress,
+                   final String result, final boolean failed, final long latencyNanos) throws IOException {
+            if (pac != null && pac != this.pac) {
+                final byte[] digest = PacHash.contentDigest(pac);
+                if (!Arrays.equals(digest, pacDigest)) {
+                    out.writeByte(PAC_RECORD);
+                    out.write(digest);
+                    pacDigest = digest;
+                }
+                this.pac = pac;
+            }
+            final long offsetMicros = TimeUnit.NANOSECONDS.toMicros(offsetNanos);
+            out.writeByte(EVALUATION_RECORD);
+            writeVarLong(out, zigZag(offsetMicros - previousOffsetMicros));
+            previousOffsetMicros = offsetMicros;
+            out.writeByte((failed ? FLAG_FAILED : 0) | (clientAddress != null ? FLAG_CLIENT_ADDRESS : 0));
+            writeVarLong(out, Math.max(0, latencyNanos));
+            writeString(out, url);
+            writeInterned(out, hosts, host);
+            if (clientAddress != null) {
+                writeString(out, clientAddress);
+            }
+            writeInterned(out, results, result);
+        }
+
+        void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+
+        private static void writeInterned(final DataOutputStream out, final Map<String, Integer> dictionary, final String value) throws IOException {
+            final Integer index = dictionary.get(value);
+            if (index != null) {
+                writeVarLong(out, index + 1);
+                return;
+            }
+            writeVarLong(out, 0);
+            writeString(out, value);
+            if (dictionary.size() < MAX_DICTIONARY_SIZE) {
+                dictionary.put(value, dictionary.size());
+            }
+        }
+
+        private static void writeString(final DataOutputStream out, final String value) throws IOException {
+            final byte[] bytes = (value == null ? "" : value).getBytes(StandardCharsets.UTF_8);
+            final int length = Math.min(bytes.length, MAX_STRING_LENGTH);
+            writeVarLong(out, length);
+            out.write(bytes, 0, length);
+        }
+
+        private static void writeVarLong(final DataOutputStream out, long value) throws IOException {
+            while ((value & ~0x7fL) != 0) {
+                out.writeByte((int) (value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            out.writeByte((int) value);
+        }
+
+        private static long zigZag(final long value) {
+            return (value << 1) ^ (value >> 63);
+        }
+    }
+
+    /**
+     * Reads a log. Not thread-safe.
+     */
+    static final class Reader implements Closeable {
+        private final DataInputStream in;
+        private final long startEpochMillis;
+        private final List<String> hosts = new ArrayList<>();
+        private final List<String> results = new ArrayList<>();
+        private String pacHash;
+        private long offsetMicros;
+
+        /**
+         * @throws IOException if the input is not a traffic log of a supported version.
+         */
+        Reader(final InputStream in) throws IOException {
+            this.in = new DataInputStream(in);
+            try {
+                if (this.in.readInt() != MAGIC) {
+                    throw new IOException("Not a PAC traffic log");
+                }
+                final int version = this.in.readInt();
+                if (version != VERSION) {
+                    throw new IOException("Unsupported PAC traffic log version: " + version);
+                }
+                this.startEpochMillis = this.in.readLong();
+            } catch (EOFException e) {
+                throw new IOException("Not a PAC traffic log", e);
+            }
+        }
+
+        /**
+         * Gets the wall-clock time at which recording started.
+         *
+         * @return the start time in epoch milliseconds.
+         */
+        long startEpochMillis() {
+            return startEpochMillis;
+        }
+
+        /**
+         * Reads the next evaluation.
+         *
+         * @return the record, or null at the end of the log.
+         * @throws IOException if the log cannot be read or is corrupt.
+         */
+        Record next() throws IOException {
+            try {
+                while (true) {
+                    final int type = in.read();
+                    if (type < 0) {
+                        return null;
+                    }
+                    if (type == PAC_RECORD) {
+                        final byte[] digest = new byte[DIGEST_LENGTH];
+                        in.readFully(digest);
+                        pacHash = PacHash.toHex(digest);
+                    } else if (type == EVALUATION_RECORD) {
+                        return readEvaluation();
+                    } else {
+                        throw new IOException("Corrupt PAC traffic log: unknown record type " + type);
+                    }
+                }
+            } catch (EOFException e) {
+                // The recorder was stopped in the middle of a record
+                return null;
+            }
+        }
+
+        private Record readEvaluation() throws IOException {
+            offsetMicros += unZigZag(readVarLong());
+            final int flags = in.readUnsignedByte();
+            final long latencyNanos = readVarLong();
+            final String url = readString();
+            final String host = readInterned(hosts);
+            final String clientAddress = (flags & FLAG_CLIENT_ADDRESS) != 0 ? readString() : null;
+            final String result = readInterned(results);
+            return new Record(TimeUnit.MICROSECONDS.toNanos(offsetMicros), pacHash, url, host, clientAddress, result,
+                    (flags & FLAG_FAILED) != 0, latencyNanos);
+        }
+
+        private String readInterned(final List<String> dictionary) throws IOException {
+            final long reference = readVarLong();
+            if (reference == 0) {
+                final String value = readString();
+                if (dictionary.size() < MAX_DICTIONARY_SIZE) {
+                    dictionary.add(value);
+                }
+                return value;
+            }
+            if (reference > dictionary.size()) {
+                throw new IOException("Corrupt PAC traffic log: unknown string reference " + reference);
+            }
+            return dictionary.get((int) reference - 1);
+        }
+
+        private String readString() throws IOException {
+            final long length = readVarLong();
+            if (length > MAX_STRING_LENGTH) {
+                throw new IOException("Corrupt PAC traffic log: string of " + length + " bytes");
+            }
+            final byte[] bytes = new byte[(int) length];
+            in.readFully(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        private long readVarLong() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                final int b = in.readUnsignedByte();
+                value |= (long) (b & 0x7f) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Corrupt PAC traffic log: variable-length integer too long");
+        }
+
+        private static long unZigZag(final long value) {
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,320 @@
+package com.mabl.net.proxy;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Replays traffic captured by a {@link RecordingPacInterpreter} against an interpreter, reporting throughput and latency
+ * and verifying that each result matches the recorded one.
+ * <p>
+ * Usage: {@code PacTrafficReplayer <PAC file or URL> <capture file> [speed or max] [parallelism] [cache size]}
+ * </p>
+ * <p>
+ * Evaluations are replayed on a pool of threads, either as fast as possible or paced to the recorded timing (a speed of
+ * 1 replays at the original rate, 2 at twice that, and so on), so that both peak throughput and behavior under the
+ * production arrival pattern (e.g. bursts for the same host, and thus cache hits) can be measured. The interpreter can
+ * be any decorator stack; from the command line a {@link SimplePacInterpreter} is used, optionally wrapped in a
+ * {@link CachingPacInterpreter} of the given size.
+ * </p>
+ * <p>
+ * Results are only verified for evaluations recorded with the same PAC as the interpreter's (by SHA-256 digest);
+ * others are replayed but counted as unverified. A recorded failure matches a replayed failure.
+ * </p>
+ */
+public class PacTrafficReplayer {
+    public static final double MAXIMUM_SPEED = Double.POSITIVE_INFINITY;
+    private static final int EVALUATIONS_IN_FLIGHT_PER_THREAD = 64;
+    private static final int MAX_MISMATCH_EXAMPLES = 10;
+    private final PacInterpreter interpreter;
+    private final int parallelism;
+
+    /**
+     * Creates a replayer that evaluates the captured traffic using the given interpreter.
+     *
+     * @param interpreter the interpreter; for full parallelism it should allow at least {@code parallelism}
+     *                    concurrent evaluations (see {@link PacInterpreterOptions#getContextPoolSize()}).
+     * @param parallelism the number of threads used to replay evaluations.
+     */
+    public PacTrafficReplayer(final PacInterpreter interpreter, final int parallelism) {
+        if (interpreter == null) {
+            throw new IllegalArgumentException("Interpreter cannot be null");
+        }
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("Parallelism must be positive");
+        }
+        this.interpreter = interpreter;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Replays the evaluations in the given capture file.
+     *
+     * @param captureFile the file written by a {@link RecordingPacInterpreter}.
+     * @param speed       the replay rate relative to the recorded rate, or {@link #MAXIMUM_SPEED} to replay as fast as
+     *                    possible.
+     * @return a summary of the replay.
+     * @throws IOException             if the capture file cannot be read.
+     * @throws PacInterpreterException if the replay is interrupted.
+     */
+    public Summary replay(final Path captureFile, final double speed) throws IOException, PacInterpreterException {
+        if (!(speed > 0)) {
+            throw new IllegalArgumentException("Speed must be positive");
+        }
+        final String pacHash = PacHash.contentHash(interpreter.getPac());
+        final Summary summary = new Summary();
+        final int maxInFlight = parallelism * EVALUATIONS_IN_FLIGHT_PER_THREAD;
+        final Semaphore inFlight = new Semaphore(maxInFlight);
+        final ExecutorService executor = Executors.newFixedThreadPool(parallelism, (final Runnable runnable) -> {
+            final Thread thread = new Thread(runnable, PacTrafficReplayer.class.getSimpleName() + " Worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        final long start = System.nanoTime();
+        try (final PacTrafficLog.Reader reader = new PacTrafficLog.Reader(new BufferedInputStream(Files.newInputStream(captureFile), 1 << 16))) {
+            PacTrafficLog.Record record;
+            while ((record = reader.next()) != null) {
+                if (!Double.isInfinite(speed)) {
+                    final long delay = start + (long) (record.offsetNanos() / speed) - System.nanoTime();
+                    if (delay > 0) {
+                        TimeUnit.NANOSECONDS.sleep(delay);
+                    } else {
+                        summary.recordLag(-delay);
+                    }
+                }
+                inFlight.acquire();
+                final PacTrafficLog.Record replayed = record;
+                executor.execute(() -> {
+                    try {
+                        replay(replayed, pacHash.equals(replayed.pacHash()), summary);
+                    } finally {
+                        inFlight.release();
+                    }
+                });
+            }
+            inFlight.acquire(maxInFlight);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PacInterpreterException("Interrupted while replaying PAC traffic", e);
+        } finally {
+            executor.shutdownNow();
+        }
+        summary.elapsedNanos = System.nanoTime() - start;
+        return summary;
+    }
+
+    private void replay(final PacTrafficLog.Record record, final boolean verify, final Summary summary) {
+        final long start = System.nanoTime();
+        String result;
+        boolean failed = false;
+        try {
+            final InetAddress clientAddress = record.clientAddress() == null ? null : InetAddress.getByName(record.clientAddress());
+            result = interpreter.evaluate(record.url(), record.host(), clientAddress).result().toString();
+        } catch (IOException | PacInterpreterException | RuntimeException e) {
+            result = String.valueOf(e.getMessage());
+            failed = true;
+        }
+        summary.latencies.record(System.nanoTime() - start);
+        summary.recordedLatencies.record(record.latencyNanos());
+        if (failed) {
+            summary.errors.increment();
+        }
+        if (!verify) {
+            summary.unverified.increment();
+        } else if (failed == record.isFailed() && (failed || result.equals(record.result()))) {
+            summary.matches.increment();
+        } else {
+            summary.addMismatch(String.format("%s %s: recorded %s%s, replayed %s%s", record.url(), record.host(),
+                    record.isFailed() ? "ERROR " : "", record.result(), failed ? "ERROR " : "", result));
+        }
+    }
+
+    /**
+     * The outcome of a replay.
+     */
+    public static final class Summary {
+        private final LatencyHistogram latencies = new LatencyHistogram();
+        private final LatencyHistogram recordedLatencies = new LatencyHistogram();
+        private final LongAdder matches = new LongAdder();
+        private final LongAdder mismatches = new LongAdder();
+        private final LongAdder unverified = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final List<String> mismatchExamples = new ArrayList<>();
+        private long maxLagNanos;
+        private long elapsedNanos;
+
+        private Summary() {
+        }
+
+        private void addMismatch(final String mismatch) {
+            mismatches.increment();
+            synchronized (mismatchExamples) {
+                if (mismatchExamples.size() < MAX_MISMATCH_EXAMPLES) {
+                    mismatchExamples.add(mismatch);
+                }
+            }
+        }
+
+        private void recordLag(final long lagNanos) {
+            maxLagNanos = Math.max(maxLagNanos, lagNanos);
+        }
+
+        /**
+         * Gets the number of evaluations replayed, including failures.
+         *
+         * @return the number of evaluations.
+         */
+        public long evaluations() {
+            return latencies.count();
+        }
+
+        /**
+         * Gets the number of replayed evaluations whose result matched the recorded one.
+         *
+         * @return the number of matches.
+         */
+        public long matches() {
+            return matches.sum();
+        }
+
+        /**
+         * Gets the number of replayed evaluations whose result differed from the recorded one.
+         *
+         * @return the number of mismatches.
+         */
+        public long mismatches() {
+            return mismatches.sum();
+        }
+
+        /**
+         * Gets up to the first ten mismatches, each describing the URL, host and both results.
+         *
+         * @return the mismatches.
+         */
+        public List<String> mismatchExamples() {
+            synchronized (mismatchExamples) {
+                return Collections.unmodifiableList(new ArrayList<>(mismatchExamples));
+            }
+        }
+
+        /**
+         * Gets the number of replayed evaluations that were not verified because they were recorded with a different PAC.
+         *
+         * @return the number of unverified evaluations.
+         */
+        public long unverified() {
+            return unverified.sum();
+        }
+
+        /**
+         * Gets the number of replayed evaluations that failed.
+         *
+         * @return the number of errors.
+         */
+        public long errors() {
+            return errors.sum();
+        }
+
+        /**
+         * Gets the throughput over the whole replay, including any pacing.
+         *
+         * @return the number of evaluations per second.
+         */
+        public double evaluationsPerSecond() {
+            return elapsedNanos == 0 ? 0 : latencies.count() * 1e9 / elapsedNanos;
+        }
+
+        /**
+         * Estimates the given percentile of the latency of a replayed evaluation.
+         *
+         * @param percentile the percentile, between 0 and 100 (e.g. 99.9).
+         * @return the latency in nanoseconds.
+         */
+        public long latencyPercentileNanos(final double percentile) {
+            return latencies.percentileNanos(percentile);
+        }
+
+        /**
+         * Estimates the given percentile of the latency recorded for the replayed evaluations, for comparison.
+         *
+         * @param percentile the percentile, between 0 and 100 (e.g. 99.9).
+         * @return the latency in nanoseconds.
+         */
+        public long recordedLatencyPercentileNanos(final double percentile) {
+            return recordedLatencies.percentileNanos(percentile);
+        }
+
+        /**
+         * Gets how far a paced replay fell furthest behind the recorded timing, e.g. because the interpreter could not
+         * keep up.
+         *
+         * @return the maximum lag in nanoseconds, or zero for a replay at maximum speed.
+         */
+        public long maxLagNanos() {
+            return maxLagNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Replayed %d evaluations (%d errors) in %d ms: %.0f/s; %d matched, %d mismatched, %d unverified%n"
+                            + "Replayed latency %s%nRecorded latency %s%s",
+                    latencies.count(), errors(), elapsedNanos / 1_000_000, evaluationsPerSecond(), matches(), mismatches(),
+                    unverified(), latencies.summary(), recordedLatencies.summary(),
+                    maxLagNanos == 0 ? "" : String.format("%nMaximum lag behind the recorded timing %s", LatencyHistogram.format(maxLagNanos)));
+        }
+    }
+
+    public static void main(final String[] args) throws Exception {
+        if (args.length < 2 || args.length > 5) {
+            System.err.println("Usage: " + PacTrafficReplayer.class.getSimpleName()
+                    + " <PAC file or URL> <capture file> [speed or max] [parallelism] [cache size]");
+            System.exit(1);
+        }
+        final double speed = args.length < 3 || "max".equals(args[2]) ? MAXIMUM_SPEED : Double.parseDouble(args[2]);
+        final int parallelism = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+        final long cacheSize = args.length > 4 ? Long.parseLong(args[4]) : 0;
+        final PacInterpreterOptions options = PacInterpreterOptions.newBuilder()
+                .contextPoolSize(parallelism)
+                .build();
+
+        final SimplePacInterpreter pacInterpreter = loadInterpreter(args[0], options);
+        final CachingPacInterpreter cachingInterpreter = cacheSize <= 0 ? null : CachingPacInterpreter.newBuilder(pacInterpreter)
+                .maximumSize(cacheSize)
+                .hostOnly(PacPrecomputer.ignoresUrl(pacInterpreter.getPac()))
+                .clock(options.getClock())
+                .build();
+        try (final PacInterpreter interpreter = cachingInterpreter != null ? cachingInterpreter : pacInterpreter) {
+            final Summary summary = new PacTrafficReplayer(interpreter, parallelism).replay(Paths.get(args[1]), speed);
+            System.out.println(summary);
+            for (final String mismatch : summary.mismatchExamples()) {
+                System.out.println("Mismatch: " + mismatch);
+            }
+            if (cachingInterpreter != null) {
+                System.out.printf("Cache: %d hits, %d misses%n", cachingInterpreter.hits(), cachingInterpreter.misses());
+            }
+            System.out.printf("Runtime compilation: %s%n", pacInterpreter.isRuntimeCompilationEnabled() ? "enabled" : "disabled");
+        }
+    }
+
+    private static SimplePacInterpreter loadInterpreter(final String pacLocation, final PacInterpreterOptions options) throws IOException, PacInterpreterException {
+        try {
+            return SimplePacInterpreter.forUrl(new URL(pacLocation), options);
+        } catch (MalformedURLException e) {
+            return SimplePacInterpreter.forFile(new File(pacLocation), options);
+        }
+    }
+}
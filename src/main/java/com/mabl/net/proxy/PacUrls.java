@@ -0,0 +1,106 @@
+package com.mabl.net.proxy;
+
+import java.net.MalformedURLException;
+
+/**
+ * URL utilities for PAC evaluation.
+ */
+final class PacUrls {
+
+    private PacUrls() {
+    }
+
+    /**
+     * Extracts the host to pass to FindProxyForURL from a URL, following the PAC convention that the host is the part of
+     * the URL between "://" and the first ":" or "/".
+     * <p>
+     * Unlike {@link java.net.URL#getHost()}, this works for any scheme (e.g. ws and wss) and for URLs without a scheme
+     * (e.g. {@code example.com:443}), and the only allocation is the returned substring. User info is skipped, and
+     * bracketed IPv6 hosts are returned with their brackets, as {@link java.net.URL#getHost()} does. URLs which have a
+     * scheme but no authority (e.g. {@code mailto:user@example.com}) have an empty host.
+     * </p>
+     *
+     * @param url the URL.
+     * @return the host, which may be empty.
+     * @throws MalformedURLException if the URL is null or contains an unterminated IPv6 address.
+     */
+    static String hostOf(final String url) throws MalformedURLException {
+        if (url == null) {
+            throw new MalformedURLException("URL cannot be null");
+        }
+        final int length = url.length();
+        final int authorityStart = authorityStart(url);
+        if (authorityStart < 0) {
+            return "";
+        }
+        int authorityEnd = authorityStart;
+        int hostStart = authorityStart;
+        while (authorityEnd < length) {
+            final char c = url.charAt(authorityEnd);
+            if (c == '/' || c == '?' || c == '#') {
+                break;
+            }
+            if (c == '@') {
+                // The host follows the last '@' in the authority:
+                hostStart = authorityEnd + 1;
+            }
+            authorityEnd++;
+        }
+        if (hostStart < authorityEnd && url.charAt(hostStart) == '[') {
+            final int closingBracket = url.indexOf(']', hostStart);
+            if (closingBracket < 0 || closingBracket >= authorityEnd) {
+                throw new MalformedURLException("Invalid IPv6 address in URL: " + url);
+            }
+            return url.substring(hostStart, closingBracket + 1);
+        }
+        int hostEnd = hostStart;
+        while (hostEnd < authorityEnd && url.charAt(hostEnd) != ':') {
+            hostEnd++;
+        }
+        return url.substring(hostStart, hostEnd);
+    }
+
+    /**
+     * Finds the start of the authority: after "scheme://", after a leading "//", or at the start of a URL without a
+     * scheme.
+     *
+     * @return the index at which the authority starts, or -1 if the URL has a scheme but no authority.
+     */
+    private static int authorityStart(final String url) {
+        final int length = url.length();
+        int ii = 0;
+        while (ii < length && isSchemeChar(url.charAt(ii), ii == 0)) {
+            ii++;
+        }
+        if (ii > 0 && ii < length && url.charAt(ii) == ':') {
+            if (url.startsWith("//", ii + 1)) {
+                return ii + 3;
+            }
+            // Either a host and port without a scheme (e.g. "example.com:443") or a URL without an authority:
+            return isPort(url, ii + 1) ? 0 : -1;
+        }
+        return url.startsWith("//") ? 2 : 0;
+    }
+
+    private static boolean isSchemeChar(final char c, final boolean first) {
+        if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')) {
+            return true;
+        }
+        return !first && ((c >= '0' && c <= '9') || c == '+' || c == '-' || c == '.');
+    }
+
+    private static boolean isPort(final String url, final int start) {
+        int ii = start;
+        while (ii < url.length() && url.charAt(ii) >= '0' && url.charAt(ii) <= '9') {
+            ii++;
+        }
+        if (ii == start) {
+            return false;
+        }
+        if (ii == url.length()) {
+            return true;
+        }
+        final char c = url.charAt(ii);
+        return c == '/' || c == '?' || c == '#';
+    }
+}
@@ -0,0 +1,166 @@
+package com.mabl.net.proxy;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.MalformedURLException;
+import java.nio.file.Path;
+import java.util.function.Supplier;
+
+/**
+ * A {@link PacInterpreter} that serves results from a memory-mapped table produced ahead of time by {@link PacPrecomputer}.
+ * <p>
+ * Looking up a host in the table requires no GraalVM initialization at all. Hosts that are not in the table fall
+ * through to a live interpreter which is only created the first time such a host is seen.
+ * </p>
+ * <p>
+ * The table is keyed by host alone, so it must only be used for PAC scripts whose result is a pure function of the host,
+ * i.e. scripts that ignore the URL and do not call the time-dependent functions (weekdayRange, dateRange, timeRange).
+ * {@link PacPrecomputer} rejects PACs that may refer to the URL, and leaves hosts with time-dependent results out of the
+ * table.
+ * Evaluations on behalf of a specific client address are always performed by the live interpreter, since the table was
+ * computed with the local address.
+ * </p>
+ */
+public class PrecomputedPacInterpreter implements PacInterpreter {
+    private final PrecomputedPacTable table;
+    private final Supplier<PacInterpreter> fallbackSupplier;
+    private volatile PacInterpreter fallback; // Lazily initialized; all writes must be synchronized on PrecomputedPacInterpreter.this
+
+    protected PrecomputedPacInterpreter(final PrecomputedPacTable table, final Supplier<PacInterpreter> fallbackSupplier) {
+        if (table == null) {
+            throw new IllegalArgumentException("Table cannot be null");
+        }
+        if (fallbackSupplier == null) {
+            throw new IllegalArgumentException("Fallback interpreter supplier cannot be null");
+        }
+        this.table = table;
+        this.fallbackSupplier = fallbackSupplier;
+    }
+
+    /**
+     * Gets the hex-encoded SHA-256 hash of the PAC from which the table was computed.
+     *
+     * @return the PAC content hash.
+     */
+    public String getPacHash() {
+        return PacHash.toHex(table.pacDigest());
+    }
+
+    /**
+     * Gets the number of hosts with precomputed results.
+     *
+     * @return the number of hosts in the table.
+     */
+    public int size() {
+        return table.size();
+    }
+
+    /**
+     * Tests whether the live fallback interpreter has been initialized.
+     *
+     * @return true if a host missing from the table has been evaluated.
+     */
+    public boolean isFallbackInitialized() {
+        return fallback != null;
+    }
+
+    @Override
+    public String getPac() {
+        return table.pac();
+    }
+
+    @Override
+    public FindProxyResult findProxyForUrl(final String url) throws MalformedURLException, PacInterpreterException {
+        return findProxyForUrl(url, PacUrls.hostOf(url));
+    }
+
+    @Override
+    public FindProxyResult findProxyForUrl(final String url, final String host) throws PacInterpreterException {
+        final FindProxyResult result = table.lookup(host);
+        if (result != null) {
+            return result;
+        }
+        return getFallback().findProxyForUrl(url, host);
+    }
+
+    @Override
+    public PacEvaluation evaluate(final String url, final String host) throws PacInterpreterException {
+        final FindProxyResult result = table.lookup(host);
+        if (result != null) {
+            return PacEvaluation.timeIndependent(result);
+        }
+        return getFallback().evaluate(url, host);
+    }
+
+    @Override
+    public PacEvaluation evaluate(final String url, final String host, final InetAddress clientAddress) throws PacInterpreterException {
+        if (clientAddress == null) {
+            return evaluate(url, host);
+        }
+        return getFallback().evaluate(url, host, clientAddress);
+    }
+
+    @Override
+    public boolean supportsClientAddress() {
+        // Evaluations with a client address are performed by the fallback, which is a SimplePacInterpreter by default:
+        final PacInterpreter interpreter = fallback;
+        return interpreter == null || interpreter.supportsClientAddress();
+    }
+
+    @Override
+    public void close() {
+        final PacInterpreter interpreter = fallback;
+        if (interpreter != null) {
+            interpreter.close();
+        }
+    }
+
+    private PacInterpreter getFallback() throws PacInterpreterException {
+        PacInterpreter interpreter = fallback;
+        if (interpreter == null) {
+            synchronized (this) {
+                interpreter = fallback;
+                if (interpreter == null) {
+                    try {
+                        interpreter = fallbackSupplier.get();
+                    } catch (Exception e) {
+                        throw new PacInterpreterException("Failed to initialize fallback PAC interpreter", e);
+                    }
+                    fallback = interpreter;
+                }
+            }
+        }
+        return interpreter;
+    }
+
+    /**
+     * Creates a {@link PrecomputedPacInterpreter} for the given table. Hosts missing from the table are evaluated by a
+     * {@link SimplePacInterpreter} created from the PAC embedded in the table.
+     *
+     * @param tableFile the table file written by {@link PacPrecomputer}.
+     * @return a {@link PrecomputedPacInterpreter} for the given table.
+     * @throws IOException if the table cannot be read.
+     */
+    public static PrecomputedPacInterpreter forTable(final Path tableFile) throws IOException {
+        final PrecomputedPacTable table = PrecomputedPacTable.open(tableFile);
+        return new PrecomputedPacInterpreter(table, () -> {
+            try {
+                return SimplePacInterpreter.forScript(table.pac());
+            } catch (PacInterpreterException e) {
+                throw new RuntimePacInterpreterException(e.getMessage(), e.getCause());
+            }
+        });
+    }
+
+    /**
+     * Creates a {@link PrecomputedPacInterpreter} for the given table and fallback interpreter.
+     *
+     * @param tableFile        the table file written by {@link PacPrecomputer}.
+     * @param fallbackSupplier supplies the interpreter used for hosts missing from the table (invoked at most once).
+     * @return a {@link PrecomputedPacInterpreter} for the given table.
+     * @throws IOException if the table cannot be read.
+     */
+    public static PrecomputedPacInterpreter forTable(final Path tableFile, final Supplier<PacInterpreter> fallbackSupplier) throws IOException {
+        return new PrecomputedPacInterpreter(PrecomputedPacTable.open(tableFile), fallbackSupplier);
+    }
+}
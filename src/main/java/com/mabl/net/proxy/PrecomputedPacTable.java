@@ -0,0 +1,265 @@
+package com.mabl.net.proxy;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A read-only, memory-mapped table of precomputed PAC results keyed by host.
+ * <p>
+ * The file layout (all integers big-endian) is:
+ * </p>
+ * <pre>
+ * int     magic ("PACT")
+ * int     format version
+ * byte[32] SHA-256 of the PAC content
+ * int     PAC length, followed by the UTF-8 encoded PAC
+ * int     result count, followed by each distinct result as (int length, UTF-8 bytes)
+ * int     entry count, followed by the entries sorted by host hash: (long host hash, int host offset, int result index)
+ * int     host data length, followed by each host as (int length, UTF-8 bytes)
+ * </pre>
+ * <p>
+ * Each distinct {@link FindProxyResult} is stored once and parsed eagerly when the table is opened; lookups binary
+ * search the mapped entries and only touch the host bytes to confirm a hash match.
+ * </p>
+ */
+final class PrecomputedPacTable {
+    static final int MAGIC = 0x50414354; // "PACT"
+    static final int FORMAT_VERSION = 1;
+    private static final int DIGEST_LENGTH = 32;
+    private static final int ENTRY_SIZE = Long.BYTES + Integer.BYTES + Integer.BYTES;
+    private final String pac;
+    private final byte[] pacDigest;
+    private final FindProxyResult[] results;
+    private final ByteBuffer buffer;
+    private final int entryCount;
+    private final int entriesOffset;
+    private final int hostsOffset;
+
+    private PrecomputedPacTable(final String pac, final byte[] pacDigest, final FindProxyResult[] results,
+                                final ByteBuffer buffer, final int entryCount, final int entriesOffset, final int hostsOffset) {
+        this.pac = pac;
+        this.pacDigest = pacDigest;
+        this.results = results;
+        this.buffer = buffer;
+        this.entryCount = entryCount;
+        this.entriesOffset = entriesOffset;
+        this.hostsOffset = hostsOffset;
+    }
+
+    /**
+     * Gets the PAC from which the table was computed.
+     */
+    String pac() {
+        return pac;
+    }
+
+    /**
+     * Gets the SHA-256 digest of the PAC from which the table was computed.
+     */
+    byte[] pacDigest() {
+        return pacDigest.clone();
+    }
+
+    /**
+     * Gets the number of hosts in the table.
+     */
+    int size() {
+        return entryCount;
+    }
+
+    /**
+     * Gets the number of distinct results in the table.
+     */
+    int distinctResults() {
+        return results.length;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("PrecomputedPacTable{hosts=%d, distinctResults=%d, pacHash=%s}",
+                entryCount, results.length, PacHash.toHex(pacDigest));
+    }
+
+    /**
+     * Looks up the precomputed result for the given host.
+     *
+     * @param host the host.
+     * @return the result, or null if the host is not in the table.
+     */
+    FindProxyResult lookup(final String host) {
+        if (host == null) {
+            return null;
+        }
+        final long hash = PacHash.hostHash(host);
+        int low = 0;
+        int high = entryCount - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            final long midHash = entryHash(mid);
+            if (midHash < hash) {
+                low = mid + 1;
+            } else if (midHash > hash) {
+                high = mid - 1;
+            } else {
+                return lookupCollisions(host, hash, mid);
+            }
+        }
+        return null;
+    }
+
+    private FindProxyResult lookupCollisions(final String host, final long hash, final int match) {
+        // Entries with the same hash are adjacent, so scan back to the first and then forward through all of them:
+        int index = match;
+        while (index > 0 && entryHash(index - 1) == hash) {
+            index--;
+        }
+        final byte[] hostBytes = host.getBytes(StandardCharsets.UTF_8);
+        for (; index < entryCount && entryHash(index) == hash; index++) {
+            final int entryOffset = entriesOffset + index * ENTRY_SIZE;
+            if (hostEquals(hostsOffset + buffer.getInt(entryOffset + Long.BYTES), hostBytes)) {
+                return results[buffer.getInt(entryOffset + Long.BYTES + Integer.BYTES)];
+            }
+        }
+        return null;
+    }
+
+    private long entryHash(final int index) {
+        return buffer.getLong(entriesOffset + index * ENTRY_SIZE);
+    }
+
+    private boolean hostEquals(final int hostOffset, final byte[] hostBytes) {
+        if (buffer.getInt(hostOffset) != hostBytes.length) {
+            return false;
+        }
+        final int dataOffset = hostOffset + Integer.BYTES;
+        for (int ii = 0; ii < hostBytes.length; ii++) {
+            if (buffer.get(dataOffset + ii) != hostBytes[ii]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Memory-maps a table previously written by {@link #write(Path, String, Map)}.
+     *
+     * @param path the table file.
+     * @return the table.
+     * @throws IOException if the file cannot be read or is not a valid table.
+     */
+    static PrecomputedPacTable open(final Path path) throws IOException {
+        final MappedByteBuffer buffer;
+        try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException(String.format("PAC table \"%s\" is too large", path));
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        try {
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException(String.format("\"%s\" is not a PAC table", path));
+            }
+            final int version = buffer.getInt();
+            if (version != FORMAT_VERSION) {
+                throw new IOException(String.format("Unsupported PAC table version %d in \"%s\"", version, path));
+            }
+            final byte[] pacDigest = new byte[DIGEST_LENGTH];
+            buffer.get(pacDigest);
+            final String pac = readString(buffer);
+            final FindProxyResult[] results = new FindProxyResult[buffer.getInt()];
+            for (int ii = 0; ii < results.length; ii++) {
+                results[ii] = FindProxyResult.parse(readString(buffer));
+            }
+            final int entryCount = buffer.getInt();
+            final int entriesOffset = buffer.position();
+            buffer.position(entriesOffset + entryCount * ENTRY_SIZE);
+            buffer.getInt(); // host data length
+            final int hostsOffset = buffer.position();
+            return new PrecomputedPacTable(pac, pacDigest, results, buffer, entryCount, entriesOffset, hostsOffset);
+        } catch (RuntimeException | PacInterpreterException e) {
+            throw new IOException(String.format("PAC table \"%s\" is corrupt", path), e);
+        }
+    }
+
+    /**
+     * Writes a table containing the given host results.
+     *
+     * @param path    the file to write.
+     * @param pac     the PAC from which the results were computed.
+     * @param results the result for each host.
+     * @throws IOException if the file cannot be written.
+     */
+    static void write(final Path path, final String pac, final Map<String, FindProxyResult> results) throws IOException {
+        // Deduplicate the results, assigning each distinct result an index:
+        final Map<String, Integer> resultIndexes = new LinkedHashMap<>();
+        final List<Entry> entries = new ArrayList<>(results.size());
+        for (final Map.Entry<String, FindProxyResult> result : results.entrySet()) {
+            final Integer resultIndex = resultIndexes.computeIfAbsent(result.getValue().toString(), key -> resultIndexes.size());
+            entries.add(new Entry(result.getKey(), resultIndex));
+        }
+        entries.sort(Comparator.comparingLong(entry -> entry.hash));
+
+        try (final OutputStream fileOut = Files.newOutputStream(path);
+             final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.write(PacHash.contentDigest(pac));
+            writeString(out, pac);
+            out.writeInt(resultIndexes.size());
+            for (final String result : resultIndexes.keySet()) {
+                writeString(out, result);
+            }
+            out.writeInt(entries.size());
+            int hostOffset = 0;
+            for (final Entry entry : entries) {
+                out.writeLong(entry.hash);
+                out.writeInt(hostOffset);
+                out.writeInt(entry.resultIndex);
+                hostOffset += Integer.BYTES + entry.hostBytes.length;
+            }
+            out.writeInt(hostOffset);
+            for (final Entry entry : entries) {
+                out.writeInt(entry.hostBytes.length);
+                out.write(entry.hostBytes);
+            }
+        }
+    }
+
+    private static String readString(final ByteBuffer buffer) {
+        final byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeString(final DataOutputStream out, final String value) throws IOException {
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static class Entry {
+        private final long hash;
+        private final byte[] hostBytes;
+        private final int resultIndex;
+
+        private Entry(final String host, final int resultIndex) {
+            this.hash = PacHash.hostHash(host);
+            this.hostBytes = host.getBytes(StandardCharsets.UTF_8);
+            this.resultIndex = resultIndex;
+        }
+    }
+}
@@ -0,0 +1,335 @@
+package com.mabl.net.proxy;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Opens a TCP connection through the directives of a {@link FindProxyResult}, racing them rather than trying each in
+ * turn with a full connect timeout.
+ * <p>
+ * The directives are tried in order, in the manner of "Happy Eyeballs" (RFC 8305): the first connection attempt is
+ * started, and each subsequent attempt is started when the previous one fails or after the attempt delay has elapsed,
+ * whichever is sooner, while the earlier attempts continue. The first attempt to connect wins and the others are
+ * abandoned, so a black-holed proxy only costs the attempt delay rather than the connect timeout. All attempts are
+ * multiplexed on a single {@link Selector} on the calling thread.
+ * </p>
+ * <p>
+ * A proxy directive connects to the proxy, and {@code DIRECT} connects to the target. Only the TCP connection is
+ * established: the caller is responsible for the proxy protocol (e.g. sending an HTTP {@code CONNECT} request, or a
+ * SOCKS handshake). If a {@link ProxyHealthRegistry} is configured, proxies that are down are tried after the others,
+ * and the outcome of each attempt is recorded: the connect time of the winning proxy, and a failure for each proxy
+ * whose attempt failed or timed out. Attempts abandoned because another won are not recorded, as they had not yet
+ * taken longer than the connect timeout and may merely have been slower.
+ * </p>
+ */
+public class ProxyConnector {
+    public static final Duration DEFAULT_ATTEMPT_DELAY = Duration.ofMillis(250);
+    public static final Duration DEFAULT_CONNECT_TIMEOUT = Duration.ofSeconds(10);
+    private final long attemptDelayNanos;
+    private final long connectTimeoutNanos;
+    private final ProxyHealthRegistry healthRegistry;
+
+    protected ProxyConnector(final Builder builder) {
+        this.attemptDelayNanos = builder.attemptDelay.toNanos();
+        this.connectTimeoutNanos = builder.connectTimeout.toNanos();
+        this.healthRegistry = builder.healthRegistry;
+    }
+
+    /**
+     * Creates a builder for a connector.
+     *
+     * @return a new builder.
+     */
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    /**
+     * Connects to the given target through the directives of the given result.
+     *
+     * @param result the result whose directives are tried.
+     * @param target the address to connect to directly for a {@code DIRECT} directive.
+     * @return the first connection established.
+     * @throws SocketTimeoutException if no connection was established within the connect timeout.
+     * @throws ConnectException       if every directive failed; the failure of each is suppressed by the exception.
+     * @throws InterruptedIOException if the calling thread was interrupted.
+     * @throws IOException            if a selector cannot be opened.
+     */
+    public Connection connect(final FindProxyResult result, final InetSocketAddress target) throws IOException {
+        if (result == null) {
+            throw new IllegalArgumentException("Result must not be null");
+        }
+        if (target == null) {
+            throw new IllegalArgumentException("Target must not be null");
+        }
+        final List<FindProxyDirective> directives = order(result);
+        final List<Attempt> pending = new ArrayList<>();
+        final List<IOException> failures = new ArrayList<>();
+        final long start = System.nanoTime();
+        final long deadline = start + connectTimeoutNanos;
+        try (final Selector selector = Selector.open()) {
+            int next = 0;
+            long nextStart = start;
+            while (true) {
+                final long now = System.nanoTime();
+                if (next < directives.size() && (now >= nextStart || pending.isEmpty())) {
+                    final Attempt attempt = new Attempt(directives.get(next++), now);
+                    try {
+                        if (attempt.start(target, selector)) {
+                            return won(attempt);
+                        }
+                        pending.add(attempt);
+                        nextStart = now + attemptDelayNanos;
+                    } catch (IOException | RuntimeException e) {
+                        // e.g. an unresolvable proxy host: try the next directive straight away
+                        failed(attempt, e, failures);
+                        nextStart = now;
+                    }
+                    continue;
+                }
+                if (pending.isEmpty()) {
+                    final ConnectException exception = new ConnectException(String.format("Failed to connect to %s through %s", target, result));
+                    failures.forEach(exception::addSuppressed);
+                    throw exception;
+                }
+                if (now >= deadline) {
+                    for (final Attempt attempt : pending) {
+                        failed(attempt, new SocketTimeoutException("Connect timed out"), failures);
+                    }
+                    pending.clear();
+                    final SocketTimeoutException exception = new SocketTimeoutException(String.format("Timed out connecting to %s through %s after %d ms",
+                            target, result, TimeUnit.NANOSECONDS.toMillis(now - start)));
+                    failures.forEach(exception::addSuppressed);
+                    throw exception;
+                }
+                final long wakeUp = next < directives.size() ? Math.min(nextStart, deadline) : deadline;
+                selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(wakeUp - now + 999_999)));
+                if (Thread.interrupted()) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while connecting to " + target);
+                }
+                for (final SelectionKey key : selector.selectedKeys()) {
+                    final Attempt attempt = (Attempt) key.attachment();
+                    try {
+                        if (attempt.channel.finishConnect()) {
+                            pending.remove(attempt);
+                            return won(attempt);
+                        }
+                    } catch (IOException e) {
+                        pending.remove(attempt);
+                        failed(attempt, e, failures);
+                        // Don't wait out the attempt delay before trying the next directive:
+                        nextStart = System.nanoTime();
+                    }
+                }
+                selector.selectedKeys().clear();
+            }
+        } finally {
+            for (final Attempt attempt : pending) {
+                attempt.close();
+            }
+        }
+    }
+
+    /**
+     * Orders the distinct directives of the result, moving proxies that are down to the end.
+     */
+    private List<FindProxyDirective> order(final FindProxyResult result) {
+        final Set<FindProxyDirective> distinct = new LinkedHashSet<>(result.all());
+        final List<FindProxyDirective> ordered = new ArrayList<>(distinct.size());
+        final List<FindProxyDirective> down = new ArrayList<>();
+        for (final FindProxyDirective directive : distinct) {
+            if (healthRegistry != null && directive.isProxy() && !healthRegistry.isHealthy(directive)) {
+                down.add(directive);
+            } else {
+                ordered.add(directive);
+            }
+        }
+        ordered.addAll(down);
+        return ordered;
+    }
+
+    private Connection won(final Attempt winner) throws IOException {
+        final Duration connectTime = Duration.ofNanos(System.nanoTime() - winner.startNanos);
+        // Deregister from the selector, which is about to be closed, so that the caller can use the channel freely:
+        winner.key.cancel();
+        if (healthRegistry != null && winner.directive.isProxy()) {
+            healthRegistry.recordSuccess(winner.directive, connectTime);
+        }
+        return new Connection(winner.directive, winner.channel, connectTime);
+    }
+
+    private void failed(final Attempt attempt, final Exception e, final List<IOException> failures) {
+        attempt.close();
+        if (healthRegistry != null && attempt.directive.isProxy()) {
+            healthRegistry.recordFailure(attempt.directive);
+        }
+        final IOException failure = new ConnectException(String.format("%s: %s", attempt.directive, e.getMessage()));
+        failure.initCause(e);
+        failures.add(failure);
+    }
+
+    /**
+     * A connection attempt through one directive.
+     */
+    private static final class Attempt {
+        private final FindProxyDirective directive;
+        private final long startNanos;
+        private SocketChannel channel;
+        private SelectionKey key;
+
+        private Attempt(final FindProxyDirective directive, final long startNanos) {
+            this.directive = directive;
+            this.startNanos = startNanos;
+        }
+
+        /**
+         * Starts connecting, resolving the proxy host if necessary.
+         *
+         * @return true if the connection was established immediately.
+         */
+        private boolean start(final InetSocketAddress target, final Selector selector) throws IOException {
+            final InetSocketAddress address = directive.isProxy() ? directive.resolvedProxyAddress()
+                    : target.isUnresolved() ? new InetSocketAddress(target.getHostString(), target.getPort()) : target;
+            if (address.isUnresolved()) {
+                throw new ConnectException("Unable to resolve " + address.getHostString());
+            }
+            channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            final boolean connected = channel.connect(address);
+            key = channel.register(selector, SelectionKey.OP_CONNECT, this);
+            return connected;
+        }
+
+        private void close() {
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    // Ignored: the attempt has been abandoned
+                }
+            }
+        }
+    }
+
+    /**
+     * A connection established by a {@link ProxyConnector}.
+     */
+    public static final class Connection {
+        private final FindProxyDirective directive;
+        private final SocketChannel channel;
+        private final Duration connectTime;
+
+        private Connection(final FindProxyDirective directive, final SocketChannel channel, final Duration connectTime) {
+            this.directive = directive;
+            this.channel = channel;
+            this.connectTime = connectTime;
+        }
+
+        /**
+         * Gets the directive through which the connection was established.
+         *
+         * @return the directive.
+         */
+        public FindProxyDirective directive() {
+            return directive;
+        }
+
+        /**
+         * Gets the connected channel: to the proxy, or to the target if the directive is {@code DIRECT}. The channel is
+         * in non-blocking mode, but is not registered with any selector.
+         *
+         * @return the channel, which the caller must close.
+         */
+        public SocketChannel channel() {
+            return channel;
+        }
+
+        /**
+         * Gets the time taken by the winning attempt to connect, from when it was started.
+         *
+         * @return the connect time.
+         */
+        public Duration connectTime() {
+            return connectTime;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Connection{directive=%s, connectTime=%s}", directive, connectTime);
+        }
+    }
+
+    /**
+     * Builder for {@link ProxyConnector}.
+     */
+    public static class Builder {
+        private Duration attemptDelay = DEFAULT_ATTEMPT_DELAY;
+        private Duration connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+        private ProxyHealthRegistry healthRegistry;
+
+        private Builder() {
+        }
+
+        /**
+         * Sets how long an attempt is given before the next directive is also tried. RFC 8305 recommends 250 ms.
+         *
+         * @param attemptDelay the attempt delay (must be positive).
+         * @return this builder.
+         */
+        public Builder attemptDelay(final Duration attemptDelay) {
+            if (attemptDelay == null || attemptDelay.isNegative() || attemptDelay.isZero()) {
+                throw new IllegalArgumentException("Attempt delay must be positive");
+            }
+            this.attemptDelay = attemptDelay;
+            return this;
+        }
+
+        /**
+         * Sets the time within which a connection must be established through any of the directives.
+         *
+         * @param connectTimeout the connect timeout (must be positive).
+         * @return this builder.
+         */
+        public Builder connectTimeout(final Duration connectTimeout) {
+            if (connectTimeout == null || connectTimeout.isNegative() || connectTimeout.isZero()) {
+                throw new IllegalArgumentException("Connect timeout must be positive");
+            }
+            this.connectTimeout = connectTimeout;
+            return this;
+        }
+
+        /**
+         * Sets the registry used to deprioritize proxies that are down, and to which the outcome of each connection
+         * attempt is reported.
+         *
+         * @param healthRegistry the registry, or null to not track proxy health (the default).
+         * @return this builder.
+         */
+        public Builder healthRegistry(final ProxyHealthRegistry healthRegistry) {
+            this.healthRegistry = healthRegistry;
+            return this;
+        }
+
+        /**
+         * Creates the {@link ProxyConnector}.
+         *
+         * @return the connector.
+         */
+        public ProxyConnector build() {
+            return new ProxyConnector(this);
+        }
+    }
+}
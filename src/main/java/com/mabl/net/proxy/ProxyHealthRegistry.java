@@ -0,0 +1,260 @@
+package com.mabl.net.proxy;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.UnaryOperator;
+
+/**
+ * Tracks the health of proxies, keyed by {@link FindProxyDirective}, from connection outcomes reported by callers.
+ * <p>
+ * A proxy is marked down after a number of consecutive connection failures and is considered healthy again once the
+ * retry interval has elapsed (so that the next caller can probe it) or as soon as a success is recorded. In addition, a
+ * failure score and an average connect latency are maintained for each proxy; both decay exponentially over time so
+ * that old observations are gradually forgotten. Selection strategies (see {@link ProxySelectionStrategy}) use the
+ * registry to stop routing to proxies that are down without re-evaluating the PAC.
+ * </p>
+ * <p>
+ * A registry is intended to be shared by all callers, and recording and querying are lock-free.
+ * </p>
+ */
+public class ProxyHealthRegistry {
+    public static final int DEFAULT_FAILURE_THRESHOLD = 3;
+    public static final Duration DEFAULT_RETRY_INTERVAL = Duration.ofSeconds(30);
+    public static final Duration DEFAULT_HALF_LIFE = Duration.ofMinutes(1);
+    private final int failureThreshold;
+    private final long retryIntervalMillis;
+    private final double halfLifeMillis;
+    private final Clock clock;
+    private final ConcurrentMap<FindProxyDirective, AtomicReference<Health>> proxies = new ConcurrentHashMap<>();
+
+    protected ProxyHealthRegistry(final Builder builder) {
+        this.failureThreshold = builder.failureThreshold;
+        this.retryIntervalMillis = builder.retryInterval.toMillis();
+        this.halfLifeMillis = builder.halfLife.toMillis();
+        this.clock = builder.clock;
+    }
+
+    /**
+     * Creates a builder for a registry.
+     *
+     * @return a new builder.
+     */
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    /**
+     * Records a successful connection through the given proxy.
+     *
+     * @param directive the proxy.
+     * @param latency   the time taken to connect.
+     */
+    public void recordSuccess(final FindProxyDirective directive, final Duration latency) {
+        if (latency == null || latency.isNegative()) {
+            throw new IllegalArgumentException("Latency must not be null or negative");
+        }
+        final long now = clock.millis();
+        final double latencyNanos = latency.toNanos();
+        update(directive, health -> {
+            final double decay = decay(health, now);
+            // Each latency has weight 1 when recorded, decaying with age, so the average follows recent connections:
+            final double previousWeight = health.latencyWeight * decay;
+            final double latencyWeight = previousWeight + 1;
+            final double averageLatencyNanos = (health.averageLatencyNanos * previousWeight + latencyNanos) / latencyWeight;
+            return new Health(now, health.failureScore * decay, 0, 0, averageLatencyNanos, latencyWeight);
+        });
+    }
+
+    /**
+     * Records a failed connection attempt through the given proxy.
+     *
+     * @param directive the proxy.
+     */
+    public void recordFailure(final FindProxyDirective directive) {
+        final long now = clock.millis();
+        update(directive, health -> {
+            final int consecutiveFailures = health.consecutiveFailures + 1;
+            final long downUntil = consecutiveFailures >= failureThreshold ? now + retryIntervalMillis : health.downUntilMillis;
+            final double decay = decay(health, now);
+            return new Health(now, health.failureScore * decay + 1, consecutiveFailures, downUntil,
+                    health.averageLatencyNanos, health.latencyWeight * decay);
+        });
+    }
+
+    /**
+     * Tests whether the given proxy should be used. Proxies that have never been reported on are healthy.
+     *
+     * @param directive the proxy.
+     * @return false if the proxy has been marked down and its retry interval has not yet elapsed.
+     */
+    public boolean isHealthy(final FindProxyDirective directive) {
+        final Health health = current(directive);
+        return health == null || clock.millis() >= health.downUntilMillis;
+    }
+
+    /**
+     * Gets the decayed failure score of the given proxy: each failure adds one, and the score halves every half-life.
+     *
+     * @param directive the proxy.
+     * @return the failure score, or zero if the proxy has never failed.
+     */
+    public double failureScore(final FindProxyDirective directive) {
+        final Health health = current(directive);
+        return health == null ? 0 : health.failureScore * decay(health, clock.millis());
+    }
+
+    /**
+     * Gets the average time taken to connect through the given proxy, weighted towards recent connections.
+     *
+     * @param directive the proxy.
+     * @return the average latency, or empty if no successful connection has been recorded.
+     */
+    public Optional<Duration> averageLatency(final FindProxyDirective directive) {
+        final Health health = current(directive);
+        if (health == null || health.latencyWeight == 0) {
+            return Optional.empty();
+        }
+        return Optional.of(Duration.ofNanos((long) health.averageLatencyNanos));
+    }
+
+    /**
+     * Forgets everything recorded about the given proxy.
+     *
+     * @param directive the proxy.
+     */
+    public void reset(final FindProxyDirective directive) {
+        proxies.remove(directive);
+    }
+
+    /**
+     * Forgets everything recorded about all proxies.
+     */
+    public void resetAll() {
+        proxies.clear();
+    }
+
+    private double decay(final Health health, final long now) {
+        final long elapsed = Math.max(0, now - health.updatedAtMillis);
+        return Math.pow(0.5, elapsed / halfLifeMillis);
+    }
+
+    private Health current(final FindProxyDirective directive) {
+        if (directive == null) {
+            throw new IllegalArgumentException("Directive must not be null");
+        }
+        final AtomicReference<Health> health = proxies.get(directive);
+        return health == null ? null : health.get();
+    }
+
+    private void update(final FindProxyDirective directive, final UnaryOperator<Health> update) {
+        if (directive == null) {
+            throw new IllegalArgumentException("Directive must not be null");
+        }
+        proxies.computeIfAbsent(directive, key -> new AtomicReference<>(Health.UNKNOWN)).updateAndGet(update);
+    }
+
+    /**
+     * An immutable snapshot of what has been recorded about a proxy, replaced atomically on each update.
+     */
+    private static final class Health {
+        private static final Health UNKNOWN = new Health(0, 0, 0, 0, 0, 0);
+        private final long updatedAtMillis;
+        private final double failureScore;
+        private final int consecutiveFailures;
+        private final long downUntilMillis;
+        private final double averageLatencyNanos;
+        private final double latencyWeight; // Zero if no latency has been recorded
+
+        private Health(final long updatedAtMillis, final double failureScore, final int consecutiveFailures,
+                       final long downUntilMillis, final double averageLatencyNanos, final double latencyWeight) {
+            this.updatedAtMillis = updatedAtMillis;
+            this.failureScore = failureScore;
+            this.consecutiveFailures = consecutiveFailures;
+            this.downUntilMillis = downUntilMillis;
+            this.averageLatencyNanos = averageLatencyNanos;
+            this.latencyWeight = latencyWeight;
+        }
+    }
+
+    /**
+     * Builder for {@link ProxyHealthRegistry}.
+     */
+    public static class Builder {
+        private int failureThreshold = DEFAULT_FAILURE_THRESHOLD;
+        private Duration retryInterval = DEFAULT_RETRY_INTERVAL;
+        private Duration halfLife = DEFAULT_HALF_LIFE;
+        private Clock clock = Clock.systemUTC();
+
+        private Builder() {
+        }
+
+        /**
+         * Sets the number of consecutive failures after which a proxy is marked down.
+         *
+         * @param failureThreshold the number of failures (must be positive).
+         * @return this builder.
+         */
+        public Builder failureThreshold(final int failureThreshold) {
+            if (failureThreshold <= 0) {
+                throw new IllegalArgumentException("Failure threshold must be positive");
+            }
+            this.failureThreshold = failureThreshold;
+            return this;
+        }
+
+        /**
+         * Sets how long a proxy that has been marked down is avoided before it may be tried again.
+         *
+         * @param retryInterval the retry interval (must be positive).
+         * @return this builder.
+         */
+        public Builder retryInterval(final Duration retryInterval) {
+            if (retryInterval == null || retryInterval.isNegative() || retryInterval.isZero()) {
+                throw new IllegalArgumentException("Retry interval must be positive");
+            }
+            this.retryInterval = retryInterval;
+            return this;
+        }
+
+        /**
+         * Sets the time over which the weight of past failures and latencies halves.
+         *
+         * @param halfLife the half-life (must be positive).
+         * @return this builder.
+         */
+        public Builder halfLife(final Duration halfLife) {
+            if (halfLife == null || halfLife.isNegative() || halfLife.isZero()) {
+                throw new IllegalArgumentException("Half-life must be positive");
+            }
+            this.halfLife = halfLife;
+            return this;
+        }
+
+        /**
+         * Sets the clock used for retry intervals and decay.
+         *
+         * @param clock the clock.
+         * @return this builder.
+         */
+        public Builder clock(final Clock clock) {
+            if (clock == null) {
+                throw new IllegalArgumentException("Clock must not be null");
+            }
+            this.clock = clock;
+            return this;
+        }
+
+        /**
+         * Creates the {@link ProxyHealthRegistry}.
+         *
+         * @return the registry.
+         */
+        public ProxyHealthRegistry build() {
+            return new ProxyHealthRegistry(this);
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package com.mabl.net.proxy;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.ToIntFunction;
+
+/**
+ * Implementations of the built-in {@link ProxySelectionStrategy} strategies.
+ */
+final class ProxySelectionStrategies {
+
+    private ProxySelectionStrategies() {
+    }
+
+    static ProxyHealthRegistry requireHealth(final ProxyHealthRegistry health) {
+        if (health == null) {
+            throw new IllegalArgumentException("Health registry must not be null");
+        }
+        return health;
+    }
+
+    /**
+     * Orders directives with the given one first, followed by the other healthy directives in their original order and
+     * then the unhealthy directives by increasing failure score.
+     */
+    private static List<FindProxyDirective> order(final FindProxyResult result, final FindProxyDirective first, final ProxyHealthRegistry health) {
+        final List<FindProxyDirective> ordered = new ArrayList<>(result.size());
+        final List<FindProxyDirective> unhealthy = new ArrayList<>(0);
+        if (first != null) {
+            ordered.add(first);
+        }
+        for (final FindProxyDirective directive : result) {
+            if (directive == first) {
+                continue;
+            }
+            if (health == null || health.isHealthy(directive)) {
+                ordered.add(directive);
+            } else {
+                unhealthy.add(directive);
+            }
+        }
+        if (!unhealthy.isEmpty()) {
+            unhealthy.sort(Comparator.comparingDouble(health::failureScore));
+            ordered.addAll(unhealthy);
+        }
+        return ordered;
+    }
+
+    private static List<FindProxyDirective> healthy(final FindProxyResult result, final ProxyHealthRegistry health) {
+        final List<FindProxyDirective> healthy = new ArrayList<>(result.size());
+        for (final FindProxyDirective directive : result) {
+            if (health.isHealthy(directive)) {
+                healthy.add(directive);
+            }
+        }
+        return healthy;
+    }
+
+    static final class Random implements ProxySelectionStrategy {
+        private final ProxyHealthRegistry health;
+
+        Random(final ProxyHealthRegistry health) {
+            this.health = health;
+        }
+
+        @Override
+        public List<FindProxyDirective> order(final FindProxyResult result) {
+            return ProxySelectionStrategies.order(result, choose(result), health);
+        }
+
+        @Override
+        public FindProxyDirective select(final FindProxyResult result) {
+            final FindProxyDirective chosen = choose(result);
+            return chosen != null ? chosen : ProxySelectionStrategies.order(result, null, health).get(0);
+        }
+
+        /**
+         * @return a random healthy directive, or null if there is none.
+         */
+        private FindProxyDirective choose(final FindProxyResult result) {
+            if (health == null) {
+                return result.get(ThreadLocalRandom.current().nextInt(result.size()));
+            }
+            final List<FindProxyDirective> healthy = healthy(result, health);
+            return healthy.isEmpty() ? null : healthy.get(ThreadLocalRandom.current().nextInt(healthy.size()));
+        }
+    }
+
+    /**
+     * Weighted round-robin. To avoid contention, each thread keeps its own position in the cycle, starting at a random
+     * offset, so the directives are used in proportion to their weights across all threads.
+     */
+    static final class WeightedRoundRobin implements ProxySelectionStrategy {
+        private final ToIntFunction<FindProxyDirective> weights;
+        private final ProxyHealthRegistry health;
+        private final ThreadLocal<int[]> position = ThreadLocal.withInitial(() -> new int[]{ThreadLocalRandom.current().nextInt(Integer.MAX_VALUE)});
+
+        WeightedRoundRobin(final ToIntFunction<FindProxyDirective> weights, final ProxyHealthRegistry health) {
+            this.weights = weights;
+            this.health = health;
+        }
+
+        @Override
+        public List<FindProxyDirective> order(final FindProxyResult result) {
+            return ProxySelectionStrategies.order(result, choose(result), health);
+        }
+
+        @Override
+        public FindProxyDirective select(final FindProxyResult result) {
+            final FindProxyDirective chosen = choose(result);
+            return chosen != null ? chosen : ProxySelectionStrategies.order(result, null, health).get(0);
+        }
+
+        /**
+         * @return the next healthy directive in the weighted cycle, or null if there is none.
+         */
+        private FindProxyDirective choose(final FindProxyResult result) {
+            final List<FindProxyDirective> candidates = health == null ? result.all() : healthy(result, health);
+            if (candidates.isEmpty()) {
+                return null;
+            }
+            long totalWeight = 0;
+            for (final FindProxyDirective candidate : candidates) {
+                totalWeight += Math.max(0, weights.applyAsInt(candidate));
+            }
+            final int[] next = position.get();
+            final int turn = next[0]++ & Integer.MAX_VALUE;
+            if (totalWeight == 0) {
+                // No positive weights, so treat all candidates equally:
+                return candidates.get(turn % candidates.size());
+            }
+            long remaining = turn % totalWeight;
+            for (final FindProxyDirective candidate : candidates) {
+                remaining -= Math.max(0, weights.applyAsInt(candidate));
+                if (remaining < 0) {
+                    return candidate;
+                }
+            }
+            return candidates.get(candidates.size() - 1);
+        }
+    }
+
+    static final class Failover implements ProxySelectionStrategy {
+        private final ProxyHealthRegistry health;
+
+        Failover(final ProxyHealthRegistry health) {
+            this.health = health;
+        }
+
+        @Override
+        public List<FindProxyDirective> order(final FindProxyResult result) {
+            return ProxySelectionStrategies.order(result, null, health);
+        }
+
+        @Override
+        public FindProxyDirective select(final FindProxyResult result) {
+            for (final FindProxyDirective directive : result) {
+                if (health.isHealthy(directive)) {
+                    return directive;
+                }
+            }
+            return order(result).get(0);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.mabl.net.proxy;
+
+import java.util.List;
+import java.util.function.ToIntFunction;
+
+/**
+ * Chooses which of the directives in a {@link FindProxyResult} to use for a connection.
+ * <p>
+ * Strategies are thread-safe and can be shared by all callers. Health-aware strategies consult a
+ * {@link ProxyHealthRegistry}: directives for proxies that are down are moved to the end of the order (rather than
+ * dropped, so that a caller can still try them if every proxy is down).
+ * </p>
+ *
+ * @see FindProxyResult#select(ProxySelectionStrategy)
+ */
+public interface ProxySelectionStrategy {
+
+    /**
+     * Orders the directives of a result in the order in which connections should be attempted.
+     *
+     * @param result the result of a PAC evaluation.
+     * @return all directives of the result, ordered by preference.
+     */
+    List<FindProxyDirective> order(FindProxyResult result);
+
+    /**
+     * Chooses the directive to try first.
+     *
+     * @param result the result of a PAC evaluation.
+     * @return the preferred directive.
+     */
+    default FindProxyDirective select(final FindProxyResult result) {
+        return order(result).get(0);
+    }
+
+    /**
+     * Gets a strategy which picks a directive uniformly at random, using {@link java.util.concurrent.ThreadLocalRandom}
+     * so that concurrent callers do not contend.
+     *
+     * @return the random strategy.
+     */
+    static ProxySelectionStrategy random() {
+        return new ProxySelectionStrategies.Random(null);
+    }
+
+    /**
+     * Gets a strategy which picks a healthy directive uniformly at random.
+     *
+     * @param health the registry used to avoid proxies that are down.
+     * @return the health-aware random strategy.
+     */
+    static ProxySelectionStrategy random(final ProxyHealthRegistry health) {
+        return new ProxySelectionStrategies.Random(ProxySelectionStrategies.requireHealth(health));
+    }
+
+    /**
+     * Gets a strategy which cycles through the directives in turn.
+     *
+     * @return the round-robin strategy.
+     */
+    static ProxySelectionStrategy roundRobin() {
+        return new ProxySelectionStrategies.WeightedRoundRobin(directive -> 1, null);
+    }
+
+    /**
+     * Gets a strategy which cycles through the healthy directives, choosing each in proportion to its weight.
+     *
+     * @param weights the weight of each directive (directives with a weight of zero or less are only used if no
+     *                directive has a positive weight).
+     * @param health  the registry used to avoid proxies that are down, or null to ignore health.
+     * @return the weighted round-robin strategy.
+     */
+    static ProxySelectionStrategy weightedRoundRobin(final ToIntFunction<FindProxyDirective> weights, final ProxyHealthRegistry health) {
+        if (weights == null) {
+            throw new IllegalArgumentException("Weights must not be null");
+        }
+        return new ProxySelectionStrategies.WeightedRoundRobin(weights, health);
+    }
+
+    /**
+     * Gets a strategy which uses the directives in the order given by the PAC, skipping proxies that are down; i.e. the
+     * first healthy directive is selected. Proxies that are down are ordered by their failure score.
+     *
+     * @param health the registry used to avoid proxies that are down.
+     * @return the failover strategy.
+     */
+    static ProxySelectionStrategy failover(final ProxyHealthRegistry health) {
+        return new ProxySelectionStrategies.Failover(ProxySelectionStrategies.requireHealth(health));
+    }
+}
@@ -0,0 +1,68 @@
+package com.mabl.net.proxy;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A lossy, fixed-size record of recently evaluated hosts, cheap enough to update on every evaluation.
+ * <p>
+ * Each host is stored in a slot chosen by its hash, replacing whichever host was there before, so frequently evaluated
+ * hosts are very likely to be present while a host seen once may soon be displaced. Recording a host that is already
+ * in its slot neither writes nor allocates.
+ * </p>
+ */
+final class RecentHosts {
+    private final AtomicReferenceArray<String> slots;
+    private final int mask;
+
+    /**
+     * @param capacity the number of slots, rounded up to a power of two.
+     */
+    RecentHosts(final int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        final int slotCount = Integer.highestOneBit(Math.min(capacity, 1 << 30) * 2 - 1);
+        this.slots = new AtomicReferenceArray<>(slotCount);
+        this.mask = slotCount - 1;
+    }
+
+    void record(final String host) {
+        if (host == null || host.isEmpty()) {
+            return;
+        }
+        final int hash = host.hashCode();
+        final int slot = (hash ^ (hash >>> 16)) & mask;
+        if (!host.equals(slots.get(slot))) {
+            slots.lazySet(slot, host);
+        }
+    }
+
+    /**
+     * Gets the recorded hosts.
+     *
+     * @return the distinct hosts currently recorded.
+     */
+    List<String> hosts() {
+        final Set<String> hosts = new LinkedHashSet<>();
+        for (int ii = 0; ii < slots.length(); ii++) {
+            final String host = slots.get(ii);
+            if (host != null) {
+                hosts.add(host);
+            }
+        }
+        return new ArrayList<>(hosts);
+    }
+
+    /**
+     * Gets the number of slots.
+     *
+     * @return the capacity.
+     */
+    int capacity() {
+        return slots.length();
+    }
+}
@@ -0,0 +1,276 @@
+package com.mabl.net.proxy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.MalformedURLException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A {@link PacInterpreter} decorator that captures a sample of its evaluations to a file, so that production traffic
+ * can be replayed by {@link PacTrafficReplayer}, e.g. to benchmark a PAC, a GraalVM upgrade or a cache configuration
+ * against real hosts, or to check that a new PAC returns the same results.
+ * <p>
+ * Each sampled evaluation (URL, host, client address, result or failure, latency and time) is tagged with the SHA-256
+ * digest of the PAC that was evaluated. Evaluating threads only time the evaluation and add it to a lock-free ring
+ * buffer; a background thread encodes the samples (see {@link PacTrafficLog}) and writes them to the file. If the writer
+ * falls behind and the buffer fills up, samples are dropped rather than slowing evaluation down.
+ * </p>
+ * <p>
+ * The file is only complete once the interpreter has been closed, although a file cut short is read up to its last
+ * complete record.
+ * </p>
+ */
+public class RecordingPacInterpreter implements PacInterpreter {
+    private static final Logger logger = LoggerFactory.getLogger(RecordingPacInterpreter.class);
+    public static final double DEFAULT_SAMPLE_RATE = 1.0;
+    public static final int DEFAULT_BUFFER_SIZE = 65_536;
+    private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    private final PacInterpreter delegate;
+    private final Path captureFile;
+    private final double sampleRate;
+    private final TrafficRingBuffer<Sample> buffer;
+    private final PacTrafficLog.Writer writer;
+    private final long startNanos;
+    private final Thread writerThread;
+    private final LongAdder recorded = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private volatile boolean closed;
+    private volatile boolean failed;
+
+    protected RecordingPacInterpreter(final Builder builder) throws IOException {
+        this.delegate = builder.delegate;
+        this.captureFile = builder.captureFile;
+        this.sampleRate = builder.sampleRate;
+        this.buffer = new TrafficRingBuffer<>(builder.bufferSize);
+        this.startNanos = System.nanoTime();
+        this.writer = new PacTrafficLog.Writer(new BufferedOutputStream(Files.newOutputStream(captureFile), 1 << 16), System.currentTimeMillis());
+        this.writerThread = new Thread(this::writeSamples, RecordingPacInterpreter.class.getSimpleName() + " Worker");
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+    }
+
+    /**
+     * Creates a builder for a recording interpreter that decorates the given interpreter.
+     *
+     * @param delegate    the interpreter whose evaluations are recorded.
+     * @param captureFile the file to which the evaluations are written, replacing any existing file.
+     * @return a new builder.
+     */
+    public static Builder newBuilder(final PacInterpreter delegate, final Path captureFile) {
+        return new Builder(delegate, captureFile);
+    }
+
+    /**
+     * Gets the number of evaluations written to the capture file.
+     *
+     * @return the number of recorded evaluations.
+     */
+    public long recorded() {
+        return recorded.sum();
+    }
+
+    /**
+     * Gets the number of sampled evaluations that were not recorded because the buffer was full or the capture file
+     * could not be written.
+     *
+     * @return the number of dropped samples.
+     */
+    public long dropped() {
+        return dropped.sum();
+    }
+
+    @Override
+    public String getPac() {
+        return delegate.getPac();
+    }
+
+    @Override
+    public FindProxyResult findProxyForUrl(final String url) throws MalformedURLException, PacInterpreterException {
+        return findProxyForUrl(url, PacUrls.hostOf(url));
+    }
+
+    @Override
+    public FindProxyResult findProxyForUrl(final String url, final String host) throws PacInterpreterException {
+        return evaluate(url, host).result();
+    }
+
+    @Override
+    public PacEvaluation evaluate(final String url, final String host) throws PacInterpreterException {
+        return evaluate(url, host, null);
+    }
+
+    @Override
+    public PacEvaluation evaluate(final String url, final String host, final InetAddress clientAddress) throws PacInterpreterException {
+        if (closed || failed || (sampleRate < 1 && ThreadLocalRandom.current().nextDouble() >= sampleRate)) {
+            return delegate.evaluate(url, host, clientAddress);
+        }
+        final String pac = delegate.getPac();
+        final long start = System.nanoTime();
+        try {
+            final PacEvaluation evaluation = delegate.evaluate(url, host, clientAddress);
+            record(new Sample(pac, start, System.nanoTime() - start, url, host, clientAddress, evaluation.result(), null));
+            return evaluation;
+        } catch (PacInterpreterException | RuntimeException e) {
+            record(new Sample(pac, start, System.nanoTime() - start, url, host, clientAddress, null, e));
+            throw e;
+        }
+    }
+
+    @Override
+    public boolean supportsClientAddress() {
+        return delegate.supportsClientAddress();
+    }
+
+    /**
+     * Stops recording, writes the remaining samples to the capture file and closes it, then closes the delegate.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(writerThread);
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        delegate.close();
+    }
+
+    private void record(final Sample sample) {
+        if (!buffer.offer(sample)) {
+            dropped.increment();
+        }
+    }
+
+    private void writeSamples() {
+        try {
+            while (true) {
+                // Samples offered before closing are still written:
+                final boolean closing = closed;
+                Sample sample;
+                while ((sample = buffer.poll()) != null) {
+                    write(sample);
+                }
+                writer.flush();
+                if (closing) {
+                    break;
+                }
+                LockSupport.parkNanos(this, IDLE_NANOS);
+            }
+        } catch (IOException | RuntimeException e) {
+            failed = true;
+            logger.error("Stopped recording PAC evaluations to \"{}\": {}", captureFile, e.toString(), e);
+            while (buffer.poll() != null) {
+                dropped.increment();
+            }
+        } finally {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                logger.warn("Failed to close \"{}\": {}", captureFile, e.toString());
+            }
+        }
+    }
+
+    private void write(final Sample sample) throws IOException {
+        writer.write(sample.pac, sample.startNanos - startNanos, sample.url, sample.host,
+                sample.clientAddress == null ? null : sample.clientAddress.getHostAddress(),
+                sample.failure == null ? sample.result.toString() : String.valueOf(sample.failure.getMessage()),
+                sample.failure != null, sample.latencyNanos);
+        recorded.increment();
+    }
+
+    /**
+     * A sampled evaluation, formatted by the writer thread rather than the evaluating thread.
+     */
+    private static final class Sample {
+        private final String pac;
+        private final long startNanos;
+        private final long latencyNanos;
+        private final String url;
+        private final String host;
+        private final InetAddress clientAddress;
+        private final FindProxyResult result;
+        private final Exception failure;
+
+        private Sample(final String pac, final long startNanos, final long latencyNanos, final String url, final String host,
+                       final InetAddress clientAddress, final FindProxyResult result, final Exception failure) {
+            this.pac = pac;
+            this.startNanos = startNanos;
+            this.latencyNanos = latencyNanos;
+            this.url = url;
+            this.host = host;
+            this.clientAddress = clientAddress;
+            this.result = result;
+            this.failure = failure;
+        }
+    }
+
+    /**
+     * Builder for {@link RecordingPacInterpreter}.
+     */
+    public static class Builder {
+        private final PacInterpreter delegate;
+        private final Path captureFile;
+        private double sampleRate = DEFAULT_SAMPLE_RATE;
+        private int bufferSize = DEFAULT_BUFFER_SIZE;
+
+        private Builder(final PacInterpreter delegate, final Path captureFile) {
+            if (delegate == null) {
+                throw new IllegalArgumentException("Delegate interpreter must not be null");
+            }
+            if (captureFile == null) {
+                throw new IllegalArgumentException("Capture file must not be null");
+            }
+            this.delegate = delegate;
+            this.captureFile = captureFile;
+        }
+
+        /**
+         * Sets the fraction of evaluations that are recorded, chosen at random.
+         *
+         * @param sampleRate the sample rate, greater than 0 and at most 1 (the default, which records every evaluation).
+         * @return this builder.
+         */
+        public Builder sampleRate(final double sampleRate) {
+            if (!(sampleRate > 0 && sampleRate <= 1)) {
+                throw new IllegalArgumentException("Sample rate must be greater than 0 and at most 1");
+            }
+            this.sampleRate = sampleRate;
+            return this;
+        }
+
+        /**
+         * Sets the number of samples that can wait to be written before further samples are dropped.
+         *
+         * @param bufferSize the buffer size (must be positive), rounded up to a power of two.
+         * @return this builder.
+         */
+        public Builder bufferSize(final int bufferSize) {
+            if (bufferSize <= 0) {
+                throw new IllegalArgumentException("Buffer size must be positive");
+            }
+            this.bufferSize = bufferSize;
+            return this;
+        }
+
+        /**
+         * Creates the {@link RecordingPacInterpreter}, creating the capture file and starting its writer thread.
+         *
+         * @return the recording interpreter.
+         * @throws IOException if the capture file cannot be created.
+         */
+        public RecordingPacInterpreter build() throws IOException {
+            return new RecordingPacInterpreter(this);
+        }
+    }
+}
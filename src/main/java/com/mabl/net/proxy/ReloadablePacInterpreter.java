@@ -4,12 +4,14 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.net.InetAddress;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.time.Duration;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.function.Supplier;
 
 /**
@@ -17,9 +19,19 @@ import java.util.function.Supplier;
  * <p>
  * After creating a {@link ReloadablePacInterpreter}, use the {@link #reload()} method to immediately reload the PAC.
  * Alternatively, use the {@link #start(Duration)} method to begin automatic reloads and the {@link #stop()} method to terminate the reload timer.
+ * Automatic reloads run on a {@link PacReloadScheduler} shared by all interpreters, which adds random jitter to the period
+ * and rate limits reloads of the same PAC file or URL.
  * </p>
  * <p>
- * To silence GraalVM warnings set the "polyglot.engine.WarnInterpreterOnly" system property to "false" e.g. -Dpolyglot.engine.WarnInterpreterOnly=false
+ * Each evaluation uses a single underlying interpreter from start to finish, even if a reload completes concurrently.
+ * An interpreter replaced by a reload is closed as soon as the evaluations using it have completed.
+ * </p>
+ * <p>
+ * {@link PacReloadListener}s are notified after each reload with the results that changed for recently evaluated hosts,
+ * so that, for example, only the connections whose route changed need to be closed.
+ * </p>
+ * <p>
+ * GraalVM engine settings for the underlying {@link SimplePacInterpreter} can be supplied via {@link PacInterpreterOptions}.
  * </p>
  *
  * @see "https://developer.mozilla.org/en-US/docs/Web/HTTP/Proxy_servers_and_tunneling/Proxy_Auto-Configuration_PAC_file"
@@ -27,45 +39,191 @@ import java.util.function.Supplier;
  */
 public class ReloadablePacInterpreter implements PacInterpreter {
     private static final Logger logger = LoggerFactory.getLogger(ReloadablePacInterpreter.class);
+    public static final int RECENT_HOSTS = 4096;
     private final Supplier<PacInterpreter> pacInterpreterSupplier;
-    private volatile PacInterpreter pacInterpreter;
-    private ScheduledExecutorService timer; // All access must be synchronized on AutoReloadingPacInterpreter.this
+    private final Object reloadSource;
+    private final Object reloadLock = new Object();
+    private volatile SharedInterpreter<PacInterpreter> pacInterpreter; // All writes must be synchronized on reloadLock
+    private volatile boolean closed; // All writes must be synchronized on reloadLock
+    private PacReloadScheduler.ScheduledReload timer; // All access must be synchronized on ReloadablePacInterpreter.this
+    private final List<PacReloadListener> reloadListeners = new CopyOnWriteArrayList<>();
+    private final RecentHosts recentHosts = new RecentHosts(RECENT_HOSTS);
 
     protected ReloadablePacInterpreter(final Supplier<PacInterpreter> pacInterpreterSupplier) throws PacInterpreterException {
+        this(pacInterpreterSupplier, null);
+    }
+
+    /**
+     * @param pacInterpreterSupplier supplies a new interpreter on each reload.
+     * @param reloadSource           identifies the source of the PAC for the purpose of rate limiting reloads, or null
+     *                               if the source is unknown (in which case reloads are only rate limited per interpreter).
+     * @throws PacInterpreterException if the initial interpreter cannot be created.
+     */
+    protected ReloadablePacInterpreter(final Supplier<PacInterpreter> pacInterpreterSupplier, final Object reloadSource) throws PacInterpreterException {
         if (pacInterpreterSupplier == null) {
             throw new IllegalArgumentException("PAC interpreter supplier cannot be null");
         }
         this.pacInterpreterSupplier = pacInterpreterSupplier;
-        this.pacInterpreter = getPacInterpreter();
+        this.reloadSource = reloadSource != null ? reloadSource : this;
+        this.pacInterpreter = new SharedInterpreter<>(getPacInterpreter());
     }
 
     /**
-     * Starts auto-updates with the given period.
+     * Starts auto-updates with the given period, using the {@link PacReloadScheduler#defaultInstance() default scheduler}.
      *
      * @param updatePeriod how frequently the PAC should be reloaded.
      */
-    synchronized public void start(final Duration updatePeriod) {
+    public void start(final Duration updatePeriod) {
+        start(updatePeriod, PacReloadScheduler.defaultInstance());
+    }
+
+    /**
+     * Starts auto-updates with the given period, using the given scheduler.
+     *
+     * @param updatePeriod how frequently the PAC should be reloaded (subject to the scheduler's jitter).
+     * @param scheduler    the scheduler on which reloads are run.
+     */
+    synchronized public void start(final Duration updatePeriod, final PacReloadScheduler scheduler) {
+        if (scheduler == null) {
+            throw new IllegalArgumentException("Scheduler cannot be null");
+        }
         if (timer != null) {
             return;
         }
-        timer = Executors.newSingleThreadScheduledExecutor((final Runnable runnable) -> {
-            final Thread thread = new Thread(runnable, ReloadablePacInterpreter.class.getSimpleName() + " Reload Timer");
-            thread.setDaemon(true);
-            return thread;
-        });
-        timer.scheduleWithFixedDelay(this::reloadSafe, updatePeriod.toMillis(), updatePeriod.toMillis(), TimeUnit.MILLISECONDS);
+        timer = scheduler.schedule(reloadSource, updatePeriod, this::reloadSafe);
+    }
+
+    /**
+     * Adds a listener to be notified after each reload.
+     * <p>
+     * While there are listeners, the interpreter records the hosts it evaluates (up to about {@value #RECENT_HOSTS}
+     * of the most recent, in a fixed-size table). After each reload these hosts are evaluated in parallel by both the
+     * previous and the new interpreter, as {@code FindProxyForURL("http://<host>/", "<host>")} on
+     * {@link PacExecutors#blockingTasks()}, and the listeners are notified of the hosts whose results differ. Since the
+     * actual URLs are not recorded, results are only compared if neither PAC may refer to its {@code url} parameter
+     * (see {@link PacPrecomputer}); otherwise the listeners are notified with no hosts compared. Evaluations are not delayed: they use the new interpreter as soon as it is in use, and
+     * the previous interpreter is only closed once the listeners have returned.
+     * </p>
+     * <p>
+     * A listener that throws does not affect the reload or the other listeners: the failure is logged, unless it is a
+     * {@link VirtualMachineError}, which is rethrown.
+     * </p>
+     *
+     * @param listener the listener.
+     */
+    public void addReloadListener(final PacReloadListener listener) {
+        if (listener == null) {
+            throw new IllegalArgumentException("Listener cannot be null");
+        }
+        reloadListeners.add(listener);
+    }
+
+    /**
+     * Removes a listener added by {@link #addReloadListener(PacReloadListener)}.
+     *
+     * @param listener the listener.
+     */
+    public void removeReloadListener(final PacReloadListener listener) {
+        reloadListeners.remove(listener);
     }
 
     /**
      * Forces an immediate reload of the backing PAC source.
      * Calling this method has no effect on the timing of the next scheduled reload or whether the timer is started or stopped.
+     * If there are {@link #addReloadListener(PacReloadListener) reload listeners}, they are notified before this method
+     * returns.
      *
      * @throws PacInterpreterException if an error occurs when reinitializing the underlying {@link PacInterpreter}.
      */
     public void reload() throws PacInterpreterException {
         logger.debug("Reloading PAC");
-        pacInterpreter = getPacInterpreter();
+        final PacInterpreter reloaded = getPacInterpreter();
+        final SharedInterpreter<PacInterpreter> previous;
+        final SharedInterpreter<PacInterpreter> current;
+        final boolean notify;
+        synchronized (reloadLock) {
+            previous = pacInterpreter;
+            if (reloaded == previous.interpreter()) {
+                // The supplier returned the interpreter that is already in use:
+                return;
+            }
+            if (closed) {
+                reloaded.close();
+                throw new PacInterpreterException("PAC interpreter has been closed");
+            }
+            current = new SharedInterpreter<>(reloaded);
+            pacInterpreter = current;
+            // Keep both interpreters open while the listeners are notified (neither has been retired yet):
+            notify = !reloadListeners.isEmpty() && previous.acquire() && current.acquire();
+        }
+        // Closed once the evaluations that are still using it have completed:
+        previous.retire();
         logger.debug("PAC reloaded successfully");
+        if (notify) {
+            try {
+                notifyReloadListeners(previous.interpreter(), current.interpreter());
+            } finally {
+                current.release();
+                previous.release();
+            }
+        }
+    }
+
+    private void notifyReloadListeners(final PacInterpreter previous, final PacInterpreter current) {
+        final List<String> hosts = recentHosts.hosts();
+        final List<PacReloadEvent.Change> changes = new ArrayList<>();
+        final boolean comparable = PacPrecomputer.ignoresUrl(previous.getPac()) && PacPrecomputer.ignoresUrl(current.getPac());
+        if (!comparable) {
+            logger.debug("PAC may refer to its url parameter; not comparing results for reload listeners");
+        } else if (!hosts.isEmpty()) {
+            final int parallelism = Math.min(hosts.size(), Runtime.getRuntime().availableProcessors());
+            final Map<String, FindProxyResult> previousResults;
+            final Map<String, FindProxyResult> currentResults;
+            try {
+                previousResults = new PacPrecomputer(previous, parallelism).evaluate(hosts, PacExecutors.blockingTasks());
+                currentResults = new PacPrecomputer(current, parallelism).evaluate(hosts, PacExecutors.blockingTasks());
+            } catch (PacInterpreterException e) {
+                logger.error("Failed to compare results for reload listeners: " + e, e);
+                return;
+            }
+            for (final String host : hosts) {
+                final FindProxyResult previousResult = previousResults.get(host);
+                final FindProxyResult currentResult = currentResults.get(host);
+                if (previousResult == null ? currentResult != null : !previousResult.equals(currentResult)) {
+                    changes.add(new PacReloadEvent.Change(host, previousResult, currentResult));
+                }
+            }
+        }
+        final PacReloadEvent event = new PacReloadEvent(previous, current, comparable ? hosts.size() : 0, changes);
+        logger.debug("PAC reload changed the results for {} of {} recent hosts", changes.size(), hosts.size());
+        for (final PacReloadListener listener : reloadListeners) {
+            try {
+                listener.onReload(event);
+            } catch (VirtualMachineError e) {
+                throw e;
+            } catch (RuntimeException | Error e) {
+                // Including e.g. an AssertionError, so that a failing listener cannot keep the others from being notified:
+                logger.error("Reload listener failed: " + e, e);
+            }
+        }
+    }
+
+    /**
+     * Records the host of an evaluation for comparison on the next reload, if there are reload listeners.
+     */
+    private void recordHost(final String url, final String host) {
+        if (reloadListeners.isEmpty()) {
+            return;
+        }
+        if (host != null) {
+            recentHosts.record(host);
+        } else if (url != null) {
+            try {
+                recentHosts.record(PacUrls.hostOf(url));
+            } catch (MalformedURLException e) {
+                // The evaluation itself will fail
+            }
+        }
     }
 
     protected void reloadSafe() {
@@ -91,23 +249,103 @@ public class ReloadablePacInterpreter implements PacInterpreter {
         if (timer == null) {
             return;
         }
-        timer.shutdownNow();
+        timer.cancel();
         timer = null;
     }
 
+    /**
+     * Stops auto-updates and closes the current underlying interpreter once any evaluations in progress have completed.
+     */
+    @Override
+    public void close() {
+        stop();
+        final SharedInterpreter<PacInterpreter> current;
+        synchronized (reloadLock) {
+            closed = true;
+            current = pacInterpreter;
+        }
+        current.retire();
+    }
+
+    /**
+     * Acquires the current underlying interpreter for the duration of one evaluation. The caller must release it.
+     */
+    private SharedInterpreter<PacInterpreter> acquire() throws PacInterpreterException {
+        while (true) {
+            final SharedInterpreter<PacInterpreter> current = pacInterpreter;
+            if (current.acquire()) {
+                return current;
+            }
+            if (closed) {
+                throw new PacInterpreterException("PAC interpreter has been closed");
+            }
+            // Replaced by a concurrent reload, so use the new interpreter instead:
+        }
+    }
+
     @Override
     public String getPac() {
-        return pacInterpreter.getPac();
+        return pacInterpreter.interpreter().getPac();
     }
 
     @Override
     public FindProxyResult findProxyForUrl(final String url) throws MalformedURLException, PacInterpreterException {
-        return pacInterpreter.findProxyForUrl(url);
+        recordHost(url, null);
+        final SharedInterpreter<PacInterpreter> current = acquire();
+        try {
+            return current.interpreter().findProxyForUrl(url);
+        } finally {
+            current.release();
+        }
     }
 
     @Override
     public FindProxyResult findProxyForUrl(final String url, final String host) throws PacInterpreterException {
-        return pacInterpreter.findProxyForUrl(url, host);
+        recordHost(url, host);
+        final SharedInterpreter<PacInterpreter> current = acquire();
+        try {
+            return current.interpreter().findProxyForUrl(url, host);
+        } finally {
+            current.release();
+        }
+    }
+
+    @Override
+    public PacEvaluation evaluate(final String url, final String host) throws PacInterpreterException {
+        recordHost(url, host);
+        final SharedInterpreter<PacInterpreter> current = acquire();
+        try {
+            return current.interpreter().evaluate(url, host);
+        } finally {
+            current.release();
+        }
+    }
+
+    @Override
+    public FindProxyResult findProxyForUrl(final String url, final String host, final InetAddress clientAddress) throws PacInterpreterException {
+        recordHost(url, host);
+        final SharedInterpreter<PacInterpreter> current = acquire();
+        try {
+            return current.interpreter().findProxyForUrl(url, host, clientAddress);
+        } finally {
+            current.release();
+        }
+    }
+
+    @Override
+    public PacEvaluation evaluate(final String url, final String host, final InetAddress clientAddress) throws PacInterpreterException {
+        recordHost(url, host);
+        final SharedInterpreter<PacInterpreter> current = acquire();
+        try {
+            return current.interpreter().evaluate(url, host, clientAddress);
+        } finally {
+            current.release();
+        }
+    }
+
+    @Override
+    public boolean supportsClientAddress() {
+        return pacInterpreter.interpreter().supportsClientAddress();
     }
 
     /**
@@ -127,6 +365,24 @@ public class ReloadablePacInterpreter implements PacInterpreter {
         });
     }
 
+    /**
+     * Creates an {@link ReloadablePacInterpreter} using the given PAC script supplier and interpreter options.
+     *
+     * @param pacScript supplier for the PAC script.
+     * @param options   the options used for each {@link SimplePacInterpreter} created on reload.
+     * @return a {@link ReloadablePacInterpreter} for the given PAC script.
+     * @throws PacInterpreterException if an error occurs evaluating the PAC script.
+     */
+    public static ReloadablePacInterpreter forScript(final Supplier<String> pacScript, final PacInterpreterOptions options) throws PacInterpreterException {
+        return new ReloadablePacInterpreter(() -> {
+            try {
+                return SimplePacInterpreter.forScript(pacScript.get(), options);
+            } catch (Exception e) {
+                throw new RuntimePacInterpreterException(e.getMessage(), e.getCause());
+            }
+        });
+    }
+
     /**
      * Creates a {@link ReloadablePacInterpreter} using the given PAC file.
      *
@@ -141,7 +397,25 @@ public class ReloadablePacInterpreter implements PacInterpreter {
             } catch (Exception e) {
                 throw new RuntimePacInterpreterException(e.getMessage(), e.getCause());
             }
-        });
+        }, PacSource.forFile(pacFile));
+    }
+
+    /**
+     * Creates a {@link ReloadablePacInterpreter} using the given PAC file and interpreter options.
+     *
+     * @param pacFile the PAC file.
+     * @param options the options used for each {@link SimplePacInterpreter} created on reload.
+     * @return a {@link ReloadablePacInterpreter} for the given PAC file.
+     * @throws PacInterpreterException if an error occurs evaluating the PAC file.
+     */
+    public static ReloadablePacInterpreter forFile(final File pacFile, final PacInterpreterOptions options) throws PacInterpreterException {
+        return new ReloadablePacInterpreter(() -> {
+            try {
+                return SimplePacInterpreter.forFile(pacFile, options);
+            } catch (Exception e) {
+                throw new RuntimePacInterpreterException(e.getMessage(), e.getCause());
+            }
+        }, PacSource.forFile(pacFile));
     }
 
     /**
@@ -158,6 +432,48 @@ public class ReloadablePacInterpreter implements PacInterpreter {
             } catch (Exception e) {
                 throw new RuntimePacInterpreterException(e.getMessage(), e.getCause());
             }
-        });
+        }, PacSource.forUrl(pacUrl));
+    }
+
+    /**
+     * Creates an {@link ReloadablePacInterpreter} using the given PAC URL and interpreter options.
+     *
+     * @param pacUrl  the PAC URL.
+     * @param options the options used for each {@link SimplePacInterpreter} created on reload.
+     * @return a {@link ReloadablePacInterpreter} for the given PAC URL.
+     * @throws PacInterpreterException if an error occurs evaluating the PAC URL.
+     */
+    public static ReloadablePacInterpreter forUrl(final URL pacUrl, final PacInterpreterOptions options) throws PacInterpreterException {
+        return new ReloadablePacInterpreter(() -> {
+            try {
+                return SimplePacInterpreter.forUrl(pacUrl, options);
+            } catch (Exception e) {
+                throw new RuntimePacInterpreterException(e.getMessage(), e.getCause());
+            }
+        }, PacSource.forUrl(pacUrl));
+    }
+
+    /**
+     * Creates a {@link ReloadablePacInterpreter} using the given PAC source and interpreter options.
+     *
+     * @param pacSource the PAC source.
+     * @param options   the options used to load the PAC and for each {@link SimplePacInterpreter} created on reload.
+     * @return a {@link ReloadablePacInterpreter} for the given PAC source.
+     * @throws PacInterpreterException if an error occurs loading or evaluating the PAC.
+     */
+    public static ReloadablePacInterpreter forSource(final PacSource pacSource, final PacInterpreterOptions options) throws PacInterpreterException {
+        if (pacSource == null) {
+            throw new IllegalArgumentException("PAC source cannot be null");
+        }
+        if (options == null) {
+            throw new IllegalArgumentException("Options cannot be null");
+        }
+        return new ReloadablePacInterpreter(() -> {
+            try {
+                return SimplePacInterpreter.forScript(pacSource.load(options), options);
+            } catch (Exception e) {
+                throw new RuntimePacInterpreterException(e.getMessage(), e.getCause());
+            }
+        }, pacSource);
     }
 }
@@ -0,0 +1,274 @@
+package com.mabl.net.proxy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetAddress;
+import java.net.MalformedURLException;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A {@link PacInterpreter} decorator that serves the last known good result for a host when the PAC cannot be evaluated,
+ * e.g. because of a DNS failure in dnsResolve or a script error after a bad reload.
+ * <p>
+ * The most recent successful result for each host (and client address) is kept in a bounded, least-recently-used
+ * structure. If the delegate throws, that result is returned instead, flagged as {@link PacEvaluation#isStale() stale};
+ * if there is none, the exception is propagated. Because results are remembered by host, this is only exact for PACs
+ * that ignore the URL; for other PACs the stale result is the one most recently returned for any URL with that host.
+ * </p>
+ * <p>
+ * After a number of consecutive failures a circuit breaker opens, and for the open duration the delegate is not called
+ * at all: stale results are served, or a {@link PacInterpreterException} is thrown for hosts without one. After that a
+ * single evaluation is let through as a probe, which closes the breaker if it succeeds and reopens it if it fails.
+ * </p>
+ */
+public class ResilientPacInterpreter implements PacInterpreter {
+    private static final Logger logger = LoggerFactory.getLogger(ResilientPacInterpreter.class);
+    private static final char KEY_SEPARATOR = '\n';
+    private final PacInterpreter delegate;
+    private final ResultCache lastKnownGood;
+    private final Duration maximumStaleness;
+    private final CircuitBreaker circuitBreaker;
+    private final Clock clock;
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder staleResults = new LongAdder();
+    private final LongAdder shortCircuits = new LongAdder();
+
+    protected ResilientPacInterpreter(final Builder builder) {
+        this.delegate = builder.delegate;
+        this.lastKnownGood = new OnHeapResultCache(builder.maximumSize);
+        this.maximumStaleness = builder.maximumStaleness;
+        this.circuitBreaker = new CircuitBreaker(builder.failureThreshold, builder.openDuration.toMillis());
+        this.clock = builder.clock;
+    }
+
+    /**
+     * Creates a builder for a resilient interpreter that decorates the given interpreter.
+     *
+     * @param delegate the interpreter whose failures are masked.
+     * @return a new builder.
+     */
+    public static Builder newBuilder(final PacInterpreter delegate) {
+        return new Builder(delegate);
+    }
+
+    /**
+     * Gets the number of evaluations by the delegate that failed.
+     *
+     * @return the number of failures.
+     */
+    public long failures() {
+        return failures.sum();
+    }
+
+    /**
+     * Gets the number of stale results served in place of failed or short-circuited evaluations.
+     *
+     * @return the number of stale results.
+     */
+    public long staleResults() {
+        return staleResults.sum();
+    }
+
+    /**
+     * Gets the number of evaluations that were not attempted because the circuit breaker was open.
+     *
+     * @return the number of short-circuited evaluations.
+     */
+    public long shortCircuits() {
+        return shortCircuits.sum();
+    }
+
+    /**
+     * Tests whether the circuit breaker is open, i.e. evaluations are currently not being attempted.
+     *
+     * @return true if the circuit breaker is open.
+     */
+    public boolean isCircuitOpen() {
+        return circuitBreaker.isOpen(clock.millis());
+    }
+
+    @Override
+    public String getPac() {
+        return delegate.getPac();
+    }
+
+    @Override
+    public FindProxyResult findProxyForUrl(final String url) throws MalformedURLException, PacInterpreterException {
+        return findProxyForUrl(url, PacUrls.hostOf(url));
+    }
+
+    @Override
+    public FindProxyResult findProxyForUrl(final String url, final String host) throws PacInterpreterException {
+        return evaluate(url, host).result();
+    }
+
+    @Override
+    public PacEvaluation evaluate(final String url, final String host) throws PacInterpreterException {
+        return evaluate(url, host, null);
+    }
+
+    @Override
+    public PacEvaluation evaluate(final String url, final String host, final InetAddress clientAddress) throws PacInterpreterException {
+        final String key = key(host, ClientAddresses.keyAddress(delegate, clientAddress));
+        final long now = clock.millis();
+        if (!circuitBreaker.tryAcquire(now)) {
+            shortCircuits.increment();
+            final PacEvaluation stale = stale(key, now);
+            if (stale == null) {
+                throw new PacInterpreterException("PAC evaluation is suspended after repeated failures and no previous result is available for " + host);
+            }
+            return stale;
+        }
+        final PacEvaluation evaluation;
+        try {
+            evaluation = delegate.evaluate(url, host, clientAddress);
+        } catch (PacInterpreterException | RuntimeException e) {
+            onFailure(host, e);
+            final PacEvaluation stale = stale(key, now);
+            if (stale == null) {
+                throw e;
+            }
+            return stale;
+        }
+        circuitBreaker.onSuccess();
+        lastKnownGood.put(key, evaluation.result(), maximumStaleness == null
+                ? Long.MAX_VALUE
+                : now + Math.min(maximumStaleness.toMillis(), Long.MAX_VALUE - now));
+        return evaluation;
+    }
+
+    @Override
+    public boolean supportsClientAddress() {
+        return delegate.supportsClientAddress();
+    }
+
+    @Override
+    public void close() {
+        delegate.close();
+    }
+
+    private void onFailure(final String host, final Exception e) {
+        failures.increment();
+        if (circuitBreaker.onFailure(clock.millis())) {
+            logger.warn("Suspending PAC evaluation after repeated failures; last failure for {}: {}", host, e.toString());
+        } else {
+            logger.debug("PAC evaluation failed for {}: {}", host, e.toString());
+        }
+    }
+
+    private PacEvaluation stale(final String key, final long now) {
+        final ResultCache.Entry entry = lastKnownGood.get(key, now);
+        if (entry == null) {
+            return null;
+        }
+        staleResults.increment();
+        return PacEvaluation.stale(entry.result(), clock.instant());
+    }
+
+    private static String key(final String host, final InetAddress clientAddress) {
+        final String key = host == null ? "" : host;
+        return clientAddress == null ? key : clientAddress.getHostAddress() + KEY_SEPARATOR + key;
+    }
+
+    /**
+     * Builder for {@link ResilientPacInterpreter}.
+     */
+    public static class Builder {
+        private final PacInterpreter delegate;
+        private long maximumSize = 10_000;
+        private Duration maximumStaleness;
+        private int failureThreshold = 5;
+        private Duration openDuration = Duration.ofSeconds(30);
+        private Clock clock = Clock.systemUTC();
+
+        private Builder(final PacInterpreter delegate) {
+            if (delegate == null) {
+                throw new IllegalArgumentException("Delegate interpreter must not be null");
+            }
+            this.delegate = delegate;
+        }
+
+        /**
+         * Sets the maximum number of hosts for which the last known good result is kept. Least recently used hosts are
+         * evicted first.
+         *
+         * @param maximumSize the maximum number of results (must be positive).
+         * @return this builder.
+         */
+        public Builder maximumSize(final long maximumSize) {
+            if (maximumSize <= 0) {
+                throw new IllegalArgumentException("Maximum size must be positive");
+            }
+            this.maximumSize = maximumSize;
+            return this;
+        }
+
+        /**
+         * Sets how long after it was obtained a result may still be served in place of a failed evaluation.
+         *
+         * @param maximumStaleness the maximum age of a stale result, or null to serve results of any age (the default).
+         * @return this builder.
+         */
+        public Builder maximumStaleness(final Duration maximumStaleness) {
+            if (maximumStaleness != null && (maximumStaleness.isNegative() || maximumStaleness.isZero())) {
+                throw new IllegalArgumentException("Maximum staleness must be positive");
+            }
+            this.maximumStaleness = maximumStaleness;
+            return this;
+        }
+
+        /**
+         * Sets the number of consecutive failures after which the circuit breaker opens.
+         *
+         * @param failureThreshold the number of failures (must be positive).
+         * @return this builder.
+         */
+        public Builder failureThreshold(final int failureThreshold) {
+            if (failureThreshold <= 0) {
+                throw new IllegalArgumentException("Failure threshold must be positive");
+            }
+            this.failureThreshold = failureThreshold;
+            return this;
+        }
+
+        /**
+         * Sets how long the circuit breaker stays open before a probe evaluation is attempted.
+         *
+         * @param openDuration the open duration (must be positive).
+         * @return this builder.
+         */
+        public Builder openDuration(final Duration openDuration) {
+            if (openDuration == null || openDuration.isNegative() || openDuration.isZero()) {
+                throw new IllegalArgumentException("Open duration must be positive");
+            }
+            this.openDuration = openDuration;
+            return this;
+        }
+
+        /**
+         * Sets the clock used for the circuit breaker and the maximum staleness.
+         *
+         * @param clock the clock.
+         * @return this builder.
+         */
+        public Builder clock(final Clock clock) {
+            if (clock == null) {
+                throw new IllegalArgumentException("Clock must not be null");
+            }
+            this.clock = clock;
+            return this;
+        }
+
+        /**
+         * Creates the {@link ResilientPacInterpreter}.
+         *
+         * @return the resilient interpreter.
+         */
+        public ResilientPacInterpreter build() {
+            return new ResilientPacInterpreter(this);
+        }
+    }
+}
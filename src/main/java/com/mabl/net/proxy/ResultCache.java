@@ -0,0 +1,99 @@
+package com.mabl.net.proxy;
+
+import java.io.IOException;
+
+/**
+ * Storage used by {@link CachingPacInterpreter} to hold results keyed by evaluation key.
+ */
+interface ResultCache {
+    /**
+     * Gets the cached entry for the given key if it has not expired.
+     *
+     * @param key       the evaluation key.
+     * @param nowMillis the current time in milliseconds since the epoch.
+     * @return the entry, or null if there is no unexpired entry for the key.
+     */
+    Entry get(String key, long nowMillis);
+
+    /**
+     * Caches a result, possibly evicting other entries.
+     *
+     * @param key             the evaluation key.
+     * @param result          the result.
+     * @param expiresAtMillis the time (in milliseconds since the epoch) after which the result must not be served,
+     *                        or {@link Long#MAX_VALUE} if it does not expire.
+     */
+    void put(String key, FindProxyResult result, long expiresAtMillis);
+
+    /**
+     * Caches a result by the {@link PacHash#hostHash(CharSequence) hash} of its key, for caches which do not store keys.
+     *
+     * @param keyHash         the hash of the evaluation key.
+     * @param result          the result.
+     * @param expiresAtMillis the time (in milliseconds since the epoch) after which the result must not be served,
+     *                        or {@link Long#MAX_VALUE} if it does not expire.
+     * @return true if the result was cached; false if the cache needs the key itself.
+     */
+    boolean putHash(long keyHash, FindProxyResult result, long expiresAtMillis);
+
+    /**
+     * Calls the given visitor with each unexpired entry, without holding any locks while it runs. Entries are visited
+     * least recently used first, as far as the cache tracks their use, so that putting them into another cache in the
+     * same order preserves their recency.
+     *
+     * @param nowMillis the current time in milliseconds since the epoch.
+     * @param visitor   the visitor.
+     * @throws IOException if the visitor throws it.
+     */
+    void forEach(long nowMillis, Visitor visitor) throws IOException;
+
+    /**
+     * Gets the approximate number of cached entries.
+     */
+    long size();
+
+    /**
+     * Removes all entries.
+     */
+    void clear();
+
+    /**
+     * Receives the entries of a cache.
+     */
+    interface Visitor {
+        /**
+         * Visits an entry.
+         *
+         * @param key     the evaluation key, or null if the cache only stores its hash.
+         * @param keyHash the {@link PacHash#hostHash(CharSequence) hash} of the evaluation key.
+         * @param entry   the entry.
+         * @throws IOException if the entry cannot be processed.
+         */
+        void visit(String key, long keyHash, Entry entry) throws IOException;
+    }
+
+    /**
+     * A cached result and its expiry.
+     */
+    final class Entry {
+        private final FindProxyResult result;
+        private final long expiresAtMillis;
+
+        Entry(final FindProxyResult result, final long expiresAtMillis) {
+            this.result = result;
+            this.expiresAtMillis = expiresAtMillis;
+        }
+
+        FindProxyResult result() {
+            return result;
+        }
+
+        long expiresAtMillis() {
+            return expiresAtMillis;
+        }
+
+        boolean isExpired(final long nowMillis) {
+            return nowMillis >= expiresAtMillis;
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package com.mabl.net.proxy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Saves the entries of a {@link ResultCache} to a file, and restores them into a cache when the file was written for the
+ * same PAC, so that a restarted process does not start with an empty cache.
+ * <p>
+ * The file layout (all integers big-endian) is:
+ * </p>
+ * <pre>
+ * int     magic ("PACC")
+ * int     format version
+ * byte[32] SHA-256 of the PAC content
+ * byte    1 if the cache was keyed by host alone; 0 if by URL and host
+ * long    time written, in milliseconds since the epoch
+ * entries, each as (long key hash, long expiry in milliseconds since the epoch, int result index, int key length or
+ *         -1 if only the hash was cached, UTF-8 key bytes)
+ * int     result count, followed by each distinct result as (int length, UTF-8 bytes)
+ * int     entry count
+ * long    offset of the result count
+ * int     magic ("PACC")
+ * </pre>
+ * <p>
+ * The results follow the entries so that the cache can be streamed to the file in a single pass; the trailer at the
+ * end of the file locates them, and also detects a truncated file. Snapshots are memory-mapped when restored.
+ * </p>
+ */
+final class ResultCacheSnapshot {
+    private static final Logger logger = LoggerFactory.getLogger(ResultCacheSnapshot.class);
+    static final int MAGIC = 0x50414343; // "PACC"
+    static final int FORMAT_VERSION = 1;
+    private static final int DIGEST_LENGTH = 32;
+    private static final int HEADER_SIZE = Integer.BYTES + Integer.BYTES + DIGEST_LENGTH + 1 + Long.BYTES;
+    private static final int TRAILER_SIZE = Integer.BYTES + Long.BYTES + Integer.BYTES;
+    private static final int NO_KEY = -1;
+
+    private ResultCacheSnapshot() {
+    }
+
+    /**
+     * Writes the unexpired entries of the given cache. The snapshot is written to a temporary file which then replaces
+     * the given file, so an existing snapshot is never left half written.
+     *
+     * @param path      the snapshot file.
+     * @param cache     the cache.
+     * @param pac       the PAC from which the cached results were computed.
+     * @param hostOnly  whether the cache is keyed by host alone.
+     * @param nowMillis the current time in milliseconds since the epoch.
+     * @return the number of entries written.
+     * @throws IOException if the file cannot be written.
+     */
+    static int write(final Path path, final ResultCache cache, final String pac, final boolean hostOnly,
+                     final long nowMillis) throws IOException {
+        final Path temporaryPath = path.resolveSibling(path.getFileName() + ".tmp");
+        final Map<String, Integer> resultIndexes = new LinkedHashMap<>();
+        final int[] entryCount = {0};
+        try (final OutputStream fileOut = Files.newOutputStream(temporaryPath);
+             final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.write(PacHash.contentDigest(pac));
+            out.writeBoolean(hostOnly);
+            out.writeLong(nowMillis);
+            cache.forEach(nowMillis, (key, keyHash, entry) -> {
+                final Integer resultIndex = resultIndexes.computeIfAbsent(entry.result().toString(), result -> resultIndexes.size());
+                out.writeLong(keyHash);
+                out.writeLong(entry.expiresAtMillis());
+                out.writeInt(resultIndex);
+                if (key == null) {
+                    out.writeInt(NO_KEY);
+                } else {
+                    final byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+                    out.writeInt(keyBytes.length);
+                    out.write(keyBytes);
+                }
+                entryCount[0]++;
+            });
+            final long resultsOffset = out.size();
+            out.writeInt(resultIndexes.size());
+            for (final String result : resultIndexes.keySet()) {
+                final byte[] resultBytes = result.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(resultBytes.length);
+                out.write(resultBytes);
+            }
+            out.writeInt(entryCount[0]);
+            out.writeLong(resultsOffset);
+            out.writeInt(MAGIC);
+            if (out.size() == Integer.MAX_VALUE) {
+                // DataOutputStream.size() saturates, so the offsets above may be wrong:
+                throw new IOException(String.format("Result cache snapshot \"%s\" is too large", path));
+            }
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temporaryPath);
+            throw e;
+        }
+        try {
+            Files.move(temporaryPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temporaryPath, path, StandardCopyOption.REPLACE_EXISTING);
+        }
+        return entryCount[0];
+    }
+
+    /**
+     * Memory-maps a snapshot previously written by {@link #write(Path, ResultCache, String, boolean, long)} and puts its
+     * unexpired entries into the given cache, provided that the snapshot was written for the same PAC and keying.
+     *
+     * @param path      the snapshot file.
+     * @param cache     the cache.
+     * @param pac       the PAC currently used to compute results.
+     * @param hostOnly  whether the cache is keyed by host alone.
+     * @param nowMillis the current time in milliseconds since the epoch.
+     * @return the number of entries restored, which is zero if there is no snapshot or it was written for another PAC.
+     * @throws IOException if the file cannot be read or is not a valid snapshot.
+     */
+    static int read(final Path path, final ResultCache cache, final String pac, final boolean hostOnly,
+                    final long nowMillis) throws IOException {
+        final MappedByteBuffer buffer;
+        try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException(String.format("Result cache snapshot \"%s\" is too large", path));
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (NoSuchFileException e) {
+            return 0;
+        }
+        try {
+            if (buffer.capacity() < HEADER_SIZE + TRAILER_SIZE || buffer.getInt() != MAGIC
+                    || buffer.getInt(buffer.capacity() - Integer.BYTES) != MAGIC) {
+                throw new IOException(String.format("\"%s\" is not a result cache snapshot", path));
+            }
+            final int version = buffer.getInt();
+            if (version != FORMAT_VERSION) {
+                throw new IOException(String.format("Unsupported result cache snapshot version %d in \"%s\"", version, path));
+            }
+            final byte[] pacDigest = new byte[DIGEST_LENGTH];
+            buffer.get(pacDigest);
+            if (!Arrays.equals(pacDigest, PacHash.contentDigest(pac))) {
+                logger.info("Ignoring result cache snapshot \"{}\", which was written for a different PAC (hash {})",
+                        path, PacHash.toHex(pacDigest));
+                return 0;
+            }
+            if ((buffer.get() != 0) != hostOnly) {
+                logger.info("Ignoring result cache snapshot \"{}\", which was written by a cache keyed {}",
+                        path, hostOnly ? "by URL and host" : "by host alone");
+                return 0;
+            }
+            buffer.getLong(); // time written
+            final int entriesOffset = buffer.position();
+            final int trailerOffset = buffer.capacity() - TRAILER_SIZE;
+            final int entryCount = buffer.getInt(trailerOffset);
+            buffer.position(Math.toIntExact(buffer.getLong(trailerOffset + Integer.BYTES)));
+            final FindProxyResult[] results = new FindProxyResult[buffer.getInt()];
+            for (int ii = 0; ii < results.length; ii++) {
+                results[ii] = FindProxyResult.parse(readString(buffer, buffer.getInt()));
+            }
+
+            buffer.position(entriesOffset);
+            int restored = 0;
+            int keyless = 0;
+            for (int ii = 0; ii < entryCount; ii++) {
+                final long keyHash = buffer.getLong();
+                final long expiresAtMillis = buffer.getLong();
+                final FindProxyResult result = results[buffer.getInt()];
+                final int keyLength = buffer.getInt();
+                if (nowMillis >= expiresAtMillis) {
+                    skip(buffer, keyLength);
+                } else if (cache.putHash(keyHash, result, expiresAtMillis)) {
+                    // The cache only needs the hash, so the key need not be decoded
+                    skip(buffer, keyLength);
+                    restored++;
+                } else if (keyLength == NO_KEY) {
+                    keyless++;
+                } else {
+                    cache.put(readString(buffer, keyLength), result, expiresAtMillis);
+                    restored++;
+                }
+            }
+            if (keyless > 0) {
+                logger.info("Could not restore {} entries of result cache snapshot \"{}\", which were saved by an off-heap cache",
+                        keyless, path);
+            }
+            return restored;
+        } catch (RuntimeException | PacInterpreterException e) {
+            throw new IOException(String.format("Result cache snapshot \"%s\" is corrupt", path), e);
+        }
+    }
+
+    private static void skip(final ByteBuffer buffer, final int keyLength) {
+        if (keyLength != NO_KEY) {
+            buffer.position(buffer.position() + keyLength);
+        }
+    }
+
+    private static String readString(final ByteBuffer buffer, final int length) {
+        final byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,93 @@
+package com.mabl.net.proxy;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A reference-counted interpreter which can be retired (e.g. replaced on reload, or evicted) while evaluations are
+ * still using it.
+ * <p>
+ * The owner holds one reference for as long as the interpreter is live, and each evaluation holds another between
+ * {@link #acquire()} and {@link #release()}. Once retired, no new evaluations can acquire the interpreter, and it is
+ * closed when the last reference is released.
+ * </p>
+ *
+ * @param <T> the type of interpreter.
+ */
+final class SharedInterpreter<T extends PacInterpreter> {
+    private final T interpreter;
+    private final AtomicInteger references = new AtomicInteger(1);
+    private final AtomicBoolean retired = new AtomicBoolean();
+    private volatile long lastAccessNanos = System.nanoTime();
+
+    SharedInterpreter(final T interpreter) {
+        if (interpreter == null) {
+            throw new IllegalArgumentException("Interpreter cannot be null");
+        }
+        this.interpreter = interpreter;
+    }
+
+    T interpreter() {
+        return interpreter;
+    }
+
+    /**
+     * Gets the time at which the interpreter was last acquired.
+     *
+     * @return the last access time, as given by {@link System#nanoTime()}.
+     */
+    long lastAccessNanos() {
+        return lastAccessNanos;
+    }
+
+    /**
+     * Acquires a reference for an evaluation.
+     *
+     * @return true if the reference was acquired and must be released; false if the interpreter has been retired.
+     */
+    boolean acquire() {
+        int count;
+        do {
+            count = references.get();
+            if (count == 0) {
+                return false;
+            }
+        } while (!references.compareAndSet(count, count + 1));
+        if (isRetired()) {
+            // Retired but still in use by another evaluation; don't start new evaluations on it:
+            release();
+            return false;
+        }
+        lastAccessNanos = System.nanoTime();
+        return true;
+    }
+
+    void release() {
+        if (references.decrementAndGet() == 0) {
+            interpreter.close();
+        }
+    }
+
+    /**
+     * Releases the owner's reference, so that the interpreter is closed once no evaluations are using it. Calling this
+     * more than once has no further effect.
+     */
+    void retire() {
+        if (retired.compareAndSet(false, true)) {
+            release();
+        }
+    }
+
+    boolean isRetired() {
+        return retired.get();
+    }
+
+    /**
+     * Gets the number of references currently held, including the owner's (until retired).
+     *
+     * @return the reference count.
+     */
+    int references() {
+        return references.get();
+    }
+}
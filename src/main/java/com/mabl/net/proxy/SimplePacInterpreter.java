@@ -4,51 +4,101 @@ import com.mabl.io.IoUtils;
 import org.graalvm.polyglot.Context;
 import org.graalvm.polyglot.Engine;
 import org.graalvm.polyglot.HostAccess;
+import org.graalvm.polyglot.Source;
 import org.graalvm.polyglot.Value;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.ref.WeakReference;
 import java.net.InetAddress;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.WeakHashMap;
 
 /**
  * An interpreter for Proxy Auto-Configuration files/URLs.
  * <p>
- * To silence GraalVM warnings set the "polyglot.engine.WarnInterpreterOnly" system property to "false" e.g. -Dpolyglot.engine.WarnInterpreterOnly=false
+ * The interpreter is thread-safe: concurrent evaluations are spread across a pool of GraalVM contexts whose maximum
+ * size (along with the engine configuration) is controlled by {@link PacInterpreterOptions}.
+ * </p>
+ * <p>
+ * When GraalVM runtime compilation is unavailable the PAC is executed by the Truffle interpreter. Use
+ * {@link PacInterpreterOptions.InterpreterOnlyPolicy} to choose whether this is ignored, logged, or treated as an error,
+ * and {@link #isRuntimeCompilationEnabled()} to check at runtime.
+ * </p>
+ * <p>
+ * Interpreters for identical PAC text share a single copy of it, and the PAC and the PAC utilities are evaluated as
+ * cached sources, so their parsed code is shared by all contexts of the same engine. Use {@link #getFootprint()} and
+ * {@link #getEngineFootprint()} to see how much heap interpreters retain.
+ * </p>
+ * <p>
+ * Each PAC is checked for common performance problems by {@link PacLinter} as it is loaded; see
+ * {@link PacInterpreterOptions#getLintPolicy()}. To find out which rules of a PAC are slow, create the interpreter with
+ * {@link PacInterpreterOptions#isProfiling() profiling} enabled and use {@link #getProfile()}.
+ * </p>
+ * <p>
+ * The GraalVM runtime is bootstrapped when the first interpreter is created; see {@link PacRuntime} to do this ahead of
+ * time.
  * </p>
  *
  * @see "https://developer.mozilla.org/en-US/docs/Web/HTTP/Proxy_servers_and_tunneling/Proxy_Auto-Configuration_PAC_file"
  * @see "https://www.graalvm.org/latest/reference-manual/js/FAQ/#warning-implementation-does-not-support-runtime-compilation"
  */
 public class SimplePacInterpreter implements PacInterpreter {
-    private static final String PAC_UTILS_PATH = "/pacUtils.js";
-    private static final String PAC_LANGUAGE_ID = "js";
+    private static final Logger logger = LoggerFactory.getLogger(SimplePacInterpreter.class);
+    static final String PAC_LANGUAGE_ID = "js";
     private static final String PAC_FUNCTION_NAME = "FindProxyForURL";
     private static final List<Class<?>> ALLOWED_JAVA_CLASSES = Collections.unmodifiableList(Arrays.asList(
             // Allows JavaScript to invoke InetAddress methods (required for DNS/IP utility functions)
             InetAddress.class
     ));
-    private static final String PAC_UTILS = readPacUtils();
-    private static final Engine engine = initializeEngine();
+    private static final String PAC_SOURCE_NAME = "pac.js";
+    // Rough heap cost of an initialized context (JavaScript realm plus the parsed PAC utilities), and of the parsed PAC
+    // per character of source; used to estimate an interpreter's footprint if allocations cannot be measured:
+    private static final long ESTIMATED_CONTEXT_BYTES = 2 * 1024 * 1024;
+    private static final long ESTIMATED_PARSED_BYTES_PER_CHAR = 16;
+    private static final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+    // The PAC text of all live interpreters, so that interpreters for identical PACs (e.g. after a reload that found no
+    // changes) share one copy. All access must be synchronized on the map:
+    private static final Map<String, WeakReference<String>> canonicalPacs = new WeakHashMap<>();
     private final String pac;
-    private final Value findProxyForUrlFunction;
+    private final Source pacSource;
+    private final PacInterpreterOptions options;
+    private final Engine engine;
+    private final ContextPool contextPool;
+    private final PacProfiler profiler;
 
     protected SimplePacInterpreter(final String pac) throws PacInterpreterException {
-        this.pac = validatePac(pac);
-        final Context context = initializeContext();
+        this(pac, PacInterpreterOptions.defaults());
+    }
 
-        // Evaluate the PAC content, and extract a reference to the PAC function:
+    protected SimplePacInterpreter(final String pac, final PacInterpreterOptions options) throws PacInterpreterException {
+        if (options == null) {
+            throw new IllegalArgumentException("Options cannot be null");
+        }
+        lint(validatePac(pac), options);
+        this.pac = canonicalize(pac);
+        this.pacSource = Source.newBuilder(PAC_LANGUAGE_ID, this.pac, PAC_SOURCE_NAME).buildLiteral();
+        this.options = options;
+        this.profiler = options.isProfiling() ? new PacProfiler(options.getClock()) : null;
+        this.engine = PacEngines.acquire(options);
+        this.contextPool = new ContextPool(this::initializeContext, options.getContextPoolSize());
+        PacEngines.register(engine, this);
         try {
-            context.eval(PAC_LANGUAGE_ID, pac);
-            final Value jsBindings = context.getBindings(PAC_LANGUAGE_ID);
-            this.findProxyForUrlFunction = jsBindings.getMember(PAC_FUNCTION_NAME);
-        } catch (Exception e) {
-            throw new PacInterpreterException("Error evaluating PAC script", e);
+            contextPool.prestart();
+        } catch (PacInterpreterException | RuntimeException e) {
+            close();
+            throw e;
         }
     }
 
@@ -65,36 +115,103 @@ public class SimplePacInterpreter implements PacInterpreter {
         return pac;
     }
 
-    private static Engine initializeEngine() {
-        return Engine.newBuilder()
-                .build();
+    private static void lint(final String pac, final PacInterpreterOptions options) throws PacInterpreterException {
+        if (options.getLintPolicy() == PacInterpreterOptions.LintPolicy.IGNORE) {
+            return;
+        }
+        final List<PacLintWarning> warnings = new ArrayList<>();
+        for (final PacLintWarning warning : PacLinter.lint(pac)) {
+            if (warning.severity().compareTo(options.getLintSeverity()) >= 0) {
+                warnings.add(warning);
+            }
+        }
+        if (warnings.isEmpty()) {
+            return;
+        }
+        if (options.getLintPolicy() == PacInterpreterOptions.LintPolicy.FAIL) {
+            throw new PacInterpreterException("PAC has performance problems: " + warnings);
+        }
+        // Reloads of an unchanged PAC would repeat the same warnings, so only log them for PAC text that is new:
+        final boolean loaded;
+        synchronized (canonicalPacs) {
+            loaded = canonicalPacs.containsKey(pac);
+        }
+        for (final PacLintWarning warning : warnings) {
+            if (loaded) {
+                logger.debug("PAC lint {}", warning);
+            } else {
+                logger.warn("PAC lint {}", warning);
+            }
+        }
     }
 
-    private static Context initializeContext() {
-        final Context context = Context.newBuilder(PAC_LANGUAGE_ID)
-                .engine(engine)
-                .allowHostAccess(HostAccess.ALL)
-                .allowHostClassLoading(true)
-                .allowHostClassLookup(clazz -> ALLOWED_JAVA_CLASSES.stream()
-                        .map(Class::getCanonicalName)
-                        .anyMatch(clazz::equals))
-                .allowIO(true)
-                .build();
+    private static String canonicalize(final String pac) {
+        synchronized (canonicalPacs) {
+            final WeakReference<String> existing = canonicalPacs.get(pac);
+            final String canonical = existing != null ? existing.get() : null;
+            if (canonical != null) {
+                return canonical;
+            }
+            canonicalPacs.put(pac, new WeakReference<>(pac));
+            return pac;
+        }
+    }
 
-        // Make PAC utility functions available to the context:
-        context.eval(PAC_LANGUAGE_ID, PAC_UTILS);
+    private ContextPool.PacContext initializeContext() throws PacInterpreterException {
+        final Source pacUtils = PacRuntime.pacUtils();
+        final long allocatedBefore = threadAllocatedBytes();
+        final Context context;
+        try {
+            context = Context.newBuilder(PAC_LANGUAGE_ID)
+                    .engine(engine)
+                    .allowHostAccess(HostAccess.ALL)
+                    .allowHostClassLoading(true)
+                    .allowHostClassLookup(clazz -> ALLOWED_JAVA_CLASSES.stream()
+                            .map(Class::getCanonicalName)
+                            .anyMatch(clazz::equals))
+                    .allowIO(true)
+                    // The PAC's local time zone (used by weekdayRange/dateRange/timeRange) follows the configured clock:
+                    .timeZone(options.getClock().getZone())
+                    .build();
+        } catch (RuntimeException e) {
+            // E.g. the JavaScript language is not on the classpath:
+            throw new PacInterpreterException("Error creating GraalVM context", e);
+        }
 
-        return context;
+        // Make PAC utility functions available to the context, then evaluate the PAC content and extract a reference to the PAC function:
+        try {
+            final Value jsBindings = context.getBindings(PAC_LANGUAGE_ID);
+            // Top-level PAC code may call the time-dependent functions, so an evaluation context must be bound here too:
+            jsBindings.putMember(PacEvaluationContext.BINDING_NAME, new PacEvaluationContext(options.getClock(), options.getLocalAddress(), null));
+            context.eval(pacUtils);
+            context.eval(pacSource);
+            if (profiler != null) {
+                jsBindings.putMember(PacProfiler.BINDING_NAME, profiler);
+                context.eval(PacRuntime.pacProfiler());
+            }
+            final Value findProxyForUrlFunction = jsBindings.getMember(PAC_FUNCTION_NAME);
+            final long allocatedAfter = threadAllocatedBytes();
+            final long estimatedBytes = allocatedBefore >= 0 && allocatedAfter >= allocatedBefore
+                    ? allocatedAfter - allocatedBefore
+                    : ESTIMATED_CONTEXT_BYTES + pac.length() * ESTIMATED_PARSED_BYTES_PER_CHAR;
+            return new ContextPool.PacContext(context, jsBindings, findProxyForUrlFunction, estimatedBytes);
+        } catch (Exception e) {
+            context.close();
+            throw new PacInterpreterException("Error evaluating PAC script", e);
+        }
     }
 
-    private static String readPacUtils() {
-        try {
-            return IoUtils.readClasspathFileToString(PAC_UTILS_PATH);
-        } catch (IOException e) {
-            // This file is included in the jar, so if we can't open/read it something is seriously wrong.
-            // There is likely nothing the caller can do to handle this, so just rethrow as a runtime exception.
-            throw new RuntimePacInterpreterException(String.format("Failed to read \"%s\" from classpath", PAC_UTILS_PATH), e);
+    /**
+     * Gets the number of bytes allocated by the current thread so far, or -1 if the JVM cannot measure it.
+     */
+    private static long threadAllocatedBytes() {
+        if (threadMXBean instanceof com.sun.management.ThreadMXBean) {
+            final com.sun.management.ThreadMXBean allocationMXBean = (com.sun.management.ThreadMXBean) threadMXBean;
+            if (allocationMXBean.isThreadAllocatedMemorySupported() && allocationMXBean.isThreadAllocatedMemoryEnabled()) {
+                return allocationMXBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
         }
+        return -1;
     }
 
     @Override
@@ -102,24 +219,132 @@ public class SimplePacInterpreter implements PacInterpreter {
         return pac;
     }
 
+    /**
+     * Gets the options with which this interpreter was created.
+     *
+     * @return the interpreter options.
+     */
+    public PacInterpreterOptions getOptions() {
+        return options;
+    }
+
+    /**
+     * Tests whether the engine used by this interpreter JIT-compiles the PAC (Truffle runtime compilation) rather than
+     * executing it in the AST interpreter.
+     *
+     * @return true if runtime compilation is enabled; false if the PAC is only interpreted.
+     */
+    public boolean isRuntimeCompilationEnabled() {
+        return PacEngines.isRuntimeCompilationEnabled(engine);
+    }
+
+    /**
+     * Gets the approximate heap retained by this interpreter: its open contexts and the PAC text.
+     *
+     * @return the footprint of this interpreter.
+     */
+    public PacFootprint getFootprint() {
+        return new PacFootprint(1, contextPool.size(), 2L * pac.length() + contextPool.estimatedBytes());
+    }
+
+    /**
+     * Gets the calls made by the PAC since profiling started or was last reset: how often each function defined by the
+     * PAC or the PAC utilities was called from each line of the PAC, and how long the calls took.
+     *
+     * @return the profile of the current window.
+     * @throws IllegalStateException if the interpreter was not created with profiling enabled.
+     */
+    public PacProfile getProfile() {
+        return requireProfiler().snapshot();
+    }
+
+    /**
+     * Gets the calls made by the PAC since profiling started or was last reset, and starts a new profiling window.
+     *
+     * @return the profile of the window that ended.
+     * @throws IllegalStateException if the interpreter was not created with profiling enabled.
+     */
+    public PacProfile resetProfile() {
+        return requireProfiler().reset();
+    }
+
+    private PacProfiler requireProfiler() {
+        if (profiler == null) {
+            throw new IllegalStateException("Profiling is not enabled for this interpreter");
+        }
+        return profiler;
+    }
+
+    /**
+     * Gets the approximate heap retained by all open interpreters that use the same engine as this one, i.e. all
+     * interpreters with a shared engine and the same engine options, or just this interpreter if its engine is dedicated.
+     *
+     * @return the combined footprint of the engine's interpreters.
+     */
+    public PacFootprint getEngineFootprint() {
+        PacFootprint footprint = PacFootprint.EMPTY;
+        for (final SimplePacInterpreter interpreter : PacEngines.interpretersUsing(engine)) {
+            footprint = footprint.plus(interpreter.getFootprint());
+        }
+        return footprint;
+    }
+
+    /**
+     * Closes all contexts owned by this interpreter, as well as its engine if it is not shared.
+     * Contexts that are in use are closed as soon as the current evaluation completes.
+     */
+    @Override
+    public void close() {
+        if (contextPool != null) {
+            contextPool.close();
+        }
+        if (engine != null) {
+            PacEngines.unregister(engine, this);
+        }
+        if (engine != null && !options.isSharedEngine()) {
+            engine.close();
+        }
+    }
+
     @Override
     public FindProxyResult findProxyForUrl(final String url) throws MalformedURLException, PacInterpreterException {
-        return findProxyForUrl(url, new URL(url).getHost());
+        return findProxyForUrl(url, PacUrls.hostOf(url));
     }
 
     @Override
     public FindProxyResult findProxyForUrl(final String url, final String host) throws PacInterpreterException {
+        return evaluate(url, host).result();
+    }
+
+    @Override
+    public PacEvaluation evaluate(final String url, final String host) throws PacInterpreterException {
+        return evaluate(url, host, null);
+    }
+
+    @Override
+    public PacEvaluation evaluate(final String url, final String host, final InetAddress clientAddress) throws PacInterpreterException {
         final String result;
+        final PacEvaluationContext evaluationContext = new PacEvaluationContext(options.getClock(), options.getLocalAddress(), clientAddress);
+        final ContextPool.PacContext context = contextPool.borrow();
         try {
+            context.bindings().putMember(PacEvaluationContext.BINDING_NAME, evaluationContext);
             // Call the PAC function with the given URL:
-            result = findProxyForUrlFunction.execute(
+            result = context.findProxyForUrlFunction().execute(
                             Optional.ofNullable(url).orElse(""),
                             Optional.ofNullable(host).orElse(""))
                     .asString();
         } catch (Exception e) {
             throw new PacInterpreterException(String.format("Error executing %s", PAC_FUNCTION_NAME), e);
+        } finally {
+            contextPool.release(context);
         }
-        return FindProxyResult.parse(result);
+        return PacEvaluation.of(FindProxyResult.parse(result), evaluationContext.timePredicates(),
+                evaluationContext.now(), options.getClock().getZone());
+    }
+
+    @Override
+    public boolean supportsClientAddress() {
+        return true;
     }
 
     /**
@@ -133,6 +358,18 @@ public class SimplePacInterpreter implements PacInterpreter {
         return new SimplePacInterpreter(pacScript);
     }
 
+    /**
+     * Creates a {@link SimplePacInterpreter} using the given PAC script and options.
+     *
+     * @param pacScript the PAC script.
+     * @param options   the interpreter options.
+     * @return a {@link SimplePacInterpreter} for the given PAC script.
+     * @throws PacInterpreterException if an error occurs creating the engine or evaluating the PAC script.
+     */
+    public static SimplePacInterpreter forScript(final String pacScript, final PacInterpreterOptions options) throws PacInterpreterException {
+        return new SimplePacInterpreter(pacScript, options);
+    }
+
     /**
      * Creates a {@link SimplePacInterpreter} using the given PAC file.
      *
@@ -145,6 +382,22 @@ public class SimplePacInterpreter implements PacInterpreter {
         return forScript(IoUtils.readFileToString(pacFile));
     }
 
+    /**
+     * Creates a {@link SimplePacInterpreter} using the given PAC file and options.
+     *
+     * @param pacFile the PAC file.
+     * @param options the interpreter options.
+     * @return a {@link SimplePacInterpreter} for the given PAC file.
+     * @throws IOException             if an error occurs reading the PAC script from the given file.
+     * @throws PacInterpreterException if an error occurs creating the engine or evaluating the PAC file.
+     */
+    public static SimplePacInterpreter forFile(final File pacFile, final PacInterpreterOptions options) throws IOException, PacInterpreterException {
+        if (options == null) {
+            throw new IllegalArgumentException("Options cannot be null");
+        }
+        return forScript(IoUtils.readFileToString(pacFile, options.getMaximumPacSize()), options);
+    }
+
     /**
      * Creates a {@link SimplePacInterpreter} using the given PAC URL.
      *
@@ -156,4 +409,21 @@ public class SimplePacInterpreter implements PacInterpreter {
     public static SimplePacInterpreter forUrl(final URL pacUrl) throws IOException, PacInterpreterException {
         return forScript(IoUtils.readUrlToString(pacUrl));
     }
+
+    /**
+     * Creates a {@link SimplePacInterpreter} using the given PAC URL and options.
+     *
+     * @param pacUrl  the PAC URL.
+     * @param options the interpreter options.
+     * @return a {@link SimplePacInterpreter} for the given PAC URL.
+     * @throws IOException             if an error occurs reading the PAC script from the given URL.
+     * @throws PacInterpreterException if an error occurs creating the engine or evaluating the PAC URL.
+     */
+    public static SimplePacInterpreter forUrl(final URL pacUrl, final PacInterpreterOptions options) throws IOException, PacInterpreterException {
+        if (options == null) {
+            throw new IllegalArgumentException("Options cannot be null");
+        }
+        return forScript(IoUtils.readUrlToString(pacUrl, options.getConnectTimeout(), options.getReadTimeout(),
+                options.getMaximumPacSize()), options);
+    }
 }
@@ -0,0 +1,180 @@
+package com.mabl.net.proxy;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.time.temporal.TemporalAdjusters;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Records a call to one of the time-dependent PAC functions (weekdayRange, dateRange or timeRange) made while
+ * evaluating a PAC, so that the earliest instant at which the result of the evaluation could change can be derived.
+ *
+ * @see "https://developer.mozilla.org/en-US/docs/Web/HTTP/Proxy_servers_and_tunneling/Proxy_Auto-Configuration_PAC_file#predefined_functions_and_environment"
+ */
+public class TimePredicate {
+    private static final String GMT = "GMT";
+    private final Function function;
+    private final List<String> arguments;
+
+    TimePredicate(final Function function, final List<String> arguments) {
+        if (function == null) {
+            throw new IllegalArgumentException("Function must not be null");
+        }
+        if (arguments == null) {
+            throw new IllegalArgumentException("Arguments must not be null");
+        }
+        this.function = function;
+        this.arguments = Collections.unmodifiableList(new ArrayList<>(arguments));
+    }
+
+    /**
+     * Gets the PAC function that was called.
+     *
+     * @return the function.
+     */
+    public Function function() {
+        return function;
+    }
+
+    /**
+     * Gets the arguments the function was called with.
+     *
+     * @return the arguments, converted to strings.
+     */
+    public List<String> arguments() {
+        return arguments;
+    }
+
+    /**
+     * Tests whether the function was evaluated in GMT rather than local time.
+     *
+     * @return true if the last argument is "GMT".
+     */
+    public boolean isGmt() {
+        return !arguments.isEmpty() && GMT.equals(arguments.get(arguments.size() - 1));
+    }
+
+    /**
+     * Computes the earliest instant after {@code now} at which the value of this predicate could change.
+     * <p>
+     * The result is conservative: the predicate's value is guaranteed not to change before the returned instant,
+     * though it may remain the same after it.
+     * </p>
+     *
+     * @param now  the instant at which the predicate was evaluated.
+     * @param zone the local time zone used by the PAC (ignored if the predicate was evaluated in GMT).
+     * @return the next instant at which the predicate could change value.
+     */
+    public Instant nextPossibleChange(final Instant now, final ZoneId zone) {
+        final ZonedDateTime time = now.atZone(isGmt() ? ZoneOffset.UTC : zone);
+        return nextBoundary(time, granularity()).toInstant();
+    }
+
+    private ChronoUnit granularity() {
+        final List<String> values = isGmt() ? arguments.subList(0, arguments.size() - 1) : arguments;
+        switch (function) {
+            case TIME_RANGE:
+                // timeRange(hour), timeRange(hour1, hour2), timeRange(h1, m1, h2, m2), timeRange(h1, m1, s1, h2, m2, s2):
+                if (values.size() >= 6) {
+                    return ChronoUnit.SECONDS;
+                }
+                return values.size() >= 4 ? ChronoUnit.MINUTES : ChronoUnit.HOURS;
+            case DATE_RANGE:
+                if (!values.isEmpty() && values.stream().allMatch(TimePredicate::isYear)) {
+                    return ChronoUnit.YEARS;
+                }
+                if (!values.isEmpty() && values.stream().allMatch(TimePredicate::isMonth)) {
+                    return ChronoUnit.MONTHS;
+                }
+                return ChronoUnit.DAYS;
+            case WEEKDAY_RANGE:
+            default:
+                return ChronoUnit.DAYS;
+        }
+    }
+
+    private static ZonedDateTime nextBoundary(final ZonedDateTime time, final ChronoUnit unit) {
+        switch (unit) {
+            case YEARS:
+                return time.with(TemporalAdjusters.firstDayOfNextYear()).truncatedTo(ChronoUnit.DAYS);
+            case MONTHS:
+                return time.with(TemporalAdjusters.firstDayOfNextMonth()).truncatedTo(ChronoUnit.DAYS);
+            default:
+                return time.truncatedTo(unit).plus(1, unit);
+        }
+    }
+
+    private static boolean isYear(final String value) {
+        try {
+            return Integer.parseInt(value) >= 32;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private static boolean isMonth(final String value) {
+        try {
+            Integer.parseInt(value);
+            return false;
+        } catch (NumberFormatException e) {
+            return true;
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        TimePredicate that = (TimePredicate) o;
+        return function == that.function && Objects.equals(arguments, that.arguments);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(function, arguments);
+    }
+
+    @Override
+    public String toString() {
+        return function.functionName() + "(" + String.join(", ", arguments) + ")";
+    }
+
+    /**
+     * The time-dependent PAC functions.
+     */
+    public enum Function {
+        WEEKDAY_RANGE("weekdayRange"),
+        DATE_RANGE("dateRange"),
+        TIME_RANGE("timeRange");
+
+        private final String functionName;
+
+        Function(final String functionName) {
+            this.functionName = functionName;
+        }
+
+        /**
+         * Gets the name of the function as called from a PAC script.
+         *
+         * @return the function name.
+         */
+        public String functionName() {
+            return functionName;
+        }
+
+        public static Function fromFunctionName(final String functionName) {
+            for (final Function function : values()) {
+                if (function.functionName.equals(functionName)) {
+                    return function;
+                }
+            }
+            throw new IllegalArgumentException(String.format("\"%s\" is not a time-dependent PAC function", functionName));
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.mabl.net.proxy;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded, lock-free queue for many producers and a single consumer, which drops items rather than block when full.
+ * <p>
+ * A producer claims the next sequence number with a compare-and-set, provided that the consumer has freed its slot, and
+ * then publishes its item to the slot. The consumer takes the item at its sequence number once published, clears the
+ * slot and only then advances, so a slot is never claimed before it has been cleared.
+ * </p>
+ *
+ * @param <T> the type of the items.
+ */
+final class TrafficRingBuffer<T> {
+    private final AtomicReferenceArray<T> slots;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private volatile long head; // Only written by the consumer
+
+    /**
+     * @param capacity the number of slots, rounded up to a power of two.
+     */
+    TrafficRingBuffer(final int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        final int slotCount = Integer.highestOneBit(Math.min(capacity, 1 << 30) * 2 - 1);
+        this.slots = new AtomicReferenceArray<>(slotCount);
+        this.mask = slotCount - 1;
+    }
+
+    /**
+     * Adds an item if there is room. May be called by any thread.
+     *
+     * @param item the item.
+     * @return false if the buffer was full and the item was dropped.
+     */
+    boolean offer(final T item) {
+        if (item == null) {
+            throw new IllegalArgumentException("Item must not be null");
+        }
+        while (true) {
+            final long sequence = tail.get();
+            if (sequence - head >= slots.length()) {
+                return false;
+            }
+            if (tail.compareAndSet(sequence, sequence + 1)) {
+                slots.set((int) sequence & mask, item);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Removes the oldest item. Must only be called by the consumer thread.
+     *
+     * @return the item, or null if the buffer is empty (or the oldest item has been claimed but not yet published).
+     */
+    T poll() {
+        final long sequence = head;
+        final int slot = (int) sequence & mask;
+        final T item = slots.get(slot);
+        if (item == null) {
+            return null;
+        }
+        slots.lazySet(slot, null);
+        // The volatile write orders the cleared slot before the sequence number that lets producers claim it again:
+        head = sequence + 1;
+        return item;
+    }
+
+    /**
+     * Gets the approximate number of items claimed but not yet removed.
+     *
+     * @return the number of items.
+     */
+    int size() {
+        return (int) Math.max(0, tail.get() - head);
+    }
+
+    /**
+     * Gets the number of slots.
+     *
+     * @return the capacity.
+     */
+    int capacity() {
+        return slots.length();
+    }
+}
@@ -0,0 +1,55 @@
+package com.mabl.net.proxy;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Executors for tasks that spend most of their time blocked, such as PAC evaluations that resolve hosts and PAC reloads
+ * that fetch a URL.
+ * <p>
+ * This is the Java 21 version of the class in the multi-release jar: its executors run each task on a new virtual
+ * thread, so that tens of thousands of tasks can be blocked at once without exhausting platform threads. Its public API
+ * must be kept identical to that of the Java 8 version.
+ * </p>
+ */
+public final class PacExecutors {
+
+    private PacExecutors() {
+    }
+
+    /**
+     * Tests whether the executors run tasks on virtual threads.
+     *
+     * @return true on Java 21 and later; false otherwise.
+     */
+    public static boolean usesVirtualThreads() {
+        return true;
+    }
+
+    /**
+     * Gets the executor shared by the library for blocking tasks, e.g. by
+     * {@link PacInterpreter#evaluateAsync(String, String)}. It must not be shut down.
+     *
+     * @return the shared executor.
+     */
+    public static ExecutorService blockingTasks() {
+        return SharedHolder.INSTANCE;
+    }
+
+    /**
+     * Creates an executor for blocking tasks, which starts a virtual thread for each task.
+     *
+     * @param name the prefix of the names of the executor's threads.
+     * @return a new executor, which the caller should shut down when it is no longer needed.
+     */
+    public static ExecutorService newBlockingTaskExecutor(final String name) {
+        if (name == null) {
+            throw new IllegalArgumentException("Name must not be null");
+        }
+        return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(name + " ", 1).factory());
+    }
+
+    private static final class SharedHolder {
+        private static final ExecutorService INSTANCE = newBlockingTaskExecutor(PacExecutors.class.getSimpleName() + " Worker");
+    }
+}
@@ -0,0 +1,29 @@
+/*
+ * Wraps the functions defined by the PAC and the PAC utilities so that each call is reported to the profiler bound as
+ * __pacProfiler, along with the line of the PAC from which it was (directly or indirectly) made.
+ * Only evaluated by interpreters with profiling enabled, after the PAC itself.
+ */
+(function (global) {
+    var profiler = global.__pacProfiler;
+    var pacLine = /[( ]pac\.js:(\d+)/;
+
+    function wrap(name, fn) {
+        return function () {
+            // The innermost frame in the PAC is the rule that caused this call:
+            var match = pacLine.exec(new Error().stack);
+            var line = match ? parseInt(match[1], 10) : 0;
+            var start = profiler.enter();
+            try {
+                return fn.apply(this, arguments);
+            } finally {
+                profiler.exit(name, line, start);
+            }
+        };
+    }
+
+    Object.keys(global).forEach(function (name) {
+        if (typeof global[name] === 'function' && name.indexOf('__') !== 0) {
+            global[name] = wrap(name, global[name]);
+        }
+    });
+})(this);
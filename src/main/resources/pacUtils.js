@@ -87,6 +87,7 @@ function shExpMatch(url, pattern) {
 var wdays = new Array('SUN', 'MON', 'TUE', 'WED', 'THU', 'FRI', 'SAT');
 var monthes = new Array('JAN', 'FEB', 'MAR', 'APR', 'MAY', 'JUN', 'JUL', 'AUG', 'SEP', 'OCT', 'NOV', 'DEC');
 function weekdayRange() {
+    __pacRecordTimePredicate('weekdayRange', arguments);
     function getDay(weekday) {
         for (var i = 0; i < 6; i++) {
             if (weekday == wdays[i])
@@ -94,7 +95,7 @@ function weekdayRange() {
         }
         return -1;
     }
-    var date = new Date();
+    var date = __pacNow();
     var argc = arguments.length;
     var wday;
     if (argc < 1)
@@ -111,6 +112,7 @@ function weekdayRange() {
                                     : (wd1 <= wday && wday <= wd2);
 }
 function dateRange() {
+    __pacRecordTimePredicate('dateRange', arguments);
     function getMonth(name) {
         for (var i = 0; i < 6; i++) {
             if (name == monthes[i])
@@ -118,7 +120,7 @@ function dateRange() {
         }
         return -1;
     }
-    var date = new Date();
+    var date = __pacNow();
     var argc = arguments.length;
     if (argc < 1) {
         return false;
@@ -186,8 +188,9 @@ tmp);
     return ((date1 <= date) && (date <= date2));
 }
 function timeRange() {
+    __pacRecordTimePredicate('timeRange', arguments);
     var argc = arguments.length;
-    var date = new Date();
+    var date = __pacNow();
     var isGMT= false;
 
     if (argc < 1) {
@@ -200,8 +203,8 @@ function timeRange() {
 
     var hour = isGMT ? date.getUTCHours() : date.getHours();
     var date1, date2;
-    date1 = new Date();
-    date2 = new Date();
+    date1 = __pacNow();
+    date2 = __pacNow();
 
     if (argc == 1) {
         return (hour == arguments[0]);
@@ -238,6 +241,19 @@ function timeRange() {
     return ((date1 <= date) && (date <= date2));
 }
 
+// The following functions rely on the evaluation context that the interpreter binds for each call, which provides the
+// current time (from the interpreter's clock) and the caller's IP address, and records the time-dependent predicates
+// that were evaluated:
+function __pacNow() {
+    return new Date(__pacEvaluation.currentTimeMillis());
+}
+function __pacRecordTimePredicate(name, args) {
+    __pacEvaluation.recordTimePredicate(name, Array.prototype.slice.call(args));
+}
+function myIpAddress() {
+    return __pacEvaluation.myIpAddress();
+}
+
 // The following functions rely on GraalVM's Java integration because they require
 // functionality that is not available in pure JavaScript (e.g. host => IP resolution):
 function dnsResolve(host) {
@@ -245,8 +261,3 @@ function dnsResolve(host) {
         .getByName(host)
         .getHostAddress();
 }
-function myIpAddress() {
-    return Java.type('java.net.InetAddress')
-        .getLocalHost()
-        .getHostAddress();
-}
@@ -0,0 +1,141 @@
+package com.mabl.io;
+
+import io.undertow.Undertow;
+import io.undertow.util.Headers;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class IoUtilsTest {
+    private static final String CONTENT = "function FindProxyForURL(url, host) {\r\n    return \"DIRECT\"; // D\u00e9j\u00e0 vu\r\n}";
+    private Undertow server;
+
+    @After
+    public void tearDown() {
+        if (server != null) {
+            server.stop();
+            server = null;
+        }
+    }
+
+    @Test
+    public void readFile() throws Exception {
+        assertEquals(CONTENT, IoUtils.readFileToString(writeToFile(CONTENT.getBytes(StandardCharsets.UTF_8))));
+    }
+
+    @Test
+    public void readFileWithByteOrderMark() throws Exception {
+        final ByteArrayOutputStream content = new ByteArrayOutputStream();
+        content.write(new byte[]{(byte) 0xFF, (byte) 0xFE});
+        content.write(CONTENT.getBytes(StandardCharsets.UTF_16LE));
+        assertEquals(CONTENT, IoUtils.readFileToString(writeToFile(content.toByteArray())));
+    }
+
+    @Test
+    public void readFileTooLarge() throws Exception {
+        final File file = writeToFile(CONTENT.getBytes(StandardCharsets.UTF_8));
+        try {
+            IoUtils.readFileToString(file, 10);
+            fail("Read should have failed");
+        } catch (IOException e) {
+            assertEquals(String.format("%s exceeds the maximum size of 10 bytes", file), e.getMessage());
+        }
+    }
+
+    @Test
+    public void readInputStream() throws Exception {
+        final byte[] content = CONTENT.getBytes(StandardCharsets.UTF_8);
+        assertEquals(CONTENT, IoUtils.readInputStreamToString(new ByteArrayInputStream(content), content.length));
+    }
+
+    @Test(expected = IOException.class)
+    public void readInputStreamTooLarge() throws Exception {
+        final byte[] content = CONTENT.getBytes(StandardCharsets.UTF_8);
+        IoUtils.readInputStreamToString(new ByteArrayInputStream(content), content.length - 1);
+    }
+
+    @Test
+    public void readUrl() throws Exception {
+        final URL url = startServer(CONTENT.getBytes(StandardCharsets.UTF_8), "application/javascript", null);
+        assertEquals(CONTENT, IoUtils.readUrlToString(url));
+    }
+
+    @Test
+    public void readUrlWithCharset() throws Exception {
+        final URL url = startServer(CONTENT.getBytes(StandardCharsets.ISO_8859_1), "application/javascript; charset=ISO-8859-1", null);
+        assertEquals(CONTENT, IoUtils.readUrlToString(url));
+    }
+
+    @Test
+    public void readGzipUrl() throws Exception {
+        final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (final GZIPOutputStream out = new GZIPOutputStream(compressed)) {
+            out.write(CONTENT.getBytes(StandardCharsets.UTF_8));
+        }
+        final URL url = startServer(compressed.toByteArray(), "application/javascript", "gzip");
+        assertEquals(CONTENT, IoUtils.readUrlToString(url));
+    }
+
+    @Test
+    public void readDeflateUrl() throws Exception {
+        final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (final DeflaterOutputStream out = new DeflaterOutputStream(compressed)) {
+            out.write(CONTENT.getBytes(StandardCharsets.UTF_8));
+        }
+        final URL url = startServer(compressed.toByteArray(), "application/javascript", "deflate");
+        assertEquals(CONTENT, IoUtils.readUrlToString(url));
+    }
+
+    @Test(expected = IOException.class)
+    public void readUrlTooLarge() throws Exception {
+        final URL url = startServer(CONTENT.getBytes(StandardCharsets.UTF_8), "application/javascript", null);
+        IoUtils.readUrlToString(url, Duration.ofSeconds(1), Duration.ofSeconds(1), 10);
+    }
+
+    @Test(expected = IOException.class)
+    public void readCompressedUrlTooLarge() throws Exception {
+        final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (final GZIPOutputStream out = new GZIPOutputStream(compressed)) {
+            out.write(new byte[1024 * 1024]);
+        }
+        final URL url = startServer(compressed.toByteArray(), "application/javascript", "gzip");
+        IoUtils.readUrlToString(url, Duration.ofSeconds(1), Duration.ofSeconds(1), 64 * 1024);
+    }
+
+    private static File writeToFile(final byte[] content) throws IOException {
+        final File file = File.createTempFile("pac", ".js");
+        file.deleteOnExit();
+        Files.write(file.toPath(), content);
+        return file;
+    }
+
+    private URL startServer(final byte[] content, final String contentType, final String contentEncoding) throws IOException {
+        server = Undertow.builder()
+                .addHttpListener(0, "localhost")
+                .setHandler(exchange -> {
+                    exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, contentType);
+                    if (contentEncoding != null) {
+                        exchange.getResponseHeaders().put(Headers.CONTENT_ENCODING, contentEncoding);
+                    }
+                    exchange.getResponseSender().send(ByteBuffer.wrap(content));
+                }).build();
+        server.start();
+        final InetSocketAddress address = (InetSocketAddress) server.getListenerInfo().get(0).getAddress();
+        return new URL(String.format("http://%s:%d/proxy.pac", address.getHostString(), address.getPort()));
+    }
+}
@@ -0,0 +1,243 @@
+package com.mabl.net.proxy;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CachingPacInterpreterTest extends PacInterpreterTest {
+    private static final String TIME_DEPENDENT_PAC = "function FindProxyForURL(url, host) {\n" +
+            "    if (timeRange(9, 17, \"GMT\")) return \"PROXY work.example.com:8080\";\n" +
+            "    return \"DIRECT\";\n" +
+            "}\n";
+
+    @Test
+    public void timeDependentResultExpiresAtBoundary() throws Exception {
+        final MutableClock clock = new MutableClock(Instant.parse("2024-03-14T16:59:30Z"));
+        final PacInterpreterOptions options = PacInterpreterOptions.newBuilder()
+                .clock(clock)
+                .build();
+        try (final CachingPacInterpreter interpreter = CachingPacInterpreter.newBuilder(SimplePacInterpreter.forScript(TIME_DEPENDENT_PAC, options))
+                .clock(clock)
+                .build()) {
+            final PacEvaluation evaluation = interpreter.evaluate("https://example.com", "example.com");
+            assertEquals("PROXY work.example.com:8080", evaluation.result().toString());
+            assertEquals(Instant.parse("2024-03-14T17:00:00Z"), evaluation.validUntil().get());
+            assertEquals(1, evaluation.timePredicates().size());
+            assertEquals(TimePredicate.Function.TIME_RANGE, evaluation.timePredicates().get(0).function());
+
+            clock.set(Instant.parse("2024-03-14T16:59:59Z"));
+            assertEquals("PROXY work.example.com:8080", interpreter.findProxyForUrl("https://example.com").toString());
+            assertEquals(1, interpreter.hits());
+
+            // Once the hour boundary has passed the cached result must not be served:
+            clock.set(Instant.parse("2024-03-14T18:00:00Z"));
+            assertEquals("DIRECT", interpreter.findProxyForUrl("https://example.com").toString());
+            assertEquals(2, interpreter.misses());
+        }
+    }
+
+    @Test
+    public void timeIndependentResult() throws Exception {
+        final MutableClock clock = new MutableClock(Instant.parse("2024-03-14T16:59:30Z"));
+        try (final CachingPacInterpreter interpreter = CachingPacInterpreter.newBuilder(SimplePacInterpreter.forScript(PAC_3))
+                .clock(clock)
+                .timeToLive(Duration.ofMinutes(5))
+                .build()) {
+            final PacEvaluation evaluation = interpreter.evaluate("https://example.com", "example.com");
+            assertFalse(evaluation.isTimeDependent());
+            assertPac3Correct(interpreter);
+            assertEquals(1, interpreter.hits());
+
+            // Cached results report the cache expiry as their validity deadline:
+            final PacEvaluation cached = interpreter.evaluate("https://example.com", "example.com");
+            assertTrue(cached.isTimeDependent());
+            assertEquals(Instant.parse("2024-03-14T17:04:30Z"), cached.validUntil().get());
+
+            clock.set(Instant.parse("2024-03-14T17:05:00Z"));
+            assertPac3Correct(interpreter);
+            assertEquals(2, interpreter.misses());
+        }
+    }
+
+    @Test
+    public void offHeap() throws Exception {
+        final MutableClock clock = new MutableClock(Instant.parse("2024-03-14T16:59:30Z"));
+        try (final CachingPacInterpreter interpreter = CachingPacInterpreter.newBuilder(SimplePacInterpreter.forScript(PAC_3))
+                .clock(clock)
+                .timeToLive(Duration.ofMinutes(5))
+                .offHeap(true)
+                .build()) {
+            assertPac3Correct(interpreter);
+            assertPac3Correct(interpreter);
+            assertEquals(interpreter.misses(), interpreter.hits());
+            assertEquals(interpreter.misses(), interpreter.size());
+
+            clock.set(Instant.parse("2024-03-14T17:04:30Z"));
+            interpreter.findProxyForUrl("https://example.com");
+            assertEquals(interpreter.hits() + 1, interpreter.misses());
+        }
+    }
+
+    @Test
+    public void hostOnly() throws Exception {
+        try (final CachingPacInterpreter interpreter = CachingPacInterpreter.newBuilder(SimplePacInterpreter.forScript(PAC_3))
+                .hostOnly(true)
+                .maximumSize(1)
+                .build()) {
+            interpreter.findProxyForUrl("https://example.com/a");
+            interpreter.findProxyForUrl("https://example.com/b");
+            assertEquals(1, interpreter.hits());
+            assertEquals(1, interpreter.size());
+
+            interpreter.findProxyForUrl("https://example.org/");
+            assertEquals(1, interpreter.size());
+            interpreter.invalidateAll();
+            assertEquals(0, interpreter.size());
+        }
+    }
+
+    @Test
+    public void snapshot() throws Exception {
+        final File file = File.createTempFile("pac", ".snapshot");
+        file.deleteOnExit();
+        final Path snapshotFile = file.toPath();
+        Files.delete(snapshotFile);
+        try (final CachingPacInterpreter interpreter = CachingPacInterpreter.newBuilder(SimplePacInterpreter.forScript(PAC_3))
+                .snapshot(snapshotFile, null)
+                .build()) {
+            assertEquals(0, interpreter.size());
+            assertPac3Correct(interpreter);
+        }
+        final long saved;
+        try (final CachingPacInterpreter interpreter = CachingPacInterpreter.newBuilder(SimplePacInterpreter.forScript(PAC_3))
+                .snapshot(snapshotFile, Duration.ofMinutes(1))
+                .build()) {
+            saved = interpreter.size();
+            assertTrue(saved > 0);
+            assertPac3Correct(interpreter);
+            assertEquals(0, interpreter.misses());
+            assertEquals(saved, interpreter.saveSnapshot());
+        }
+        // A snapshot of another PAC's results is not restored:
+        try (final CachingPacInterpreter interpreter = CachingPacInterpreter.newBuilder(SimplePacInterpreter.forScript(PAC_1))
+                .snapshot(snapshotFile, null)
+                .build()) {
+            assertEquals(0, interpreter.size());
+        }
+    }
+
+    @Test
+    public void clientAddressLeftOutOfKeyForDelegateWithoutSupport() throws Exception {
+        final StubPacInterpreter delegate = new StubPacInterpreter();
+        try (final CachingPacInterpreter interpreter = CachingPacInterpreter.newBuilder(delegate).build()) {
+            assertFalse(interpreter.supportsClientAddress());
+            final PacEvaluation first = interpreter.evaluate("https://a.example.com/", "a.example.com", InetAddress.getByName("10.1.2.3"));
+            final PacEvaluation second = interpreter.evaluate("https://a.example.com/", "a.example.com", InetAddress.getByName("10.2.3.4"));
+            assertEquals("PROXY a.example.com-proxy.example.com:8080", first.result().toString());
+            assertEquals(first.result(), second.result());
+            assertEquals(1, delegate.evaluations());
+            assertEquals(1, interpreter.hits());
+        }
+    }
+
+    @Test
+    public void reloadDiscardsCachedResults() throws Exception {
+        final AtomicReference<String> script = new AtomicReference<>(proxyPac("proxy1.example.com:8080"));
+        final ReloadablePacInterpreter delegate = ReloadablePacInterpreter.forScript(script::get);
+        try (final CachingPacInterpreter interpreter = CachingPacInterpreter.newBuilder(delegate).build()) {
+            interpreter.findProxyForUrl("https://a.example.com", "a.example.com");
+            assertEquals("PROXY proxy1.example.com:8080", interpreter.findProxyForUrl("https://a.example.com", "a.example.com").toString());
+            assertEquals(1, interpreter.hits());
+
+            script.set(proxyPac("proxy2.example.com:8080"));
+            delegate.reload();
+            // The host is still cached, but from the previous PAC:
+            assertEquals("PROXY proxy2.example.com:8080", interpreter.findProxyForUrl("https://a.example.com", "a.example.com").toString());
+            assertEquals(1, interpreter.hits());
+            assertEquals(2, interpreter.misses());
+        }
+    }
+
+    @Test
+    public void reloadDiscardsSnapshot() throws Exception {
+        final File file = File.createTempFile("pac", ".snapshot");
+        file.deleteOnExit();
+        final Path snapshotFile = file.toPath();
+        Files.delete(snapshotFile);
+        final AtomicReference<String> script = new AtomicReference<>(proxyPac("proxy1.example.com:8080"));
+        final ReloadablePacInterpreter delegate = ReloadablePacInterpreter.forScript(script::get);
+        try (final CachingPacInterpreter interpreter = CachingPacInterpreter.newBuilder(delegate)
+                .snapshot(snapshotFile, null)
+                .build()) {
+            interpreter.findProxyForUrl("https://a.example.com", "a.example.com");
+            interpreter.findProxyForUrl("https://b.example.com", "b.example.com");
+            assertEquals(2, interpreter.saveSnapshot());
+
+            script.set(proxyPac("proxy2.example.com:8080"));
+            delegate.reload();
+            // The results cached before the reload are not saved for the new PAC:
+            assertEquals(0, interpreter.saveSnapshot());
+            assertEquals(0, interpreter.size());
+            interpreter.findProxyForUrl("https://a.example.com", "a.example.com");
+        }
+        // Only the result computed from the new PAC was saved on closing:
+        try (final CachingPacInterpreter interpreter = CachingPacInterpreter.newBuilder(ReloadablePacInterpreter.forScript(script::get))
+                .snapshot(snapshotFile, null)
+                .build()) {
+            assertEquals(1, interpreter.size());
+            assertEquals("PROXY proxy2.example.com:8080", interpreter.findProxyForUrl("https://a.example.com", "a.example.com").toString());
+            assertEquals(1, interpreter.hits());
+        }
+    }
+
+    private static String proxyPac(final String proxy) {
+        return "function FindProxyForURL(url, host) { return \"PROXY " + proxy + "\"; }";
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void saveSnapshotRequiresSnapshotFile() throws Exception {
+        try (final CachingPacInterpreter interpreter = CachingPacInterpreter.newBuilder(SimplePacInterpreter.forScript(PAC_3)).build()) {
+            interpreter.saveSnapshot();
+        }
+    }
+
+    static class MutableClock extends Clock {
+        private volatile Instant instant;
+
+        MutableClock(final Instant instant) {
+            this.instant = instant;
+        }
+
+        void set(final Instant instant) {
+            this.instant = instant;
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(final ZoneId zone) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Instant instant() {
+            return instant;
+        }
+    }
+}
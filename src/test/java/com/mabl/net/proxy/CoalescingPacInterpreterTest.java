@@ -0,0 +1,148 @@
+package com.mabl.net.proxy;
+
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CoalescingPacInterpreterTest {
+    private final CountDownLatch release = new CountDownLatch(1);
+    // Blocks each evaluation until released, e.g. as if waiting on a slow DNS lookup:
+    private final StubPacInterpreter delegate = new StubPacInterpreter().blockUntil(release);
+
+    private static List<Future<PacEvaluation>> evaluateConcurrently(final ExecutorService executor, final PacInterpreter interpreter,
+                                                                    final int callers, final String url, final String host) {
+        final List<Future<PacEvaluation>> futures = new ArrayList<>();
+        for (int ii = 0; ii < callers; ii++) {
+            futures.add(executor.submit(() -> interpreter.evaluate(url, host)));
+        }
+        return futures;
+    }
+
+    private static void awaitCoalesced(final CoalescingPacInterpreter interpreter, final long coalesced) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (interpreter.coalesced() < coalesced && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(coalesced, interpreter.coalesced());
+    }
+
+    @Test
+    public void coalescesConcurrentEvaluations() throws Exception {
+        final CoalescingPacInterpreter interpreter = CoalescingPacInterpreter.newBuilder(delegate).build();
+        final ExecutorService executor = Executors.newFixedThreadPool(20);
+        try {
+            final List<Future<PacEvaluation>> futures = evaluateConcurrently(executor, interpreter, 20, "https://a.example.com/", "a.example.com");
+            awaitCoalesced(interpreter, 19);
+            assertEquals(1, interpreter.inFlight());
+            release.countDown();
+            final PacEvaluation first = futures.get(0).get();
+            for (final Future<PacEvaluation> future : futures) {
+                assertSame(first.result(), future.get().result());
+            }
+            assertEquals(1, delegate.evaluations());
+            assertEquals(1, interpreter.evaluations());
+            assertEquals(0, interpreter.inFlight());
+
+            // Once complete, the result is not retained:
+            interpreter.evaluate("https://a.example.com/", "a.example.com");
+            assertEquals(2, delegate.evaluations());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void keyedByUrlAndHost() throws Exception {
+        release.countDown();
+        final CoalescingPacInterpreter interpreter = CoalescingPacInterpreter.newBuilder(delegate).build();
+        interpreter.evaluate("https://a.example.com/1", "a.example.com");
+        interpreter.evaluate("https://a.example.com/2", "a.example.com");
+        assertEquals(2, interpreter.evaluations());
+        assertEquals(0, interpreter.coalesced());
+    }
+
+    @Test
+    public void hostOnly() throws Exception {
+        final CoalescingPacInterpreter interpreter = CoalescingPacInterpreter.newBuilder(delegate).hostOnly(true).build();
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            final Future<PacEvaluation> first = executor.submit(() -> interpreter.evaluate("https://a.example.com/1", "a.example.com"));
+            final Future<PacEvaluation> second = executor.submit(() -> interpreter.evaluate("https://a.example.com/2", "a.example.com"));
+            awaitCoalesced(interpreter, 1);
+            release.countDown();
+            assertSame(first.get().result(), second.get().result());
+            assertEquals(1, delegate.evaluations());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void propagatesFailures() throws Exception {
+        delegate.failing(true);
+        final CoalescingPacInterpreter interpreter = CoalescingPacInterpreter.newBuilder(delegate).build();
+        final ExecutorService executor = Executors.newFixedThreadPool(5);
+        try {
+            final List<Future<PacEvaluation>> futures = evaluateConcurrently(executor, interpreter, 5, "https://a.example.com/", "a.example.com");
+            awaitCoalesced(interpreter, 4);
+            release.countDown();
+            for (final Future<PacEvaluation> future : futures) {
+                try {
+                    future.get();
+                    fail("Expected the failure to propagate to every caller");
+                } catch (ExecutionException e) {
+                    assertTrue(e.getCause() instanceof PacInterpreterException);
+                    assertEquals("dnsResolve failed for a.example.com", e.getCause().getMessage());
+                }
+            }
+            assertEquals(1, delegate.evaluations());
+            assertEquals(0, interpreter.inFlight());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void timeout() throws Exception {
+        final CoalescingPacInterpreter interpreter = CoalescingPacInterpreter.newBuilder(delegate)
+                .timeout(Duration.ofMillis(100))
+                .build();
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            final Future<PacEvaluation> first = executor.submit(() -> interpreter.evaluate("https://a.example.com/", "a.example.com"));
+            awaitEvaluations(1);
+            try {
+                interpreter.evaluate("https://a.example.com/", "a.example.com");
+                fail("Expected a timeout");
+            } catch (PacInterpreterException e) {
+                assertTrue(e.getMessage(), e.getMessage().startsWith("Timed out"));
+            }
+            assertEquals(1, interpreter.timeouts());
+            release.countDown();
+            assertEquals("PROXY a.example.com-proxy.example.com:8080", first.get().result().toString());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void awaitEvaluations(final int count) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (delegate.evaluations() < count && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, delegate.evaluations());
+    }
+}
@@ -0,0 +1,62 @@
+package com.mabl.net.proxy;
+
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.SocketException;
+import java.net.UnknownHostException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+
+public class LocalAddressCacheTest {
+
+    @Test
+    public void findLocalAddress() throws Exception {
+        final InetAddress address = LocalAddressCache.findLocalAddress();
+        assertNotNull(address);
+        assertFalse(address.isAnyLocalAddress());
+        assertFalse(address.isLinkLocalAddress());
+    }
+
+    @Test
+    public void refreshInterval() throws Exception {
+        final CachingPacInterpreterTest.MutableClock clock = new CachingPacInterpreterTest.MutableClock(Instant.parse("2024-01-01T00:00:00Z"));
+        final AtomicInteger lookups = new AtomicInteger();
+        final LocalAddressCache cache = new LocalAddressCache(Duration.ofMinutes(1), clock) {
+            @Override
+            protected InetAddress lookupLocalAddress() throws SocketException {
+                try {
+                    return InetAddress.getByName("10.0.0." + lookups.incrementAndGet());
+                } catch (UnknownHostException e) {
+                    throw new SocketException(e.getMessage());
+                }
+            }
+        };
+
+        assertEquals("10.0.0.1", cache.get().getHostAddress());
+        clock.set(Instant.parse("2024-01-01T00:00:59Z"));
+        assertEquals("10.0.0.1", cache.get().getHostAddress());
+        assertEquals(1, lookups.get());
+
+        clock.set(Instant.parse("2024-01-01T00:01:00Z"));
+        assertEquals("10.0.0.2", cache.get().getHostAddress());
+        assertEquals(2, lookups.get());
+    }
+
+    @Test
+    public void lookupFailure() {
+        final LocalAddressCache cache = new LocalAddressCache(Duration.ZERO, Clock.systemUTC()) {
+            @Override
+            protected InetAddress lookupLocalAddress() throws SocketException {
+                throw new SocketException("No interfaces");
+            }
+        };
+        assertEquals(InetAddress.getLoopbackAddress(), cache.get());
+    }
+}
@@ -0,0 +1,120 @@
+package com.mabl.net.proxy;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class OffHeapResultCacheTest {
+    private static final long NOW = 1_700_000_000_000L;
+    private FindProxyResult direct;
+    private FindProxyResult proxy;
+
+    @Before
+    public void setUp() throws Exception {
+        direct = FindProxyResult.parse("DIRECT");
+        proxy = FindProxyResult.parse("PROXY proxy.example.com:8080; DIRECT");
+    }
+
+    @Test
+    public void putAndGet() throws Exception {
+        final OffHeapResultCache cache = new OffHeapResultCache(1_000);
+        assertNull(cache.get("example.com", NOW));
+        cache.put("example.com", direct, Long.MAX_VALUE);
+        cache.put("intranet", proxy, Long.MAX_VALUE);
+        cache.put("other.example.com", FindProxyResult.parse("PROXY proxy.example.com:8080; DIRECT"), Long.MAX_VALUE);
+
+        final ResultCache.Entry entry = cache.get("example.com", NOW);
+        assertSame(direct, entry.result());
+        assertEquals(Long.MAX_VALUE, entry.expiresAtMillis());
+        // Equal results are interned:
+        assertSame(proxy, cache.get("other.example.com", NOW).result());
+        assertEquals(3, cache.size());
+
+        cache.put("example.com", proxy, Long.MAX_VALUE);
+        assertSame(proxy, cache.get("example.com", NOW).result());
+        assertEquals(3, cache.size());
+    }
+
+    @Test
+    public void expiryIsRoundedDown() {
+        final OffHeapResultCache cache = new OffHeapResultCache(1_000);
+        cache.put("example.com", direct, NOW + 1_500);
+        assertEquals(NOW + 1_000, cache.get("example.com", NOW).expiresAtMillis());
+        assertNotNull(cache.get("example.com", NOW + 999));
+        assertNull(cache.get("example.com", NOW + 1_000));
+    }
+
+    @Test
+    public void evictsWhenFull() {
+        final int maximumSize = 10_000;
+        final OffHeapResultCache cache = new OffHeapResultCache(maximumSize);
+        for (int ii = 0; ii < 10 * maximumSize; ii++) {
+            cache.put("host-" + ii + ".example.com", ii % 2 == 0 ? direct : proxy, Long.MAX_VALUE);
+            // Keep reading the first host, so that it is never evicted:
+            assertSame(direct, cache.get("host-0.example.com", NOW).result());
+        }
+        assertTrue(String.valueOf(cache.size()), cache.size() <= cache.offHeapBytes() / 16);
+        assertTrue(String.valueOf(cache.size()), cache.size() >= maximumSize);
+        int cached = 0;
+        for (int ii = 9 * maximumSize; ii < 10 * maximumSize; ii++) {
+            final ResultCache.Entry entry = cache.get("host-" + ii + ".example.com", NOW);
+            if (entry != null) {
+                assertSame(ii % 2 == 0 ? direct : proxy, entry.result());
+                cached++;
+            }
+        }
+        // Most of the most recently added hosts are still cached:
+        assertTrue(String.valueOf(cached), cached > maximumSize / 2);
+    }
+
+    @Test
+    public void clear() {
+        final OffHeapResultCache cache = new OffHeapResultCache(100);
+        cache.put("example.com", direct, Long.MAX_VALUE);
+        cache.put("intranet", proxy, Long.MAX_VALUE);
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertNull(cache.get("example.com", NOW));
+        cache.put("example.com", proxy, Long.MAX_VALUE);
+        assertSame(proxy, cache.get("example.com", NOW).result());
+    }
+
+    @Test
+    public void tooManyDistinctResultsAreNotCached() throws Exception {
+        final OffHeapResultCache cache = new OffHeapResultCache(100_000);
+        for (int ii = 0; ii < OffHeapResultCache.MAXIMUM_RESULTS; ii++) {
+            cache.put("host-" + ii, FindProxyResult.parse("PROXY proxy-" + ii + ".example.com:8080"), Long.MAX_VALUE);
+        }
+        cache.put("one-too-many", FindProxyResult.parse("PROXY one-too-many.example.com:8080"), Long.MAX_VALUE);
+        assertNull(cache.get("one-too-many", NOW));
+        cache.put("one-too-many", direct, Long.MAX_VALUE);
+        assertNotNull(cache.get("host-0", NOW));
+    }
+
+    @Test
+    public void clearResetsInternedResults() throws Exception {
+        final OffHeapResultCache cache = new OffHeapResultCache(1_000);
+        // More distinct results than MAXIMUM_RESULTS in total, but never between two clears:
+        for (int round = 0; round < 3; round++) {
+            for (int ii = 0; ii <= OffHeapResultCache.MAXIMUM_RESULTS / 2; ii++) {
+                cache.put("host-" + ii, FindProxyResult.parse("PROXY proxy-" + round + "-" + ii + ".example.com:8080"), Long.MAX_VALUE);
+            }
+            final int last = OffHeapResultCache.MAXIMUM_RESULTS / 2;
+            assertEquals(FindProxyResult.parse("PROXY proxy-" + round + "-" + last + ".example.com:8080"), cache.get("host-" + last, NOW).result());
+            cache.clear();
+            assertNull(cache.get("host-" + last, NOW));
+        }
+        cache.put("example.com", proxy, Long.MAX_VALUE);
+        assertSame(proxy, cache.get("example.com", NOW).result());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void maximumSizeMustBePositive() {
+        new OffHeapResultCache(0);
+    }
+}
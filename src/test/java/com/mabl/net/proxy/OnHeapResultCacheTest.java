@@ -0,0 +1,35 @@
+package com.mabl.net.proxy;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class OnHeapResultCacheTest {
+    private static final long NOW = 1_700_000_000_000L;
+
+    @Test
+    public void neverExceedsMaximumSize() throws Exception {
+        final FindProxyResult direct = FindProxyResult.parse("DIRECT");
+        for (final long maximumSize : new long[]{1, 2, 3, 15, 16, 17, 100, 1_000}) {
+            final OnHeapResultCache cache = new OnHeapResultCache(maximumSize);
+            for (int ii = 0; ii < maximumSize * 20; ii++) {
+                cache.put("host-" + ii + ".example.com", direct, Long.MAX_VALUE);
+                assertTrue(cache.size() <= maximumSize);
+            }
+            // Segments evict independently, so an unlucky distribution of keys may leave a little room, but not much:
+            assertTrue(cache.size() >= maximumSize * 3 / 4);
+        }
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() throws Exception {
+        final FindProxyResult direct = FindProxyResult.parse("DIRECT");
+        final OnHeapResultCache cache = new OnHeapResultCache(1);
+        cache.put("example.com", direct, Long.MAX_VALUE);
+        cache.put("example.org", direct, Long.MAX_VALUE);
+        assertNull(cache.get("example.com", NOW));
+        assertNotNull(cache.get("example.org", NOW));
+    }
+}
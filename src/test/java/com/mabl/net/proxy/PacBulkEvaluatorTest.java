@@ -0,0 +1,40 @@
+package com.mabl.net.proxy;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PacBulkEvaluatorTest extends PacInterpreterTest {
+
+    @Test
+    public void evaluate() throws Exception {
+        final StringBuilder input = new StringBuilder("# URLs from the access log\n");
+        for (int ii = 0; ii < 1000; ii++) {
+            input.append(ii % 2 == 0 ? "https://example.com/" + ii : "https://www.mabl.com/" + ii + " www.mabl.com").append('\n');
+        }
+        input.append("http://[::1/not-a-url\n");
+
+        final PacInterpreterOptions options = PacInterpreterOptions.newBuilder().contextPoolSize(4).build();
+        try (final SimplePacInterpreter interpreter = SimplePacInterpreter.forScript(PAC_1, options)) {
+            final StringWriter output = new StringWriter();
+            final PacBulkEvaluator.Summary summary = new PacBulkEvaluator(interpreter, 4)
+                    .evaluate(new BufferedReader(new StringReader(input.toString())), output);
+
+            final String[] lines = output.toString().split("\n");
+            assertEquals(1001, lines.length);
+            final String expected = interpreter.findProxyForUrl("https://example.com/").toString();
+            for (int ii = 0; ii < 1000; ii++) {
+                assertEquals(expected, lines[ii]);
+            }
+            assertTrue(lines[1000].startsWith("ERROR "));
+            assertEquals(1001, summary.evaluations());
+            assertEquals(1, summary.errors());
+            assertTrue(summary.latencyPercentileNanos(99) > 0);
+        }
+    }
+}
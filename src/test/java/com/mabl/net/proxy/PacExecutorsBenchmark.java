@@ -0,0 +1,56 @@
+package com.mabl.net.proxy;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares a fixed pool of platform threads with {@link PacExecutors#newBlockingTaskExecutor(String)} for many
+ * concurrent blocking tasks, standing in for evaluations that wait on slow DNS lookups. Run with {@code -Pjava21} to
+ * measure virtual threads.
+ */
+public class PacExecutorsBenchmark {
+    private static final int TASKS = Integer.getInteger("benchmark.tasks", 10_000);
+    private static final int POOL_THREADS = Integer.getInteger("benchmark.poolThreads", 200);
+    private static final long LOOKUP_MILLIS = Long.getLong("benchmark.lookupMillis", 100);
+
+    @Test
+    public void blockingTasks() throws Exception {
+        System.out.printf("%d tasks blocking for %d ms (virtual threads: %s)%n", TASKS, LOOKUP_MILLIS, PacExecutors.usesVirtualThreads());
+        run(String.format("Fixed pool of %d platform threads", POOL_THREADS), Executors.newFixedThreadPool(POOL_THREADS));
+        run("PacExecutors.newBlockingTaskExecutor", PacExecutors.newBlockingTaskExecutor("Benchmark"));
+    }
+
+    private static void run(final String name, final ExecutorService executor) throws Exception {
+        final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        threads.resetPeakThreadCount();
+        final long start = System.nanoTime();
+        try {
+            final List<Future<Integer>> futures = new ArrayList<>(TASKS);
+            for (int ii = 0; ii < TASKS; ii++) {
+                final int task = ii;
+                futures.add(executor.submit(() -> {
+                    Thread.sleep(LOOKUP_MILLIS);
+                    return task;
+                }));
+            }
+            for (int ii = 0; ii < TASKS; ii++) {
+                assertEquals(ii, (int) futures.get(ii).get());
+            }
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        }
+        System.out.printf("%-40s %6d ms, peak platform threads %d%n", name,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), threads.getPeakThreadCount());
+    }
+}
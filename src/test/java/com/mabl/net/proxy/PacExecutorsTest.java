@@ -0,0 +1,31 @@
+package com.mabl.net.proxy;
+
+import org.junit.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PacExecutorsTest {
+
+    @Test
+    public void newBlockingTaskExecutor() throws Exception {
+        final ExecutorService executor = PacExecutors.newBlockingTaskExecutor("Test");
+        try {
+            final Thread thread = executor.submit(Thread::currentThread).get();
+            assertTrue(thread.getName(), thread.getName().startsWith("Test "));
+            // Virtual threads are always daemon threads:
+            assertTrue(thread.isDaemon());
+        } finally {
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void blockingTasksIsShared() {
+        assertSame(PacExecutors.blockingTasks(), PacExecutors.blockingTasks());
+    }
+}
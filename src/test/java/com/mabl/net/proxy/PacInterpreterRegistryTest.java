@@ -0,0 +1,93 @@
+package com.mabl.net.proxy;
+
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PacInterpreterRegistryTest extends PacInterpreterTest {
+
+    @Test
+    public void sharesIdenticalPacs() throws Exception {
+        try (final PacInterpreterRegistry registry = PacInterpreterRegistry.newBuilder().build()) {
+            registry.register("a", PacSource.forScript(PAC_1));
+            registry.register("b", PacSource.forFile(writePacContentToFile(PAC_1)));
+            registry.register("c", PacSource.forScript(PAC_2));
+            assertEquals(0, registry.getInterpreterCount());
+
+            assertPac1Correct(registry.getInterpreter("a"));
+            assertPac1Correct(registry.getInterpreter("b"));
+            assertPac2Correct(registry.getInterpreter("c"));
+            assertEquals(2, registry.getInterpreterCount());
+            assertTrue(registry.getEstimatedFootprint() > 0);
+        }
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() throws Exception {
+        try (final PacInterpreterRegistry registry = PacInterpreterRegistry.newBuilder().maximumInterpreters(1).build()) {
+            final PacInterpreter a = registry.register("a", PacSource.forScript(PAC_1));
+            final PacInterpreter b = registry.register("b", PacSource.forScript(PAC_2));
+
+            a.findProxyForUrl("https://example.com");
+            a.findProxyForUrl("https://example.com");
+            assertPac2Correct(b);
+            assertEquals(1, registry.getInterpreterCount());
+            assertEquals(1, registry.getEvictionCount());
+            assertFalse(registry.getMetrics("a").isLoaded());
+
+            // The evicted PAC is reloaded transparently:
+            assertPac1Correct(a);
+            final PacInterpreterRegistry.TenantMetrics metrics = registry.getMetrics("a");
+            assertEquals(2, metrics.loads());
+            assertEquals(0, metrics.loadFailures());
+            assertTrue(metrics.hits() >= 1);
+            assertTrue(metrics.isLoaded());
+            assertFalse(registry.getMetrics("b").isLoaded());
+        }
+    }
+
+    @Test
+    public void reload() throws Exception {
+        final File pacFile = writePacContentToFile(PAC_1);
+        try (final PacInterpreterRegistry registry = PacInterpreterRegistry.newBuilder().build()) {
+            final PacInterpreter interpreter = registry.register("a", PacSource.forFile(pacFile));
+            assertPac1Correct(interpreter);
+
+            writePacContentToFile(PAC_2, pacFile);
+            assertPac1Correct(interpreter);
+            registry.reload("a");
+            assertPac2Correct(interpreter);
+            assertEquals(1, registry.getInterpreterCount());
+            assertEquals(2, registry.getMetrics("a").loads());
+        }
+    }
+
+    @Test
+    public void loadFailure() throws Exception {
+        try (final PacInterpreterRegistry registry = PacInterpreterRegistry.newBuilder().build()) {
+            final PacInterpreter interpreter = registry.register("a", PacSource.forFile(new File("/does/not/exist.pac")));
+            try {
+                interpreter.findProxyForUrl("https://example.com");
+            } catch (PacInterpreterException e) {
+                assertEquals(1, registry.getMetrics("a").loadFailures());
+                return;
+            }
+            throw new AssertionError("Evaluation should have failed");
+        }
+    }
+
+    @Test
+    public void unregister() throws Exception {
+        try (final PacInterpreterRegistry registry = PacInterpreterRegistry.newBuilder().build()) {
+            final PacInterpreter interpreter = registry.register("a", PacSource.forScript(PAC_3));
+            assertPac3Correct(interpreter);
+            assertTrue(registry.unregister("a"));
+            assertEquals(0, registry.getInterpreterCount());
+            assertFalse(registry.getTenantIds().contains("a"));
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.mabl.net.proxy;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PacLinterTest {
+
+    @Test
+    public void dnsBeforeCheapRules() {
+        final String pac = "function FindProxyForURL(url, host) {\n" +
+                "    if (isInNet(host, \"10.0.0.0\", \"255.0.0.0\")) return \"DIRECT\";\n" +
+                "    if (dnsDomainIs(host, \".example.com\")) return \"DIRECT\";\n" +
+                "    if (shExpMatch(host, \"*.internal\")) return \"DIRECT\";\n" +
+                "    return \"PROXY proxy.example.com:8080\";\n" +
+                "}\n";
+        final List<PacLintWarning> warnings = PacLinter.lint(pac);
+        assertEquals(warnings.toString(), 1, warnings.size());
+        final PacLintWarning warning = warnings.get(0);
+        assertEquals(PacLintWarning.Rule.DNS_BEFORE_CHEAP_RULES, warning.rule());
+        assertEquals(PacLintWarning.Severity.WARNING, warning.severity());
+        assertEquals(2, warning.line());
+        assertTrue(warning.message(), warning.message().contains("isInNet() in FindProxyForURL precedes 2 cheap rule(s)"));
+    }
+
+    @Test
+    public void dnsAfterCheapRules() {
+        final String pac = "function FindProxyForURL(url, host) {\n" +
+                "    // isResolvable(host) would be slow here\n" +
+                "    if (isPlainHostName(host) || dnsDomainIs(host, \".example.com\")) return \"DIRECT\";\n" +
+                "    if (isInNet(\"10.1.2.3\", \"10.0.0.0\", \"255.0.0.0\") && shExpMatch(host, \"*.lan\")) return \"DIRECT\";\n" +
+                "    if (isResolvable(host)) return \"PROXY proxy.example.com:8080\";\n" +
+                "    return \"DIRECT\";\n" +
+                "}\n";
+        assertEquals(0, PacLinter.lint(pac).size());
+    }
+
+    @Test
+    public void regexInLoop() {
+        final String pac = "var bypass = [\"*.example.com\", \"*.example.org\"];\n" +
+                "var internal = new RegExp(\"^intranet\\\\.\");\n" +
+                "function FindProxyForURL(url, host) {\n" +
+                "    for (var i = 0; i < bypass.length; i++) {\n" +
+                "        if (shExpMatch(host, bypass[i])) return \"DIRECT\";\n" +
+                "    }\n" +
+                "    var i = 0;\n" +
+                "    while (i++ < 2) if (new RegExp(\"^\" + i).test(host)) return \"DIRECT\";\n" +
+                "    if (new RegExp(\"/\").test(url) || internal.test(host) || /^a\\/b/.test(host)) return \"DIRECT\";\n" +
+                "    return \"PROXY proxy.example.com:8080\";\n" +
+                "}\n";
+        final List<PacLintWarning> warnings = PacLinter.lint(pac);
+        assertEquals(warnings.toString(), 3, warnings.size());
+        assertEquals(PacLintWarning.Rule.REGEX_IN_LOOP, warnings.get(0).rule());
+        assertEquals(5, warnings.get(0).line());
+        assertTrue(warnings.get(0).message(), warnings.get(0).message().startsWith("shExpMatch()"));
+        assertEquals(PacLintWarning.Rule.REGEX_IN_LOOP, warnings.get(1).rule());
+        assertEquals(8, warnings.get(1).line());
+        assertEquals(PacLintWarning.Rule.REGEX_PER_EVALUATION, warnings.get(2).rule());
+        assertEquals(PacLintWarning.Severity.INFO, warnings.get(2).severity());
+        assertEquals(9, warnings.get(2).line());
+    }
+
+    @Test
+    public void urlOnlyForHost() {
+        final String pac = "function FindProxyForURL(url, host) {\n" +
+                "    /* Multi-line\n" +
+                "       comment */\n" +
+                "    if (shExpMatch(url, \"*://*.example.com/*\")) return \"DIRECT\";\n" +
+                "    if (shExpMatch(url, '*://intranet/*')) return \"DIRECT\";\n" +
+                "    return \"PROXY proxy.example.com:8080\";\n" +
+                "}\n";
+        final List<PacLintWarning> warnings = PacLinter.lint(pac);
+        assertEquals(warnings.toString(), 1, warnings.size());
+        assertEquals(PacLintWarning.Rule.URL_ONLY_FOR_HOST, warnings.get(0).rule());
+        assertEquals(4, warnings.get(0).line());
+    }
+
+    @Test
+    public void urlUsedForPath() {
+        final String pac = "function FindProxyForURL(url, host) {\n" +
+                "    if (shExpMatch(url, \"*://*.example.com/*\")) return \"DIRECT\";\n" +
+                "    if (shExpMatch(url, \"http://*/downloads/*\")) return \"PROXY downloads.example.com:8080\";\n" +
+                "    return \"PROXY proxy.example.com:8080\";\n" +
+                "}\n";
+        assertEquals(0, PacLinter.lint(pac).size());
+    }
+
+    @Test
+    public void lintsTestPacs() {
+        for (final String pac : new String[]{PacInterpreterTest.PAC_1, PacInterpreterTest.PAC_2, PacInterpreterTest.PAC_3}) {
+            for (final PacLintWarning warning : PacLinter.lint(pac)) {
+                assertTrue(warning.toString(), warning.line() > 0);
+            }
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.mabl.net.proxy;
+
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PacReloadSchedulerTest {
+
+    @Test
+    public void jitter() {
+        try (final PacReloadScheduler scheduler = PacReloadScheduler.newBuilder().jitter(0.25).build()) {
+            final long period = TimeUnit.MINUTES.toNanos(4);
+            boolean varied = false;
+            for (int ii = 0; ii < 1000; ii++) {
+                final long delay = scheduler.jittered(period);
+                assertTrue(delay >= TimeUnit.MINUTES.toNanos(3) && delay <= TimeUnit.MINUTES.toNanos(5));
+                varied |= delay != period;
+            }
+            assertTrue(varied);
+        }
+    }
+
+    @Test
+    public void reloadsOnSharedThreads() throws Exception {
+        try (final PacReloadScheduler scheduler = PacReloadScheduler.newBuilder()
+                .workerThreads(1)
+                .minimumInterval(Duration.ZERO)
+                .build()) {
+            final CountDownLatch reloads = new CountDownLatch(20);
+            for (int ii = 0; ii < 10; ii++) {
+                scheduler.schedule(new Object(), Duration.ofMillis(50), reloads::countDown);
+            }
+            assertTrue(reloads.await(5, TimeUnit.SECONDS));
+            assertEquals(1, scheduler.getWorkerThreads());
+        }
+    }
+
+    @Test
+    public void reloadsOnReloadExecutor() throws Exception {
+        final ExecutorService reloadExecutor = PacExecutors.newBlockingTaskExecutor("Reload");
+        try (final PacReloadScheduler scheduler = PacReloadScheduler.newBuilder()
+                .workerThreads(1)
+                .minimumInterval(Duration.ZERO)
+                .reloadExecutor(reloadExecutor)
+                .build()) {
+            // Each reload blocks until all have started, which the single worker thread could not manage on its own:
+            final CountDownLatch started = new CountDownLatch(10);
+            final CountDownLatch reloaded = new CountDownLatch(20);
+            for (int ii = 0; ii < 10; ii++) {
+                scheduler.schedule(new Object(), Duration.ofMillis(50), () -> {
+                    started.countDown();
+                    try {
+                        started.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    reloaded.countDown();
+                });
+            }
+            assertTrue(reloaded.await(5, TimeUnit.SECONDS));
+        } finally {
+            reloadExecutor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void rateLimitsPerSource() throws Exception {
+        try (final PacReloadScheduler scheduler = PacReloadScheduler.newBuilder()
+                .minimumInterval(Duration.ofSeconds(10))
+                .build()) {
+            final AtomicInteger reloads = new AtomicInteger();
+            final PacSource source = PacSource.forScript("function FindProxyForURL(url, host) { return 'DIRECT'; }");
+            scheduler.schedule(source, Duration.ofMillis(50), reloads::incrementAndGet);
+            scheduler.schedule(PacSource.forScript("function FindProxyForURL(url, host) { return 'DIRECT'; }"),
+                    Duration.ofMillis(50), reloads::incrementAndGet);
+            Thread.sleep(1000);
+            assertEquals(1, reloads.get());
+        }
+    }
+
+    @Test
+    public void cancel() throws Exception {
+        try (final PacReloadScheduler scheduler = PacReloadScheduler.newBuilder().build()) {
+            final AtomicInteger reloads = new AtomicInteger();
+            final PacReloadScheduler.ScheduledReload scheduledReload = scheduler.schedule(new Object(), Duration.ofMillis(100), reloads::incrementAndGet);
+            scheduledReload.cancel();
+            Thread.sleep(500);
+            assertTrue(scheduledReload.isCancelled());
+            assertEquals(0, reloads.get());
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.mabl.net.proxy;
+
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PacRuntimeTest {
+
+    @Test
+    public void preloadReportsStartupMetrics() throws Exception {
+        final PacStartupMetrics metrics = PacRuntime.preload();
+        assertFalse(metrics.totalTime().isNegative());
+        assertTrue(metrics.totalTime().compareTo(metrics.templateContextTime().plus(metrics.firstEvaluationTime())) >= 0);
+        assertTrue(PacRuntime.getStartupMetrics().isPresent());
+    }
+
+    @Test
+    public void preloadIsPerformedOncePerEngine() throws Exception {
+        final PacStartupMetrics metrics = PacRuntime.preload();
+        assertSame(metrics, PacRuntime.preload());
+        assertSame(metrics, PacRuntime.preloadAsync().get());
+        assertSame(metrics, PacRuntime.preload(PacInterpreterOptions.newBuilder().contextPoolSize(1).build()));
+    }
+
+    @Test
+    public void preloadAsyncCompletesInBackground() throws Exception {
+        final PacInterpreterOptions options = PacInterpreterOptions.newBuilder()
+                .firstTierCompilationThreshold(50)
+                .build();
+        final PacStartupMetrics metrics = PacRuntime.preloadAsync(options).get();
+        assertSame(metrics, PacRuntime.preload(options));
+    }
+
+    @Test
+    public void preloadWithDedicatedEngine() throws Exception {
+        final PacInterpreterOptions options = PacInterpreterOptions.newBuilder()
+                .sharedEngine(false)
+                .build();
+        final PacStartupMetrics metrics = PacRuntime.preload(options);
+        assertTrue(metrics.engineCreationTime().isZero());
+    }
+
+    @Test
+    public void preloadFailureIsReportedAsPacInterpreterException() throws Exception {
+        final PacInterpreterOptions options = PacInterpreterOptions.newBuilder()
+                .engineOption("pac.interpreter.NoSuchOption", "true")
+                .build();
+        try {
+            PacRuntime.preload(options);
+            fail("Expected PacInterpreterException");
+        } catch (PacInterpreterException e) {
+            // Expected
+        }
+        final CompletableFuture<PacStartupMetrics> preload = PacRuntime.preloadAsync(options);
+        try {
+            preload.get();
+            fail("Expected ExecutionException");
+        } catch (ExecutionException e) {
+            assertEquals(PacInterpreterException.class, e.getCause().getClass());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void preloadRejectsNullOptions() throws Exception {
+        PacRuntime.preload(null);
+    }
+}
@@ -0,0 +1,92 @@
+package com.mabl.net.proxy;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PacTrafficLogTest {
+    private static final String PAC_1 = "function FindProxyForURL(url, host) { return \"DIRECT\"; }";
+    private static final String PAC_2 = "function FindProxyForURL(url, host) { return \"PROXY proxy.example.com:8080\"; }";
+
+    @Test
+    public void roundTrip() throws Exception {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (final PacTrafficLog.Writer writer = new PacTrafficLog.Writer(bytes, 1_700_000_000_000L)) {
+            writer.write(PAC_1, TimeUnit.MILLISECONDS.toNanos(5), "https://a.example.com/", "a.example.com", null, "DIRECT", false, 42_000);
+            // Samples from concurrent threads may be slightly out of order:
+            writer.write(PAC_1, TimeUnit.MILLISECONDS.toNanos(4), "https://a.example.com/x", "a.example.com", "10.1.2.3", "DIRECT", false, 1_000);
+            writer.write(new String(PAC_1), TimeUnit.MILLISECONDS.toNanos(6), "https://b.example.com/", "b.example.com", null, "dnsResolve failed", true, 7);
+            writer.write(PAC_2, TimeUnit.SECONDS.toNanos(90), "https://a.example.com/", "a.example.com", null, "PROXY proxy.example.com:8080", false, 3);
+        }
+
+        try (final PacTrafficLog.Reader reader = new PacTrafficLog.Reader(new ByteArrayInputStream(bytes.toByteArray()))) {
+            assertEquals(1_700_000_000_000L, reader.startEpochMillis());
+            final PacTrafficLog.Record first = reader.next();
+            assertEquals(TimeUnit.MILLISECONDS.toNanos(5), first.offsetNanos());
+            assertEquals(PacHash.contentHash(PAC_1), first.pacHash());
+            assertEquals("https://a.example.com/", first.url());
+            assertEquals("a.example.com", first.host());
+            assertNull(first.clientAddress());
+            assertEquals("DIRECT", first.result());
+            assertFalse(first.isFailed());
+            assertEquals(42_000, first.latencyNanos());
+
+            final PacTrafficLog.Record second = reader.next();
+            assertEquals(TimeUnit.MILLISECONDS.toNanos(4), second.offsetNanos());
+            assertEquals("a.example.com", second.host());
+            assertEquals("10.1.2.3", second.clientAddress());
+            assertEquals("DIRECT", second.result());
+
+            final PacTrafficLog.Record third = reader.next();
+            assertEquals(PacHash.contentHash(PAC_1), third.pacHash());
+            assertTrue(third.isFailed());
+            assertEquals("dnsResolve failed", third.result());
+
+            final PacTrafficLog.Record fourth = reader.next();
+            assertEquals(TimeUnit.SECONDS.toNanos(90), fourth.offsetNanos());
+            assertEquals(PacHash.contentHash(PAC_2), fourth.pacHash());
+            assertEquals("PROXY proxy.example.com:8080", fourth.result());
+            assertNull(reader.next());
+        }
+    }
+
+    @Test
+    public void internsHostsAndResults() throws Exception {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (final PacTrafficLog.Writer writer = new PacTrafficLog.Writer(bytes, 0)) {
+            for (int ii = 0; ii < 1000; ii++) {
+                writer.write(PAC_1, ii * 1000L, "/", "intranet.example.com", null, "PROXY proxy.example.com:8080; DIRECT", false, 50_000);
+            }
+        }
+        // Type, time, flags, 3 byte latency, URL, host and result references:
+        assertTrue(bytes.size() < 1000 * 10 + 200);
+    }
+
+    @Test
+    public void truncatedLogIsReadUpToLastCompleteRecord() throws Exception {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (final PacTrafficLog.Writer writer = new PacTrafficLog.Writer(bytes, 0)) {
+            writer.write(PAC_1, 0, "https://a.example.com/", "a.example.com", null, "DIRECT", false, 1);
+            writer.write(PAC_1, 0, "https://b.example.com/", "b.example.com", null, "DIRECT", false, 1);
+        }
+        final byte[] truncated = Arrays.copyOf(bytes.toByteArray(), bytes.size() - 3);
+        try (final PacTrafficLog.Reader reader = new PacTrafficLog.Reader(new ByteArrayInputStream(truncated))) {
+            assertEquals("a.example.com", reader.next().host());
+            assertNull(reader.next());
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void notATrafficLog() throws Exception {
+        new PacTrafficLog.Reader(new ByteArrayInputStream("function FindProxyForURL".getBytes("UTF-8")));
+    }
+}
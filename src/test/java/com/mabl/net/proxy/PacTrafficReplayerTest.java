@@ -0,0 +1,83 @@
+package com.mabl.net.proxy;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PacTrafficReplayerTest {
+    private Path captureFile;
+
+    @Before
+    public void setUp() throws Exception {
+        final File file = File.createTempFile("pac", ".capture");
+        file.deleteOnExit();
+        captureFile = file.toPath();
+        try (final RecordingPacInterpreter recorder = RecordingPacInterpreter.newBuilder(new StubPacInterpreter(), captureFile).build()) {
+            for (int ii = 0; ii < 1000; ii++) {
+                final String host = ii % 100 == 99 ? "unresolvable.example.com" : "host-" + ii % 10 + ".example.com";
+                try {
+                    recorder.findProxyForUrl("https://" + host + "/" + ii, host);
+                } catch (PacInterpreterException e) {
+                    // Recorded as a failure
+                }
+            }
+        }
+    }
+
+    @Test
+    public void replayMatches() throws Exception {
+        final StubPacInterpreter interpreter = new StubPacInterpreter();
+        final PacTrafficReplayer.Summary summary = new PacTrafficReplayer(interpreter, 4)
+                .replay(captureFile, PacTrafficReplayer.MAXIMUM_SPEED);
+        assertEquals(1000, interpreter.evaluations());
+        assertEquals(1000, summary.evaluations());
+        assertEquals(1000, summary.matches());
+        assertEquals(0, summary.mismatches());
+        assertEquals(10, summary.errors());
+        assertTrue(summary.latencyPercentileNanos(99) > 0);
+        assertTrue(summary.recordedLatencyPercentileNanos(99) > 0);
+        assertTrue(summary.toString(), summary.toString().startsWith("Replayed 1000 evaluations (10 errors)"));
+    }
+
+    @Test
+    public void replayReportsMismatches() throws Exception {
+        final PacTrafficReplayer.Summary summary = new PacTrafficReplayer(new StubPacInterpreter().direct("host-3.example.com"), 4)
+                .replay(captureFile, PacTrafficReplayer.MAXIMUM_SPEED);
+        assertEquals(100, summary.mismatches());
+        assertEquals(900, summary.matches());
+        assertEquals(10, summary.mismatchExamples().size());
+        assertTrue(summary.mismatchExamples().get(0), summary.mismatchExamples().get(0)
+                .endsWith("host-3.example.com: recorded PROXY host-3.example.com-proxy.example.com:8080, replayed DIRECT"));
+    }
+
+    @Test
+    public void differentPacIsNotVerified() throws Exception {
+        final PacTrafficReplayer.Summary summary = new PacTrafficReplayer(new StubPacInterpreter().pac(StubPacInterpreter.PAC + "\n").direct("host-3.example.com"), 4)
+                .replay(captureFile, PacTrafficReplayer.MAXIMUM_SPEED);
+        assertEquals(1000, summary.unverified());
+        assertEquals(0, summary.matches() + summary.mismatches());
+    }
+
+    @Test
+    public void replayAtRecordedSpeed() throws Exception {
+        final File file = File.createTempFile("pac", ".capture");
+        file.deleteOnExit();
+        try (final RecordingPacInterpreter recorder = RecordingPacInterpreter.newBuilder(new StubPacInterpreter(), file.toPath()).build()) {
+            recorder.findProxyForUrl("https://a.example.com/", "a.example.com");
+            Thread.sleep(300);
+            recorder.findProxyForUrl("https://b.example.com/", "b.example.com");
+        }
+        final long start = System.nanoTime();
+        final PacTrafficReplayer.Summary summary = new PacTrafficReplayer(new StubPacInterpreter(), 1)
+                .replay(file.toPath(), 2);
+        final long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertEquals(2, summary.matches());
+        assertTrue(String.valueOf(elapsedMillis), elapsedMillis >= 140 && elapsedMillis < 1000);
+    }
+}
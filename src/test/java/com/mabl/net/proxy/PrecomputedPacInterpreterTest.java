@@ -0,0 +1,102 @@
+package com.mabl.net.proxy;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PrecomputedPacInterpreterTest extends PacInterpreterTest {
+    private static final String HOST_ONLY_PAC = "function FindProxyForURL(url, host) {\n" +
+            "    if (dnsDomainIs(host, \".internal.example.com\")) return \"DIRECT\";\n" +
+            "    return \"PROXY proxy.example.com:8080; DIRECT\";\n" +
+            "}\n";
+
+    private static Path writeTable(final List<String> hosts) throws Exception {
+        final File tableFile = File.createTempFile("pac", ".table");
+        tableFile.deleteOnExit();
+        try (final SimplePacInterpreter interpreter = SimplePacInterpreter.forScript(HOST_ONLY_PAC)) {
+            assertEquals(hosts.size(), new PacPrecomputer(interpreter, 2).precompute(hosts, tableFile.toPath()));
+        }
+        return tableFile.toPath();
+    }
+
+    @Test
+    public void precomputedHosts() throws Exception {
+        final Path tableFile = writeTable(Arrays.asList("a.internal.example.com", "b.internal.example.com", "www.example.org"));
+        final PrecomputedPacTable table = PrecomputedPacTable.open(tableFile);
+        assertEquals(3, table.size());
+        assertEquals(2, table.distinctResults());
+
+        try (final PrecomputedPacInterpreter interpreter = PrecomputedPacInterpreter.forTable(tableFile)) {
+            assertEquals(HOST_ONLY_PAC, interpreter.getPac());
+            assertEquals(PacHash.contentHash(HOST_ONLY_PAC), interpreter.getPacHash());
+            assertEquals("DIRECT", interpreter.findProxyForUrl("https://a.internal.example.com/foo").toString());
+            assertEquals("DIRECT", interpreter.findProxyForUrl("http://b.internal.example.com", "b.internal.example.com").toString());
+            assertEquals("PROXY proxy.example.com:8080; DIRECT", interpreter.findProxyForUrl("https://www.example.org").toString());
+            assertFalse(interpreter.isFallbackInitialized());
+        }
+    }
+
+    @Test
+    public void unknownHostFallsThrough() throws Exception {
+        final Path tableFile = writeTable(Arrays.asList("a.internal.example.com"));
+        try (final PrecomputedPacInterpreter interpreter = PrecomputedPacInterpreter.forTable(tableFile)) {
+            assertEquals("DIRECT", interpreter.findProxyForUrl("https://c.internal.example.com").toString());
+            assertTrue(interpreter.isFallbackInitialized());
+            assertEquals("PROXY proxy.example.com:8080; DIRECT", interpreter.findProxyForUrl("https://www.example.net").toString());
+        }
+    }
+
+    @Test
+    public void timeDependentHostsAreEvaluatedLive() throws Exception {
+        final String pac = "function FindProxyForURL(url, host) {\n" +
+                "    if (dnsDomainIs(host, \".internal.example.com\")) return \"DIRECT\";\n" +
+                "    if (timeRange(9, 17, \"GMT\")) return \"PROXY work.example.com:8080\";\n" +
+                "    return \"PROXY proxy.example.com:8080\";\n" +
+                "}\n";
+        final File tableFile = File.createTempFile("pac", ".table");
+        tableFile.deleteOnExit();
+        try (final SimplePacInterpreter interpreter = SimplePacInterpreter.forScript(pac)) {
+            assertEquals(1, new PacPrecomputer(interpreter, 2).precompute(Arrays.asList("a.internal.example.com", "www.example.org"), tableFile.toPath()));
+        }
+        try (final PrecomputedPacInterpreter interpreter = PrecomputedPacInterpreter.forTable(tableFile.toPath())) {
+            assertEquals(1, interpreter.size());
+            assertEquals("DIRECT", interpreter.findProxyForUrl("https://a.internal.example.com").toString());
+            assertFalse(interpreter.isFallbackInitialized());
+            interpreter.findProxyForUrl("https://www.example.org");
+            assertTrue(interpreter.isFallbackInitialized());
+        }
+    }
+
+    @Test(expected = PacInterpreterException.class)
+    public void rejectsUrlDependentPac() throws Exception {
+        final File tableFile = File.createTempFile("pac", ".table");
+        tableFile.deleteOnExit();
+        try (final SimplePacInterpreter interpreter = SimplePacInterpreter.forScript(PAC_1)) {
+            new PacPrecomputer(interpreter, 2).precompute(Arrays.asList("www.example.org"), tableFile.toPath());
+        }
+    }
+
+    @Test
+    public void ignoresUrl() {
+        assertTrue(PacPrecomputer.ignoresUrl(HOST_ONLY_PAC));
+        assertFalse(PacPrecomputer.ignoresUrl("function FindProxyForURL(url, host) { return shExpMatch(url, '*.pdf') ? 'DIRECT' : 'PROXY p:80'; }"));
+        assertFalse(PacPrecomputer.ignoresUrl("function FindProxyForURL(u, h) { return arguments[0].length > 10 ? 'DIRECT' : 'PROXY p:80'; }"));
+        assertFalse(PacPrecomputer.ignoresUrl(PAC_1.replace("FindProxyForURL", "FindProxy")));
+    }
+
+    @Test
+    public void emptyTable() throws Exception {
+        final Path tableFile = writeTable(Arrays.asList());
+        try (final PrecomputedPacInterpreter interpreter = PrecomputedPacInterpreter.forTable(tableFile)) {
+            assertEquals(0, interpreter.size());
+            assertEquals("DIRECT", interpreter.findProxyForUrl("https://a.internal.example.com").toString());
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package com.mabl.net.proxy;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests {@link ProxyConnector} against local stand-ins for proxies: live ones, which accept connections; dead ones, which
+ * refuse them; and black-holed ones, whose connection attempts hang because their accept queue is full.
+ */
+public class ProxyConnectorTest {
+    private static final Duration ATTEMPT_DELAY = Duration.ofMillis(200);
+    private final List<Closeable> resources = new ArrayList<>();
+
+    @After
+    public void closeResources() throws IOException {
+        for (final Closeable resource : resources) {
+            resource.close();
+        }
+    }
+
+    private String liveProxy() throws IOException {
+        final ServerSocket server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        resources.add(server);
+        return "PROXY 127.0.0.1:" + server.getLocalPort();
+    }
+
+    private String deadProxy() throws IOException {
+        try (final ServerSocket server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            return "PROXY 127.0.0.1:" + server.getLocalPort();
+        }
+    }
+
+    private String blackHoledProxy() throws IOException {
+        final ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        resources.add(server);
+        // Fill the accept queue (which holds one more connection than the backlog), so that further SYNs are dropped:
+        for (int ii = 0; ii < 2; ii++) {
+            final Socket socket = new Socket();
+            socket.connect(server.getLocalSocketAddress(), 1_000);
+            resources.add(socket);
+        }
+        return "PROXY 127.0.0.1:" + server.getLocalPort();
+    }
+
+    private InetSocketAddress target() throws IOException {
+        final ServerSocket server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        resources.add(server);
+        return (InetSocketAddress) server.getLocalSocketAddress();
+    }
+
+    private static FindProxyResult result(final String... directives) throws PacInterpreterException {
+        return FindProxyResult.parse(String.join("; ", directives));
+    }
+
+    private static ProxyConnector.Connection connect(final ProxyConnector connector, final FindProxyResult result,
+                                                     final InetSocketAddress target) throws IOException {
+        final ProxyConnector.Connection connection = connector.connect(result, target);
+        connection.channel().close();
+        return connection;
+    }
+
+    @Test
+    public void firstLiveProxyWins() throws Exception {
+        final String live = liveProxy();
+        final ProxyHealthRegistry registry = ProxyHealthRegistry.newBuilder().build();
+        final ProxyConnector connector = ProxyConnector.newBuilder()
+                .attemptDelay(ATTEMPT_DELAY)
+                .healthRegistry(registry)
+                .build();
+        final ProxyConnector.Connection connection = connect(connector, result(live, liveProxy()), target());
+        assertEquals(FindProxyDirective.parse(live), connection.directive());
+        assertTrue(registry.averageLatency(connection.directive()).isPresent());
+    }
+
+    @Test
+    public void deadProxyFailsOverImmediately() throws Exception {
+        final String dead = deadProxy();
+        final String live = liveProxy();
+        final ProxyHealthRegistry registry = ProxyHealthRegistry.newBuilder().build();
+        final ProxyConnector connector = ProxyConnector.newBuilder()
+                .attemptDelay(Duration.ofSeconds(5))
+                .healthRegistry(registry)
+                .build();
+        final long start = System.nanoTime();
+        final ProxyConnector.Connection connection = connect(connector, result(dead, live), target());
+        assertEquals(FindProxyDirective.parse(live), connection.directive());
+        // The refused connection doesn't wait for the attempt delay:
+        assertTrue(System.nanoTime() - start < Duration.ofSeconds(5).toNanos());
+        assertEquals(1, registry.failureScore(FindProxyDirective.parse(dead)), 0.01);
+    }
+
+    @Test
+    public void blackHoledProxyIsHedged() throws Exception {
+        final String blackHoled = blackHoledProxy();
+        final String live = liveProxy();
+        final ProxyHealthRegistry registry = ProxyHealthRegistry.newBuilder().build();
+        final ProxyConnector connector = ProxyConnector.newBuilder()
+                .attemptDelay(ATTEMPT_DELAY)
+                .connectTimeout(Duration.ofSeconds(10))
+                .healthRegistry(registry)
+                .build();
+        final long start = System.nanoTime();
+        final ProxyConnector.Connection connection = connect(connector, result(blackHoled, live, "DIRECT"), target());
+        final long elapsed = System.nanoTime() - start;
+        assertEquals(FindProxyDirective.parse(live), connection.directive());
+        assertTrue(String.valueOf(elapsed), elapsed >= ATTEMPT_DELAY.toNanos());
+        assertTrue(String.valueOf(elapsed), elapsed < Duration.ofSeconds(5).toNanos());
+        // The black-holed proxy's attempt was abandoned before the connect timeout, so its outcome is unknown:
+        assertEquals(0, registry.failureScore(FindProxyDirective.parse(blackHoled)), 0.01);
+        assertEquals(0, registry.failureScore(FindProxyDirective.parse(live)), 0.01);
+        assertTrue(registry.averageLatency(FindProxyDirective.parse(live)).isPresent());
+    }
+
+    @Test
+    public void proxiesThatAreDownAreTriedLast() throws Exception {
+        final String blackHoled = blackHoledProxy();
+        final ProxyHealthRegistry registry = ProxyHealthRegistry.newBuilder().failureThreshold(1).build();
+        registry.recordFailure(FindProxyDirective.parse(blackHoled));
+        final ProxyConnector connector = ProxyConnector.newBuilder()
+                .attemptDelay(Duration.ofSeconds(5))
+                .healthRegistry(registry)
+                .build();
+        final long start = System.nanoTime();
+        final ProxyConnector.Connection connection = connect(connector, result(blackHoled, "DIRECT"), target());
+        assertTrue(connection.directive().isDirect());
+        assertTrue(System.nanoTime() - start < Duration.ofSeconds(5).toNanos());
+    }
+
+    @Test
+    public void allProxiesFail() throws Exception {
+        final String dead = deadProxy();
+        final ProxyConnector connector = ProxyConnector.newBuilder().build();
+        try {
+            connect(connector, result(dead, "PROXY unresolvable.invalid:8080"), target());
+            fail("Expected the connection to fail");
+        } catch (ConnectException e) {
+            assertEquals(2, e.getSuppressed().length);
+            assertTrue(e.getSuppressed()[1].getMessage(), e.getSuppressed()[1].getMessage().contains("unresolvable.invalid"));
+        }
+    }
+
+    @Test
+    public void timeout() throws Exception {
+        final String blackHoled = blackHoledProxy();
+        final ProxyHealthRegistry registry = ProxyHealthRegistry.newBuilder().build();
+        final ProxyConnector connector = ProxyConnector.newBuilder()
+                .attemptDelay(ATTEMPT_DELAY)
+                .connectTimeout(Duration.ofMillis(500))
+                .healthRegistry(registry)
+                .build();
+        try {
+            connect(connector, result(blackHoled), target());
+            fail("Expected the connection to time out");
+        } catch (SocketTimeoutException e) {
+            assertEquals(1, e.getSuppressed().length);
+        }
+        assertEquals(1, registry.failureScore(FindProxyDirective.parse(blackHoled)), 0.01);
+        assertFalse(registry.averageLatency(FindProxyDirective.parse(blackHoled)).isPresent());
+    }
+}
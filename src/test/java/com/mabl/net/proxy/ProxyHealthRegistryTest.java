@@ -0,0 +1,76 @@
+package com.mabl.net.proxy;
+
+import org.junit.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ProxyHealthRegistryTest {
+    private final CachingPacInterpreterTest.MutableClock clock = new CachingPacInterpreterTest.MutableClock(Instant.parse("2024-03-14T12:00:00Z"));
+    private final ProxyHealthRegistry registry = ProxyHealthRegistry.newBuilder()
+            .failureThreshold(2)
+            .retryInterval(Duration.ofSeconds(30))
+            .halfLife(Duration.ofMinutes(1))
+            .clock(clock)
+            .build();
+
+    @Test
+    public void marksProxyDownAfterConsecutiveFailures() throws Exception {
+        final FindProxyDirective proxy = FindProxyDirective.parse("PROXY 10.0.0.1:8080");
+        assertTrue(registry.isHealthy(proxy));
+
+        registry.recordFailure(proxy);
+        assertTrue(registry.isHealthy(proxy));
+        registry.recordFailure(proxy);
+        assertFalse(registry.isHealthy(proxy));
+
+        // Healthy again once the retry interval has elapsed, so that it can be probed:
+        clock.set(Instant.parse("2024-03-14T12:00:30Z"));
+        assertTrue(registry.isHealthy(proxy));
+
+        // A failed probe marks it down again immediately:
+        registry.recordFailure(proxy);
+        assertFalse(registry.isHealthy(proxy));
+
+        registry.recordSuccess(proxy, Duration.ofMillis(10));
+        assertTrue(registry.isHealthy(proxy));
+    }
+
+    @Test
+    public void failureScoreDecays() throws Exception {
+        final FindProxyDirective proxy = FindProxyDirective.parse("PROXY 10.0.0.1:8080");
+        assertEquals(0, registry.failureScore(proxy), 0);
+
+        registry.recordFailure(proxy);
+        registry.recordFailure(proxy);
+        assertEquals(2, registry.failureScore(proxy), 1e-9);
+
+        clock.set(Instant.parse("2024-03-14T12:01:00Z"));
+        assertEquals(1, registry.failureScore(proxy), 1e-9);
+
+        registry.recordFailure(proxy);
+        assertEquals(2, registry.failureScore(proxy), 1e-9);
+    }
+
+    @Test
+    public void averageLatencyFavorsRecentConnections() throws Exception {
+        final FindProxyDirective proxy = FindProxyDirective.parse("PROXY 10.0.0.1:8080");
+        assertFalse(registry.averageLatency(proxy).isPresent());
+
+        registry.recordSuccess(proxy, Duration.ofMillis(100));
+        registry.recordSuccess(proxy, Duration.ofMillis(300));
+        assertEquals(Duration.ofMillis(200), registry.averageLatency(proxy).get());
+
+        // After one half-life the previous average has half the weight of a new latency:
+        clock.set(Instant.parse("2024-03-14T12:01:00Z"));
+        registry.recordSuccess(proxy, Duration.ofMillis(500));
+        assertEquals(Duration.ofMillis(350), registry.averageLatency(proxy).get());
+
+        registry.reset(proxy);
+        assertFalse(registry.averageLatency(proxy).isPresent());
+    }
+}
@@ -0,0 +1,83 @@
+package com.mabl.net.proxy;
+
+import org.junit.Test;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ProxySelectionStrategyTest {
+    private final CachingPacInterpreterTest.MutableClock clock = new CachingPacInterpreterTest.MutableClock(Instant.parse("2024-03-14T12:00:00Z"));
+    private final ProxyHealthRegistry health = ProxyHealthRegistry.newBuilder()
+            .failureThreshold(1)
+            .clock(clock)
+            .build();
+
+    @Test
+    public void failoverSkipsProxiesThatAreDown() throws Exception {
+        final FindProxyResult result = FindProxyResult.parse("PROXY a.example.com:8080; PROXY b.example.com:8080; DIRECT");
+        final ProxySelectionStrategy failover = ProxySelectionStrategy.failover(health);
+        assertEquals(result.get(0), result.select(failover));
+
+        health.recordFailure(result.get(0));
+        assertEquals(result.get(1), result.select(failover));
+        assertEquals(Arrays.asList(result.get(1), result.get(2), result.get(0)), result.order(failover));
+
+        // When every directive is down, the one with the lowest failure score comes first:
+        health.recordFailure(result.get(1));
+        health.recordFailure(result.get(2));
+        health.recordFailure(result.get(2));
+        health.recordFailure(result.get(0));
+        assertEquals(Arrays.asList(result.get(1), result.get(0), result.get(2)), result.order(failover));
+    }
+
+    @Test
+    public void randomAvoidsProxiesThatAreDown() throws Exception {
+        final FindProxyResult result = FindProxyResult.parse("PROXY a.example.com:8080; PROXY b.example.com:8080");
+        health.recordFailure(result.get(0));
+        final ProxySelectionStrategy random = ProxySelectionStrategy.random(health);
+        for (int ii = 0; ii < 100; ii++) {
+            assertEquals(result.get(1), result.select(random));
+            assertEquals(2, result.order(random).size());
+        }
+        for (int ii = 0; ii < 100; ii++) {
+            assertTrue(result.all().contains(result.select(ProxySelectionStrategy.random())));
+        }
+    }
+
+    @Test
+    public void weightedRoundRobin() throws Exception {
+        final FindProxyResult result = FindProxyResult.parse("PROXY a.example.com:8080; PROXY b.example.com:8080; PROXY c.example.com:8080");
+        final ProxySelectionStrategy strategy = ProxySelectionStrategy.weightedRoundRobin(
+                directive -> directive.proxyHost().startsWith("a") ? 3 : 1, health);
+        final Map<FindProxyDirective, Integer> counts = new HashMap<>();
+        for (int ii = 0; ii < 500; ii++) {
+            counts.merge(result.select(strategy), 1, Integer::sum);
+        }
+        assertEquals(300, (int) counts.get(result.get(0)));
+        assertEquals(100, (int) counts.get(result.get(1)));
+        assertEquals(100, (int) counts.get(result.get(2)));
+
+        health.recordFailure(result.get(0));
+        counts.clear();
+        for (int ii = 0; ii < 100; ii++) {
+            counts.merge(result.select(strategy), 1, Integer::sum);
+        }
+        assertEquals(null, counts.get(result.get(0)));
+        assertEquals(50, (int) counts.get(result.get(1)));
+    }
+
+    @Test
+    public void roundRobin() throws Exception {
+        final FindProxyResult result = FindProxyResult.parse("PROXY a.example.com:8080; PROXY b.example.com:8080");
+        final ProxySelectionStrategy strategy = ProxySelectionStrategy.roundRobin();
+        final FindProxyDirective first = result.select(strategy);
+        assertNotEquals(first, result.select(strategy));
+        assertEquals(first, result.select(strategy));
+    }
+}
@@ -0,0 +1,41 @@
+package com.mabl.net.proxy;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RecentHostsTest {
+
+    @Test
+    public void recordsDistinctHosts() {
+        final RecentHosts recentHosts = new RecentHosts(100);
+        assertEquals(128, recentHosts.capacity());
+        assertTrue(recentHosts.hosts().isEmpty());
+        recentHosts.record("example.com");
+        recentHosts.record("example.org");
+        recentHosts.record("example.com");
+        recentHosts.record(null);
+        recentHosts.record("");
+        assertEquals(new HashSet<>(Arrays.asList("example.com", "example.org")), new HashSet<>(recentHosts.hosts()));
+    }
+
+    @Test
+    public void isBounded() {
+        final RecentHosts recentHosts = new RecentHosts(16);
+        for (int ii = 0; ii < 1_000; ii++) {
+            recentHosts.record("host-" + ii + ".example.com");
+        }
+        assertTrue(recentHosts.hosts().size() <= 16);
+        recentHosts.record("example.com");
+        assertTrue(recentHosts.hosts().contains("example.com"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void capacityMustBePositive() {
+        new RecentHosts(0);
+    }
+}
@@ -0,0 +1,122 @@
+package com.mabl.net.proxy;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RecordingPacInterpreterTest {
+    private final PacInterpreter delegate = new StubPacInterpreter();
+    private Path captureFile;
+
+    @Before
+    public void setUp() throws Exception {
+        final File file = File.createTempFile("pac", ".capture");
+        file.deleteOnExit();
+        captureFile = file.toPath();
+    }
+
+    private static List<PacTrafficLog.Record> read(final Path captureFile) throws Exception {
+        final List<PacTrafficLog.Record> records = new ArrayList<>();
+        try (final InputStream in = Files.newInputStream(captureFile);
+             final PacTrafficLog.Reader reader = new PacTrafficLog.Reader(in)) {
+            PacTrafficLog.Record record;
+            while ((record = reader.next()) != null) {
+                records.add(record);
+            }
+        }
+        return records;
+    }
+
+    @Test
+    public void recordsEvaluations() throws Exception {
+        try (final RecordingPacInterpreter interpreter = RecordingPacInterpreter.newBuilder(delegate, captureFile).build()) {
+            assertEquals("PROXY a.example.com-proxy.example.com:8080", interpreter.findProxyForUrl("https://a.example.com/").toString());
+            interpreter.evaluate("https://b.example.com/", "b.example.com", InetAddress.getByName("10.1.2.3"));
+            try {
+                interpreter.findProxyForUrl("https://unresolvable.example.com/");
+                fail("Expected the failure to propagate");
+            } catch (PacInterpreterException e) {
+                assertEquals("dnsResolve failed for unresolvable.example.com", e.getMessage());
+            }
+        }
+
+        final List<PacTrafficLog.Record> records = read(captureFile);
+        assertEquals(3, records.size());
+        final PacTrafficLog.Record first = records.get(0);
+        assertEquals("https://a.example.com/", first.url());
+        assertEquals("a.example.com", first.host());
+        assertEquals("PROXY a.example.com-proxy.example.com:8080", first.result());
+        assertEquals(PacHash.contentHash(StubPacInterpreter.PAC), first.pacHash());
+        assertFalse(first.isFailed());
+        assertTrue(first.latencyNanos() > 0);
+        assertEquals("10.1.2.3", records.get(1).clientAddress());
+        assertTrue(records.get(1).offsetNanos() >= first.offsetNanos());
+        assertTrue(records.get(2).isFailed());
+        assertEquals("dnsResolve failed for unresolvable.example.com", records.get(2).result());
+    }
+
+    @Test
+    public void concurrentEvaluations() throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        final RecordingPacInterpreter interpreter = RecordingPacInterpreter.newBuilder(delegate, captureFile)
+                .bufferSize(1024)
+                .build();
+        try {
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int thread = 0; thread < 8; thread++) {
+                final int threadId = thread;
+                futures.add(executor.submit(() -> {
+                    for (int ii = 0; ii < 10_000; ii++) {
+                        interpreter.findProxyForUrl("https://host-" + threadId + "-" + ii % 100 + ".example.com/", "host-" + threadId + "-" + ii % 100 + ".example.com");
+                    }
+                    return null;
+                }));
+            }
+            for (final Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+            interpreter.close();
+        }
+        assertEquals(80_000, interpreter.recorded() + interpreter.dropped());
+        final List<PacTrafficLog.Record> records = read(captureFile);
+        assertEquals(interpreter.recorded(), records.size());
+        for (final PacTrafficLog.Record record : records) {
+            assertEquals("PROXY " + record.host() + "-proxy.example.com:8080", record.result());
+        }
+    }
+
+    @Test
+    public void sampleRate() throws Exception {
+        try (final RecordingPacInterpreter interpreter = RecordingPacInterpreter.newBuilder(delegate, captureFile)
+                .sampleRate(0.1)
+                .build()) {
+            for (int ii = 0; ii < 10_000; ii++) {
+                interpreter.findProxyForUrl("https://a.example.com/" + ii, "a.example.com");
+            }
+        }
+        final int recorded = read(captureFile).size();
+        assertTrue(String.valueOf(recorded), recorded > 700 && recorded < 1300);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void sampleRateMustBePositive() {
+        RecordingPacInterpreter.newBuilder(delegate, captureFile).sampleRate(0);
+    }
+}
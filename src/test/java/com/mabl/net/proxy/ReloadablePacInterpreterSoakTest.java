@@ -0,0 +1,185 @@
+package com.mabl.net.proxy;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Drives many threads through a {@link ReloadablePacInterpreter} while the PAC served by a local server changes every
+ * few hundred milliseconds, and checks that no evaluation fails or observes a partially swapped interpreter.
+ * <p>
+ * Throughput, latency percentiles, heap usage and the number of open contexts are sampled every second and written to
+ * {@code soak-<graalVersion>.csv} and {@code soak-<graalVersion>.txt} in the report directory, so that runs can be
+ * compared across GraalVM upgrades. Run with {@code ./gradlew performanceTest}; the following system properties
+ * override the defaults: {@code soak.threads}, {@code soak.duration} (seconds), {@code soak.pacChangeMillis},
+ * {@code soak.reloadMillis}, {@code soak.reportDir} and {@code graalVersion}.
+ * </p>
+ */
+public class ReloadablePacInterpreterSoakTest extends PacInterpreterTest {
+    private static final Pattern VERSIONED_PROXY = Pattern.compile("v(\\d+)-(primary|backup)\\.example\\.com:8080");
+
+    @Test
+    public void soak() throws Exception {
+        final int threads = Integer.getInteger("soak.threads", 2 * Runtime.getRuntime().availableProcessors());
+        final Duration duration = Duration.ofSeconds(Long.getLong("soak.duration", 30));
+        final long pacChangeMillis = Long.getLong("soak.pacChangeMillis", 200);
+        final Duration reloadPeriod = Duration.ofMillis(Long.getLong("soak.reloadMillis", 100));
+        final File reportDir = new File(System.getProperty("soak.reportDir", "build/reports/soak"));
+        final String graalVersion = System.getProperty("graalVersion", "unknown");
+
+        final AtomicInteger servedVersion = new AtomicInteger();
+        final InetSocketAddress serverAddress = (InetSocketAddress) startPacServer(versionedPac(0)).getListenerInfo().get(0).getAddress();
+        final URL pacUrl = new URL(String.format("http://%s:%d/pac.js", serverAddress.getAddress().getHostAddress(), serverAddress.getPort()));
+        final int baselineContexts = ContextPool.liveContexts();
+
+        final LatencyHistogram interval = new LatencyHistogram();
+        final LatencyHistogram overall = new LatencyHistogram();
+        final LongAdder failures = new LongAdder();
+        final AtomicReference<String> firstFailure = new AtomicReference<>();
+        final AtomicInteger maxObservedVersion = new AtomicInteger();
+        final List<String> samples = new ArrayList<>();
+        samples.add("elapsed_s,evaluations_per_s,p50_us,p99_us,p999_us,heap_used_mb,live_contexts,pac_version");
+
+        final PacInterpreterOptions options = PacInterpreterOptions.newBuilder()
+                .contextPoolSize(threads)
+                .build();
+        try (final PacReloadScheduler scheduler = PacReloadScheduler.newBuilder()
+                .jitter(0)
+                .minimumInterval(Duration.ZERO)
+                .build();
+             final ReloadablePacInterpreter pacInterpreter = ReloadablePacInterpreter.forUrl(pacUrl, options)) {
+            pacInterpreter.start(reloadPeriod, scheduler);
+
+            final long deadline = System.nanoTime() + duration.toNanos();
+            final CountDownLatch done = new CountDownLatch(threads);
+            for (int ii = 0; ii < threads; ii++) {
+                final int threadId = ii;
+                final Thread worker = new Thread(() -> {
+                    try {
+                        int lastVersion = 0;
+                        long iteration = 0;
+                        while (System.nanoTime() < deadline) {
+                            final String host = String.format("host-%d-%d.example.com", threadId, iteration++ % 1000);
+                            final long start = System.nanoTime();
+                            try {
+                                final FindProxyResult result = pacInterpreter.findProxyForUrl("https://" + host + "/", host);
+                                final long latency = System.nanoTime() - start;
+                                interval.record(latency);
+                                overall.record(latency);
+                                final int version = checkConsistent(result);
+                                // Once a thread has seen a reloaded PAC it must never see an older one:
+                                if (version < lastVersion) {
+                                    throw new AssertionError(String.format("Saw PAC version %d after %d", version, lastVersion));
+                                }
+                                lastVersion = version;
+                                maxObservedVersion.accumulateAndGet(version, Math::max);
+                            } catch (Exception | AssertionError e) {
+                                failures.increment();
+                                firstFailure.compareAndSet(null, e.toString());
+                            }
+                        }
+                    } finally {
+                        done.countDown();
+                    }
+                }, "Soak Worker " + ii);
+                worker.setDaemon(true);
+                worker.start();
+            }
+
+            final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+            final long startNanos = System.nanoTime();
+            long nextChange = pacChangeMillis;
+            long nextSample = 1000;
+            while (!done.await(Math.min(nextChange, nextSample) - elapsedMillis(startNanos), TimeUnit.MILLISECONDS)) {
+                final long elapsed = elapsedMillis(startNanos);
+                if (elapsed >= nextChange) {
+                    updatePacServerContent(versionedPac(servedVersion.incrementAndGet()));
+                    nextChange += pacChangeMillis;
+                }
+                if (elapsed >= nextSample) {
+                    final long count = interval.count();
+                    samples.add(String.format("%.1f,%d,%.1f,%.1f,%.1f,%d,%d,%d", elapsed / 1000.0, count * 1000 / (elapsed - nextSample + 1000),
+                            interval.percentileNanos(50) / 1e3, interval.percentileNanos(99) / 1e3, interval.percentileNanos(99.9) / 1e3,
+                            memory.getHeapMemoryUsage().getUsed() >> 20, ContextPool.liveContexts() - baselineContexts,
+                            maxObservedVersion.get()));
+                    interval.reset();
+                    nextSample += 1000;
+                }
+            }
+        }
+
+        final String summary = String.format("graalVersion=%s threads=%d duration=%ds pacChanges=%d maxObservedVersion=%d failures=%d%n"
+                        + "throughput=%.0f/s latency %s%n", graalVersion, threads, duration.getSeconds(), servedVersion.get(),
+                maxObservedVersion.get(), failures.sum(), overall.count() / (double) duration.getSeconds(), overall.summary());
+        writeReport(reportDir, "soak-" + graalVersion, samples, summary);
+
+        assertNull(firstFailure.get());
+        assertEquals(0, failures.sum());
+        assertTrue("Expected reloads to be observed", maxObservedVersion.get() > 0);
+        // Every interpreter replaced by a reload, and the last one, must have been closed:
+        assertEquals(0, ContextPool.liveContexts() - baselineContexts);
+    }
+
+    /**
+     * Checks that both directives of a result come from the same version of the PAC.
+     *
+     * @return the version.
+     */
+    private static int checkConsistent(final FindProxyResult result) {
+        if (result.size() != 2) {
+            throw new AssertionError("Unexpected result: " + result);
+        }
+        final Matcher primary = VERSIONED_PROXY.matcher(result.first().proxyHostAndPort());
+        final Matcher backup = VERSIONED_PROXY.matcher(result.get(1).proxyHostAndPort());
+        if (!primary.matches() || !backup.matches() || !"primary".equals(primary.group(2)) || !"backup".equals(backup.group(2))
+                || !primary.group(1).equals(backup.group(1))) {
+            throw new AssertionError("Inconsistent result: " + result);
+        }
+        return Integer.parseInt(primary.group(1));
+    }
+
+    private static String versionedPac(final int version) {
+        return "var VERSION = " + version + ";\n"
+                + "function FindProxyForURL(url, host) {\n"
+                + "    if (dnsDomainIs(host, \".internal\")) return \"DIRECT\";\n"
+                + "    return \"PROXY v\" + VERSION + \"-primary.example.com:8080; PROXY v\" + VERSION + \"-backup.example.com:8080\";\n"
+                + "}\n";
+    }
+
+    private static long elapsedMillis(final long startNanos) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+
+    private static void writeReport(final File reportDir, final String name, final List<String> samples, final String summary) throws IOException {
+        if (!reportDir.isDirectory() && !reportDir.mkdirs()) {
+            throw new IOException("Failed to create " + reportDir);
+        }
+        Files.write(new File(reportDir, name + ".csv").toPath(), samples, StandardCharsets.UTF_8);
+        try (final PrintWriter writer = new PrintWriter(new File(reportDir, name + ".txt"), StandardCharsets.UTF_8.name())) {
+            writer.print(summary);
+        }
+        System.out.print(summary);
+    }
+}
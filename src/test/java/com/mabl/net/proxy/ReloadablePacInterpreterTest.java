@@ -7,8 +7,15 @@ import java.io.File;
 import java.net.InetSocketAddress;
 import java.net.URL;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicReference;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
 public class ReloadablePacInterpreterTest extends PacInterpreterTest {
     private ReloadablePacInterpreter pacInterpreter;
 
@@ -71,4 +78,107 @@ public class ReloadablePacInterpreterTest extends PacInterpreterTest {
         Thread.sleep(reloadPeriod.toMillis() * 2);
         assertPac2Correct(pacInterpreter);
     }
+
+    @Test
+    public void reloadClosesReplacedInterpreter() throws Exception {
+        final AtomicReference<String> script = new AtomicReference<>(PAC_1);
+        final List<SimplePacInterpreter> created = new ArrayList<>();
+
+        pacInterpreter = new ReloadablePacInterpreter(() -> {
+            try {
+                final SimplePacInterpreter interpreter = SimplePacInterpreter.forScript(script.get());
+                created.add(interpreter);
+                return interpreter;
+            } catch (PacInterpreterException e) {
+                throw new RuntimePacInterpreterException(e.getMessage(), e.getCause());
+            }
+        });
+        assertPac1Correct(pacInterpreter);
+
+        script.set(PAC_2);
+        pacInterpreter.reload();
+        assertPac2Correct(pacInterpreter);
+        assertEquals(2, created.size());
+        try {
+            created.get(0).findProxyForUrl("https://example.com", "example.com");
+            fail("Expected the replaced interpreter to be closed");
+        } catch (PacInterpreterException e) {
+            assertTrue(e.getMessage().contains("closed"));
+        }
+
+        pacInterpreter.close();
+        try {
+            pacInterpreter.findProxyForUrl("https://example.com", "example.com");
+            fail("Expected the closed interpreter to reject evaluations");
+        } catch (PacInterpreterException e) {
+            assertTrue(e.getMessage().contains("closed"));
+        }
+    }
+
+    @Test
+    public void reloadListeners() throws Exception {
+        final String pac = "function FindProxyForURL(url, host) {\n" +
+                "    if (dnsDomainIs(host, \".internal.example.com\")) return \"DIRECT\";\n" +
+                "    return \"PROXY %s:8080\";\n" +
+                "}\n";
+        final AtomicReference<String> script = new AtomicReference<>(String.format(pac, "proxy1.example.com"));
+        final List<PacReloadEvent> events = new ArrayList<>();
+        final List<String> previousResults = new ArrayList<>();
+
+        pacInterpreter = ReloadablePacInterpreter.forScript(script::get);
+        pacInterpreter.findProxyForUrl("https://not-recorded.example.com");
+        pacInterpreter.addReloadListener(event -> {
+            throw new IllegalStateException("Listener failures are logged");
+        });
+        pacInterpreter.addReloadListener(event -> {
+            throw new AssertionError("Listener errors are logged");
+        });
+        pacInterpreter.addReloadListener(event -> {
+            events.add(event);
+            try {
+                // The previous interpreter can be used until the listener returns:
+                previousResults.add(event.previous().findProxyForUrl("https://example.com").toString());
+            } catch (Exception e) {
+                previousResults.add(e.toString());
+            }
+        });
+        pacInterpreter.findProxyForUrl("https://a.internal.example.com/path");
+        pacInterpreter.findProxyForUrl("https://www.example.com/path", "www.example.com");
+        pacInterpreter.evaluate("https://www.example.org", "www.example.org");
+
+        script.set(String.format(pac, "proxy2.example.com"));
+        pacInterpreter.reload();
+        assertEquals(1, events.size());
+        assertEquals("PROXY proxy1.example.com:8080", previousResults.get(0));
+        final PacReloadEvent event = events.get(0);
+        assertTrue(event.isPacChanged());
+        assertEquals(3, event.hostsCompared());
+        assertEquals(2, event.changes().size());
+        for (final PacReloadEvent.Change change : event.changes()) {
+            assertTrue(change.host(), change.host().endsWith(".example.com") || change.host().endsWith(".example.org"));
+            assertEquals("PROXY proxy1.example.com:8080", change.previous().toString());
+            assertEquals("PROXY proxy2.example.com:8080", change.current().toString());
+        }
+        try {
+            event.previous().findProxyForUrl("https://example.com");
+            fail("Expected the replaced interpreter to be closed");
+        } catch (PacInterpreterException e) {
+            assertTrue(e.getMessage().contains("closed"));
+        }
+
+        // Reloading the same PAC changes nothing:
+        pacInterpreter.reload();
+        assertEquals(2, events.size());
+        assertEquals("PROXY proxy2.example.com:8080", previousResults.get(1));
+        assertFalse(events.get(1).isPacChanged());
+        assertEquals(0, events.get(1).changes().size());
+
+        // Results are not compared for a PAC that may depend on the URL:
+        script.set("function FindProxyForURL(url, host) { return url.startsWith(\"https:\") ? \"DIRECT\" : \"PROXY proxy2.example.com:8080\"; }");
+        pacInterpreter.reload();
+        assertEquals(3, events.size());
+        assertTrue(events.get(2).isPacChanged());
+        assertEquals(0, events.get(2).hostsCompared());
+        assertEquals(0, events.get(2).changes().size());
+    }
 }
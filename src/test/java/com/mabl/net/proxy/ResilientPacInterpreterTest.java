@@ -0,0 +1,106 @@
+package com.mabl.net.proxy;
+
+import org.junit.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ResilientPacInterpreterTest {
+    private final StubPacInterpreter delegate = new StubPacInterpreter();
+
+    @Test
+    public void servesLastKnownGoodResultOnFailure() throws Exception {
+        final ResilientPacInterpreter interpreter = ResilientPacInterpreter.newBuilder(delegate).build();
+        final PacEvaluation fresh = interpreter.evaluate("https://a.example.com", "a.example.com");
+        assertFalse(fresh.isStale());
+
+        delegate.failing(true);
+        final PacEvaluation stale = interpreter.evaluate("https://a.example.com/other", "a.example.com");
+        assertTrue(stale.isStale());
+        assertEquals(fresh.result(), stale.result());
+        assertEquals(1, interpreter.failures());
+        assertEquals(1, interpreter.staleResults());
+
+        try {
+            interpreter.evaluate("https://b.example.com", "b.example.com");
+            fail("Expected the failure to propagate for a host without a previous result");
+        } catch (PacInterpreterException e) {
+            assertTrue(e.getMessage().contains("dnsResolve"));
+        }
+    }
+
+    @Test
+    public void staleResultsExpire() throws Exception {
+        final CachingPacInterpreterTest.MutableClock clock = new CachingPacInterpreterTest.MutableClock(Instant.parse("2024-03-14T12:00:00Z"));
+        final ResilientPacInterpreter interpreter = ResilientPacInterpreter.newBuilder(delegate)
+                .maximumStaleness(Duration.ofMinutes(5))
+                .clock(clock)
+                .build();
+        interpreter.findProxyForUrl("https://a.example.com", "a.example.com");
+
+        delegate.failing(true);
+        clock.set(Instant.parse("2024-03-14T12:04:59Z"));
+        assertTrue(interpreter.evaluate("https://a.example.com", "a.example.com").isStale());
+
+        clock.set(Instant.parse("2024-03-14T12:05:00Z"));
+        try {
+            interpreter.evaluate("https://a.example.com", "a.example.com");
+            fail("Expected the failure to propagate once the result is too old");
+        } catch (PacInterpreterException e) {
+            assertEquals(0, interpreter.shortCircuits());
+        }
+    }
+
+    @Test
+    public void circuitBreakerOpensAndProbes() throws Exception {
+        final CachingPacInterpreterTest.MutableClock clock = new CachingPacInterpreterTest.MutableClock(Instant.parse("2024-03-14T12:00:00Z"));
+        final ResilientPacInterpreter interpreter = ResilientPacInterpreter.newBuilder(delegate)
+                .failureThreshold(3)
+                .openDuration(Duration.ofSeconds(30))
+                .clock(clock)
+                .build();
+        interpreter.findProxyForUrl("https://a.example.com", "a.example.com");
+
+        delegate.failing(true);
+        for (int ii = 0; ii < 3; ii++) {
+            assertTrue(interpreter.evaluate("https://a.example.com", "a.example.com").isStale());
+        }
+        assertTrue(interpreter.isCircuitOpen());
+        assertEquals(4, delegate.evaluations());
+
+        // While open, the delegate is not called:
+        assertTrue(interpreter.evaluate("https://a.example.com", "a.example.com").isStale());
+        assertEquals(4, delegate.evaluations());
+        assertEquals(1, interpreter.shortCircuits());
+
+        // A failed probe reopens the circuit:
+        clock.set(Instant.parse("2024-03-14T12:00:30Z"));
+        assertTrue(interpreter.evaluate("https://a.example.com", "a.example.com").isStale());
+        assertEquals(5, delegate.evaluations());
+        assertTrue(interpreter.isCircuitOpen());
+
+        // A successful probe closes it:
+        delegate.failing(false);
+        clock.set(Instant.parse("2024-03-14T12:01:00Z"));
+        assertFalse(interpreter.evaluate("https://a.example.com", "a.example.com").isStale());
+        assertFalse(interpreter.isCircuitOpen());
+        assertEquals(6, delegate.evaluations());
+    }
+
+    @Test
+    public void staleResultsAreNotCached() throws Exception {
+        final ResilientPacInterpreter resilient = ResilientPacInterpreter.newBuilder(delegate).build();
+        final CachingPacInterpreter interpreter = CachingPacInterpreter.newBuilder(resilient).build();
+        interpreter.findProxyForUrl("https://a.example.com", "a.example.com");
+        interpreter.invalidateAll();
+
+        delegate.failing(true);
+        assertTrue(interpreter.evaluate("https://a.example.com", "a.example.com").isStale());
+        assertEquals(0, interpreter.size());
+    }
+}
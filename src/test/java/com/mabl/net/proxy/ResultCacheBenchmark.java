@@ -0,0 +1,147 @@
+package com.mabl.net.proxy;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+import org.junit.Test;
+
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongFunction;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares the heap retained by, and the garbage collection time spent while filling and churning, the on-heap and
+ * off-heap result caches with millions of hosts. Run with {@code ./gradlew performanceTest}; the number of entries can be
+ * set with {@code -Dbenchmark.cacheEntries=...} (the JVM needs a heap of about 200 bytes per entry for the on-heap cache).
+ */
+public class ResultCacheBenchmark {
+    private static final int ENTRIES = Integer.getInteger("benchmark.cacheEntries", 2_000_000);
+    private static final int CHURN_ROUNDS = 3;
+
+    @Test
+    public void heapAndGcPauses() throws Exception {
+        final FindProxyResult[] results = {
+                FindProxyResult.parse("DIRECT"),
+                FindProxyResult.parse("PROXY proxy1.example.com:8080; DIRECT"),
+                FindProxyResult.parse("PROXY proxy2.example.com:8080; PROXY proxy3.example.com:8080"),
+        };
+        final Result onHeap = measure("on-heap", OnHeapResultCache::new, results);
+        final Result offHeap = measure("off-heap", OffHeapResultCache::new, results);
+        System.out.println(onHeap);
+        System.out.println(offHeap);
+        assertTrue("The off-heap cache should retain less heap than the on-heap cache",
+                offHeap.retainedHeapBytes < onHeap.retainedHeapBytes);
+    }
+
+    private static Result measure(final String name, final LongFunction<ResultCache> factory, final FindProxyResult[] results) {
+        final long heapBefore = usedHeapAfterGc();
+        final GcRecorder gc = new GcRecorder();
+        final long start = System.nanoTime();
+        final ResultCache cache = factory.apply(ENTRIES);
+        long hits = 0;
+        // Fill the cache, then keep replacing a third of it while reading the rest:
+        for (int round = 0; round <= CHURN_ROUNDS; round++) {
+            final int offset = round * (ENTRIES / 3);
+            for (int ii = 0; ii < ENTRIES; ii++) {
+                final String host = "host-" + (offset + ii) + ".example.com";
+                if (cache.get(host, 0) != null) {
+                    hits++;
+                } else {
+                    cache.put(host, results[ii % results.length], Long.MAX_VALUE);
+                }
+            }
+        }
+        final long elapsed = System.nanoTime() - start;
+        gc.close();
+        final long retained = usedHeapAfterGc() - heapBefore;
+        final Result result = new Result(name, cache.size(), hits, retained, gc.count.get(), gc.totalMillis.get(),
+                gc.maxMillis.get(), elapsed / 1_000_000);
+        cache.clear();
+        return result;
+    }
+
+    private static long usedHeapAfterGc() {
+        for (int ii = 0; ii < 3; ii++) {
+            System.gc();
+        }
+        final Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * Records the collections that happen while it is open, using HotSpot's garbage collection notifications.
+     */
+    private static final class GcRecorder implements NotificationListener {
+        private final List<NotificationEmitter> emitters = new ArrayList<>();
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong totalMillis = new AtomicLong();
+        private final AtomicLong maxMillis = new AtomicLong();
+
+        private GcRecorder() {
+            for (final GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+                if (collector instanceof NotificationEmitter) {
+                    ((NotificationEmitter) collector).addNotificationListener(this, null, null);
+                    emitters.add((NotificationEmitter) collector);
+                }
+            }
+        }
+
+        @Override
+        public void handleNotification(final Notification notification, final Object handback) {
+            if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) {
+                return;
+            }
+            final GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+            final long duration = info.getGcInfo().getDuration();
+            count.incrementAndGet();
+            totalMillis.addAndGet(duration);
+            maxMillis.accumulateAndGet(duration, Math::max);
+        }
+
+        private void close() {
+            for (final NotificationEmitter emitter : emitters) {
+                try {
+                    emitter.removeNotificationListener(this);
+                } catch (Exception e) {
+                    // Ignored: the listener was registered above
+                }
+            }
+        }
+    }
+
+    private static final class Result {
+        private final String name;
+        private final long size;
+        private final long hits;
+        private final long retainedHeapBytes;
+        private final long gcCount;
+        private final long gcMillis;
+        private final long maxGcMillis;
+        private final long elapsedMillis;
+
+        private Result(final String name, final long size, final long hits, final long retainedHeapBytes,
+                       final long gcCount, final long gcMillis, final long maxGcMillis, final long elapsedMillis) {
+            this.name = name;
+            this.size = size;
+            this.hits = hits;
+            this.retainedHeapBytes = retainedHeapBytes;
+            this.gcCount = gcCount;
+            this.gcMillis = gcMillis;
+            this.maxGcMillis = maxGcMillis;
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-9s %,d entries, %,d hits: retained heap %,d KiB, %d collections taking %d ms (max %d ms), elapsed %d ms",
+                    name, size, hits, retainedHeapBytes / 1024, gcCount, gcMillis, maxGcMillis, elapsedMillis);
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.mabl.net.proxy;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+public class ResultCacheSnapshotTest {
+    private static final String PAC = "function FindProxyForURL(url, host) { return \"DIRECT\"; }";
+    private static final long NOW = 1_700_000_000_000L;
+    private FindProxyResult direct;
+    private FindProxyResult proxy;
+    private Path snapshotFile;
+
+    @Before
+    public void setUp() throws Exception {
+        direct = FindProxyResult.parse("DIRECT");
+        proxy = FindProxyResult.parse("PROXY proxy.example.com:8080; DIRECT");
+        final File file = File.createTempFile("pac", ".snapshot");
+        file.deleteOnExit();
+        snapshotFile = file.toPath();
+    }
+
+    private static void fill(final ResultCache cache, final FindProxyResult first, final FindProxyResult second) {
+        cache.put("example.com", first, Long.MAX_VALUE);
+        cache.put("intranet", second, NOW + 60_000);
+        cache.put("expired.example.com", second, NOW);
+    }
+
+    @Test
+    public void onHeapRoundTrip() throws Exception {
+        final ResultCache saved = new OnHeapResultCache(100);
+        fill(saved, direct, proxy);
+        assertEquals(2, ResultCacheSnapshot.write(snapshotFile, saved, PAC, true, NOW));
+        assertFalse(Files.exists(snapshotFile.resolveSibling(snapshotFile.getFileName() + ".tmp")));
+
+        for (final ResultCache restored : Arrays.asList(new OnHeapResultCache(100), new OffHeapResultCache(100))) {
+            assertEquals(2, ResultCacheSnapshot.read(snapshotFile, restored, PAC, true, NOW));
+            assertEquals(2, restored.size());
+            assertEquals(direct, restored.get("example.com", NOW).result());
+            assertEquals(Long.MAX_VALUE, restored.get("example.com", NOW).expiresAtMillis());
+            assertEquals(proxy, restored.get("intranet", NOW).result());
+            assertEquals(NOW + 60_000, restored.get("intranet", NOW).expiresAtMillis());
+            assertNull(restored.get("expired.example.com", NOW));
+        }
+    }
+
+    @Test
+    public void offHeapRoundTrip() throws Exception {
+        final ResultCache saved = new OffHeapResultCache(100);
+        fill(saved, proxy, direct);
+        assertEquals(2, ResultCacheSnapshot.write(snapshotFile, saved, PAC, false, NOW));
+
+        final ResultCache restored = new OffHeapResultCache(100);
+        assertEquals(2, ResultCacheSnapshot.read(snapshotFile, restored, PAC, false, NOW));
+        assertEquals(proxy, restored.get("example.com", NOW).result());
+        assertEquals(direct, restored.get("intranet", NOW).result());
+        // Entries which have since expired are not restored:
+        assertEquals(1, ResultCacheSnapshot.read(snapshotFile, new OffHeapResultCache(100), PAC, false, NOW + 60_000));
+        // The on-heap cache needs the keys, which were not saved:
+        assertEquals(0, ResultCacheSnapshot.read(snapshotFile, new OnHeapResultCache(100), PAC, false, NOW));
+    }
+
+    @Test
+    public void recencyIsPreserved() throws Exception {
+        final OnHeapResultCache saved = new OnHeapResultCache(1_000);
+        for (int ii = 0; ii < 100; ii++) {
+            saved.put("host-" + ii, direct, Long.MAX_VALUE);
+        }
+        for (int ii = 0; ii < 100; ii += 3) {
+            saved.get("host-" + ii, NOW);
+        }
+        ResultCacheSnapshot.write(snapshotFile, saved, PAC, true, NOW);
+        final OnHeapResultCache restored = new OnHeapResultCache(1_000);
+        ResultCacheSnapshot.read(snapshotFile, restored, PAC, true, NOW);
+        assertEquals(keys(saved), keys(restored));
+    }
+
+    private static List<String> keys(final ResultCache cache) throws IOException {
+        final List<String> keys = new ArrayList<>();
+        cache.forEach(NOW, (key, keyHash, entry) -> {
+            assertEquals(PacHash.hostHash(key), keyHash);
+            keys.add(key);
+        });
+        return keys;
+    }
+
+    @Test
+    public void differentPacOrKeying() throws Exception {
+        final ResultCache saved = new OnHeapResultCache(100);
+        fill(saved, direct, proxy);
+        ResultCacheSnapshot.write(snapshotFile, saved, PAC, true, NOW);
+
+        final ResultCache restored = new OnHeapResultCache(100);
+        assertEquals(0, ResultCacheSnapshot.read(snapshotFile, restored, PAC + "\n", true, NOW));
+        assertEquals(0, ResultCacheSnapshot.read(snapshotFile, restored, PAC, false, NOW));
+        assertEquals(0, restored.size());
+    }
+
+    @Test
+    public void missingSnapshot() throws Exception {
+        Files.delete(snapshotFile);
+        assertEquals(0, ResultCacheSnapshot.read(snapshotFile, new OnHeapResultCache(100), PAC, true, NOW));
+    }
+
+    @Test(expected = IOException.class)
+    public void truncatedSnapshot() throws Exception {
+        final ResultCache saved = new OnHeapResultCache(100);
+        fill(saved, direct, proxy);
+        ResultCacheSnapshot.write(snapshotFile, saved, PAC, true, NOW);
+        final byte[] bytes = Files.readAllBytes(snapshotFile);
+        Files.write(snapshotFile, Arrays.copyOf(bytes, bytes.length - 1));
+        ResultCacheSnapshot.read(snapshotFile, new OnHeapResultCache(100), PAC, true, NOW);
+    }
+}
@@ -2,13 +2,28 @@ package com.mabl.net.proxy;
 
 import org.junit.Test;
 
+import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeFalse;
 
 public class SimplePacInterpreterTest extends PacInterpreterTest {
+    // Generous upper bound on the heap accounted to a context once the engine has been warmed up:
+    private static final long MAX_CONTEXT_BYTES = 32 * 1024 * 1024;
 
     @Test
     public void forScript() throws Exception {
@@ -55,4 +70,234 @@ public class SimplePacInterpreterTest extends PacInterpreterTest {
         assertNull(first.proxyHostAndPort());
     }
 
+    @Test
+    public void evaluateAsync() throws Exception {
+        final String pacFileContent = "function FindProxyForURL(url, host) { if (host == 'fail') { throw 'failed'; } return \"PROXY \" + host + \":8080\"; }";
+        try (final SimplePacInterpreter interpreter = SimplePacInterpreter.forScript(pacFileContent)) {
+            final List<CompletableFuture<PacEvaluation>> futures = new ArrayList<>();
+            for (int ii = 0; ii < 100; ii++) {
+                futures.add(interpreter.evaluateAsync("https://host-" + ii + ".example.com/", "host-" + ii + ".example.com"));
+            }
+            for (int ii = 0; ii < futures.size(); ii++) {
+                assertEquals("PROXY host-" + ii + ".example.com:8080", futures.get(ii).get().result().toString());
+            }
+            try {
+                interpreter.evaluateAsync("https://fail/", "fail").get();
+                fail("Expected ExecutionException");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof PacInterpreterException);
+            }
+        }
+    }
+
+    @Test
+    public void concurrentEvaluation() throws Exception {
+        final String pacFileContent = "function FindProxyForURL(url, host) { return \"PROXY \" + host + \":8080\"; }";
+        final PacInterpreterOptions options = PacInterpreterOptions.newBuilder()
+                .contextPoolSize(4)
+                .build();
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try (final SimplePacInterpreter interpreter = SimplePacInterpreter.forScript(pacFileContent, options)) {
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int thread = 0; thread < 8; thread++) {
+                final int threadId = thread;
+                futures.add(executor.submit(() -> {
+                    for (int ii = 0; ii < 50; ii++) {
+                        final String host = String.format("host-%d-%d.example.com", threadId, ii);
+                        assertEquals("PROXY " + host + ":8080", interpreter.findProxyForUrl("https://" + host + "/").toString());
+                    }
+                    return null;
+                }));
+            }
+            for (final Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void runtimeCompilationStatus() throws Exception {
+        try (final SimplePacInterpreter interpreter = SimplePacInterpreter.forScript(PAC_1)) {
+            // Set by the "testWithGraalCompiler" task, which puts the Graal compiler on the module path:
+            final String expected = System.getProperty("pac.expectRuntimeCompilation");
+            if (expected != null) {
+                assertEquals(Boolean.parseBoolean(expected), interpreter.isRuntimeCompilationEnabled());
+            }
+        }
+    }
+
+    @Test
+    public void failWhenInterpreterOnly() throws Exception {
+        assumeFalse(PacEngines.isRuntimeCompilationAvailable());
+        final PacInterpreterOptions options = PacInterpreterOptions.newBuilder()
+                .interpreterOnlyPolicy(PacInterpreterOptions.InterpreterOnlyPolicy.FAIL)
+                .build();
+        try {
+            SimplePacInterpreter.forScript(PAC_1, options);
+            fail("Interpreter creation should have failed");
+        } catch (PacInterpreterException e) {
+            assertTrue(e.getMessage().contains("runtime compilation"));
+        }
+    }
+
+    @Test
+    public void dedicatedEngine() throws Exception {
+        final PacInterpreterOptions options = PacInterpreterOptions.newBuilder()
+                .sharedEngine(false)
+                .firstTierCompilationThreshold(10)
+                .lastTierCompilationThreshold(100)
+                .build();
+        try (final SimplePacInterpreter interpreter = SimplePacInterpreter.forScript(PAC_1, options)) {
+            assertFalse(interpreter.getOptions().isSharedEngine());
+            assertPac1Correct(interpreter);
+        }
+    }
+
+    @Test(expected = PacInterpreterException.class)
+    public void closed() throws Exception {
+        final SimplePacInterpreter interpreter = SimplePacInterpreter.forScript(PAC_3);
+        interpreter.close();
+        interpreter.findProxyForUrl("https://example.com");
+    }
+
+    @Test
+    public void clientAddress() throws Exception {
+        final String pac = "function FindProxyForURL(url, host) {\n"
+                + "  if (isInNet(myIpAddress(), \"10.1.0.0\", \"255.255.0.0\")) return \"PROXY office1.example.com:8080\";\n"
+                + "  if (isInNet(myIpAddress(), \"10.2.0.0\", \"255.255.0.0\")) return \"PROXY office2.example.com:8080\";\n"
+                + "  return \"DIRECT\";\n"
+                + "}";
+        final InetAddress localAddress = InetAddress.getByName("10.1.0.1");
+        final PacInterpreterOptions options = PacInterpreterOptions.newBuilder()
+                .localAddress(() -> localAddress)
+                .build();
+        try (final SimplePacInterpreter interpreter = SimplePacInterpreter.forScript(pac, options)) {
+            assertTrue(interpreter.supportsClientAddress());
+            assertEquals("office1.example.com:8080", interpreter.findProxyForUrl("https://example.com").first().proxyHostAndPort());
+            final FindProxyResult result = interpreter.findProxyForUrl("https://example.com", "example.com",
+                    InetAddress.getByName("10.2.3.4"));
+            assertEquals("office2.example.com:8080", result.first().proxyHostAndPort());
+            // The client address only applies to the evaluation it was given for:
+            assertEquals("office1.example.com:8080", interpreter.findProxyForUrl("https://example.com").first().proxyHostAndPort());
+        }
+    }
+
+    @Test
+    public void localAddress() throws Exception {
+        final InetAddress localAddress = InetAddress.getByName("1.1.2.1");
+        final PacInterpreterOptions options = PacInterpreterOptions.newBuilder()
+                .localAddress(() -> localAddress)
+                .build();
+        try (final SimplePacInterpreter interpreter = SimplePacInterpreter.forScript(PAC_3, options)) {
+            assertEquals("wcg1.example.com:8080", interpreter.findProxyForUrl("https://example.com").first().proxyHostAndPort());
+            final FindProxyResult result = interpreter.findProxyForUrl("https://example.com", "example.com",
+                    InetAddress.getByName("9.9.9.9"));
+            assertEquals(ConnectionType.DIRECT, result.first().connectionType());
+        }
+    }
+
+    @Test
+    public void footprint() throws Exception {
+        try (final SimplePacInterpreter warm = SimplePacInterpreter.forScript(PAC_1)) {
+            final PacFootprint engineFootprint = warm.getEngineFootprint();
+            try (final SimplePacInterpreter interpreter = SimplePacInterpreter.forScript(new String(PAC_1.toCharArray()))) {
+                // Identical PAC text is only held once:
+                assertSame(warm.getPac(), interpreter.getPac());
+
+                final PacFootprint footprint = interpreter.getFootprint();
+                assertEquals(1, footprint.interpreterCount());
+                assertEquals(1, footprint.contextCount());
+                assertTrue(footprint.toString(), footprint.estimatedBytes() > 2L * PAC_1.length());
+                assertTrue(footprint.toString(), footprint.estimatedBytes() < MAX_CONTEXT_BYTES);
+
+                final PacFootprint withInterpreter = interpreter.getEngineFootprint();
+                assertEquals(engineFootprint.interpreterCount() + 1, withInterpreter.interpreterCount());
+                assertEquals(engineFootprint.contextCount() + 1, withInterpreter.contextCount());
+            }
+            assertEquals(engineFootprint.interpreterCount(), warm.getEngineFootprint().interpreterCount());
+        }
+    }
+
+    @Test
+    public void dedicatedEngineFootprint() throws Exception {
+        final PacInterpreterOptions options = PacInterpreterOptions.newBuilder()
+                .sharedEngine(false)
+                .contextPoolSize(2)
+                .build();
+        final SimplePacInterpreter interpreter = SimplePacInterpreter.forScript(PAC_2, options);
+        assertEquals(interpreter.getFootprint(), interpreter.getEngineFootprint());
+        interpreter.close();
+        assertEquals(0, interpreter.getFootprint().contextCount());
+        assertEquals(2L * PAC_2.length(), interpreter.getFootprint().estimatedBytes());
+    }
+
+    @Test
+    public void profile() throws Exception {
+        final String pac = "function isInternal(host) {\n" +
+                "    return dnsDomainIs(host, \".example.com\");\n" +
+                "}\n" +
+                "function FindProxyForURL(url, host) {\n" +
+                "    if (isPlainHostName(host) || isInternal(host)) return \"DIRECT\";\n" +
+                "    if (isInNet(host, \"127.0.0.0\", \"255.0.0.0\")) return \"DIRECT\";\n" +
+                "    return \"PROXY proxy.example.com:8080\";\n" +
+                "}\n";
+        final PacInterpreterOptions options = PacInterpreterOptions.newBuilder()
+                .profiling(true)
+                .build();
+        try (final SimplePacInterpreter interpreter = SimplePacInterpreter.forScript(pac, options)) {
+            assertEquals(ConnectionType.DIRECT, interpreter.findProxyForUrl("http://localhost/", "localhost").first().connectionType());
+            assertEquals(ConnectionType.PROXY, interpreter.findProxyForUrl("http://mabl.com/", "mabl.com").first().connectionType());
+
+            final PacProfile profile = interpreter.getProfile();
+            assertEquals(2, calls(profile, "FindProxyForURL", 0));
+            assertEquals(1, calls(profile, "isInternal", 5));
+            assertEquals(1, calls(profile, "dnsDomainIs", 2));
+            assertEquals(1, calls(profile, "isInNet", 6));
+            // Helpers called by other helpers are attributed to the line of the PAC that caused them:
+            assertEquals(1, calls(profile, "dnsResolve", 6));
+            assertTrue(profile.toString(), profile.toString().contains("dnsResolve"));
+
+            final StringBuilder csv = new StringBuilder();
+            profile.writeCsv(csv);
+            assertEquals(profile.entries().size() + 1, csv.toString().split("\n").length);
+
+            assertEquals(profile.entries(), interpreter.resetProfile().entries());
+            assertTrue(interpreter.getProfile().entries().isEmpty());
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void profileRequiresProfiling() throws Exception {
+        try (final SimplePacInterpreter interpreter = SimplePacInterpreter.forScript(PAC_1)) {
+            interpreter.getProfile();
+        }
+    }
+
+    @Test
+    public void lintPolicy() throws Exception {
+        final String pac = "function FindProxyForURL(url, host) {\n" +
+                "    if (isResolvable(host) && dnsDomainIs(host, \".example.com\")) return \"DIRECT\";\n" +
+                "    return \"PROXY proxy.example.com:8080\";\n" +
+                "}\n";
+        final PacInterpreterOptions options = PacInterpreterOptions.newBuilder()
+                .lintPolicy(PacInterpreterOptions.LintPolicy.FAIL)
+                .build();
+        try {
+            SimplePacInterpreter.forScript(pac, options);
+            fail("Expected PacInterpreterException");
+        } catch (PacInterpreterException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("dns-before-cheap-rules"));
+        }
+        // The default policy only logs:
+        SimplePacInterpreter.forScript(pac).close();
+    }
+
+    private static long calls(final PacProfile profile, final String function, final int line) {
+        return profile.entries().stream()
+                .filter(entry -> entry.function().equals(function) && entry.line() == line)
+                .mapToLong(PacProfile.Entry::calls)
+                .sum();
+    }
 }
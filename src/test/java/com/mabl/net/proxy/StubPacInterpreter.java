@@ -0,0 +1,95 @@
+package com.mabl.net.proxy;
+
+import java.net.MalformedURLException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A {@link PacInterpreter} for testing decorators without GraalVM. It answers as if it were running {@link #PAC}, i.e.
+ * "PROXY &lt;host&gt;-proxy.example.com:8080" for every host, except that evaluations fail (as if dnsResolve() had
+ * failed) for hosts starting with "unresolvable", or for all hosts while {@link #failing(boolean) failing}.
+ * Like a custom interpreter, it does not support client addresses.
+ */
+class StubPacInterpreter implements PacInterpreter {
+    static final String PAC = "function FindProxyForURL(url, host) { return \"PROXY \" + host + \"-proxy.example.com:8080\"; }";
+    private final AtomicInteger evaluations = new AtomicInteger();
+    private final Set<String> directHosts = ConcurrentHashMap.newKeySet();
+    private volatile String pac = PAC;
+    private volatile boolean failing;
+    private volatile CountDownLatch release;
+
+    /**
+     * Reports a different PAC, without changing the results.
+     *
+     * @param pac the PAC to report.
+     * @return this interpreter.
+     */
+    StubPacInterpreter pac(final String pac) {
+        this.pac = pac;
+        return this;
+    }
+
+    /**
+     * Answers DIRECT for the given host instead.
+     *
+     * @param host the host.
+     * @return this interpreter.
+     */
+    StubPacInterpreter direct(final String host) {
+        directHosts.add(host);
+        return this;
+    }
+
+    /**
+     * Blocks each evaluation until the given latch is released, e.g. as if waiting on a slow DNS lookup.
+     *
+     * @param release the latch.
+     * @return this interpreter.
+     */
+    StubPacInterpreter blockUntil(final CountDownLatch release) {
+        this.release = release;
+        return this;
+    }
+
+    void failing(final boolean failing) {
+        this.failing = failing;
+    }
+
+    /**
+     * Gets the number of evaluations started, including those that failed.
+     *
+     * @return the evaluation count.
+     */
+    int evaluations() {
+        return evaluations.get();
+    }
+
+    @Override
+    public String getPac() {
+        return pac;
+    }
+
+    @Override
+    public FindProxyResult findProxyForUrl(final String url) throws MalformedURLException, PacInterpreterException {
+        return findProxyForUrl(url, PacUrls.hostOf(url));
+    }
+
+    @Override
+    public FindProxyResult findProxyForUrl(final String url, final String host) throws PacInterpreterException {
+        evaluations.incrementAndGet();
+        final CountDownLatch release = this.release;
+        if (release != null) {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new PacInterpreterException("Interrupted", e);
+            }
+        }
+        if (failing || host.startsWith("unresolvable")) {
+            throw new PacInterpreterException("dnsResolve failed for " + host);
+        }
+        return FindProxyResult.parse(directHosts.contains(host) ? "DIRECT" : "PROXY " + host + "-proxy.example.com:8080");
+    }
+}
@@ -0,0 +1,88 @@
+package com.mabl.net.proxy;
+
+import org.junit.Test;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TimePredicateTest {
+    private static final Instant NOW = Instant.parse("2024-03-14T10:30:15.250Z");
+    private static final ZoneId NEW_YORK = ZoneId.of("America/New_York");
+
+    private static TimePredicate predicate(final TimePredicate.Function function, final String... arguments) {
+        return new TimePredicate(function, Arrays.asList(arguments));
+    }
+
+    @Test
+    public void timeRangeHours() {
+        final TimePredicate predicate = predicate(TimePredicate.Function.TIME_RANGE, "9", "17");
+        assertFalse(predicate.isGmt());
+        assertEquals(Instant.parse("2024-03-14T11:00:00Z"), predicate.nextPossibleChange(NOW, ZoneOffset.UTC));
+    }
+
+    @Test
+    public void timeRangeMinutes() {
+        final TimePredicate predicate = predicate(TimePredicate.Function.TIME_RANGE, "9", "30", "17", "45");
+        assertEquals(Instant.parse("2024-03-14T10:31:00Z"), predicate.nextPossibleChange(NOW, ZoneOffset.UTC));
+    }
+
+    @Test
+    public void timeRangeSeconds() {
+        final TimePredicate predicate = predicate(TimePredicate.Function.TIME_RANGE, "9", "30", "0", "17", "45", "59", "GMT");
+        assertTrue(predicate.isGmt());
+        assertEquals(Instant.parse("2024-03-14T10:30:16Z"), predicate.nextPossibleChange(NOW, NEW_YORK));
+    }
+
+    @Test
+    public void weekdayRangeLocal() {
+        final TimePredicate predicate = predicate(TimePredicate.Function.WEEKDAY_RANGE, "MON", "FRI");
+        // Midnight in New York (EDT, UTC-4) on the following day:
+        assertEquals(Instant.parse("2024-03-15T04:00:00Z"), predicate.nextPossibleChange(NOW, NEW_YORK));
+    }
+
+    @Test
+    public void weekdayRangeGmt() {
+        final TimePredicate predicate = predicate(TimePredicate.Function.WEEKDAY_RANGE, "SAT", "GMT");
+        assertEquals(Instant.parse("2024-03-15T00:00:00Z"), predicate.nextPossibleChange(NOW, NEW_YORK));
+    }
+
+    @Test
+    public void dateRangeDays() {
+        final TimePredicate predicate = predicate(TimePredicate.Function.DATE_RANGE, "1", "JUN", "15", "AUG");
+        assertEquals(Instant.parse("2024-03-15T00:00:00Z"), predicate.nextPossibleChange(NOW, ZoneOffset.UTC));
+    }
+
+    @Test
+    public void dateRangeMonths() {
+        final TimePredicate predicate = predicate(TimePredicate.Function.DATE_RANGE, "JAN", "MAR");
+        assertEquals(Instant.parse("2024-04-01T00:00:00Z"), predicate.nextPossibleChange(NOW, ZoneOffset.UTC));
+    }
+
+    @Test
+    public void dateRangeYears() {
+        final TimePredicate predicate = predicate(TimePredicate.Function.DATE_RANGE, "1995", "2025");
+        assertEquals(Instant.parse("2025-01-01T00:00:00Z"), predicate.nextPossibleChange(NOW, ZoneOffset.UTC));
+    }
+
+    @Test
+    public void evaluationUsesEarliestChange() throws Exception {
+        final PacEvaluation evaluation = PacEvaluation.of(FindProxyResult.parse("DIRECT"), Arrays.asList(
+                predicate(TimePredicate.Function.WEEKDAY_RANGE, "MON", "FRI"),
+                predicate(TimePredicate.Function.TIME_RANGE, "9", "17")), NOW, ZoneOffset.UTC);
+        assertTrue(evaluation.isTimeDependent());
+        assertEquals(Instant.parse("2024-03-14T11:00:00Z"), evaluation.validUntil().get());
+    }
+
+    @Test
+    public void evaluationWithoutPredicates() throws Exception {
+        final PacEvaluation evaluation = PacEvaluation.of(FindProxyResult.parse("DIRECT"), Arrays.asList(), NOW, ZoneOffset.UTC);
+        assertFalse(evaluation.isTimeDependent());
+        assertFalse(evaluation.validUntil().isPresent());
+    }
+}
@@ -0,0 +1,83 @@
+package com.mabl.net.proxy;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TrafficRingBufferTest {
+
+    @Test
+    public void dropsWhenFull() {
+        final TrafficRingBuffer<Integer> buffer = new TrafficRingBuffer<>(3);
+        assertEquals(4, buffer.capacity());
+        assertNull(buffer.poll());
+        for (int ii = 0; ii < 4; ii++) {
+            assertTrue(buffer.offer(ii));
+        }
+        assertFalse(buffer.offer(4));
+        assertEquals(4, buffer.size());
+        assertEquals(0, (int) buffer.poll());
+        assertTrue(buffer.offer(5));
+        for (final int expected : new int[]{1, 2, 3, 5}) {
+            assertEquals(expected, (int) buffer.poll());
+        }
+        assertNull(buffer.poll());
+        assertEquals(0, buffer.size());
+    }
+
+    @Test
+    public void concurrentProducers() throws Exception {
+        final TrafficRingBuffer<Integer> buffer = new TrafficRingBuffer<>(64);
+        final int producers = 4;
+        final int itemsPerProducer = 100_000;
+        final AtomicInteger dropped = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(producers);
+        final List<Thread> threads = new ArrayList<>();
+        for (int producer = 0; producer < producers; producer++) {
+            final int producerId = producer;
+            threads.add(new Thread(() -> {
+                for (int ii = 0; ii < itemsPerProducer; ii++) {
+                    if (!buffer.offer(producerId * itemsPerProducer + ii)) {
+                        dropped.incrementAndGet();
+                    }
+                }
+                done.countDown();
+            }));
+        }
+        threads.forEach(Thread::start);
+
+        // Each producer's items must arrive in order, exactly once:
+        final int[] last = new int[producers];
+        Arrays.fill(last, -1);
+        int received = 0;
+        while (true) {
+            final Integer item = buffer.poll();
+            if (item == null) {
+                if (done.getCount() == 0 && buffer.size() == 0) {
+                    break;
+                }
+                Thread.yield();
+                continue;
+            }
+            final int producer = item / itemsPerProducer;
+            assertTrue(item % itemsPerProducer > last[producer]);
+            last[producer] = item % itemsPerProducer;
+            received++;
+        }
+        assertEquals(producers * itemsPerProducer, received + dropped.get());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void capacityMustBePositive() {
+        new TrafficRingBuffer<String>(0);
+    }
+}